@@ -55,11 +55,11 @@ public class GraphExporter {
             }
         }
         AbstractMain syn = AbstractMain.getInstance();
-        if (AbstractOptions.dotExecutablePath == null) {
+        if (syn.options.dotExecutablePath == null) {
             logger.severe("Unable to locate the dot command executable, use cmd line option:\n\t"
                     + AbstractMain.plumeOpts.getOptDesc("dotExecutablePath"));
         }
-        return AbstractOptions.dotExecutablePath;
+        return syn.options.dotExecutablePath;
     }
 
     /**
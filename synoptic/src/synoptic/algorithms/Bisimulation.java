@@ -12,32 +12,42 @@ package synoptic.algorithms;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import synoptic.algorithms.graphops.IOperation;
+import synoptic.algorithms.graphops.OperationSequence;
 import synoptic.algorithms.graphops.PartitionMerge;
 import synoptic.algorithms.graphops.PartitionMultiSplit;
 import synoptic.algorithms.graphops.PartitionSplit;
 import synoptic.benchmarks.PerformanceMetrics;
 import synoptic.benchmarks.TimedTask;
+import synoptic.invariants.BinaryInvariant;
 import synoptic.invariants.CExamplePath;
 import synoptic.invariants.ITemporalInvariant;
 import synoptic.invariants.TemporalInvariantSet;
 import synoptic.invariants.constraints.TempConstrainedInvariant;
-import synoptic.main.AbstractMain;
+import synoptic.invariants.fsmcheck.FsmModelChecker;
+import synoptic.invariants.fsmcheck.IncrementalModelChecker;
+import synoptic.main.InferenceContext;
+import synoptic.model.CopyOnWritePartitionGraph;
 import synoptic.model.EventNode;
 import synoptic.model.Partition;
 import synoptic.model.PartitionGraph;
 import synoptic.model.interfaces.ITransition;
 import synoptic.util.InternalSynopticException;
+import synoptic.util.Pair;
+import synoptic.util.WorkerPool;
 
 /**
  * Partition graphs can be transformed using two algorithms -- coarsening and
@@ -73,10 +83,10 @@ public class Bisimulation {
 
         TimedTask refinement = PerformanceMetrics.createTask("refinement",
                 false);
-        AbstractMain main = AbstractMain.getInstance();
-        if (main.options.dumpIntermediateStages) {
-            main.exportNonInitialGraph(
-                    main.getIntermediateDumpFilename("r", 0), pGraph);
+        InferenceContext context = InferenceContext.getCurrent();
+        if (context.options.dumpIntermediateStages) {
+            context.exportNonInitialGraph(
+                    context.getIntermediateDumpFilename("r", 0), pGraph);
         }
 
         int numSplitSteps = 0;
@@ -88,10 +98,28 @@ public class Bisimulation {
 
         List<CExamplePath<Partition>> counterExampleTraces = null;
 
+        // With incremental model checking, each unsatisfied invariant keeps
+        // its checker (and the checker's fixpoint states) across split steps.
+        Map<ITemporalInvariant, IncrementalModelChecker<Partition>> checkers = null;
+        if (context.options.incrementalModelChecking) {
+            checkers = new LinkedHashMap<ITemporalInvariant, IncrementalModelChecker<Partition>>();
+            for (ITemporalInvariant inv : unsatisfiedInvariants) {
+                checkers.put(inv, new IncrementalModelChecker<Partition>(
+                        (BinaryInvariant) inv, pGraph));
+            }
+        }
+        // The partitions that were split in the last split step.
+        Set<Partition> splitPartitions = new LinkedHashSet<Partition>();
+
         while (true) {
             // Recompute the counter-examples for the unsatisfied invariants.
-            counterExampleTraces = new TemporalInvariantSet(
-                    unsatisfiedInvariants).getAllCounterExamples(pGraph);
+            if (checkers != null) {
+                counterExampleTraces = getAllCounterExamples(checkers,
+                        splitPartitions);
+            } else {
+                counterExampleTraces = new TemporalInvariantSet(
+                        unsatisfiedInvariants).getAllCounterExamples(pGraph);
+            }
             logger.fine("Counter-examples: " + counterExampleTraces);
 
             if (counterExampleTraces == null
@@ -124,8 +152,9 @@ public class Bisimulation {
 
             // Perform the splitting.
             prevNumSplitSteps = numSplitSteps;
+            splitPartitions.clear();
             numSplitSteps = performSplits(numSplitSteps, pGraph,
-                    counterExampleTraces);
+                    counterExampleTraces, splitPartitions);
 
             if (numSplitSteps == prevNumSplitSteps) {
                 // No splits were performed, which means that we could not
@@ -141,9 +170,9 @@ public class Bisimulation {
 
         }
 
-        if (main.options.dumpIntermediateStages) {
-            main.exportNonInitialGraph(
-                    main.getIntermediateDumpFilename("r", numSplitSteps),
+        if (context.options.dumpIntermediateStages) {
+            context.exportNonInitialGraph(
+                    context.getIntermediateDumpFilename("r", numSplitSteps),
                     pGraph);
         }
 
@@ -168,6 +197,17 @@ public class Bisimulation {
      */
     public static int performSplits(int numSplitSteps, PartitionGraph pGraph,
             List<CExamplePath<Partition>> counterExampleTraces) {
+        return performSplits(numSplitSteps, pGraph, counterExampleTraces, null);
+    }
+
+    /**
+     * Same as performSplits above, but also adds the partitions that were
+     * split to splitPartitions, if it is not null.
+     */
+    private static int performSplits(int numSplitSteps,
+            PartitionGraph pGraph,
+            List<CExamplePath<Partition>> counterExampleTraces,
+            Set<Partition> splitPartitions) {
 
         // Stores all splits that cause an invariant to be satisfied, indexed by
         // partition to which they are applied.
@@ -181,7 +221,7 @@ public class Bisimulation {
         // Permute the counter-examples, but do so deterministically for the
         // same random seed argument.
         Collections.shuffle(counterExampleTraces,
-                AbstractMain.getInstance().random);
+                InferenceContext.getCurrent().random);
 
         // logger.fine("" + counterExampleTraces.size()
         // + " unsatisfied invariants and counter-examples: "
@@ -193,7 +233,7 @@ public class Bisimulation {
 
         // Contains the first valid split, which will be performed if no other
         // split (that would resolve an invariant) is available.
-        IOperation arbitrarySplit;
+        PartitionSplit arbitrarySplit;
 
         arbitrarySplit = getInvSatisfyingSplits(counterExampleTraces, pGraph,
                 splitsToDoByPartition, newlySatisfiedInvariants);
@@ -210,12 +250,18 @@ public class Bisimulation {
             // + arbitrarySplit;
 
             pGraph.apply(arbitrarySplit);
+            if (splitPartitions != null) {
+                splitPartitions.add(arbitrarySplit.getPartition());
+            }
 
         } else {
             // We have splits that resolve invariants, perform all of them.
             // int i = 0;
             for (PartitionMultiSplit split : splitsToDoByPartition.values()) {
                 pGraph.apply(split);
+                if (splitPartitions != null) {
+                    splitPartitions.add(split.getPartition());
+                }
                 // logger.fine("split[" + numSplitSteps + "." + i + "] : " +
                 // split);
                 // i++;
@@ -227,10 +273,11 @@ public class Bisimulation {
 
         // logger.fine(logStr);
 
-        if (AbstractMain.getInstance().options.dumpIntermediateStages) {
-            AbstractMain.getInstance().exportNonInitialGraph(
-                    AbstractMain.getInstance().getIntermediateDumpFilename("r",
-                            numSplitSteps + 1), pGraph);
+        InferenceContext context = InferenceContext.getCurrent();
+        if (context.options.dumpIntermediateStages) {
+            context.exportNonInitialGraph(
+                    context.getIntermediateDumpFilename("r", numSplitSteps + 1),
+                    pGraph);
         }
 
         return numSplitSteps + 1;
@@ -251,6 +298,57 @@ public class Bisimulation {
     /**************************************************************************/
     /** Private methods below. */
 
+    /**
+     * Returns the counter-examples for the invariants of checkers, sorted by
+     * path length, or null if all of these invariants are satisfied. The
+     * checkers are first notified that the partitions in splitPartitions have
+     * changed. Checkers of invariants that are satisfied are removed from
+     * checkers, since splitting never violates a satisfied invariant.
+     * 
+     * @param checkers
+     *            incremental checkers for the unsatisfied invariants
+     * @param splitPartitions
+     *            partitions that were split since the last call
+     * @return a list of counter-example paths, or null
+     */
+    private static List<CExamplePath<Partition>> getAllCounterExamples(
+            Map<ITemporalInvariant, IncrementalModelChecker<Partition>> checkers,
+            Set<Partition> splitPartitions) {
+        TimedTask violations = PerformanceMetrics.createTask(
+                "getAllCounterExamples", false);
+        try {
+            List<CExamplePath<Partition>> paths = new ArrayList<CExamplePath<Partition>>();
+            Iterator<IncrementalModelChecker<Partition>> iter = checkers
+                    .values().iterator();
+            while (iter.hasNext()) {
+                IncrementalModelChecker<Partition> checker = iter.next();
+                checker.nodesChanged(splitPartitions);
+                CExamplePath<Partition> path = checker.getCounterExample();
+                if (path == null) {
+                    iter.remove();
+                } else {
+                    paths.add(path);
+                }
+            }
+
+            if (paths.size() == 0) {
+                return null;
+            }
+
+            Collections.sort(paths, new Comparator<CExamplePath<Partition>>() {
+                @Override
+                public int compare(CExamplePath<Partition> o1,
+                        CExamplePath<Partition> o2) {
+                    return Integer.valueOf(o1.path.size()).compareTo(
+                            o2.path.size());
+                }
+            });
+            return paths;
+        } finally {
+            violations.stop();
+        }
+    }
+
     /**
      * Compute possible splits to resolve the invariant violation shown by path
      * counterexampleTrace.
@@ -409,7 +507,7 @@ public class Bisimulation {
             }
         }
 
-        Random rand = AbstractMain.getInstance().random;
+        Random rand = InferenceContext.getCurrent().random;
 
         // Get all other events that are neither incoming nor outgoing min/max
         // events
@@ -530,7 +628,11 @@ public class Bisimulation {
     /**
      * Performs the splitOp on the pGraph to see whether or not the resulting
      * graph has no other counter-examples for the invariant inv (i.e. whether
-     * or not the graph after the split satisfies inv).
+     * or not the graph after the split satisfies inv). If copyOnWrite is true,
+     * the split is performed on a CopyOnWritePartitionGraph view of pGraph,
+     * so that pGraph is not modified and it is safe to call this concurrently
+     * for different splits. Otherwise, the split is applied to pGraph and
+     * then undone.
      * 
      * @param inv
      *            The invariant to check for satisfiability after the splitOp.
@@ -538,12 +640,20 @@ public class Bisimulation {
      *            The partition graph to apply to the splitOp to.
      * @param splitOp
      *            The split operation to apply to pGraph
+     * @param copyOnWrite
+     *            Whether to perform the split on a view of pGraph.
      * @return true if the split makes the graph satisfy the invariant, and
      *         false otherwise.
      */
     private static boolean splitSatisfiesInvariantGlobally(
             ITemporalInvariant inv, PartitionGraph pGraph,
-            PartitionMultiSplit splitOp) {
+            PartitionMultiSplit splitOp, boolean copyOnWrite) {
+
+        if (copyOnWrite) {
+            CopyOnWritePartitionGraph view = new CopyOnWritePartitionGraph(
+                    pGraph, splitOp);
+            return TemporalInvariantSet.getCounterExample(inv, view) == null;
+        }
 
         // Perform the split.
         IOperation rewindOperation = pGraph.apply(splitOp);
@@ -565,31 +675,49 @@ public class Bisimulation {
     }
 
     /**
-     * Performs the splitOp on the pGraph and then checks if there is a
-     * violation of invariant inv in a specific subgraph of pGraph starting at
-     * startPart and ending at endPart. This is accomplished by localized model
+     * Checks if there is a violation of the constrained invariant of
+     * counterexampleTrace in a specific subgraph of pGraph after the splitOp,
+     * without modifying pGraph. The subgraph starts at the partition where the
+     * violation started (startPart) and ends at the partition where the
+     * violation ended (endPart). This is accomplished by localized model
      * checking which starts at startPart (rather than the initial node) and
-     * stops at endPart (rather than the terminal node).
+     * stops at endPart (rather than the terminal node). Checking is performed
+     * on a CopyOnWritePartitionGraph, so it is safe to call this concurrently
+     * for different splits.
      * 
-     * @param inv
-     *            The invariant to check for satisfiability after the splitOp.
+     * @param counterexampleTrace
+     *            The counter-example of a constrained invariant, which
+     *            determines startPart and endPart.
      * @param pGraph
      *            The partition graph to apply to the splitOp to.
-     * @param startPart
-     *            The partition on which to start model checking
-     * @param endPart
-     *            The partition on which to end model checking
      * @param splitOp
      *            The split operation to apply to pGraph
      * @return true if the split makes the subgraph between startPart and
      *         endPart satisfy the invariant, and false otherwise.
      */
     private static boolean splitSatisfiesInvariantLocally(
-            ITemporalInvariant inv, PartitionGraph pGraph, Partition startPart,
-            Partition endPart, PartitionMultiSplit splitOp) {
+            CExamplePath<Partition> counterexampleTrace, PartitionGraph pGraph,
+            PartitionMultiSplit splitOp) {
 
-        // TODO: Implement this.
-        return false;
+        // The model checker enters startPart from the partition that precedes
+        // it in the counter-example.
+        int start = counterexampleTrace.violationStart;
+        int end = counterexampleTrace.violationEnd;
+        if (start < 1 || end < start) {
+            return false;
+        }
+        Partition prevPart = counterexampleTrace.path.get(start - 1);
+        Partition startPart = counterexampleTrace.path.get(start);
+        Partition endPart = counterexampleTrace.path.get(end);
+
+        CopyOnWritePartitionGraph view = new CopyOnWritePartitionGraph(pGraph,
+                splitOp);
+        CExamplePath<Partition> violation = FsmModelChecker
+                .getLocalCounterExample(
+                        (BinaryInvariant) counterexampleTrace.invariant, view,
+                        view.piecesOf(prevPart), view.piecesOf(startPart),
+                        view.piecesOf(endPart));
+        return violation == null;
     }
 
     /**
@@ -597,6 +725,14 @@ public class Bisimulation {
      * trace in counterexampleTraces. Populates the splitsToDoByPartition map
      * with those splits that make a previously unsatisfied invariant true in
      * the new (refined) graph.
+     * <p>
+     * With the parallelRefinement option, the candidate splits of different
+     * counter-examples are evaluated concurrently. The candidate splits are
+     * still generated (and permuted) serially and in counter-example order, so
+     * that the random number generator is used exactly as in the serial case,
+     * and the splits that were found are recorded in counter-example order.
+     * The result is therefore independent of thread scheduling.
+     * </p>
      * 
      * @param counterexampleTraces
      * @param pGraph
@@ -609,23 +745,27 @@ public class Bisimulation {
      *         splitsToDoByPartition is empty and there are no splits that lead
      *         to new invariant satisfaction.
      */
-    private static IOperation getInvSatisfyingSplits(
+    private static PartitionSplit getInvSatisfyingSplits(
             List<CExamplePath<Partition>> counterexampleTraces,
-            PartitionGraph pGraph,
+            final PartitionGraph pGraph,
             HashMap<Partition, PartitionMultiSplit> splitsToDoByPartition,
             Set<ITemporalInvariant> newlySatisfiedInvariants) {
 
-        IOperation arbitrarySplit = null;
-        AbstractMain main = AbstractMain.getInstance();
+        PartitionSplit arbitrarySplit = null;
+        InferenceContext context = InferenceContext.getCurrent();
+        boolean parallel = context.options.parallelRefinement;
+
+        // The counter-examples whose searches are run concurrently, and these
+        // searches.
+        List<CExamplePath<Partition>> searchedTraces = new ArrayList<CExamplePath<Partition>>();
+        List<Callable<Pair<PartitionMultiSplit, PartitionMultiSplit>>> searches = new ArrayList<Callable<Pair<PartitionMultiSplit, PartitionMultiSplit>>>();
 
         // TODO: we are considering counter-example traces in an arbitrary
         // order. This heuristic should be turned into a customizable strategy.
-        for (CExamplePath<Partition> counterexampleTrace : counterexampleTraces) {
+        for (final CExamplePath<Partition> counterexampleTrace : counterexampleTraces) {
             // logger.fine("Considering counterexample: "
             // + counterexampleTrace.toString());
 
-            // The invariant that we will attempt to satisfy globally with a
-            // single split.
             ITemporalInvariant inv = counterexampleTrace.invariant;
 
             // Skip to next counter-example if we have previously recorded a
@@ -637,127 +777,183 @@ public class Bisimulation {
             }
 
             // Get the possible splits that might resolve this counter-example.
-            List<PartitionSplit> candidateSplits = getSplits(
+            final List<PartitionSplit> candidateSplits = getPermutedSplits(
                     counterexampleTrace, pGraph);
 
-            // Permute the list of candidates.
-            Collections.shuffle(candidateSplits, main.random);
-
             // Save an arbitrary split to return to caller, if we haven't saved
             // one already.
             if (arbitrarySplit == null && !candidateSplits.isEmpty()) {
                 arbitrarySplit = candidateSplits.get(0);
             }
 
-            // A split that satisfies the invariant locally (within the subgraph
-            // where the violation was found) but not globally (in the entire
-            // partition graph). Only applied if a globally-satisfying split is
-            // not found
-            PartitionMultiSplit locallySatisfyingSplit = null;
-
-            // logger.fine("candidateSplits are: " +
-            // candidateSplits.toString());
-
-            // Find a single split in candidateSplits that makes the
-            // invariant corresponding to the counter-example true in the
-            // entire graph.
-            //
-            // a. If no such split exists, then continue to the next
-            // counter-example.
-            //
-            // b. If such a split exists, integrate it into whatever splits we
-            // might have found earlier (for previous counter-examples).
-            //
-            for (PartitionSplit candidateSplit : candidateSplits) {
-                if (main.options.performExtraChecks) {
-                    // getSplits() should never generate invalid splits.
-                    if (!candidateSplit.isValid()) {
-                        throw new InternalSynopticException(
-                                "getSplits() generated an invalid split.");
-                    }
+            if (!parallel) {
+                recordSatisfyingSplit(
+                        findSatisfyingSplit(counterexampleTrace, pGraph,
+                                candidateSplits, false), inv,
+                        splitsToDoByPartition, newlySatisfiedInvariants);
+                continue;
+            }
+
+            searchedTraces.add(counterexampleTrace);
+            searches.add(new Callable<Pair<PartitionMultiSplit, PartitionMultiSplit>>() {
+                @Override
+                public Pair<PartitionMultiSplit, PartitionMultiSplit> call() {
+                    return findSatisfyingSplit(counterexampleTrace, pGraph,
+                            candidateSplits, true);
                 }
+            });
+        }
 
-                PartitionMultiSplit splitOp = new PartitionMultiSplit(
-                        candidateSplit);
-                Partition partitionBeingSplit = candidateSplit.getPartition();
-
-                // TODO: we check satisfiability of each split _independently_.
-                // This means that we are looking for very rare splits that
-                // satisfy _different_ invariants individually. A more realistic
-                // search would (1) apply each split that satisfies an
-                // invariant, and (2) continue searching for more such splits on
-                // the _mutated_ pGraph.
-
-                if (splitSatisfiesInvariantGlobally(inv, pGraph, splitOp)) {
-                    // If we already have a split for that partition,
-                    // incorporate the new split into it.
-                    if (splitsToDoByPartition.containsKey(partitionBeingSplit)) {
-                        splitsToDoByPartition.get(partitionBeingSplit)
-                                .incorporate(splitOp);
-                        logger.fine("Incorporating new split by partition: "
-                                + splitOp.toString());
-                    } else {
-                        // Otherwise, record this split as the only one for this
-                        // partition
-                        splitsToDoByPartition.put(partitionBeingSplit, splitOp);
-                        logger.fine("New split by partition: "
-                                + splitOp.toString());
-                    }
+        if (parallel) {
+            // pGraph must not be modified while the searches are running.
+            List<Pair<PartitionMultiSplit, PartitionMultiSplit>> satisfyingSplits = WorkerPool
+                    .invokeAll(searches);
+            for (int i = 0; i < searchedTraces.size(); i++) {
+                recordSatisfyingSplit(satisfyingSplits.get(i),
+                        searchedTraces.get(i).invariant,
+                        splitsToDoByPartition, newlySatisfiedInvariants);
+            }
+        }
+        return arbitrarySplit;
+    }
 
-                    // Remember that we can resolve this invariant
-                    // violation.
-                    newlySatisfiedInvariants.add(inv);
-                    // Found the split that completely satisfies the
-                    // invariant, no need to consider other splits.
-                    break;
+    /**
+     * Returns the candidate splits that might resolve counterexampleTrace (see
+     * getSplits), permuted with the random number generator of the current
+     * InferenceContext.
+     */
+    private static List<PartitionSplit> getPermutedSplits(
+            CExamplePath<Partition> counterexampleTrace,
+            PartitionGraph pGraph) {
+        InferenceContext context = InferenceContext.getCurrent();
+        List<PartitionSplit> candidateSplits = getSplits(counterexampleTrace,
+                pGraph);
 
-                }
+        // Permute the list of candidates.
+        Collections.shuffle(candidateSplits, context.random);
 
-                // Check if split satisfies the invariant locally (specifically
-                // in the subgraph where the violation was found)
-                else if (locallySatisfyingSplit == null
-                        && inv instanceof TempConstrainedInvariant<?>) {
-
-                    // Get start and end of violation subgraph
-                    Partition startPart = counterexampleTrace.path
-                            .get(counterexampleTrace.violationStart);
-                    Partition endPart = counterexampleTrace.path
-                            .get(counterexampleTrace.violationEnd);
-
-                    // Store the split if the invariant is locally satisfied
-                    if (splitSatisfiesInvariantLocally(inv, pGraph, startPart,
-                            endPart, splitOp)) {
-                        locallySatisfyingSplit = splitOp;
-                    }
+        if (context.options.performExtraChecks) {
+            for (PartitionSplit candidateSplit : candidateSplits) {
+                // getSplits() should never generate invalid splits.
+                if (!candidateSplit.isValid()) {
+                    throw new InternalSynopticException(
+                            "getSplits() generated an invalid split.");
                 }
             }
+        }
+        return candidateSplits;
+    }
 
-            // If we didn't find a globally-satisfying split but did find a
-            // locally-satisfying one, record it
-            if (locallySatisfyingSplit != null) {
-
-                // Get partition to be split
-                Partition partitionBeingSplit = locallySatisfyingSplit
-                        .getPartition();
+    /**
+     * Finds the first split in candidateSplits that makes the invariant
+     * corresponding to counterexampleTrace true in the entire graph. If there
+     * is no such split and the invariant is constrained, then finds the first
+     * split that makes the invariant true in the subgraph where the violation
+     * was found.
+     * 
+     * @param counterexampleTrace
+     * @param pGraph
+     * @param candidateSplits
+     * @param copyOnWrite
+     *            Whether to check the splits on views of pGraph, rather than
+     *            by applying them to pGraph (see
+     *            splitSatisfiesInvariantGlobally)
+     * @return a pair of the globally satisfying split (left), or else of the
+     *         locally satisfying split (right), where the other one is null
+     */
+    private static Pair<PartitionMultiSplit, PartitionMultiSplit> findSatisfyingSplit(
+            CExamplePath<Partition> counterexampleTrace, PartitionGraph pGraph,
+            List<PartitionSplit> candidateSplits, boolean copyOnWrite) {
+
+        // The invariant that we will attempt to satisfy globally with a
+        // single split.
+        ITemporalInvariant inv = counterexampleTrace.invariant;
+
+        // A split that satisfies the invariant locally (within the subgraph
+        // where the violation was found) but not globally (in the entire
+        // partition graph). Only used if a globally-satisfying split is not
+        // found
+        PartitionMultiSplit locallySatisfyingSplit = null;
+
+        for (PartitionSplit candidateSplit : candidateSplits) {
+            PartitionMultiSplit splitOp = new PartitionMultiSplit(
+                    candidateSplit);
+
+            // TODO: we check satisfiability of each split _independently_.
+            // This means that we are looking for very rare splits that
+            // satisfy _different_ invariants individually. A more realistic
+            // search would (1) apply each split that satisfies an
+            // invariant, and (2) continue searching for more such splits on
+            // the _mutated_ pGraph.
+
+            if (splitSatisfiesInvariantGlobally(inv, pGraph, splitOp,
+                    copyOnWrite)) {
+                // Found the split that completely satisfies the invariant, no
+                // need to consider other splits.
+                return new Pair<PartitionMultiSplit, PartitionMultiSplit>(
+                        splitOp, null);
+            }
 
-                // If we already have a split for that partition, incorporate
-                // the new split into it.
-                if (splitsToDoByPartition.containsKey(partitionBeingSplit)) {
-                    splitsToDoByPartition.get(partitionBeingSplit).incorporate(
-                            locallySatisfyingSplit);
-                    logger.fine("Incorporating new locally-satisfying split by partition: "
-                            + locallySatisfyingSplit.toString());
-                } else {
-                    // Otherwise, record this split as the only one for this
-                    // partition
-                    splitsToDoByPartition.put(partitionBeingSplit,
-                            locallySatisfyingSplit);
-                    logger.fine("New split by partition: "
-                            + locallySatisfyingSplit.toString());
-                }
+            // Check if split satisfies the invariant locally (specifically
+            // in the subgraph where the violation was found)
+            if (locallySatisfyingSplit == null
+                    && inv instanceof TempConstrainedInvariant<?>
+                    && splitSatisfiesInvariantLocally(counterexampleTrace,
+                            pGraph, splitOp)) {
+                locallySatisfyingSplit = splitOp;
             }
         }
-        return arbitrarySplit;
+        return new Pair<PartitionMultiSplit, PartitionMultiSplit>(null,
+                locallySatisfyingSplit);
+    }
+
+    /**
+     * Records the split that findSatisfyingSplit found for a counter-example
+     * of inv in splitsToDoByPartition. A globally satisfying split is only
+     * recorded if inv is not in newlySatisfiedInvariants yet, and then inv is
+     * added to it.
+     */
+    private static void recordSatisfyingSplit(
+            Pair<PartitionMultiSplit, PartitionMultiSplit> splits,
+            ITemporalInvariant inv,
+            HashMap<Partition, PartitionMultiSplit> splitsToDoByPartition,
+            Set<ITemporalInvariant> newlySatisfiedInvariants) {
+        if (newlySatisfiedInvariants.contains(inv)) {
+            return;
+        }
+        if (splits.getLeft() != null) {
+            recordSplit(splitsToDoByPartition, splits.getLeft());
+            // Remember that we can resolve this invariant violation.
+            newlySatisfiedInvariants.add(inv);
+        } else if (splits.getRight() != null) {
+            // We didn't find a globally-satisfying split but did find a
+            // locally-satisfying one.
+            recordSplit(splitsToDoByPartition, splits.getRight());
+        }
+    }
+
+    /**
+     * Records splitOp in splitsToDoByPartition. If there already is a split
+     * for the partition that splitOp splits, then splitOp is incorporated into
+     * the existing split.
+     */
+    private static void recordSplit(
+            HashMap<Partition, PartitionMultiSplit> splitsToDoByPartition,
+            PartitionMultiSplit splitOp) {
+        Partition partitionBeingSplit = splitOp.getPartition();
+
+        // If we already have a split for that partition, incorporate the new
+        // split into it.
+        if (splitsToDoByPartition.containsKey(partitionBeingSplit)) {
+            splitsToDoByPartition.get(partitionBeingSplit)
+                    .incorporate(splitOp);
+            logger.fine("Incorporating new split by partition: "
+                    + splitOp.toString());
+        } else {
+            // Otherwise, record this split as the only one for this partition
+            splitsToDoByPartition.put(partitionBeingSplit, splitOp);
+            logger.fine("New split by partition: " + splitOp.toString());
+        }
     }
 
     /**
@@ -781,65 +977,95 @@ public class Bisimulation {
         // violations.
         Map<Partition, Set<Partition>> mergeBlacklist = new LinkedHashMap<Partition, Set<Partition>>();
 
-        AbstractMain syn = AbstractMain.getInstance();
+        // The batch blacklist keeps the sets of candidates that a partition
+        // could not be merged with all at once.
+        Map<Partition, Set<Set<Partition>>> batchBlacklist = new LinkedHashMap<Partition, Set<Set<Partition>>>();
+
+        // Partitions that are known to be mergeable with each other without
+        // violating the invariants.
+        Set<Partition> safeMerges = new LinkedHashSet<Partition>();
+
+        InferenceContext context = InferenceContext.getCurrent();
         while (true) {
-            if (syn.options.dumpIntermediateStages) {
-                syn.exportNonInitialGraph(
-                        syn.getIntermediateDumpFilename("c", outerItters),
+            if (context.options.dumpIntermediateStages) {
+                context.exportNonInitialGraph(
+                        context.getIntermediateDumpFilename("c", outerItters),
                         pGraph);
             }
             outerItters++;
 
             logger.fine("--------------------------------");
-            if (!mergePartitions(pGraph, mergeBlacklist, invariants, k)) {
+            if (!mergePartitions(pGraph, mergeBlacklist, batchBlacklist,
+                    safeMerges, invariants, k)) {
                 break;
             }
         }
 
-        if (syn.options.dumpIntermediateStages) {
-            syn.exportNonInitialGraph(
-                    syn.getIntermediateDumpFilename("c", outerItters), pGraph);
+        if (context.options.dumpIntermediateStages) {
+            context.exportNonInitialGraph(
+                    context.getIntermediateDumpFilename("c", outerItters),
+                    pGraph);
         }
     }
 
     /**
      * Attempts to merge partitions that are k-equivalent, while respecting
-     * invariants. Tries all pairs of partitions from pGraph, except for those
-     * that are in the mergeBlacklist (these have been attempted previously and
-     * are known to violate invariants). Returns true if at least one merge was
-     * performed, otherwise returns false.
+     * invariants. Partitions are first bucketed into classes of k-equivalent
+     * partitions, and each partition is only paired with the partitions in its
+     * class, except for those that are in the mergeBlacklist (these have been
+     * attempted previously and are known to violate invariants). Pairs are
+     * tried in the same order as when all pairs of partitions are tried, and
+     * the first pair whose merge maintains the invariants is merged. Returns
+     * true if a merge was performed, otherwise returns false.
+     * <p>
+     * Merging partitions only adds paths to pGraph, so if a set of partitions
+     * can be merged into one without violating an invariant, then so can any
+     * of its subsets, also after other subsets of it were merged. Before
+     * trying the pairs of a partition one at a time, the partition is
+     * therefore merged with all of them at once. If this maintains the
+     * invariants, only the first pair is merged, and the partitions are added
+     * to safeMerges, so that the merges of pairs of these partitions in the
+     * following rounds are accepted without model checking. safeMerges is
+     * cleared whenever any other merge is performed. A batch that violates
+     * the invariants is added to the batchBlacklist and is not tried again
+     * until the candidates of the partition change.
+     * </p>
      * 
      * @param pGraph
      * @param mergeBlacklist
+     * @param batchBlacklist
+     * @param safeMerges
      * @param invariants
      * @param k
      * @return
      */
     private static boolean mergePartitions(PartitionGraph pGraph,
             Map<Partition, Set<Partition>> mergeBlacklist,
-            TemporalInvariantSet invariants, int k) {
+            Map<Partition, Set<Set<Partition>>> batchBlacklist,
+            Set<Partition> safeMerges, TemporalInvariantSet invariants, int k) {
         ArrayList<Partition> partitions = new ArrayList<Partition>();
         partitions.addAll(pGraph.getNodes());
 
-        // Attempt to merge all pairs of partitions in the current graph.
+        // Only partitions that are k-equivalent may be merged.
+        Map<Partition, List<Partition>> kClassOf = new LinkedHashMap<Partition, List<Partition>>();
+        for (List<Partition> kClass : KTails.getKEquivalenceClasses(
+                partitions, k)) {
+            for (Partition p : kClass) {
+                kClassOf.put(p, kClass);
+            }
+        }
+
+        // Attempt to merge all pairs of k-equivalent partitions in the current
+        // graph.
         for (Partition p : partitions) {
-            for (Partition q : partitions) {
+            List<Partition> candidates = new ArrayList<Partition>();
+            for (Partition q : kClassOf.get(p)) {
                 // 1. Can't merge a partition with itself
                 if (p == q) {
                     continue;
                 }
 
-                logger.fine("Attempting to merge: " + p + "(hash: "
-                        + p.hashCode() + ") + " + q + "(hash: " + q.hashCode()
-                        + ")");
-
-                // 2. Only merge partitions that are k-equivalent
-                if (!KTails.kEquals(p, q, k)) {
-                    logger.fine("Partitions are not k-equivalent(k=" + k + ")");
-                    continue;
-                }
-
-                // 3. Ignore partition pairs that were previously tried (are
+                // 2. Ignore partition pairs that were previously tried (are
                 // in blacklist)
                 if ((mergeBlacklist.containsKey(p) && mergeBlacklist.get(p)
                         .contains(q))
@@ -848,56 +1074,141 @@ public class Bisimulation {
                     logger.fine("Partitions are in the merge blacklist.");
                     continue;
                 }
+                candidates.add(q);
+            }
+            if (candidates.isEmpty()) {
+                continue;
+            }
 
-                Set<Partition> parts = new LinkedHashSet<Partition>();
-                parts.addAll(pGraph.getNodes());
-                IOperation rewindOperation = pGraph.apply(new PartitionMerge(p,
-                        q));
-
-                CExamplePath<Partition> cExample = null;
-
-                if (invariants != null) {
-                    cExample = invariants.getFirstCounterExample(pGraph);
-                }
-
-                if (cExample != null) {
-                    // The merge created a violation. Remember this pair of
-                    // partitions so that we don't try it again.
-                    logger.fine("Merge violates invariant: "
-                            + cExample.toString());
+            // 3. Merge p with all of the candidates at once, to find out
+            // whether each of these merges maintains the invariants.
+            Partition first = candidates.get(0);
+            if (invariants != null && candidates.size() > 1
+                    && !(safeMerges.contains(p) && safeMerges.contains(first))) {
+                Set<Partition> batch = new HashSet<Partition>(candidates);
+                if (batchBlacklist.containsKey(p)
+                        && batchBlacklist.get(p).contains(batch)) {
+                    logger.fine("Partitions are in the batch blacklist.");
+                } else {
+                    logger.fine("Attempting to merge: " + p + "(hash: "
+                            + p.hashCode() + ") + " + candidates);
 
-                    if (!mergeBlacklist.containsKey(p)) {
-                        mergeBlacklist.put(p, new LinkedHashSet<Partition>());
+                    OperationSequence batchMerge = new OperationSequence();
+                    for (Partition q : candidates) {
+                        batchMerge.addFirst(new PartitionMerge(p, q));
                     }
-                    mergeBlacklist.get(p).add(q);
-
-                    // Undo the merge.
-                    pGraph.apply(rewindOperation);
-
-                    if (AbstractMain.getInstance().options.performExtraChecks) {
-                        pGraph.checkSanity();
+                    if (tryMerge(pGraph, batchMerge, invariants, partitions,
+                            false)) {
+                        logger.fine("Merge of " + candidates.size()
+                                + " partitions into " + p.getEType()
+                                + " maintains invs.");
+                        safeMerges.clear();
+                        safeMerges.add(p);
+                        safeMerges.addAll(candidates);
+                    } else {
+                        if (!batchBlacklist.containsKey(p)) {
+                            batchBlacklist.put(p,
+                                    new HashSet<Set<Partition>>());
+                        }
+                        batchBlacklist.get(p).add(batch);
                     }
+                }
+            }
 
-                    // We cannot change the partition sets because we are
-                    // iterating over the partitions. Therefore, check that
-                    // the resulting partition set is the same as the
-                    // original partition set.
-                    if (!(parts.containsAll(pGraph.getNodes()) && pGraph
-                            .getNodes().containsAll(parts))) {
-                        throw new InternalSynopticException(
-                                "partition set changed due to rewind: "
-                                        + rewindOperation);
-                    }
+            // 4. Try to merge p with each candidate individually.
+            for (Partition q : candidates) {
+                logger.fine("Attempting to merge: " + p + "(hash: "
+                        + p.hashCode() + ") + " + q + "(hash: " + q.hashCode()
+                        + ")");
 
-                } else {
+                if (safeMerges.contains(p) && safeMerges.contains(q)) {
+                    pGraph.apply(new PartitionMerge(p, q));
+                    safeMerges.remove(q);
+                    logger.fine("Merge of partitions " + p.getEType()
+                            + " nodes is known to maintain invs, accepted.");
+                    return true;
+                }
+
+                if (tryMerge(pGraph, new PartitionMerge(p, q), invariants,
+                        partitions, true)) {
+                    safeMerges.clear();
                     logger.fine("Merge of partitions " + p.getEType()
                             + " nodes maintains invs, accepted.");
                     return true;
                 }
+
+                // The merge created a violation. Remember this pair of
+                // partitions so that we don't try it again.
+                if (!mergeBlacklist.containsKey(p)) {
+                    mergeBlacklist.put(p, new LinkedHashSet<Partition>());
+                }
+                mergeBlacklist.get(p).add(q);
             }
         }
 
         // Unable to find any k-equivalent partitions; we're done.
         return false;
     }
+
+    /**
+     * Applies merge to pGraph and checks whether pGraph still satisfies all of
+     * the invariants. If it does, true is returned, and the merge is kept if
+     * keep is true. Otherwise, the merge is undone and false is returned. If
+     * keep is false, pGraph is left exactly as it was, including the order of
+     * its partitions, which undoing a merge would otherwise change.
+     * 
+     * @param pGraph
+     *            the partition graph to merge partitions of
+     * @param merge
+     *            the merge operation to apply
+     * @param invariants
+     *            the invariants to maintain, or null
+     * @param partitions
+     *            the partitions of pGraph before the merge
+     * @param keep
+     *            whether to keep a merge that maintains the invariants
+     * @return true if the merge maintains the invariants, false otherwise
+     */
+    private static boolean tryMerge(PartitionGraph pGraph, IOperation merge,
+            TemporalInvariantSet invariants, List<Partition> partitions,
+            boolean keep) {
+        List<Partition> order = null;
+        if (!keep) {
+            order = new ArrayList<Partition>(pGraph.getNodes());
+        }
+        IOperation rewindOperation = pGraph.apply(merge);
+
+        CExamplePath<Partition> cExample = null;
+        if (invariants != null) {
+            cExample = invariants.getFirstCounterExample(pGraph);
+        }
+        if (cExample == null && keep) {
+            return true;
+        }
+
+        if (cExample != null) {
+            logger.fine("Merge violates invariant: " + cExample.toString());
+        }
+
+        // Undo the merge.
+        pGraph.apply(rewindOperation);
+        if (!keep) {
+            pGraph.setNodeOrder(order);
+        }
+
+        if (InferenceContext.getCurrent().options.performExtraChecks) {
+            pGraph.checkSanity();
+        }
+
+        // We cannot change the partition sets because we are iterating over
+        // the partitions. Therefore, check that the resulting partition set is
+        // the same as the original partition set.
+        Set<Partition> parts = pGraph.getNodes();
+        if (!(parts.size() == partitions.size() && parts
+                .containsAll(partitions))) {
+            throw new InternalSynopticException(
+                    "partition set changed due to rewind: " + rewindOperation);
+        }
+        return cExample == null;
+    }
 }
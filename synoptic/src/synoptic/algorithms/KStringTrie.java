@@ -0,0 +1,197 @@
+package synoptic.algorithms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import synoptic.model.event.EventType;
+import synoptic.model.interfaces.INode;
+
+/**
+ * <p>
+ * Computes canonical fingerprints of the k-tails of nodes. The k-strings of a
+ * node (the strings of event types of length at most k that can be constructed
+ * by starting at the node) form a prefix-closed set, which is represented as a
+ * trie rooted at the node's event type. Tries are hash-consed: every distinct
+ * sub-trie is stored once and is identified by an integer id. Two nodes
+ * therefore have the same set of k-strings if and only if their tries have the
+ * same id, and this id is used as the node's k-tail fingerprint.
+ * </p>
+ * <p>
+ * The trie of a node at depth d is built from the tries of its successors at
+ * depth d-1, which are memoized per depth. Computing the fingerprints of all
+ * nodes in a graph thus takes time that is linear in k times the number of
+ * edges, and sub-tries that are shared between nodes are stored only once.
+ * Fingerprints are only comparable between nodes that were fingerprinted by
+ * the same trie instance.
+ * </p>
+ *
+ * @param <NodeType>
+ *            the type of the nodes being fingerprinted
+ */
+public class KStringTrie<NodeType extends INode<NodeType>> {
+    /**
+     * A trie node: an event type along with the ids of the child tries, keyed
+     * by the event types at their roots.
+     */
+    private static final class TrieNode {
+        final EventType label;
+        final Map<EventType, Integer> children;
+        final int hashCode;
+
+        TrieNode(EventType label, Map<EventType, Integer> children) {
+            this.label = label;
+            this.children = children;
+            this.hashCode = 31 * label.hashCode() + children.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof TrieNode)) {
+                return false;
+            }
+            TrieNode node = (TrieNode) other;
+            return hashCode == node.hashCode && label.equals(node.label)
+                    && children.equals(node.children);
+        }
+    }
+
+    /** The maximum length of k-strings. */
+    private final int k;
+
+    /** All distinct tries, indexed by their ids. */
+    private final List<TrieNode> tries = new ArrayList<TrieNode>();
+
+    /** Maps each distinct trie to its id. */
+    private final Map<TrieNode, Integer> trieIds = new HashMap<TrieNode, Integer>();
+
+    /** Memoized unions of pairs of tries with the same root label. */
+    private final Map<Long, Integer> unions = new HashMap<Long, Integer>();
+
+    /**
+     * Memoized fingerprints of nodes, where the map at index d contains
+     * fingerprints of nodes at depth d.
+     */
+    private final List<Map<NodeType, Integer>> fingerprints;
+
+    /**
+     * Creates a trie for fingerprinting k-tails.
+     *
+     * @param k
+     *            the maximum length of k-strings, must be positive
+     */
+    public KStringTrie(int k) {
+        assert (k > 0);
+        this.k = k;
+        fingerprints = new ArrayList<Map<NodeType, Integer>>(k + 1);
+        for (int d = 0; d <= k; d++) {
+            fingerprints.add(new HashMap<NodeType, Integer>());
+        }
+    }
+
+    /**
+     * Returns the k-tail fingerprint of node. Two nodes have the same
+     * fingerprint if and only if they have the same set of k-strings.
+     */
+    public int getFingerprint(NodeType node) {
+        return getFingerprint(node, k);
+    }
+
+    /**
+     * Returns the number of distinct tries that have been interned.
+     */
+    public int getNumTries() {
+        return tries.size();
+    }
+
+    /**
+     * Returns the fingerprint of the trie of strings of length at most depth
+     * that start at node.
+     */
+    private int getFingerprint(NodeType node, int depth) {
+        Map<NodeType, Integer> memo = fingerprints.get(depth);
+        Integer id = memo.get(node);
+        if (id != null) {
+            return id;
+        }
+
+        Map<EventType, Integer> children = new LinkedHashMap<EventType, Integer>();
+        if (depth > 1) {
+            for (NodeType child : node.getAllSuccessors()) {
+                int childId = getFingerprint(child, depth - 1);
+                EventType childLabel = child.getEType();
+                Integer otherId = children.get(childLabel);
+                if (otherId != null) {
+                    // The k-strings through both children are kept, so the
+                    // two child tries are merged.
+                    childId = union(otherId, childId);
+                }
+                children.put(childLabel, childId);
+            }
+        }
+
+        id = intern(new TrieNode(node.getEType(), children));
+        memo.put(node, id);
+        return id;
+    }
+
+    /**
+     * Returns the id of the union of two tries that have the same root label.
+     */
+    private int union(int id1, int id2) {
+        if (id1 == id2) {
+            return id1;
+        }
+        if (id1 > id2) {
+            int tmp = id1;
+            id1 = id2;
+            id2 = tmp;
+        }
+        Long key = ((long) id1 << 32) | id2;
+        Integer id = unions.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        TrieNode trie1 = tries.get(id1);
+        TrieNode trie2 = tries.get(id2);
+        Map<EventType, Integer> children = new LinkedHashMap<EventType, Integer>(
+                trie1.children);
+        for (Map.Entry<EventType, Integer> entry : trie2.children.entrySet()) {
+            int childId = entry.getValue();
+            Integer otherId = children.get(entry.getKey());
+            if (otherId != null) {
+                childId = union(otherId, childId);
+            }
+            children.put(entry.getKey(), childId);
+        }
+
+        id = intern(new TrieNode(trie1.label, children));
+        unions.put(key, id);
+        return id;
+    }
+
+    /**
+     * Returns the id of trie, assigning it a new id if an equal trie has not
+     * been seen before.
+     */
+    private int intern(TrieNode trie) {
+        Integer id = trieIds.get(trie);
+        if (id == null) {
+            id = tries.size();
+            tries.add(trie);
+            trieIds.put(trie, id);
+        }
+        return id;
+    }
+}
@@ -1,16 +1,32 @@
 package synoptic.algorithms;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import synoptic.model.EventNode;
+import synoptic.model.interfaces.ITransition;
+import synoptic.util.InternalSynopticException;
 
 /**
+ * <p>
  * Computes and maintains the transitive closure. Code based on
  * http://www.cs.princeton.edu/courses/archive/fall05/cos226/lectures
  * /digraph.pdf
+ * </p>
+ * <p>
+ * Reachability is either recorded one pair of nodes at a time (see
+ * recordTransitiveReachability), or computed for an entire trace at once (see
+ * addTrace). A trace that is added with addTrace is stored as a block of
+ * bitset rows that are indexed by the topological index of the nodes in the
+ * trace, so isReachable for two nodes of such a trace is a bit test.
+ * </p>
  */
 public class TransitiveClosure {
     // Reachability map.
@@ -20,6 +36,74 @@ public class TransitiveClosure {
 
     private final Set<String> relations;
 
+    /**
+     * The closure of a trace that was added with addTrace. Row i holds the
+     * nodes that are reachable from the node with topological index i. Since
+     * these nodes all have a larger index than i, row i only stores the words
+     * of the bitset from word (i + 1) / 64 onwards. Rows are therefore aligned
+     * to the same word grid, and a row can be OR-ed into another row word by
+     * word.
+     */
+    private static final class TraceBlock {
+        /** Index of the first node of the trace in blockIds. */
+        final int base;
+        /** Nodes of the trace, in topological order. */
+        final EventNode[] nodes;
+        final long[][] rows;
+
+        TraceBlock(int base, EventNode[] nodes) {
+            this.base = base;
+            this.nodes = nodes;
+            this.rows = new long[nodes.length][];
+        }
+
+        static int firstWord(int i) {
+            return (i + 1) >>> 6;
+        }
+
+        boolean isReachable(int i, int j) {
+            if (j <= i) {
+                return false;
+            }
+            return (rows[i][(j >>> 6) - firstWord(i)] & (1L << j)) != 0;
+        }
+
+        boolean isEmpty(int i) {
+            for (long word : rows[i]) {
+                if (word != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Set<EventNode> getReachableNodes(int i) {
+            Set<EventNode> reachables = new LinkedHashSet<EventNode>();
+            int offset = firstWord(i) << 6;
+            long[] row = rows[i];
+            for (int w = 0; w < row.length; w++) {
+                long word = row[w];
+                while (word != 0) {
+                    reachables.add(nodes[offset + (w << 6)
+                            + Long.numberOfTrailingZeros(word)]);
+                    word &= word - 1;
+                }
+            }
+            return reachables;
+        }
+    }
+
+    /** Index (see blockIds) of each node of a trace added with addTrace. */
+    private final Map<EventNode, Integer> nodeIds = new HashMap<EventNode, Integer>();
+
+    /** blockIds[id] is the block of the node with index id in nodeIds. */
+    private int[] blockIds = new int[0];
+
+    private final List<TraceBlock> blocks = new ArrayList<TraceBlock>();
+
+    /** Number of blocks that have been copied into tc by getTC. */
+    private int numBlocksInTC = 0;
+
     /**
      * Create the transitive closure of {@code graph} for the Relation
      * {@code relation} using one of two algorithms -- an iterative Warshall's
@@ -36,6 +120,162 @@ public class TransitiveClosure {
         this.relations = relation;
     }
 
+    /**
+     * Adds the closure of a trace DAG to this transitive closure. The DAG
+     * consists of the nodes in roots and of all the nodes that are reachable
+     * from them through transitions with exactly the given relations, except
+     * for terminal nodes. The nodes of the DAG must not have been added
+     * before.
+     * 
+     * @param roots
+     *            nodes of the trace, including at least all of the nodes that
+     *            have no parents in the DAG
+     * @param relations
+     *            the relations of the transitions of the DAG
+     */
+    public void addTrace(Collection<EventNode> roots, Set<String> relations) {
+        // 1. Number the nodes of the DAG in the order in which they are
+        // discovered, and count the parents of each node.
+        Map<EventNode, Integer> ids = new HashMap<EventNode, Integer>();
+        List<EventNode> nodes = new ArrayList<EventNode>();
+        List<int[]> children = new ArrayList<int[]>();
+        int[] parentsCount = new int[16];
+        for (EventNode root : roots) {
+            if (!ids.containsKey(root)) {
+                ids.put(root, nodes.size());
+                nodes.add(root);
+            }
+        }
+        for (int m = 0; m < nodes.size(); m++) {
+            List<? extends ITransition<EventNode>> transitions = nodes.get(m)
+                    .getTransitionsWithExactRelations(relations);
+            int[] mChildren = new int[transitions.size()];
+            int numChildren = 0;
+            for (ITransition<EventNode> trans : transitions) {
+                EventNode dest = trans.getTarget();
+                if (dest.isTerminal()) {
+                    continue;
+                }
+                Integer id = ids.get(dest);
+                if (id == null) {
+                    id = nodes.size();
+                    ids.put(dest, id);
+                    nodes.add(dest);
+                }
+                if (id >= parentsCount.length) {
+                    parentsCount = Arrays.copyOf(parentsCount,
+                            Math.max(id + 1, 2 * parentsCount.length));
+                }
+                parentsCount[id]++;
+                mChildren[numChildren++] = id;
+            }
+            children.add(Arrays.copyOf(mChildren, numChildren));
+        }
+
+        // 2. Compute a topological order of the DAG (Kahn's algorithm).
+        int n = nodes.size();
+        int[] topoOrder = new int[n];
+        int[] topoIndex = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int m = 0; m < n; m++) {
+            if (parentsCount[m] == 0) {
+                topoOrder[tail++] = m;
+            }
+        }
+        while (head < tail) {
+            int m = topoOrder[head];
+            topoIndex[m] = head++;
+            for (int child : children.get(m)) {
+                if (--parentsCount[child] == 0) {
+                    topoOrder[tail++] = child;
+                }
+            }
+        }
+        if (tail != n) {
+            throw new InternalSynopticException(
+                    "Trace of node " + nodes.get(0) + " is not a DAG.");
+        }
+
+        // 3. Translate the children of each node into sorted topological
+        // indices, and let the closure compute the reachable sets.
+        List<EventNode> sortedNodes = new ArrayList<EventNode>(n);
+        int[][] successors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int m = topoOrder[i];
+            sortedNodes.add(nodes.get(m));
+            int[] mChildren = children.get(m);
+            int[] sortedChildren = new int[mChildren.length];
+            for (int c = 0; c < mChildren.length; c++) {
+                sortedChildren[c] = topoIndex[mChildren[c]];
+            }
+            Arrays.sort(sortedChildren);
+            successors[i] = sortedChildren;
+        }
+        addSortedTrace(sortedNodes, successors);
+    }
+
+    /**
+     * Adds the closure of a trace DAG, given in topological order, to this
+     * transitive closure. The nodes of the trace must not have been added
+     * before.
+     * 
+     * @param topoOrder
+     *            the nodes of the trace, in a topological order
+     * @param successors
+     *            successors[i] are the topological indices of the immediate
+     *            successors of topoOrder.get(i), in increasing order. All of
+     *            these indices must be larger than i.
+     */
+    private void addSortedTrace(List<EventNode> topoOrder,
+            int[][] successors) {
+        int n = topoOrder.size();
+        TraceBlock block = new TraceBlock(nodeIds.size(),
+                topoOrder.toArray(new EventNode[n]));
+        int numWords = (n + 63) >>> 6;
+
+        // Build the rows in reverse topological order, so that the rows of
+        // the successors of a node are complete when the node's row is built.
+        // Visiting the successors in topological order means that a successor
+        // that is already in the row was reached through an earlier
+        // successor, and its row need not be merged again.
+        for (int i = n - 1; i >= 0; i--) {
+            int first = TraceBlock.firstWord(i);
+            long[] row = new long[numWords - first];
+            for (int c : successors[i]) {
+                if (c <= i) {
+                    throw new IllegalArgumentException(
+                            "Successors must follow their node in topological order: "
+                                    + topoOrder.get(i) + " -> "
+                                    + topoOrder.get(c));
+                }
+                long bit = 1L << c;
+                int w = (c >>> 6) - first;
+                if ((row[w] & bit) != 0) {
+                    continue;
+                }
+                row[w] |= bit;
+                long[] childRow = block.rows[c];
+                int shift = TraceBlock.firstWord(c) - first;
+                for (int k = 0; k < childRow.length; k++) {
+                    row[k + shift] |= childRow[k];
+                }
+            }
+            block.rows[i] = row;
+        }
+
+        int blockId = blocks.size();
+        blocks.add(block);
+        blockIds = Arrays.copyOf(blockIds, block.base + n);
+        for (int i = 0; i < n; i++) {
+            if (nodeIds.put(block.nodes[i], block.base + i) != null) {
+                throw new IllegalArgumentException("Node " + block.nodes[i]
+                        + " was already added to the transitive closure");
+            }
+            blockIds[block.base + i] = blockId;
+        }
+    }
+
     /**
      * Check whether there is an edge in the transitive closure between
      * {@code m} and {@code n}.
@@ -47,6 +287,15 @@ public class TransitiveClosure {
      * @return true if {@code m} can reach {@code n}
      */
     public boolean isReachable(EventNode m, EventNode n) {
+        Integer mId = nodeIds.get(m);
+        if (mId != null) {
+            Integer nId = nodeIds.get(n);
+            if (nId == null || blockIds[mId] != blockIds[nId]) {
+                return false;
+            }
+            TraceBlock block = blocks.get(blockIds[mId]);
+            return block.isReachable(mId - block.base, nId - block.base);
+        }
         Set<EventNode> i = tc.get(m);
         if (i == null) {
             return false;
@@ -54,7 +303,8 @@ public class TransitiveClosure {
         return i.contains(n);
     }
 
-    // WARNING: Assumes that 'into' has a non-null entry in tc.
+    // WARNING: Assumes that 'into' has a non-null entry in tc. Only applies to
+    // reachability that was recorded with recordTransitiveReachability.
     public void mergeReachables(EventNode from, EventNode into) {
         Set<EventNode> srcSet = tc.get(from);
 
@@ -86,6 +336,12 @@ public class TransitiveClosure {
      *            the node from which the reachability closure is computed.
      */
     public Set<EventNode> getReachableNodes(EventNode source) {
+        Integer id = nodeIds.get(source);
+        if (id != null) {
+            TraceBlock block = blocks.get(blockIds[id]);
+            int i = id - block.base;
+            return block.isEmpty(i) ? null : block.getReachableNodes(i);
+        }
         return tc.get(source);
     }
 
@@ -100,8 +356,10 @@ public class TransitiveClosure {
             return false;
         }
 
-        for (EventNode u : other.tc.keySet()) {
-            for (EventNode v : other.tc.get(u)) {
+        for (Map.Entry<EventNode, Set<EventNode>> entry : other.getTC()
+                .entrySet()) {
+            EventNode u = entry.getKey();
+            for (EventNode v : entry.getValue()) {
                 // v is reachable from u in other.tc, check that same is true
                 // for this.tc:
                 if (!isReachable(u, v)) {
@@ -110,8 +368,9 @@ public class TransitiveClosure {
             }
         }
 
-        for (EventNode u : tc.keySet()) {
-            for (EventNode v : tc.get(u)) {
+        for (Map.Entry<EventNode, Set<EventNode>> entry : getTC().entrySet()) {
+            EventNode u = entry.getKey();
+            for (EventNode v : entry.getValue()) {
                 // v is reachable from u in this.tc, check that same is true for
                 // other.tc:
                 if (!other.isReachable(u, v)) {
@@ -123,13 +382,26 @@ public class TransitiveClosure {
     }
 
     public String toString() {
-        return tc.toString();
+        return getTC().toString();
     }
 
     /**
+     * Returns the closure as a map from each node to the non-empty set of
+     * nodes that it can reach. The closures of traces that were added with
+     * addTrace are copied into this map on demand, which takes memory that is
+     * proportional to the number of reachable pairs.
+     * 
      * @return tc
      */
     public Map<EventNode, Set<EventNode>> getTC() {
+        for (; numBlocksInTC < blocks.size(); numBlocksInTC++) {
+            TraceBlock block = blocks.get(numBlocksInTC);
+            for (int i = 0; i < block.nodes.length; i++) {
+                if (!block.isEmpty(i)) {
+                    tc.put(block.nodes[i], block.getReachableNodes(i));
+                }
+            }
+        }
         return tc;
     }
 
@@ -38,8 +38,7 @@ public class PartitionMerge implements IOperation {
         for (EventNode m : removed.getEventNodes()) {
             split.addEventToSplit(m);
         }
-        retained.addEventNodes(removed.getEventNodes());
-        removed.removeAllEventNodes();
+        retained.mergeEventNodes(removed);
         g.removePartition(removed);
         if (removedSize + retainedSize != retained.size()) {
             throw new InternalSynopticException("lost messages!: "
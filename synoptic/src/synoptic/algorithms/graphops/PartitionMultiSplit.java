@@ -1,11 +1,13 @@
 package synoptic.algorithms.graphops;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.model.EventNode;
 import synoptic.model.Partition;
 import synoptic.model.PartitionGraph;
@@ -61,7 +63,7 @@ public class PartitionMultiSplit implements IOperation {
 
         // //////////////
 
-        if (AbstractMain.getInstance().options.performExtraChecks) {
+        if (InferenceContext.getCurrent().options.performExtraChecks) {
             g.checkSanity();
         }
 
@@ -121,6 +123,16 @@ public class PartitionMultiSplit implements IOperation {
         return partition;
     }
 
+    /**
+     * Returns the sets of event nodes that will form the partitions created
+     * upon commitment of this multi split. The first set is the one that stays
+     * in the partition that is being split. The returned list must not be
+     * modified.
+     */
+    public List<Set<EventNode>> getPartitioning() {
+        return Collections.unmodifiableList(partitioning);
+    }
+
     /**
      * Incorporates a partition multi split.
      * 
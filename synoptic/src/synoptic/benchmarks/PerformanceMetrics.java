@@ -5,25 +5,28 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.logging.Logger;
 
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 
 /**
  * A class to record performance metrics. It is a key value store, that keeps
  * record of the number of updates to each value. An update to a value (using
  * record) will add the value to the previously recorded one. This also keeps
  * track of a hierarchy of tasks: createTask adds a task to the task stack, and
- * a call to the task's stop method pops it.
+ * a call to the task's stop method pops it. Each thread has its own task stack,
+ * and recording is synchronized, so tasks may be timed from several threads at
+ * once.
  */
 public class PerformanceMetrics {
     private static Logger logger = Logger.getLogger("Performance Metrics");
     /**
      * A global performance metric instance to record statistics.
      */
-    private static PerformanceMetrics globalPerformanceMetrics = new PerformanceMetrics();
+    private static volatile PerformanceMetrics globalPerformanceMetrics = new PerformanceMetrics();
     /**
-     * The last created timed task. This is used to create a hierarchy of tasks.
+     * The last created timed task of each thread. This is used to create a
+     * hierarchy of tasks.
      */
-    private static TimedTask previousTask = null;
+    private static final ThreadLocal<TimedTask> previousTask = new ThreadLocal<TimedTask>();
     /**
      * Holds the values measured for each metric. Consecutive measurements will
      * be accumulated by addition here.
@@ -49,11 +52,11 @@ public class PerformanceMetrics {
      * @param t
      *            the task to record
      */
-    public void record(TimedTask t) {
+    public synchronized void record(TimedTask t) {
         // t.stop();
         record(t.getTask(), t.getTime());
         accumulativity.put(t.getTask(), t.getAccumulativity());
-        previousTask = t.getParent();
+        previousTask.set(t.getParent());
     }
 
     /**
@@ -76,10 +79,11 @@ public class PerformanceMetrics {
      * @param value
      *            the measured value
      */
-    public void record(String key, long value) {
+    public synchronized void record(String key, long value) {
         if (!getAccumulativity(key)) {
             // Print all recorded values.
-            if (AbstractMain.getInstance().options.doBenchmarking) {
+            if (InferenceContext.hasCurrent()
+                    && InferenceContext.getCurrent().options.doBenchmarking) {
                 logger.fine(key + " = " + value);
             }
         }
@@ -95,9 +99,15 @@ public class PerformanceMetrics {
     }
 
     /**
-     * Returns the global performance metrics object
+     * Returns the performance metrics of the inference context that is bound
+     * to the calling thread, or the global performance metrics object if no
+     * context is bound.
      */
     static public PerformanceMetrics get() {
+        InferenceContext context = InferenceContext.getBound();
+        if (context != null) {
+            return context.getMetrics();
+        }
         return globalPerformanceMetrics;
     }
 
@@ -122,9 +132,10 @@ public class PerformanceMetrics {
      * @return the created timed task
      */
     public static TimedTask createTask(String taskName, boolean accumulativity) {
-        previousTask = new TimedTask(taskName, previousTask,
-                globalPerformanceMetrics, accumulativity);
-        return previousTask;
+        TimedTask task = new TimedTask(taskName, previousTask.get(), get(),
+                accumulativity);
+        previousTask.set(task);
+        return task;
     }
 
     /**
@@ -133,7 +144,7 @@ public class PerformanceMetrics {
      * 
      * @return the data in alphabetic order
      */
-    public String getDataRelative() {
+    public synchronized String getDataRelative() {
         ArrayList<String> keys = new ArrayList<String>(values.keySet());
         Collections.sort(keys);
         StringBuilder str = new StringBuilder();
@@ -150,7 +161,7 @@ public class PerformanceMetrics {
      *            the number to divide each measurement through (use for avg)
      * @return data in alphabetic order
      */
-    public String getDataDividedBy(int divisor) {
+    public synchronized String getDataDividedBy(int divisor) {
         ArrayList<String> keys = new ArrayList<String>(values.keySet());
         Collections.sort(keys);
         StringBuilder str = new StringBuilder();
@@ -165,7 +176,7 @@ public class PerformanceMetrics {
      * 
      * @return keys in alphabetic order
      */
-    public String getHeader() {
+    public synchronized String getHeader() {
         ArrayList<String> keys = new ArrayList<String>(values.keySet());
         Collections.sort(keys);
         StringBuilder str = new StringBuilder();
@@ -7,20 +7,25 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import synoptic.benchmarks.PerformanceMetrics;
 import synoptic.benchmarks.TimedTask;
+import synoptic.invariants.fsmcheck.BatchTracingChecker;
 import synoptic.invariants.fsmcheck.FsmModelChecker;
-import synoptic.main.AbstractMain;
+import synoptic.invariants.fsmcheck.GraphSnapshot;
+import synoptic.main.InferenceContext;
 import synoptic.model.interfaces.IGraph;
 import synoptic.model.interfaces.INode;
+import synoptic.util.WorkerPool;
 
 /**
  * Maintains a set of temporal invariants.
@@ -141,9 +146,58 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
         }
     }
 
+    /**
+     * Returns the invariants in this set that may have a counter-example in
+     * graph g, in the order of this set. All BitSet checkable invariants (see
+     * {@link FsmModelChecker#isBitSetCheckable}) are first checked together
+     * with the BitSet checker, and only those that fail are returned. Other
+     * invariants (e.g., constrained invariants) are always returned. Finding
+     * the counter-example paths with the tracing checker is therefore only
+     * necessary for the returned invariants.
+     * 
+     * @param <T>
+     *            the type of nodes in graph g
+     * @param g
+     *            the graph to check
+     * @return the invariants to run the tracing checker on
+     */
+    private <T extends INode<T>> List<BinaryInvariant> getInvariantsToTrace(
+            IGraph<T> g) {
+        List<BinaryInvariant> checkable = new ArrayList<BinaryInvariant>();
+        for (ITemporalInvariant tinv : invariants) {
+            if (FsmModelChecker.isBitSetCheckable(tinv)) {
+                checkable.add((BinaryInvariant) tinv);
+            }
+        }
+
+        Set<BinaryInvariant> failed = new HashSet<BinaryInvariant>();
+        if (!checkable.isEmpty()) {
+            TimedTask bitSetCheck = PerformanceMetrics.createTask(
+                    "runBitSetChecker", false);
+            try {
+                failed.addAll(FsmModelChecker.runBitSetChecker(checkable, g));
+            } finally {
+                bitSetCheck.stop();
+            }
+        }
+
+        List<BinaryInvariant> toTrace = new ArrayList<BinaryInvariant>();
+        for (ITemporalInvariant tinv : invariants) {
+            if (!FsmModelChecker.isBitSetCheckable(tinv)
+                    || failed.contains(tinv)) {
+                toTrace.add((BinaryInvariant) tinv);
+            }
+        }
+        return toTrace;
+    }
+
     /**
      * Returns a list of paths, each of which violates an invariant maintained
-     * by this invariant set (i.e. each of which is a counter-example).
+     * by this invariant set (i.e. each of which is a counter-example). The
+     * paths are sorted by length, and paths of equal length are in the order
+     * of their invariants in this set. With the parallelModelChecking option,
+     * the counter-examples of different invariants are searched for on the
+     * worker threads, over a snapshot of graph; the result is the same.
      * 
      * @param <T>
      *            the type of nodes in graph g
@@ -155,17 +209,19 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
             IGraph<T> graph) {
         TimedTask violations = PerformanceMetrics.createTask(
                 "getAllCounterExamples", false);
-        AbstractMain main = AbstractMain.getInstance();
+        InferenceContext context = InferenceContext.getCurrent();
         try {
             List<CExamplePath<T>> paths = null;
 
-            paths = new ArrayList<CExamplePath<T>>();
-            for (ITemporalInvariant tinv : invariants) {
-                CExamplePath<T> path = FsmModelChecker.getCounterExample(
-                        (BinaryInvariant) tinv, graph);
-                if (path != null) {
-                    paths.add(path);
-                }
+            if (context.options.parallelModelChecking
+                    && WorkerPool.getNumThreads() > 1) {
+                // The worker threads must not fill in graph's caches
+                // concurrently, so they check a frozen snapshot instead.
+                IGraph<T> snapshot = new GraphSnapshot<T>(graph);
+                paths = getCounterExamplesConcurrently(
+                        getInvariantsToTrace(snapshot), snapshot);
+            } else {
+                paths = getCounterExamples(getInvariantsToTrace(graph), graph);
             }
 
             if (paths.size() == 0) {
@@ -184,12 +240,130 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
             return paths;
         } finally {
             violations.stop();
-            if (main.options.doBenchmarking) {
+            if (context.options.doBenchmarking) {
                 logger.info("BENCHM: " + violations.toString());
             }
         }
     }
 
+    /**
+     * Returns the counter-examples for invs in graph g, in the order of invs.
+     * Unconstrained invariants are checked together by a single
+     * {@link BatchTracingChecker}, and the remaining invariants are checked
+     * one at a time by the tracing checker.
+     * 
+     * @param <T>
+     *            the type of nodes in graph g
+     * @param invs
+     *            the invariants to find counter-examples for
+     * @param g
+     *            the graph to check
+     * @return the counter-examples for the invariants that have one
+     */
+    private static <T extends INode<T>> List<CExamplePath<T>> getCounterExamples(
+            List<BinaryInvariant> invs, IGraph<T> g) {
+        List<BinaryInvariant> batch = new ArrayList<BinaryInvariant>();
+        for (BinaryInvariant tinv : invs) {
+            if (BatchTracingChecker.isBatchCheckable(tinv)) {
+                batch.add(tinv);
+            }
+        }
+        Iterator<CExamplePath<T>> batchPaths = null;
+        if (!batch.isEmpty()) {
+            batchPaths = new BatchTracingChecker<T>(g).getCounterExamples(
+                    batch).iterator();
+        }
+
+        List<CExamplePath<T>> paths = new ArrayList<CExamplePath<T>>();
+        for (BinaryInvariant tinv : invs) {
+            CExamplePath<T> path;
+            if (BatchTracingChecker.isBatchCheckable(tinv)) {
+                path = batchPaths.next();
+            } else {
+                path = FsmModelChecker.getCounterExample(tinv, g);
+            }
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Finds the counter-examples for invs on the worker threads, and returns
+     * them in the order of invs. The unconstrained invariants are split into
+     * one batch per thread, and each of the remaining invariants is checked
+     * by a task of its own. The result is the same as that of
+     * getCounterExamples.
+     * 
+     * @param <T>
+     *            the type of nodes in graph g
+     * @param invs
+     *            the invariants to find counter-examples for
+     * @param g
+     *            the graph to check, which must be safe to read concurrently
+     * @return the counter-examples for the invariants that have one
+     */
+    private static <T extends INode<T>> List<CExamplePath<T>> getCounterExamplesConcurrently(
+            List<BinaryInvariant> invs, final IGraph<T> g) {
+        List<BinaryInvariant> batch = new ArrayList<BinaryInvariant>();
+        List<BinaryInvariant> others = new ArrayList<BinaryInvariant>();
+        for (BinaryInvariant tinv : invs) {
+            if (BatchTracingChecker.isBatchCheckable(tinv)) {
+                batch.add(tinv);
+            } else {
+                others.add(tinv);
+            }
+        }
+
+        List<Callable<List<CExamplePath<T>>>> tasks = new ArrayList<Callable<List<CExamplePath<T>>>>();
+        if (!batch.isEmpty()) {
+            for (final List<BinaryInvariant> shard : WorkerPool.shard(batch,
+                    WorkerPool.getNumThreads())) {
+                tasks.add(new Callable<List<CExamplePath<T>>>() {
+                    @Override
+                    public List<CExamplePath<T>> call() {
+                        return new BatchTracingChecker<T>(g)
+                                .getCounterExamples(shard);
+                    }
+                });
+            }
+        }
+        for (final BinaryInvariant tinv : others) {
+            tasks.add(new Callable<List<CExamplePath<T>>>() {
+                @Override
+                public List<CExamplePath<T>> call() {
+                    return Collections.singletonList(FsmModelChecker
+                            .getCounterExample(tinv, g));
+                }
+            });
+        }
+
+        // Task results are in the order of batch followed by others.
+        List<CExamplePath<T>> results = new ArrayList<CExamplePath<T>>();
+        for (List<CExamplePath<T>> taskPaths : WorkerPool.invokeAll(tasks)) {
+            results.addAll(taskPaths);
+        }
+        Iterator<CExamplePath<T>> batchPaths = results.subList(0,
+                batch.size()).iterator();
+        Iterator<CExamplePath<T>> otherPaths = results.subList(batch.size(),
+                results.size()).iterator();
+
+        List<CExamplePath<T>> paths = new ArrayList<CExamplePath<T>>();
+        for (BinaryInvariant tinv : invs) {
+            CExamplePath<T> path;
+            if (BatchTracingChecker.isBatchCheckable(tinv)) {
+                path = batchPaths.next();
+            } else {
+                path = otherPaths.next();
+            }
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
     /**
      * Returns the first counter-example encountered in the graph g. The order
      * of exploration is unspecified.
@@ -205,9 +379,9 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
         TimedTask violations = PerformanceMetrics.createTask(
                 "getFirstCounterExample", false);
         try {
-            for (ITemporalInvariant tinv : invariants) {
+            for (BinaryInvariant tinv : getInvariantsToTrace(g)) {
                 CExamplePath<T> path = FsmModelChecker.getCounterExample(
-                        (BinaryInvariant) tinv, g);
+                        tinv, g);
                 if (path != null) {
                     return path;
                 }
@@ -259,7 +433,7 @@ public class TemporalInvariantSet implements Iterable<ITemporalInvariant> {
     // int percentReduction = possibleInvariants == 0 ? 0 : 100
     // - overapproximatedInvariantsSetSize * 100 / possibleInvariants;
     //
-    // if (AbstractMain.getInstance().options.doBenchmarking) {
+    // if (InferenceContext.getCurrent().options.doBenchmarking) {
     // logger.info("BENCHM: "
     // + overapproximatedInvariantsSet.numInvariants()
     // + " true invariants, approximation guessed "
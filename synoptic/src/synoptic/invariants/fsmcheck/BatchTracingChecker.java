@@ -0,0 +1,287 @@
+package synoptic.invariants.fsmcheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import synoptic.invariants.AlwaysFollowedInvariant;
+import synoptic.invariants.AlwaysPrecedesInvariant;
+import synoptic.invariants.BinaryInvariant;
+import synoptic.invariants.CExamplePath;
+import synoptic.invariants.ITemporalInvariant;
+import synoptic.invariants.NeverFollowedInvariant;
+import synoptic.model.event.EventTypeDictionary;
+import synoptic.model.interfaces.IGraph;
+import synoptic.model.interfaces.INode;
+
+/**
+ * <p>
+ * A tracing model checker that finds the counter-examples of a batch of
+ * unconstrained invariants (see {@link FsmModelChecker#isBitSetCheckable}) in
+ * a single traversal of the graph. Where the tracing state sets (see
+ * {@link TracingStateSet}) keep a chain of {@link HistoryNode}s for every
+ * invariant and state, this checker runs a breadth-first search over
+ * (node, invariant, automaton state) entries, and records a single
+ * predecessor entry for each reached entry in a table that is shared by all
+ * invariants of the batch. The shortest counter-example of each failing
+ * invariant is then rebuilt from this table.
+ * </p>
+ * <p>
+ * The nodes of each level of the search are visited in node id order (see
+ * {@link DenseModelChecker}), and the adjacency of a node is traversed once
+ * for all of the entries of the level at that node. The counter-example that
+ * is found for an invariant is a shortest path from the initial node to a
+ * terminal node in the invariant's failure state, and it does not depend on
+ * which other invariants are in the batch. Once an invariant's
+ * counter-example is found, its entries are no longer expanded.
+ * </p>
+ *
+ * @param <Node>
+ *            the type of nodes in the graph
+ */
+public class BatchTracingChecker<Node extends INode<Node>> {
+    /** Number of automaton states per invariant. AFby uses the first two. */
+    private static final int NUM_STATES = 3;
+
+    /**
+     * Upper bound on the number of entries in the predecessor table of a
+     * batch. Larger batches are checked in several passes.
+     */
+    static final int MAX_BATCH_ENTRIES = 1 << 22;
+
+    /** Marks an entry that has not been reached. */
+    private static final int UNREACHED = -2;
+
+    /** Marks an entry at the initial node, which has no predecessor. */
+    private static final int ROOT = -1;
+
+    // Transition tables of the invariant automata, indexed by input and then
+    // by state. The input of an event type t is 1 if t is the first event
+    // type of the invariant, plus 2 if t is the second event type. State 0 is
+    // the initial state. These must stay consistent with the tracing sets.
+
+    /** AFby: 0 = B seen since last A, 1 = A seen since last B (failure). */
+    private static final int[][] AFBY_DELTA = { { 0, 1, 2 }, { 1, 1, 2 },
+            { 0, 0, 2 }, { 1, 1, 2 } };
+
+    /** AP: 0 = neither seen, 1 = A seen first, 2 = B seen first (failure). */
+    private static final int[][] AP_DELTA = { { 0, 1, 2 }, { 1, 1, 2 },
+            { 2, 1, 2 }, { 1, 1, 2 } };
+
+    /** NFby: 0 = A not seen, 1 = A seen, 2 = B seen after A (failure). */
+    private static final int[][] NFBY_DELTA = { { 0, 1, 2 }, { 1, 1, 2 },
+            { 0, 2, 2 }, { 1, 2, 2 } };
+
+    /** IntrBy: 0 = A not seen, 1 = A seen once, 2 = A seen twice (failure). */
+    private static final int[][] INTRBY_DELTA = { { 0, 1, 2 }, { 1, 2, 2 },
+            { 0, 0, 2 }, { 0, 2, 2 } };
+
+    /** The indexed graph. */
+    private final DenseModelChecker<Node> graph;
+
+    /** Dictionary of the ids below. */
+    private final EventTypeDictionary eTypeDictionary = EventTypeDictionary
+            .getCurrent();
+
+    /** EventTypeDictionary id of the event type of node i. */
+    private final int[] eTypeIds;
+
+    /**
+     * Indexes graph for checking. The graph must not be modified while the
+     * checker is in use.
+     */
+    public BatchTracingChecker(IGraph<Node> graph) {
+        this.graph = new DenseModelChecker<Node>(graph);
+        int n = this.graph.getNumNodes();
+        eTypeIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            eTypeIds[i] = eTypeDictionary.getId(this.graph.getNode(i)
+                    .getEType());
+        }
+    }
+
+    /**
+     * Returns whether invariant can be checked by this checker. This is the
+     * case for the invariants that the BitSet checker can evaluate.
+     */
+    public static boolean isBatchCheckable(ITemporalInvariant invariant) {
+        return FsmModelChecker.isBitSetCheckable(invariant);
+    }
+
+    /**
+     * Returns the shortest counter-example of each of invariants, in the
+     * order of invariants, with null for the invariants that hold.
+     *
+     * @param invariants
+     *            the invariants to check, which must be batch checkable
+     * @return list of counter-examples, aligned with invariants
+     */
+    public List<CExamplePath<Node>> getCounterExamples(
+            List<BinaryInvariant> invariants) {
+        for (BinaryInvariant inv : invariants) {
+            if (!isBatchCheckable(inv)) {
+                throw new IllegalArgumentException(
+                        "Batch tracing does not support " + inv);
+            }
+        }
+
+        List<CExamplePath<Node>> results = new ArrayList<CExamplePath<Node>>(
+                invariants.size());
+        int batchSize = Math.max(1, MAX_BATCH_ENTRIES
+                / Math.max(1, graph.getNumNodes() * NUM_STATES));
+        for (int from = 0; from < invariants.size(); from += batchSize) {
+            int to = Math.min(invariants.size(), from + batchSize);
+            checkBatch(invariants.subList(from, to), results);
+        }
+        return results;
+    }
+
+    /**
+     * Searches for the counter-examples of invs, and appends them to results.
+     */
+    private void checkBatch(List<BinaryInvariant> invs,
+            List<CExamplePath<Node>> results) {
+        int k = invs.size();
+        int entriesPerNode = k * NUM_STATES;
+        int[][][] deltas = new int[k][][];
+        int[] failStates = new int[k];
+        int[] aIds = new int[k];
+        int[] bIds = new int[k];
+        for (int inv = 0; inv < k; inv++) {
+            BinaryInvariant binv = invs.get(inv);
+            deltas[inv] = getDelta(binv);
+            failStates[inv] = deltas[inv] == AFBY_DELTA ? 1 : 2;
+            aIds[inv] = eTypeDictionary.getId(binv.getFirst());
+            bIds[inv] = eTypeDictionary.getId(binv.getSecond());
+        }
+
+        // Entry (node, inv, state) is at index
+        // node * entriesPerNode + inv * NUM_STATES + state, so that sorting
+        // entries sorts them by node first.
+        int[] preds = new int[graph.getNumNodes() * entriesPerNode];
+        Arrays.fill(preds, UNREACHED);
+        CExamplePath<Node>[] found = newPathArray(k);
+        boolean[] done = new boolean[k];
+        int numDone = 0;
+
+        int initial = graph.getInitialId();
+        int[] level = new int[k];
+        int levelSize = 0;
+        for (int inv = 0; inv < k; inv++) {
+            int state = deltas[inv][getInput(initial, aIds[inv], bIds[inv])][0];
+            int entry = initial * entriesPerNode + inv * NUM_STATES + state;
+            preds[entry] = ROOT;
+            level[levelSize++] = entry;
+        }
+
+        int[] nextLevel = new int[Math.max(16, k)];
+        while (levelSize > 0) {
+            // Entries of a level are sorted, so the first failing entry at a
+            // terminal node is the one with the smallest node id.
+            for (int i = 0; i < levelSize; i++) {
+                int entry = level[i];
+                int node = entry / entriesPerNode;
+                int inv = (entry % entriesPerNode) / NUM_STATES;
+                if (!done[inv] && graph.isTerminal(node)
+                        && entry % NUM_STATES == failStates[inv]) {
+                    found[inv] = toCounterExample(invs.get(inv), preds, entry,
+                            entriesPerNode);
+                    done[inv] = true;
+                    numDone++;
+                }
+            }
+            if (numDone == k) {
+                break;
+            }
+
+            // Expand the level, one node (and one traversal of its
+            // adjacency) at a time.
+            int nextSize = 0;
+            int i = 0;
+            while (i < levelSize) {
+                int node = level[i] / entriesPerNode;
+                int end = i;
+                while (end < levelSize && level[end] / entriesPerNode == node) {
+                    end++;
+                }
+                for (int pos = graph.getAdjacentStart(node); pos < graph
+                        .getAdjacentEnd(node); pos++) {
+                    int target = graph.getAdjacent(pos);
+                    int targetBase = target * entriesPerNode;
+                    for (int j = i; j < end; j++) {
+                        int entry = level[j];
+                        int inv = (entry % entriesPerNode) / NUM_STATES;
+                        if (done[inv]) {
+                            continue;
+                        }
+                        int input = getInput(target, aIds[inv], bIds[inv]);
+                        int state = deltas[inv][input][entry % NUM_STATES];
+                        int targetEntry = targetBase + inv * NUM_STATES + state;
+                        if (preds[targetEntry] == UNREACHED) {
+                            preds[targetEntry] = entry;
+                            if (nextSize == nextLevel.length) {
+                                nextLevel = Arrays.copyOf(nextLevel,
+                                        2 * nextSize);
+                            }
+                            nextLevel[nextSize++] = targetEntry;
+                        }
+                    }
+                }
+                i = end;
+            }
+
+            Arrays.sort(nextLevel, 0, nextSize);
+            int[] tmp = level;
+            level = nextLevel;
+            levelSize = nextSize;
+            nextLevel = tmp.length >= 16 ? tmp : new int[16];
+        }
+
+        results.addAll(Arrays.asList(found));
+    }
+
+    /**
+     * Returns the input of the automaton of an invariant with event type ids
+     * aId and bId, for the event type of node.
+     */
+    private int getInput(int node, int aId, int bId) {
+        int eTypeId = eTypeIds[node];
+        return (eTypeId == aId ? 1 : 0) | (eTypeId == bId ? 2 : 0);
+    }
+
+    /**
+     * Rebuilds the path that reached entry from the predecessor table, and
+     * converts it into a counter-example for inv.
+     */
+    private CExamplePath<Node> toCounterExample(BinaryInvariant inv,
+            int[] preds, int entry, int entriesPerNode) {
+        List<Node> reversed = new ArrayList<Node>();
+        for (int cur = entry; cur != ROOT; cur = preds[cur]) {
+            reversed.add(graph.getNode(cur / entriesPerNode));
+        }
+        HistoryNode<Node> path = null;
+        for (int i = reversed.size() - 1; i >= 0; i--) {
+            path = new HistoryNode<Node>(reversed.get(i), path,
+                    reversed.size() - i);
+        }
+        return path.toCounterexample(inv);
+    }
+
+    private static int[][] getDelta(BinaryInvariant inv) {
+        Class<?> invClass = inv.getClass();
+        if (invClass.equals(AlwaysFollowedInvariant.class)) {
+            return AFBY_DELTA;
+        } else if (invClass.equals(AlwaysPrecedesInvariant.class)) {
+            return AP_DELTA;
+        } else if (invClass.equals(NeverFollowedInvariant.class)) {
+            return NFBY_DELTA;
+        }
+        return INTRBY_DELTA;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <Node extends INode<Node>> CExamplePath<Node>[] newPathArray(
+            int size) {
+        return new CExamplePath[size];
+    }
+}
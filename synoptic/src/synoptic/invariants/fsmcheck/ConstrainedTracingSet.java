@@ -197,6 +197,15 @@ public abstract class ConstrainedTracingSet<T extends INode<T>> extends
         // Should only be called on INITIAL nodes
         assert (input.isInitial());
 
+        setLocalInitial(input);
+    }
+
+    /**
+     * Resets the stateset to be as if it started (in State0) on the passed
+     * node, which does not have to be an INITIAL node. Used for localized model
+     * checking of a subgraph that starts at input.
+     */
+    public void setLocalInitial(T input) {
         ConstrainedHistoryNode<T> newHistory = new ConstrainedHistoryNode<T>(
                 input, tBound.getZeroResource());
 
@@ -0,0 +1,308 @@
+package synoptic.invariants.fsmcheck;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import synoptic.model.interfaces.IGraph;
+import synoptic.model.interfaces.INode;
+import synoptic.util.InternalSynopticException;
+
+/**
+ * <p>
+ * The model checking engine behind {@link FsmModelChecker}, which propagates
+ * state sets along the edges of a graph until a fixpoint is reached. It works
+ * over dense integer node ids: on construction, the nodes of the graph are
+ * numbered in the order of getNodes(), and the adjacency of the graph is
+ * flattened into arrays in the order of getAdjacentNodes(). The state sets of
+ * a check are kept in an array indexed by node id, the worklist is an int ring
+ * buffer whose membership is tracked by a bitset, and transitions are computed
+ * in a single scratch state set when the state sets are reusable (see
+ * {@link IReusableStateSet}).
+ * </p>
+ * <p>
+ * Nodes are processed in first-in first-out order, starting from the initial
+ * node (see check) or from the given nodes (see resume), and the successors of
+ * a node are processed in the order of getAdjacentNodes(). The fixpoint,
+ * including which of several equally short paths a tracing state set keeps,
+ * is therefore deterministic. A checker may be used for any number of checks,
+ * as long as the graph is not modified in between.
+ * </p>
+ * 
+ * @param <Node>
+ *            the type of nodes in the graph
+ */
+public class DenseModelChecker<Node extends INode<Node>> {
+    /** Nodes of the graph, indexed by id. */
+    private final List<Node> nodes;
+
+    /** Maps each node to its id. */
+    private final Map<Node, Integer> ids;
+
+    /** Successors of node i are adjacent[adjacentStart[i]..adjacentStart[i+1]). */
+    private final int[] adjacentStart;
+    private final int[] adjacent;
+
+    /** Whether node i is a terminal node. */
+    private final BitSet terminal;
+
+    /** Id of the dummy initial node. */
+    private final int initialId;
+
+    /**
+     * Indexes graph for checking.
+     */
+    public DenseModelChecker(IGraph<Node> graph) {
+        Set<Node> graphNodes = graph.getNodes();
+        int n = graphNodes.size();
+        nodes = new ArrayList<Node>(graphNodes);
+        ids = new HashMap<Node, Integer>(2 * n);
+        terminal = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            Node node = nodes.get(i);
+            ids.put(node, i);
+            if (node.isTerminal()) {
+                terminal.set(i);
+            }
+        }
+
+        adjacentStart = new int[n + 1];
+        int[] targets = new int[Math.max(16, n)];
+        int numEdges = 0;
+        for (int i = 0; i < n; i++) {
+            adjacentStart[i] = numEdges;
+            for (Node target : graph.getAdjacentNodes(nodes.get(i))) {
+                if (numEdges == targets.length) {
+                    int[] grown = new int[2 * targets.length];
+                    System.arraycopy(targets, 0, grown, 0, numEdges);
+                    targets = grown;
+                }
+                targets[numEdges++] = getId(target);
+            }
+        }
+        adjacentStart[n] = numEdges;
+        adjacent = new int[numEdges];
+        System.arraycopy(targets, 0, adjacent, 0, numEdges);
+
+        // A subgraph (see resume) need not contain the dummy initial node.
+        Integer id = ids.get(graph.getDummyInitialNode());
+        initialId = id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the number of nodes in the checked graph.
+     */
+    public int getNumNodes() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the node with the given id.
+     */
+    public Node getNode(int id) {
+        return nodes.get(id);
+    }
+
+    /**
+     * Returns the id of the dummy initial node, or -1 if the graph does not
+     * contain it.
+     */
+    int getInitialId() {
+        return initialId;
+    }
+
+    /**
+     * Returns whether the node with the given id is a terminal node.
+     */
+    boolean isTerminal(int id) {
+        return terminal.get(id);
+    }
+
+    /**
+     * Returns the position of the first successor of node id in the adjacency
+     * array (see getAdjacent).
+     */
+    int getAdjacentStart(int id) {
+        return adjacentStart[id];
+    }
+
+    /**
+     * Returns the position after the last successor of node id in the
+     * adjacency array (see getAdjacent).
+     */
+    int getAdjacentEnd(int id) {
+        return adjacentStart[id + 1];
+    }
+
+    /**
+     * Returns the id of the successor at position pos of the adjacency array.
+     */
+    int getAdjacent(int pos) {
+        return adjacent[pos];
+    }
+
+    /**
+     * Runs the checker from the initial state set, as in
+     * FsmModelChecker.runChecker, and returns the resulting state sets indexed
+     * by node id.
+     * 
+     * @param initial
+     *            The initial state of each node.
+     * @param earlyExit
+     *            Whether or not to stop as soon as a terminal node fails.
+     * @return The state sets of the nodes, indexed by node id.
+     */
+    @SuppressWarnings("unchecked")
+    public <StateSet extends IStateSet<Node, StateSet>> StateSet[] check(
+            IStateSet<Node, StateSet> initial, boolean earlyExit) {
+        if (initialId < 0) {
+            throw new InternalSynopticException(
+                    "Checked graph does not contain its dummy initial node");
+        }
+        int n = nodes.size();
+        IStateSet<?, ?>[] states = new IStateSet<?, ?>[n];
+        for (int i = 0; i < n; i++) {
+            states[i] = initial.copy();
+        }
+        StateSet[] typedStates = (StateSet[]) states;
+        typedStates[initialId].setInitial(nodes.get(initialId));
+
+        propagate(typedStates, new int[] { initialId }, earlyExit);
+        return typedStates;
+    }
+
+    /**
+     * Resumes a check from a previously computed (partial) fixpoint: the state
+     * sets of the nodes in workList are propagated, in order, until a fixpoint
+     * is reached, or until a terminal node fails if earlyExit is true. This is
+     * used by checkers that only recompute the states of part of a graph.
+     * 
+     * @param states
+     *            The current association between nodes and states, which must
+     *            contain every node of the graph and is updated in place.
+     * @param workList
+     *            The nodes whose states must be propagated to their
+     *            successors.
+     * @param earlyExit
+     *            Whether or not to stop as soon as a terminal node fails.
+     */
+    @SuppressWarnings("unchecked")
+    public <StateSet extends IStateSet<Node, StateSet>> void resume(
+            Map<Node, StateSet> states, Collection<Node> workList,
+            boolean earlyExit) {
+        int n = nodes.size();
+        IStateSet<?, ?>[] denseStates = new IStateSet<?, ?>[n];
+        for (int i = 0; i < n; i++) {
+            denseStates[i] = states.get(nodes.get(i));
+            if (denseStates[i] == null) {
+                throw new InternalSynopticException("Node has no state: "
+                        + nodes.get(i));
+            }
+        }
+
+        int[] seeds = new int[workList.size()];
+        int i = 0;
+        for (Node node : workList) {
+            seeds[i++] = getId(node);
+        }
+        propagate((StateSet[]) denseStates, seeds, earlyExit);
+    }
+
+    /**
+     * Propagates states from the nodes in seeds until a fixpoint is reached,
+     * or until a terminal node fails if earlyExit is true. The states in the
+     * graph are transitioned along edges, and merged at the nodes. A node is
+     * queued again only if merging changed its states.
+     */
+    @SuppressWarnings("unchecked")
+    private <StateSet extends IStateSet<Node, StateSet>> void propagate(
+            StateSet[] states, int[] seeds, boolean earlyExit) {
+        int n = nodes.size();
+
+        // The worklist holds each node at most once, so a ring buffer of n
+        // ids is large enough.
+        int[] workList = new int[Math.max(1, n)];
+        BitSet inWorkList = new BitSet(n);
+        int head = 0;
+        int size = 0;
+        for (int seed : seeds) {
+            if (!inWorkList.get(seed)) {
+                workList[size++] = seed;
+                inWorkList.set(seed);
+            }
+        }
+
+        StateSet scratch = null;
+        if (n > 0 && states[0] instanceof IReusableStateSet) {
+            scratch = states[0].copy();
+        }
+
+        // Takes a node off the worklist, and transitions its states along
+        // each of its edges. The result is checked for subset with the states
+        // of the target node. Only if it is not a subset is it merged in and
+        // the target queued, which prevents infinitely traversing loops.
+        while (size > 0) {
+            int node = workList[head];
+            head = head + 1 == workList.length ? 0 : head + 1;
+            size--;
+            inWorkList.clear(node);
+            StateSet current = states[node];
+
+            for (int pos = adjacentStart[node]; pos < adjacentStart[node + 1]; pos++) {
+                int target = adjacent[pos];
+                StateSet oldTargetStates = states[target];
+                StateSet updatesToTargetStates;
+                if (scratch != null) {
+                    ((IReusableStateSet<Node, StateSet>) scratch)
+                            .copyFrom(current);
+                    updatesToTargetStates = scratch;
+                } else {
+                    updatesToTargetStates = current.copy();
+                }
+                updatesToTargetStates.transition(nodes.get(target));
+
+                // Evaluate isSubset _before_ the merge.
+                boolean isSubset = updatesToTargetStates
+                        .isSubset(oldTargetStates);
+                oldTargetStates.mergeWith(updatesToTargetStates);
+                if (earlyExit && terminal.get(target)
+                        && oldTargetStates.isFail()) {
+                    return;
+                }
+
+                if (!isSubset && !inWorkList.get(target)) {
+                    workList[(head + size) % workList.length] = target;
+                    size++;
+                    inWorkList.set(target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the state sets computed by check as a map from nodes to state
+     * sets, in the order of the graph's getNodes().
+     */
+    public <StateSet> Map<Node, StateSet> toMap(StateSet[] states) {
+        Map<Node, StateSet> result = new LinkedHashMap<Node, StateSet>();
+        for (int i = 0; i < states.length; i++) {
+            result.put(nodes.get(i), states[i]);
+        }
+        return result;
+    }
+
+    private int getId(Node node) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            throw new InternalSynopticException(
+                    "Node is adjacent to a graph node, but is not in the graph: "
+                            + node);
+        }
+        return id;
+    }
+}
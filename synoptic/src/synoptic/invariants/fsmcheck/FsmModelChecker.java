@@ -3,6 +3,7 @@ package synoptic.invariants.fsmcheck;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -50,60 +51,10 @@ public class FsmModelChecker {
     public static <Node extends INode<Node>, StateSet extends IStateSet<Node, StateSet>> Map<Node, StateSet> runChecker(
             IStateSet<Node, StateSet> initial, IGraph<Node> graph,
             boolean earlyExit) {
-
-        // A queue of nodes that we should process.
-        Queue<Node> workList = new LinkedList<Node>();
-
-        // Maps a node to a set of states.
-        Map<Node, StateSet> states = new LinkedHashMap<Node, StateSet>();
-
-        // Populate the state map with initial states.
-        for (Node node : graph.getNodes()) {
-            states.put(node, initial.copy());
-        }
-
-        // Add initial node to the worklist.
-        Node node = graph.getDummyInitialNode();
-        workList.add(node);
-        states.get(node).setInitial(node);
-
-        // Actual model checking step - takes an item off the worklist, and
-        // transitions the state found at that node, using the labels of all
-        // of the adjacent nodes as input. The resulting state is then checked
-        // for subset with the stateset cached at the destination node. If it is
-        // found to be a subset, then merging in the new state would cause no
-        // change. Therefore, only in the case where it's not a subset is the
-        // merge performed and the destination node added to the worklist
-        // (the changed states need to be propagated).
-        while (!workList.isEmpty()) {
-            node = workList.remove();
-            StateSet current = states.get(node);
-
-            // Process all the nodes that are adjacent to the current node.
-            for (Node target : graph.getAdjacentNodes(node)) {
-                StateSet oldTargetStates = states.get(target);
-                StateSet updatesToTargetStates = current.copy();
-                updatesToTargetStates.transition(target);
-
-                // Evaluate isSubset _before_ the merge.
-                boolean isSubset = updatesToTargetStates
-                        .isSubset(oldTargetStates);
-                oldTargetStates.mergeWith(updatesToTargetStates);
-                if (earlyExit && oldTargetStates.isFail()
-                        && target.isTerminal()) {
-                    return states;
-                }
-
-                // If updatesToTargetStates is subset of targetStates, then NOT
-                // re-exploring the graph starting from the current node
-                // prevents infinitely traversing loops
-                if (!isSubset && !workList.contains(target)) {
-                    workList.add(target);
-                }
-            }
-        }
-
-        return states;
+        // The checking itself is done over dense node ids, see
+        // DenseModelChecker.
+        DenseModelChecker<Node> checker = new DenseModelChecker<Node>(graph);
+        return checker.toMap(checker.check(initial, earlyExit));
     }
 
     // Helper which invokes runChecker given an fsm state set, and process the
@@ -132,9 +83,24 @@ public class FsmModelChecker {
         }
     }
 
+    /**
+     * Returns whether the BitSet checker can evaluate invariant. This is the
+     * case for unconstrained AFby, AP, NFby, and IntrBy invariants.
+     */
+    public static boolean isBitSetCheckable(ITemporalInvariant invariant) {
+        Class<?> invClass = invariant.getClass();
+        return invClass.equals(AlwaysFollowedInvariant.class)
+                || invClass.equals(AlwaysPrecedesInvariant.class)
+                || invClass.equals(NeverFollowedInvariant.class)
+                || invClass.equals(InterruptedByInvariant.class);
+    }
+
     /**
      * Use the BitSet checker to evaluate, and return which synoptic.invariants
-     * failed.
+     * failed. Invariants that are not BitSet checkable (see isBitSetCheckable)
+     * are ignored. An invariant fails exactly when getCounterExample returns a
+     * counter-example for it, but all invariants of the same type are checked
+     * in a single pass over the graph.
      */
     @SuppressWarnings("rawtypes")
     public static <T extends INode<T>> List<BinaryInvariant> runBitSetChecker(
@@ -146,6 +112,7 @@ public class FsmModelChecker {
         List<BinaryInvariant> alwaysFollowed = new ArrayList<BinaryInvariant>();
         List<BinaryInvariant> alwaysPrecedes = new ArrayList<BinaryInvariant>();
         List<BinaryInvariant> neverFollowed = new ArrayList<BinaryInvariant>();
+        List<BinaryInvariant> interruptedBy = new ArrayList<BinaryInvariant>();
         for (ITemporalInvariant inv : invariants) {
             @SuppressWarnings("unchecked")
             Class<Object> invClass = (Class) inv.getClass();
@@ -155,17 +122,29 @@ public class FsmModelChecker {
                 alwaysPrecedes.add((BinaryInvariant) inv);
             } else if (invClass.equals(NeverFollowedInvariant.class)) {
                 neverFollowed.add((BinaryInvariant) inv);
+            } else if (invClass.equals(InterruptedByInvariant.class)) {
+                interruptedBy.add((BinaryInvariant) inv);
             }
         }
 
-        BitSet afs = whichFail(new AFbyInvFsms<T>(alwaysFollowed), graph);
-        BitSet aps = whichFail(new APInvFsms<T>(alwaysPrecedes), graph);
-        BitSet nfs = whichFail(new NFbyInvFsms<T>(neverFollowed), graph);
-
         List<BinaryInvariant> results = new ArrayList<BinaryInvariant>();
-        bitFilter(afs, alwaysFollowed, results);
-        bitFilter(aps, alwaysPrecedes, results);
-        bitFilter(nfs, neverFollowed, results);
+        // Each non-empty category costs a pass over the graph.
+        if (!alwaysFollowed.isEmpty()) {
+            BitSet afs = whichFail(new AFbyInvFsms<T>(alwaysFollowed), graph);
+            bitFilter(afs, alwaysFollowed, results);
+        }
+        if (!alwaysPrecedes.isEmpty()) {
+            BitSet aps = whichFail(new APInvFsms<T>(alwaysPrecedes), graph);
+            bitFilter(aps, alwaysPrecedes, results);
+        }
+        if (!neverFollowed.isEmpty()) {
+            BitSet nfs = whichFail(new NFbyInvFsms<T>(neverFollowed), graph);
+            bitFilter(nfs, neverFollowed, results);
+        }
+        if (!interruptedBy.isEmpty()) {
+            BitSet ibs = whichFail(new IntrByInvFsms<T>(interruptedBy), graph);
+            bitFilter(ibs, interruptedBy, results);
+        }
         return results;
     }
 
@@ -179,14 +158,180 @@ public class FsmModelChecker {
      *            The invariant to test.
      * @return The shortest counterexample path for this invariant.
      */
-    @SuppressWarnings("unchecked")
     public static <Node extends INode<Node>> CExamplePath<Node> getCounterExample(
             BinaryInvariant invariant, IGraph<Node> graph) {
-
-        TracingStateSet<Node> stateset = null;
         if (invariant == null) {
             return null;
         }
+        TracingStateSet<Node> stateset = newTracingStateSet(invariant);
+        return getShortestCounterExample(invariant,
+                runChecker(stateset, graph, true));
+    }
+
+    /**
+     * Runs a constrained invariant's tracing finite state machine over a
+     * subgraph of the graph, rather than over the whole graph. The subgraph
+     * consists of all nodes that lie on a path from some node in starts to
+     * some node in ends. Checking begins in the invariant's initial state at
+     * the nodes in froms, and proceeds along edges from froms into starts.
+     * Only violations that are found at a node in ends are reported.
+     * 
+     * @param invariant
+     *            The constrained invariant to test.
+     * @param graph
+     *            The graph containing the subgraph to check.
+     * @param froms
+     *            The nodes from which checking begins.
+     * @param starts
+     *            The first nodes of the subgraph.
+     * @param ends
+     *            The last nodes of the subgraph.
+     * @return The shortest counterexample path ending at a node in ends, or
+     *         null if there is none.
+     */
+    public static <Node extends INode<Node>> CExamplePath<Node> getLocalCounterExample(
+            BinaryInvariant invariant, IGraph<Node> graph, Set<Node> froms,
+            Set<Node> starts, Set<Node> ends) {
+
+        if (!(invariant instanceof TempConstrainedInvariant<?>)) {
+            throw new IllegalArgumentException(
+                    "Localized model checking requires a constrained invariant");
+        }
+        ConstrainedTracingSet<Node> initial = (ConstrainedTracingSet<Node>) FsmModelChecker
+                .<Node> newTracingStateSet(invariant);
+
+        // Collect nodes reachable from starts, recording their predecessors.
+        Map<Node, Set<Node>> preds = new LinkedHashMap<Node, Set<Node>>();
+        Queue<Node> toVisit = new LinkedList<Node>(starts);
+        for (Node node : starts) {
+            preds.put(node, new LinkedHashSet<Node>());
+        }
+        while (!toVisit.isEmpty()) {
+            Node node = toVisit.remove();
+            for (Node target : graph.getAdjacentNodes(node)) {
+                if (!preds.containsKey(target)) {
+                    preds.put(target, new LinkedHashSet<Node>());
+                    toVisit.add(target);
+                }
+                preds.get(target).add(node);
+            }
+        }
+
+        // Restrict these to the nodes that can reach ends.
+        final Set<Node> region = new LinkedHashSet<Node>();
+        for (Node node : ends) {
+            if (preds.containsKey(node)) {
+                toVisit.add(node);
+            }
+        }
+        while (!toVisit.isEmpty()) {
+            Node node = toVisit.remove();
+            if (region.add(node)) {
+                toVisit.addAll(preds.get(node));
+            }
+        }
+
+        Map<Node, TracingStateSet<Node>> states = new LinkedHashMap<Node, TracingStateSet<Node>>();
+        for (Node node : region) {
+            states.put(node, initial.copy());
+        }
+
+        // Seed the starts with the states reached by entering them from
+        // froms.
+        Set<Node> workList = new LinkedHashSet<Node>();
+        for (Node from : froms) {
+            for (Node start : graph.getAdjacentNodes(from)) {
+                if (!starts.contains(start) || !region.contains(start)) {
+                    continue;
+                }
+                ConstrainedTracingSet<Node> seed = initial.copy();
+                seed.setLocalInitial(from);
+                seed.transition(start);
+                states.get(start).mergeWith(seed);
+                workList.add(start);
+            }
+        }
+
+        new DenseModelChecker<Node>(new RegionGraph<Node>(graph, region))
+                .resume(states, workList, false);
+
+        // Return the shortest failing path that ends in ends.
+        HistoryNode<Node> shortestPath = null;
+        for (Node node : ends) {
+            if (!states.containsKey(node)) {
+                continue;
+            }
+            HistoryNode<Node> path = states.get(node).failpath();
+            if (path != null
+                    && (shortestPath == null || shortestPath.count > path.count)) {
+                shortestPath = path;
+            }
+        }
+        if (shortestPath == null) {
+            return null;
+        }
+        return shortestPath.toCounterexample(invariant);
+    }
+
+    /**
+     * The subgraph of a graph that is induced by a set of nodes. Only
+     * getAdjacentNodes is used by the model checker, the remaining methods
+     * delegate to the underlying graph.
+     */
+    private static class RegionGraph<Node extends INode<Node>> implements
+            IGraph<Node> {
+        private final IGraph<Node> graph;
+        private final Set<Node> region;
+
+        RegionGraph(IGraph<Node> graph, Set<Node> region) {
+            this.graph = graph;
+            this.region = region;
+        }
+
+        @Override
+        public Set<Node> getNodes() {
+            return region;
+        }
+
+        @Override
+        public Set<String> getRelations() {
+            return graph.getRelations();
+        }
+
+        @Override
+        public Node getDummyInitialNode() {
+            return graph.getDummyInitialNode();
+        }
+
+        @Override
+        public Set<Node> getAdjacentNodes(Node node) {
+            Set<Node> adjacent = new LinkedHashSet<Node>();
+            for (Node target : graph.getAdjacentNodes(node)) {
+                if (region.contains(target)) {
+                    adjacent.add(target);
+                }
+            }
+            return adjacent;
+        }
+
+        @Override
+        public void add(Node node) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Creates the initial tracing state set for checking the invariant.
+     * 
+     * @param invariant
+     *            The invariant to create a state set for.
+     * @return The tracing state set, or null if the invariant type is not
+     *         supported.
+     */
+    @SuppressWarnings("unchecked")
+    public static <Node extends INode<Node>> TracingStateSet<Node> newTracingStateSet(
+            BinaryInvariant invariant) {
+        TracingStateSet<Node> stateset = null;
         Class<BinaryInvariant> invClass = (Class<BinaryInvariant>) invariant
                 .getClass();
         if (invClass.equals(AlwaysFollowedInvariant.class)) {
@@ -234,11 +379,23 @@ public class FsmModelChecker {
             }
         }
 
-        // Return the shortest path, ending on a final node, which causes the
-        // invariant to fail.
+        return stateset;
+    }
+
+    /**
+     * Returns the shortest path, ending on a final node, which causes the
+     * invariant to fail, given the states computed by the tracing checker.
+     * 
+     * @param invariant
+     *            The invariant that was checked.
+     * @param states
+     *            The association between nodes and tracing states.
+     * @return The shortest counterexample path, or null if there is none.
+     */
+    static <Node extends INode<Node>> CExamplePath<Node> getShortestCounterExample(
+            BinaryInvariant invariant, Map<Node, TracingStateSet<Node>> states) {
         HistoryNode<Node> shortestPath = null;
-        Set<Entry<Node, TracingStateSet<Node>>> entrySet = runChecker(stateset,
-                graph, true).entrySet();
+        Set<Entry<Node, TracingStateSet<Node>>> entrySet = states.entrySet();
         for (Entry<Node, TracingStateSet<Node>> e : entrySet) {
             TracingStateSet<Node> stateSet = e.getValue();
             Node node = e.getKey();
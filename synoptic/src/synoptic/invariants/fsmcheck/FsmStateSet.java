@@ -10,6 +10,7 @@ import java.util.Map;
 
 import synoptic.invariants.BinaryInvariant;
 import synoptic.model.event.EventType;
+import synoptic.model.event.EventTypeDictionary;
 import synoptic.model.interfaces.INode;
 import synoptic.util.InternalSynopticException;
 
@@ -35,9 +36,9 @@ import synoptic.util.InternalSynopticException;
  * The input which drives the transition of the state machines consists of a
  * list of BitSets, each corresponding to a logical input of the machine. With
  * all of the current implementations of this interface (AlwaysFollowedSet,
- * AlwaysPrecedesSet, NeverFollowedSet), there are two inputs, as these are
- * binary synoptic.invariants. In other words, each individual machine being
- * simulated is watching for just two events. 1 in the nth bit of the first
+ * AlwaysPrecedesSet, NeverFollowedSet, InterruptedBySet), there are two inputs,
+ * as these are binary synoptic.invariants. In other words, each individual
+ * machine being simulated is watching for just two events. 1 in the nth bit of the first
  * input indicates that the first event that the nth invariant is watching for
  * ("A" in A afby B) is being used as the input for the transition.
  * </p>
@@ -52,9 +53,10 @@ import synoptic.util.InternalSynopticException;
  * @see AFbyInvFsms
  * @see APInvFsms
  * @see NFbyInvFsms
+ * @see IntrByInvFsms
  */
 public abstract class FsmStateSet<T extends INode<T>> implements
-        IStateSet<T, FsmStateSet<T>> {
+        IReusableStateSet<T, FsmStateSet<T>> {
     protected List<BitSet> sets;
     protected int count;
 
@@ -81,6 +83,18 @@ public abstract class FsmStateSet<T extends INode<T>> implements
      */
     protected List<Map<EventType, BitSet>> invariantsMap;
 
+    /**
+     * The same mapping as invariantsMap, with each map flattened into an array
+     * that is indexed by EventTypeDictionary ids. Event types without an entry
+     * map to null. This is what the model checker uses to look up its inputs.
+     */
+    protected List<BitSet[]> inputsById;
+
+    /**
+     * Dictionary of the ids that index inputsById.
+     */
+    protected EventTypeDictionary eTypeDictionary;
+
     /**
      * Initializes the bitsets, and assigns the input mapping, based on the
      * passed synoptic.invariants. NOTE: this assumes that all of the passed
@@ -114,6 +128,46 @@ public abstract class FsmStateSet<T extends INode<T>> implements
             aset.set(i);
             bset.set(i);
         }
+
+        eTypeDictionary = EventTypeDictionary.getCurrent();
+        inputsById = new ArrayList<BitSet[]>(2);
+        for (Map<EventType, BitSet> map : invariantsMap) {
+            int maxId = -1;
+            for (EventType eType : map.keySet()) {
+                maxId = Math.max(maxId, eTypeDictionary.getId(eType));
+            }
+            BitSet[] byId = new BitSet[maxId + 1];
+            for (Map.Entry<EventType, BitSet> entry : map.entrySet()) {
+                byId[eTypeDictionary.getId(entry.getKey())] = entry
+                        .getValue();
+            }
+            inputsById.add(byId);
+        }
+    }
+
+    /**
+     * Creates a state set with numStates empty states, and without an input
+     * mapping. Used by copy(), which fills in the states and the mapping.
+     * Subclasses must provide a public constructor with this signature.
+     */
+    protected FsmStateSet(int numStates) {
+        sets = new ArrayList<BitSet>(numStates);
+        for (int i = 0; i < numStates; i++) {
+            sets.add(new BitSet());
+        }
+    }
+
+    /**
+     * Returns the bitset of invariants in which the event type of input
+     * appears at position ix, or null if there are none.
+     */
+    private BitSet getInput(int ix, T input) {
+        BitSet[] byId = inputsById.get(ix);
+        int id = eTypeDictionary.getId(input.getEType());
+        if (id >= byId.length) {
+            return null;
+        }
+        return byId[id];
     }
 
     /**
@@ -164,16 +218,33 @@ public abstract class FsmStateSet<T extends INode<T>> implements
         assert other.invariantsMap == invariantsMap;
         for (int j = 0; j < sets.size(); j++) {
             BitSet thisSet = sets.get(j);
-            BitSet s = (BitSet) thisSet.clone();
-            s.and(other.sets.get(j));
-            s.xor(thisSet); // (intersection != this) == 0 for subset
-            if (!s.isEmpty()) {
-                return false;
+            BitSet otherSet = other.sets.get(j);
+            // Every onebit of thisSet must be set in otherSet.
+            for (int i = thisSet.nextSetBit(0); i >= 0; i = thisSet
+                    .nextSetBit(i + 1)) {
+                if (!otherSet.get(i)) {
+                    return false;
+                }
             }
         }
         return true;
     }
 
+    /**
+     * Overwrites the state vectors of this stateset with those of other,
+     * without allocating new vectors.
+     */
+    @Override
+    public void copyFrom(FsmStateSet<T> other) {
+        assert other.invariantsMap == invariantsMap;
+        for (int i = 0; i < sets.size(); i++) {
+            BitSet thisSet = sets.get(i);
+            thisSet.clear();
+            thisSet.or(other.sets.get(i));
+        }
+        count = other.count;
+    }
+
     /**
      * Clones this set of states, using reflection to ascertain the actual type
      * to construct.
@@ -211,6 +282,8 @@ public abstract class FsmStateSet<T extends INode<T>> implements
         }
         result.sets = newSets;
         result.invariantsMap = invariantsMap;
+        result.inputsById = inputsById;
+        result.eTypeDictionary = eTypeDictionary;
         return result;
     }
 
@@ -256,7 +329,7 @@ public abstract class FsmStateSet<T extends INode<T>> implements
     }
 
     public BitSet getInputInvariantsDependencies(int mappingIndex, T input) {
-        BitSet result = invariantsMap.get(mappingIndex).get(input.getEType());
+        BitSet result = getInput(mappingIndex, input);
         if (result == null) {
             return new BitSet();
         }
@@ -264,8 +337,7 @@ public abstract class FsmStateSet<T extends INode<T>> implements
     }
 
     public BitSet getInputCopy(int ix, T input) {
-        EventType label = input.getEType();
-        BitSet result = invariantsMap.get(ix).get(label);
+        BitSet result = getInput(ix, input);
         if (result == null) {
             return new BitSet();
         }
@@ -0,0 +1,75 @@
+package synoptic.invariants.fsmcheck;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import synoptic.model.interfaces.IGraph;
+import synoptic.model.interfaces.INode;
+
+/**
+ * A frozen copy of the structure of a graph, used to model check a graph from
+ * several threads at once. Graphs such as PartitionGraph compute and cache the
+ * adjacent nodes of a node on demand, which is not safe to do concurrently. A
+ * snapshot computes the adjacent nodes of every node up front, after which it
+ * is only read, and so it can be shared between threads. The underlying graph
+ * must not be modified while the snapshot is in use.
+ * 
+ * @param <NodeType>
+ *            the type of nodes in the graph
+ */
+public class GraphSnapshot<NodeType extends INode<NodeType>> implements
+        IGraph<NodeType> {
+    private final Set<NodeType> nodes;
+    private final Set<String> relations;
+    private final NodeType initialNode;
+    private final Map<NodeType, Set<NodeType>> adjacentNodes;
+
+    /**
+     * Creates a snapshot of graph. This must be called from a single thread.
+     */
+    public GraphSnapshot(IGraph<NodeType> graph) {
+        nodes = Collections.unmodifiableSet(new LinkedHashSet<NodeType>(graph
+                .getNodes()));
+        relations = Collections.unmodifiableSet(new LinkedHashSet<String>(
+                graph.getRelations()));
+        initialNode = graph.getDummyInitialNode();
+        adjacentNodes = new LinkedHashMap<NodeType, Set<NodeType>>();
+        for (NodeType node : nodes) {
+            adjacentNodes.put(node, Collections
+                    .unmodifiableSet(new LinkedHashSet<NodeType>(graph
+                            .getAdjacentNodes(node))));
+        }
+    }
+
+    @Override
+    public Set<NodeType> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public Set<String> getRelations() {
+        return relations;
+    }
+
+    @Override
+    public NodeType getDummyInitialNode() {
+        return initialNode;
+    }
+
+    @Override
+    public Set<NodeType> getAdjacentNodes(NodeType node) {
+        Set<NodeType> adjacent = adjacentNodes.get(node);
+        if (adjacent == null) {
+            return Collections.emptySet();
+        }
+        return adjacent;
+    }
+
+    @Override
+    public void add(NodeType node) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,16 @@
+package synoptic.invariants.fsmcheck;
+
+/**
+ * A state set whose states can be overwritten with the states of another state
+ * set of the same kind. This allows a model checker to keep a single scratch
+ * state set for computing transitions, instead of copying a state set for
+ * every edge that it traverses.
+ */
+public interface IReusableStateSet<T, StateSetType> extends
+        IStateSet<T, StateSetType> {
+    /**
+     * Overwrites the states of this stateset with the states of other, which
+     * must have been created from the same initial stateset as this.
+     */
+    void copyFrom(StateSetType other);
+}
@@ -0,0 +1,144 @@
+package synoptic.invariants.fsmcheck;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import synoptic.invariants.BinaryInvariant;
+import synoptic.invariants.CExamplePath;
+import synoptic.model.interfaces.IGraph;
+import synoptic.model.interfaces.INode;
+
+/**
+ * A tracing model checker for a single invariant that keeps the fixpoint
+ * states from one check to the next. When some nodes of the graph change
+ * (e.g., a partition is split), only the states of nodes that are reachable
+ * from the changed nodes are recomputed. The states of all other nodes only
+ * depend on paths that avoid the changed nodes, and are therefore still valid.
+ *
+ * @param <Node>
+ *            The node type of the graph being checked.
+ */
+public class IncrementalModelChecker<Node extends INode<Node>> {
+    /** The invariant being checked. */
+    private final BinaryInvariant invariant;
+
+    /** The graph being checked, which may change between checks. */
+    private final IGraph<Node> graph;
+
+    /** The state set that every node starts with. */
+    private final TracingStateSet<Node> initial;
+
+    /** The fixpoint states from the last check, null before the first check. */
+    private Map<Node, TracingStateSet<Node>> states = null;
+
+    /** Nodes that have changed since the last check. */
+    private final Set<Node> changedNodes = new LinkedHashSet<Node>();
+
+    /**
+     * Creates a checker for invariant over graph.
+     *
+     * @param invariant
+     *            The invariant to check.
+     * @param graph
+     *            The graph to check.
+     */
+    public IncrementalModelChecker(BinaryInvariant invariant,
+            IGraph<Node> graph) {
+        this.invariant = invariant;
+        this.graph = graph;
+        this.initial = FsmModelChecker.newTracingStateSet(invariant);
+    }
+
+    /**
+     * Records that the outgoing transitions of the nodes in changed may have
+     * changed since the last check. Nodes that were added to the graph since
+     * the last check do not have to be reported, and neither do nodes that
+     * were removed from it.
+     *
+     * @param changed
+     *            The nodes that changed.
+     */
+    public void nodesChanged(Collection<Node> changed) {
+        changedNodes.addAll(changed);
+    }
+
+    /**
+     * Returns the shortest counter-example path for the invariant in the
+     * current graph, or null if the graph satisfies the invariant.
+     */
+    public CExamplePath<Node> getCounterExample() {
+        if (states == null) {
+            states = FsmModelChecker.runChecker(initial, graph, false);
+        } else {
+            update();
+        }
+        changedNodes.clear();
+        return FsmModelChecker.getShortestCounterExample(invariant, states);
+    }
+
+    /**
+     * Recomputes the states of all nodes that are reachable from changed or
+     * new nodes.
+     */
+    private void update() {
+        Set<Node> nodes = graph.getNodes();
+
+        // Seed with the changed nodes, and with the nodes that are new.
+        Queue<Node> toVisit = new LinkedList<Node>();
+        for (Node node : changedNodes) {
+            if (nodes.contains(node)) {
+                toVisit.add(node);
+            }
+        }
+        for (Node node : nodes) {
+            if (!states.containsKey(node)) {
+                toVisit.add(node);
+            }
+        }
+        if (toVisit.isEmpty() && states.size() == nodes.size()) {
+            return;
+        }
+
+        // Collect all nodes reachable from the seeds. These are the only nodes
+        // whose states may have changed.
+        Set<Node> dirty = new LinkedHashSet<Node>();
+        while (!toVisit.isEmpty()) {
+            Node node = toVisit.remove();
+            if (dirty.add(node)) {
+                toVisit.addAll(graph.getAdjacentNodes(node));
+            }
+        }
+
+        // Reset the dirty states (dropping nodes that no longer exist), and
+        // restart propagation from the clean nodes that lead into dirty ones.
+        Map<Node, TracingStateSet<Node>> newStates = new LinkedHashMap<Node, TracingStateSet<Node>>();
+        Queue<Node> workList = new LinkedList<Node>();
+        for (Node node : nodes) {
+            if (dirty.contains(node)) {
+                newStates.put(node, initial.copy());
+                continue;
+            }
+            newStates.put(node, states.get(node));
+            for (Node target : graph.getAdjacentNodes(node)) {
+                if (dirty.contains(target)) {
+                    workList.add(node);
+                    break;
+                }
+            }
+        }
+        states = newStates;
+
+        Node initialNode = graph.getDummyInitialNode();
+        if (dirty.contains(initialNode)) {
+            states.get(initialNode).setInitial(initialNode);
+            workList.add(initialNode);
+        }
+
+        new DenseModelChecker<Node>(graph).resume(states, workList, false);
+    }
+}
@@ -1,10 +1,14 @@
 package synoptic.invariants.miners;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import synoptic.invariants.AlwaysFollowedInvariant;
 import synoptic.invariants.AlwaysPrecedesInvariant;
@@ -12,11 +16,13 @@ import synoptic.invariants.ITemporalInvariant;
 import synoptic.invariants.InterruptedByInvariant;
 import synoptic.invariants.NeverFollowedInvariant;
 import synoptic.invariants.TemporalInvariantSet;
+import synoptic.model.ChainRelationPath;
 import synoptic.model.ChainsTraceGraph;
 import synoptic.model.Trace;
 import synoptic.model.event.Event;
 import synoptic.model.event.EventType;
 import synoptic.model.interfaces.IRelationPath;
+import synoptic.util.WorkerPool;
 
 /**
  * Implements a temporal invariant mining algorithm which mines the invariants
@@ -27,11 +33,35 @@ import synoptic.model.interfaces.IRelationPath;
  * on partition sizes. A more detailed complexity break-down is given below. <br/>
  * <br/>
  * This algorithm has lower space usage than the transitive-closure-based
- * algorithms.
+ * algorithms. <br/>
+ * <br/>
+ * With the parallelMining option, relation paths are sharded across the worker
+ * pool: each worker counts its shard into its own counts, and the counts are
+ * then combined. Since the counts are sums and intersections over paths, the
+ * mined invariants are the same as with a single thread.
  */
 public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
         ITOInvariantMiner {
 
+    /**
+     * Whether to accumulate single-relation counts in dense matrices (see
+     * {@link DenseWalkCounts}), rather than in per-path maps.
+     */
+    private final boolean useDenseCounts;
+
+    public ChainWalkingTOInvMiner() {
+        this(true);
+    }
+
+    /**
+     * @param useDenseCounts
+     *            whether to count with dense matrices when mining a single
+     *            relation; both counting backends mine the same invariants
+     */
+    public ChainWalkingTOInvMiner(boolean useDenseCounts) {
+        this.useDenseCounts = useDenseCounts;
+    }
+
     public TemporalInvariantSet computeInvariants(ChainsTraceGraph g,
             boolean multipleRelations, boolean supportCount) {
         TemporalInvariantSet result = new TemporalInvariantSet();
@@ -131,6 +161,19 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
 
         }
 
+        if (useDenseCounts && !multipleRelations) {
+            // All relation paths are chains over a single relation, so the
+            // counts can be accumulated in dense matrices.
+            DenseWalkCounts counts = countPaths(relationPaths);
+            return new TemporalInvariantSet(
+                    extractPathInvariantsFromDenseCounts(relation, counts,
+                            supportCount));
+        }
+
+        if (isParallelMining()) {
+            countPathsConcurrently(relationPaths);
+        }
+
         for (IRelationPath relationPath : relationPaths) {
             eTypes.addAll(relationPath.getSeen());
             Map<EventType, Integer> relationPathEventCounts = relationPath
@@ -223,6 +266,73 @@ public class ChainWalkingTOInvMiner extends CountingInvariantMiner implements
                 multipleRelations, supportCount));
     }
 
+    /**
+     * Counts relationPaths, which must all be ChainRelationPaths, into dense
+     * counts. With parallel mining, each worker counts a shard of the paths
+     * and the per-shard counts are combined in shard order.
+     */
+    static DenseWalkCounts countPaths(
+            Collection<IRelationPath> relationPaths) {
+        if (!isParallelMining() || relationPaths.size() < 2) {
+            DenseWalkCounts counts = new DenseWalkCounts();
+            for (IRelationPath relationPath : relationPaths) {
+                counts.addPath((ChainRelationPath) relationPath);
+            }
+            return counts;
+        }
+
+        List<Callable<DenseWalkCounts>> tasks = new ArrayList<Callable<DenseWalkCounts>>();
+        for (final List<IRelationPath> shard : WorkerPool.shard(
+                new ArrayList<IRelationPath>(relationPaths),
+                WorkerPool.getNumThreads())) {
+            tasks.add(new Callable<DenseWalkCounts>() {
+                @Override
+                public DenseWalkCounts call() {
+                    DenseWalkCounts counts = new DenseWalkCounts();
+                    for (IRelationPath relationPath : shard) {
+                        counts.addPath((ChainRelationPath) relationPath);
+                    }
+                    return counts;
+                }
+            });
+        }
+
+        DenseWalkCounts counts = null;
+        for (DenseWalkCounts shardCounts : WorkerPool.invokeAll(tasks)) {
+            if (counts == null) {
+                counts = shardCounts;
+            } else {
+                counts.addAll(shardCounts);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Forces each of the relationPaths to compute its counts, with the paths
+     * sharded across the worker pool. Paths compute their counts lazily and
+     * independently of each other, so the map-based aggregation can then read
+     * the counts without walking the paths.
+     */
+    private static void countPathsConcurrently(
+            Collection<IRelationPath> relationPaths) {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final List<IRelationPath> shard : WorkerPool.shard(
+                new ArrayList<IRelationPath>(relationPaths),
+                WorkerPool.getNumThreads())) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (IRelationPath relationPath : shard) {
+                        relationPath.getSeen();
+                    }
+                    return null;
+                }
+            });
+        }
+        WorkerPool.invokeAll(tasks);
+    }
+
     /**
      * Prune and update global possible InterruptedBy invariant counts by
      * retaining only those that are valid in this RelationPath and updating
@@ -1,7 +1,14 @@
 package synoptic.invariants.miners;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import synoptic.invariants.AlwaysFollowedInvariant;
 import synoptic.invariants.AlwaysPrecedesInvariant;
@@ -14,7 +21,7 @@ import synoptic.invariants.constraints.IThresholdConstraint;
 import synoptic.invariants.constraints.LowerBoundConstraint;
 import synoptic.invariants.constraints.TempConstrainedInvariant;
 import synoptic.invariants.constraints.UpperBoundConstraint;
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.model.ChainsTraceGraph;
 import synoptic.model.EventNode;
 import synoptic.model.Trace;
@@ -22,6 +29,7 @@ import synoptic.model.event.Event;
 import synoptic.model.event.EventType;
 import synoptic.model.interfaces.IRelationPath;
 import synoptic.util.Pair;
+import synoptic.util.WorkerPool;
 import synoptic.util.resource.AbstractResource;
 
 /**
@@ -38,12 +46,12 @@ import synoptic.util.resource.AbstractResource;
  * <p>
  * Uses other totally ordered invariant miners to first mine the unconstrained
  * invariants (if not given these explicitly). Mines constraints for these
- * unconstrained invariants by walking the trace directly. Walking the trace
- * consists of traversing the log for every constrained AFby, AP, and IntrBy
- * invariant. Each traversal finds a lower bound and upper bound constraint for
- * an unconstrained invariant. Two constrained invariants are then created (for
- * lower bound and upper bound) and added in the resulting constrained invariant
- * set.
+ * unconstrained invariants by walking the trace directly. The relation paths
+ * of the log are walked once, and each walk updates the lower and upper bounds
+ * of the time deltas of all of the constrained AFby, AP, and IntrBy invariants
+ * at the same time. Two constrained invariants are then created for each
+ * unconstrained invariant (for lower bound and upper bound) and added in the
+ * resulting constrained invariant set.
  * </p>
  */
 public class ConstrainedInvMiner extends InvariantMiner {
@@ -77,7 +85,7 @@ public class ConstrainedInvMiner extends InvariantMiner {
 
         TemporalInvariantSet invs = miner.computeInvariants(g,
                 multipleRelations,
-                AbstractMain.getInstance().options.outputSupportCount);
+                InferenceContext.getCurrent().options.outputSupportCount);
         return computeInvariants(g, multipleRelations, invs);
     }
 
@@ -103,8 +111,13 @@ public class ConstrainedInvMiner extends InvariantMiner {
         // generated constrained invariants.
         this.constrainedInvs = new TemporalInvariantSet();
 
+        // Paths only depend on the relation, so collect them once per
+        // relation rather than once per invariant.
+        Set<String> relations = new LinkedHashSet<String>();
         for (ITemporalInvariant inv : invs.getSet()) {
-            String relation = inv.getRelation();
+            relations.add(inv.getRelation());
+        }
+        for (String relation : relations) {
             boolean isTimeRelation = relation.equals(Event.defTimeRelationStr);
 
             // Loop through the traces.
@@ -126,6 +139,11 @@ public class ConstrainedInvMiner extends InvariantMiner {
             }
         }
 
+        // Collect the event type pairs whose time deltas bound the
+        // constrainable invariants, and compute the bounds of all of the
+        // pairs in one sweep over each path.
+        List<BinaryInvariant> constrainable = new ArrayList<BinaryInvariant>();
+        PairIndex pairs = new PairIndex();
         for (ITemporalInvariant inv : invs.getSet()) {
             if (inv instanceof NeverFollowedInvariant) {
                 constrainedInvs.add(inv);
@@ -135,7 +153,20 @@ public class ConstrainedInvMiner extends InvariantMiner {
                     || inv instanceof AlwaysPrecedesInvariant || inv instanceof InterruptedByInvariant)) {
                 continue;
             }
-            computeInvariants((BinaryInvariant) inv);
+            BinaryInvariant binv = (BinaryInvariant) inv;
+            // If invariant contains INITIAL node, we can't compute bound
+            // constraints.
+            if (binv.getFirst().isInitialEventType()) {
+                continue;
+            }
+            constrainable.add(binv);
+            pairs.add(binv.getFirst(), getBoundedType(binv));
+        }
+
+        PairBounds bounds = computeBounds(pairs);
+        for (BinaryInvariant inv : constrainable) {
+            int pair = pairs.getPairId(inv.getFirst(), getBoundedType(inv));
+            augmentInvariant(inv, bounds.getConstraints(pair));
         }
 
         relationPaths.clear();
@@ -156,7 +187,6 @@ public class ConstrainedInvMiner extends InvariantMiner {
                 || inv instanceof AlwaysPrecedesInvariant || inv instanceof InterruptedByInvariant);
 
         EventType a = inv.getFirst();
-        EventType b = inv.getSecond();
 
         // If invariant contains INITIAL node, we can't compute bound
         // constraints.
@@ -164,20 +194,23 @@ public class ConstrainedInvMiner extends InvariantMiner {
             return;
         }
 
-        // constraints.left represents lower bound constraint.
-        // constraints.right represents upper bound constraint.
-        Pair<IThresholdConstraint, IThresholdConstraint> constraints;
-
-        if (inv instanceof InterruptedByInvariant) {
-            // IntrBy's constraints are between a&a, not a&b
-            constraints = computeUpperLowerConstraints(a, a, true);
-        } else {
-            constraints = computeUpperLowerConstraints(a, b, false);
-        }
+        PairIndex pairs = new PairIndex();
+        int pair = pairs.add(a, getBoundedType(inv));
 
         // Create two TempConstrainedInvariant objects using the lower bound and
         // upper bound computed.
-        augmentInvariant(inv, constraints);
+        augmentInvariant(inv, computeBounds(pairs).getConstraints(pair));
+    }
+
+    /**
+     * Returns the event type that ends the time deltas bounded by inv's
+     * constraints. IntrBy's constraints are between a&a, not a&b.
+     */
+    private static EventType getBoundedType(BinaryInvariant inv) {
+        if (inv instanceof InterruptedByInvariant) {
+            return inv.getFirst();
+        }
+        return inv.getSecond();
     }
 
     // Helper method for creating a lower and upper constrained invariant and
@@ -186,121 +219,230 @@ public class ConstrainedInvMiner extends InvariantMiner {
             Pair<IThresholdConstraint, IThresholdConstraint> constraints) {
         TempConstrainedInvariant<T> lowerConstrInv = new TempConstrainedInvariant<T>(
                 inv, constraints.getLeft(),
-                AbstractMain.getInstance().options.outputSupportCount);
+                InferenceContext.getCurrent().options.outputSupportCount);
         TempConstrainedInvariant<T> upperConstrInv = new TempConstrainedInvariant<T>(
                 inv, constraints.getRight(),
-                AbstractMain.getInstance().options.outputSupportCount);
+                InferenceContext.getCurrent().options.outputSupportCount);
 
         constrainedInvs.add(lowerConstrInv);
         constrainedInvs.add(upperConstrInv);
     }
 
     /**
-     * Walks each relationPath and checks for nodes either of EventType a or b.
-     * Uses ITime values of these nodes to update and compute a lower and upper
-     * bound constraint for an invariant with predicates a and b. The algorithm
-     * for computing the bounds is as follows: For every type 'a' in each path,
-     * walk all subsequent nodes and retrieve the delta to this node (if 'a' or
-     * 'b' pair). For lower bound, take the minimal value of all deltas, and the
-     * max value for the upper bound. Returns the computed lower and upper bound
-     * constraints as a pair. The left is the lower bound constraint and the
-     * right is the upper bound constraint. This method provides an additional
-     * param to the overloaded computeConstraints method: The IntrBy varies as
-     * it must compute lower bounds between two a's. The upper bound is also
-     * computed that way, but can reuse the original implementation. TODO:
-     * refactor this at some point
-     * 
-     * @param a
-     *            first invariant predicate
-     * @param b
-     *            second invariant predicate
-     * @param betweenFirstAndFirstPredicate
-     *            If the invariant's bounds are calculated between two instances
-     *            of the first predicate (between a&a) instead of between an
-     *            instance of the first predicate and an instance of the second
-     *            predicate (between a&b). This currently only applies to
-     *            IntrBy.
-     * @return IThresholdConstraint pair where the left represents the lower
-     *         bound constraint and the right represents the upper bound
-     *         constraint
+     * Computes the bounds of all of the pairs in one sweep over each of the
+     * relation paths. The paths are swept concurrently when parallel mining is
+     * enabled.
      */
-    private Pair<IThresholdConstraint, IThresholdConstraint> computeUpperLowerConstraints(
-            EventType a, EventType b, boolean betweenFirstAndFirstPredicate) {
-
-        AbstractResource lowerBound = null;
-        AbstractResource upperBound = null;
-
-        // For each relationPath.
-        // Go through each node in path.
-        // Find nodes that match event types for invariant.
-        // Find upperBound.
-        // Find lowerBound
-        // create ConstrainedInvariants.
-        for (IRelationPath relationPath : relationPaths) {
-            EventNode start = relationPath.getFirstNode();
-            EventNode end = relationPath.getLastNode();
-
-            EventNode curr = start;
-
-            // Iterate over each node in path
-            while (true) {
-                // Reached ending node in path.
-                if (curr.equals(end)) {
-                    break;
-                }
-
-                // Current node we're at as we walk the trace.
-                assert (curr.getAllTransitions().size() == 1);
-                EventNode next = curr.getAllTransitions().get(0).getTarget();
-
-                // for each node (of type a, else there will be no bound), walk
-                // every subsequent node and check bounds
-                while (curr.getEType().equals(a)) {
-                    // Found (a,a) pair, compute constraints (IntrBy)
-                    if (next.getEType().equals(a)
-                            && betweenFirstAndFirstPredicate) {
-                        AbstractResource delta = next.getTime().computeDelta(
-                                curr.getTime());
-                        if (lowerBound == null || delta.lessThan(lowerBound)) {
-                            lowerBound = delta;
-                        }
-
-                        if (upperBound == null || upperBound.lessThan(delta)) {
-                            upperBound = delta;
-                        }
-                    }
+    private PairBounds computeBounds(final PairIndex pairs) {
+        List<IRelationPath> paths = new ArrayList<IRelationPath>(relationPaths);
+        if (!isParallelMining() || paths.size() < 2) {
+            PairBounds bounds = new PairBounds(pairs.getNumPairs());
+            for (IRelationPath path : paths) {
+                sweepPath(path, pairs, bounds);
+            }
+            return bounds;
+        }
 
-                    // Found (a,b) pair, compute constraints
-                    if (next.getEType().equals(b)
-                            && !betweenFirstAndFirstPredicate) {
-                        AbstractResource delta = next.getTime().computeDelta(
-                                curr.getTime());
-                        if (lowerBound == null || delta.lessThan(lowerBound)) {
-                            lowerBound = delta;
-                        }
-
-                        if (upperBound == null || upperBound.lessThan(delta)) {
-                            upperBound = delta;
-                        }
+        // Each worker sweeps a shard of the paths, and the shard bounds are
+        // combined in shard order.
+        List<Callable<PairBounds>> tasks = new ArrayList<Callable<PairBounds>>();
+        for (final List<IRelationPath> shard : WorkerPool.shard(paths,
+                WorkerPool.getNumThreads())) {
+            tasks.add(new Callable<PairBounds>() {
+                @Override
+                public PairBounds call() {
+                    PairBounds shardBounds = new PairBounds(pairs
+                            .getNumPairs());
+                    for (IRelationPath path : shard) {
+                        sweepPath(path, pairs, shardBounds);
                     }
+                    return shardBounds;
+                }
+            });
+        }
+        PairBounds bounds = null;
+        for (PairBounds shardBounds : WorkerPool.invokeAll(tasks)) {
+            if (bounds == null) {
+                bounds = shardBounds;
+            } else {
+                bounds.addAll(shardBounds);
+            }
+        }
+        return bounds;
+    }
 
-                    // Reached ending node in path.
-                    if (next.equals(end)) {
-                        break;
+    /**
+     * Walks relationPath once and updates bounds with the time deltas of all
+     * of the pairs. For every pair (a, b), the bounds are taken over the time
+     * deltas between each node of type b and every preceding node of type a.
+     * Since a delta decreases as the time of the earlier node increases, the
+     * smallest such delta at a b node is the delta to the latest a time seen
+     * so far, and the largest is the delta to the earliest a time seen so far.
+     * The walk therefore only keeps the earliest and latest time of each event
+     * type, rather than walking the rest of the path from every a node.
+     */
+    private static void sweepPath(IRelationPath relationPath, PairIndex pairs,
+            PairBounds bounds) {
+        AbstractResource[] earliest = new AbstractResource[pairs.getNumTypes()];
+        AbstractResource[] latest = new AbstractResource[pairs.getNumTypes()];
+
+        EventNode curr = relationPath.getFirstNode();
+        EventNode end = relationPath.getLastNode();
+
+        // Iterate over each node in path
+        while (true) {
+            Integer typeId = pairs.getTypeId(curr.getEType());
+            if (typeId != null) {
+                AbstractResource time = curr.getTime();
+
+                // Found (a,b) pairs that end at this node, compute
+                // constraints.
+                int[] firstIds = pairs.getFirstTypeIds(typeId);
+                int[] pairIds = pairs.getPairIds(typeId);
+                for (int i = 0; i < firstIds.length; i++) {
+                    int a = firstIds[i];
+                    if (latest[a] != null) {
+                        bounds.update(pairIds[i],
+                                time.computeDelta(latest[a]),
+                                time.computeDelta(earliest[a]));
                     }
+                }
 
-                    assert (next.getAllTransitions().size() == 1);
-                    next = next.getAllTransitions().get(0).getTarget();
+                if (earliest[typeId] == null
+                        || time.lessThan(earliest[typeId])) {
+                    earliest[typeId] = time;
                 }
+                if (latest[typeId] == null || latest[typeId].lessThan(time)) {
+                    latest[typeId] = time;
+                }
+            }
+
+            // Reached ending node in path.
+            if (curr.equals(end)) {
+                break;
+            }
+
+            assert (curr.getAllTransitions().size() == 1);
+            curr = curr.getAllTransitions().get(0).getTarget();
+        }
+    }
+
+    /**
+     * Assigns ids to the (a, b) event type pairs whose bounds are computed,
+     * and to the event types that occur in them. For each type b, the pairs
+     * that end with b are listed so that a node can be matched against all of
+     * its pairs at once.
+     */
+    private static final class PairIndex {
+        private final Map<EventType, Integer> typeIds = new LinkedHashMap<EventType, Integer>();
+        private final Map<Pair<EventType, EventType>, Integer> pairIds = new LinkedHashMap<Pair<EventType, EventType>, Integer>();
+
+        /** For each type id b, the ids of the a types and of the pairs. */
+        private final List<int[]> firstTypeIds = new ArrayList<int[]>();
+        private final List<int[]> pairIdsBySecond = new ArrayList<int[]>();
+
+        /**
+         * Adds the pair (a, b) if it is new, and returns its id.
+         */
+        int add(EventType a, EventType b) {
+            Pair<EventType, EventType> pair = new Pair<EventType, EventType>(
+                    a, b);
+            Integer id = pairIds.get(pair);
+            if (id != null) {
+                return id;
+            }
+            id = pairIds.size();
+            pairIds.put(pair, id);
+
+            int aId = addType(a);
+            int bId = addType(b);
+            firstTypeIds.set(bId, append(firstTypeIds.get(bId), aId));
+            pairIdsBySecond.set(bId, append(pairIdsBySecond.get(bId), id));
+            return id;
+        }
+
+        private int addType(EventType type) {
+            Integer id = typeIds.get(type);
+            if (id == null) {
+                id = typeIds.size();
+                typeIds.put(type, id);
+                firstTypeIds.add(new int[0]);
+                pairIdsBySecond.add(new int[0]);
+            }
+            return id;
+        }
+
+        private static int[] append(int[] array, int value) {
+            int[] result = Arrays.copyOf(array, array.length + 1);
+            result[array.length] = value;
+            return result;
+        }
+
+        int getPairId(EventType a, EventType b) {
+            return pairIds.get(new Pair<EventType, EventType>(a, b));
+        }
+
+        /** Returns the id of type, or null if type is in no pair. */
+        Integer getTypeId(EventType type) {
+            return typeIds.get(type);
+        }
+
+        int[] getFirstTypeIds(int secondTypeId) {
+            return firstTypeIds.get(secondTypeId);
+        }
 
-                assert (curr.getAllTransitions().size() == 1);
-                curr = curr.getAllTransitions().get(0).getTarget();
+        int[] getPairIds(int secondTypeId) {
+            return pairIdsBySecond.get(secondTypeId);
+        }
+
+        int getNumTypes() {
+            return typeIds.size();
+        }
+
+        int getNumPairs() {
+            return pairIds.size();
+        }
+    }
+
+    /**
+     * The smallest and largest time delta found so far for each pair, null
+     * for the pairs without a delta.
+     */
+    private static final class PairBounds {
+        private final AbstractResource[] lower;
+        private final AbstractResource[] upper;
+
+        PairBounds(int numPairs) {
+            lower = new AbstractResource[numPairs];
+            upper = new AbstractResource[numPairs];
+        }
+
+        void update(int pair, AbstractResource min, AbstractResource max) {
+            if (lower[pair] == null || min.lessThan(lower[pair])) {
+                lower[pair] = min;
+            }
+            if (upper[pair] == null || upper[pair].lessThan(max)) {
+                upper[pair] = max;
             }
         }
 
-        IThresholdConstraint l = new LowerBoundConstraint(lowerBound);
-        IThresholdConstraint u = new UpperBoundConstraint(upperBound);
+        void addAll(PairBounds other) {
+            for (int pair = 0; pair < lower.length; pair++) {
+                if (other.lower[pair] != null) {
+                    update(pair, other.lower[pair], other.upper[pair]);
+                }
+            }
+        }
 
-        return new Pair<IThresholdConstraint, IThresholdConstraint>(l, u);
+        /**
+         * Returns the lower bound (left) and upper bound (right) constraints
+         * of pair.
+         */
+        Pair<IThresholdConstraint, IThresholdConstraint> getConstraints(
+                int pair) {
+            IThresholdConstraint l = new LowerBoundConstraint(lower[pair]);
+            IThresholdConstraint u = new UpperBoundConstraint(upper[pair]);
+            return new Pair<IThresholdConstraint, IThresholdConstraint>(l, u);
+        }
     }
 }
@@ -178,6 +178,85 @@ abstract public class CountingInvariantMiner extends InvariantMiner {
         return invariants;
     }
 
+    /**
+     * Builds the same set of local invariants as
+     * extractPathInvariantsFromWalkCounts (for a single relation, and without
+     * co-occurrence filtering), from dense walk counts.
+     * 
+     * @param relation
+     * @param counts
+     * @param supportCount
+     * @return
+     */
+    protected Set<ITemporalInvariant> extractPathInvariantsFromDenseCounts(
+            String relation, DenseWalkCounts counts, boolean supportCount) {
+
+        Set<ITemporalInvariant> invariants = new LinkedHashSet<ITemporalInvariant>();
+        int numETypes = counts.getNumETypes();
+
+        for (int a = 0; a < numETypes; a++) {
+            EventType e1 = counts.getEType(a);
+            int e1Cnt = counts.getEventCount(a);
+            for (int b = 0; b < numETypes; b++) {
+                EventType e2 = counts.getEType(b);
+                int followedByCnt = counts.getFollowedByCount(a, b);
+
+                if (followedByCnt == 0) {
+                    NeverFollowedInvariant invariant = new NeverFollowedInvariant(
+                            e1, e2, relation);
+                    if (supportCount) {
+                        invariant.setStatistics(new InvariantStatistics(e1Cnt));
+                    }
+                    invariants.add(invariant);
+                }
+
+                if (followedByCnt == e1Cnt) {
+                    AlwaysFollowedInvariant invariant = new AlwaysFollowedInvariant(
+                            e1, e2, relation);
+                    if (supportCount) {
+                        invariant.setStatistics(new InvariantStatistics(e1Cnt));
+                    }
+                    invariants.add(invariant);
+                }
+
+                int e2Cnt = counts.getEventCount(b);
+                if (counts.getPrecedesCount(a, b) == e2Cnt) {
+                    AlwaysPrecedesInvariant invariant = new AlwaysPrecedesInvariant(
+                            e1, e2, relation);
+                    if (supportCount) {
+                        invariant.setStatistics(new InvariantStatistics(e2Cnt));
+                    }
+                    invariants.add(invariant);
+                }
+
+                if (counts.isInterruptedBy(a, b)) {
+                    InterruptedByInvariant invariant = new InterruptedByInvariant(
+                            e1, e2, relation);
+                    if (supportCount) {
+                        invariant.setStatistics(new InvariantStatistics(e1Cnt));
+                    }
+                    invariants.add(invariant);
+                }
+            }
+        }
+
+        // Determine all the INITIAL AFby x invariants to represent
+        // "eventually x"
+        for (int a = 0; a < numETypes; a++) {
+            if (counts.alwaysFollowsInitial(a)) {
+                AlwaysFollowedInvariant invariant = new AlwaysFollowedInvariant(
+                        StringEventType.newInitialStringEventType(),
+                        counts.getEType(a), relation);
+                if (supportCount) {
+                    invariant.setStatistics(new InvariantStatistics(counts
+                            .getEventCount(a)));
+                }
+                invariants.add(invariant);
+            }
+        }
+        return invariants;
+    }
+
     /**
      * Returns true if and only if <code>e1</code> gets interrupted by
      * <code>e2</code>.
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import synoptic.invariants.AlwaysFollowedInvariant;
 import synoptic.invariants.AlwaysPrecedesInvariant;
@@ -24,6 +25,7 @@ import synoptic.model.event.DistEventType;
 import synoptic.model.event.Event;
 import synoptic.model.event.EventType;
 import synoptic.model.interfaces.ITransition;
+import synoptic.util.WorkerPool;
 
 /**
  * TODO: all calls to getTransitions should be getTransitions(relation) where
@@ -248,11 +250,43 @@ public class DAGWalkingPOInvMiner extends CountingInvariantMiner implements
             }
         }
 
-        // A couple of hash sets for containing parents of special nodes.
-        List<EventNode> initNodeList = new ArrayList<EventNode>();
-        initNodeList.add(initNode);
-        List<EventNode> emptyNodeHashSet = new ArrayList<EventNode>();
+        initCounts(eTypes);
+
+        // Iterate through all the traces.
+        List<Set<EventNode>> traces = new ArrayList<Set<EventNode>>(g
+                .getTraceIdToInitNodes().values());
+        if (isParallelMining() && traces.size() > 1) {
+            countTracesConcurrently(initNode, traces, eTypes);
+        } else {
+            for (Set<EventNode> initTraceNodes : traces) {
+                countTrace(initNode, initTraceNodes);
+            }
+        }
+
+        // Extract the AFby, NFby, AP invariants based on counts.
+        Set<ITemporalInvariant> pathInvs = extractPathInvariantsFromWalkCounts(
+                relation, gEventCnts, gFollowedByCnts, gPrecedesCnts, null,
+                gEventCoOccurrences, gAlwaysFollowsINITIALSet, false, false);
+
+        if (mineConcurrencyInvariants) {
+            // Extract the concurrency invariants based on counts.
+            Set<ITemporalInvariant> concurInvs = extractConcurrencyInvariantsFromWalkCounts(
+                    mineNeverConcurrentWith, relation, gEventCnts,
+                    gPrecedesCnts, gFollowedByCnts, gEventCoOccurrences,
+                    gEventTypesOrderedBalances);
+            // Merge the two sets.
+            pathInvs.addAll(concurInvs);
+        }
+        // Return pathInvs, which at this point contains any non-redundant
+        // concurrency invariants (if these were also mined -- see above).
+        return new TemporalInvariantSet(pathInvs);
+    } // /computeInvariants
 
+    /**
+     * Resets all of the counts, and seeds the global counts maps with the
+     * event types in eTypes.
+     */
+    private void initCounts(Set<EventType> eTypes) {
         gFollowedByCnts.clear();
         gPrecedesCnts.clear();
         gAlwaysFollowsINITIALSet = null;
@@ -285,43 +319,110 @@ public class DAGWalkingPOInvMiner extends CountingInvariantMiner implements
                 mapB.put(e2, 0);
             }
         }
+    }
 
-        // Iterate through all the traces.
-        for (Set<EventNode> initTraceNodes : g.getTraceIdToInitNodes().values()) {
-            tNodeParentsMap.put(initNode, emptyNodeHashSet);
-
-            // ///////////////////
-            // TODO: this assumes that we have a single terminal node. But a PO
-            // trace could have multiple terminals. We need to treat terminals
-            // as we do with initial nodes -- maintain a termTraceNodes list.
-            // ///////////////////
-
-            EventNode termNode = null, termNodeNew = null;
-            for (EventNode curNode : initTraceNodes) {
-                tNodeParentsMap.put(curNode, initNodeList);
-                // A pre-processing step: builds the parent\child counts maps,
-                // the parents map, the tSeenETypes set, and determines the
-                // terminal node in the trace.
-                termNodeNew = preTraverseTrace(curNode);
-                if (termNodeNew != null) {
-                    termNode = termNodeNew;
+    /**
+     * Walks the trace that starts at initTraceNodes (the children of initNode
+     * in the trace) and adds the counts of the trace to the global counts.
+     */
+    private void countTrace(EventNode initNode, Set<EventNode> initTraceNodes) {
+        // A couple of hash sets for containing parents of special nodes.
+        List<EventNode> initNodeList = new ArrayList<EventNode>();
+        initNodeList.add(initNode);
+        List<EventNode> emptyNodeHashSet = new ArrayList<EventNode>();
+
+        tNodeParentsMap.put(initNode, emptyNodeHashSet);
+
+        // ///////////////////
+        // TODO: this assumes that we have a single terminal node. But a PO
+        // trace could have multiple terminals. We need to treat terminals
+        // as we do with initial nodes -- maintain a termTraceNodes list.
+        // ///////////////////
+
+        EventNode termNode = null, termNodeNew = null;
+        for (EventNode curNode : initTraceNodes) {
+            tNodeParentsMap.put(curNode, initNodeList);
+            // A pre-processing step: builds the parent\child counts maps,
+            // the parents map, the tSeenETypes set, and determines the
+            // terminal node in the trace.
+            termNodeNew = preTraverseTrace(curNode);
+            if (termNodeNew != null) {
+                termNode = termNodeNew;
+            }
+        }
+        assert (termNode != null);
+
+        // For every pair of event types in the trace record that the two
+        // types have event instances that co-occur in some trace.
+        Set<EventType> toVisitETypes = new LinkedHashSet<EventType>();
+        toVisitETypes.addAll(tSeenETypes);
+        for (EventType e1 : tSeenETypes) {
+            // We don't consider (e1, e1) as these would be useful for local
+            // invariants and we don't use conditional counts for mining
+            // local invariants; and we do not consider (e1,e2) if we've
+            // already considered (e2,e1).
+            toVisitETypes.remove(e1);
+            for (EventType e2 : toVisitETypes) {
+                // Optimization: We won't be using event co-occurrence
+                // information for
+                // events that are local.
+                if (e1 == e2) {
+                    continue;
                 }
+                if (!(e1 instanceof DistEventType)
+                        || !(e2 instanceof DistEventType)) {
+                    continue;
+                }
+                if (((DistEventType) e1).getProcessName().equals(
+                        ((DistEventType) e2).getProcessName())) {
+
+                    continue;
+                }
+                // </Optimization>
+
+                // Record that e1 and e2 co-occur
+                if (!gEventCoOccurrences.containsKey(e1)) {
+                    gEventCoOccurrences.put(e1,
+                            new LinkedHashSet<EventType>());
+                }
+                gEventCoOccurrences.get(e1).add(e2);
+            }
+        }
+
+        // logger.info("co-occur-cnts: " +
+        // traceCoOccurrenceCnts.toString());
+
+        // ////////////////////////////////////////////////////////////////////////
+        // Precedes relations recording: traverse the trace rooted at each
+        // initial node in the forward direction.
+        for (EventNode curNode : initTraceNodes) {
+            if (mineNeverConcurrentWith) {
+                forwardTraverseTrace(curNode, null);
+            } else {
+                forwardTraverseTraceWithoutNeverConcurrent(curNode, null);
             }
-            assert (termNode != null);
+        }
+
+        // ////////////////////////////////////////////////////////////////////////
+        // FollowedBy relations recording: traverse the trace rooted at
+        // termNode in the reverse direction (following the
+        // tNodeParentsMap).
+        if (mineNeverConcurrentWith) {
+            reverseTraverseTrace(termNode, null);
+        } else {
+            reverseTraverseTraceWithoutNeverConcurrent(termNode, null);
+        }
+
+        if (mineNeverConcurrentWith) {
+            // Compute the gEventTypesOrderedBalances for the current trace.
+
+            // TODO: Because the NCwith invariant is symmetric, we only need
+            // to consider one of the permutations -- just (e1,e2) and not
+            // both (e1,e2) and (e2,e1).
 
-            // For every pair of event types in the trace record that the two
-            // types have event instances that co-occur in some trace.
-            Set<EventType> toVisitETypes = new LinkedHashSet<EventType>();
-            toVisitETypes.addAll(tSeenETypes);
             for (EventType e1 : tSeenETypes) {
-                // We don't consider (e1, e1) as these would be useful for local
-                // invariants and we don't use conditional counts for mining
-                // local invariants; and we do not consider (e1,e2) if we've
-                // already considered (e2,e1).
-                toVisitETypes.remove(e1);
-                for (EventType e2 : toVisitETypes) {
-                    // Optimization: We won't be using event co-occurrence
-                    // information for
+                for (EventType e2 : tSeenETypes) {
+                    // Optimization: we won't be using ordering balance for
                     // events that are local.
                     if (e1 == e2) {
                         continue;
@@ -332,152 +433,141 @@ public class DAGWalkingPOInvMiner extends CountingInvariantMiner implements
                     }
                     if (((DistEventType) e1).getProcessName().equals(
                             ((DistEventType) e2).getProcessName())) {
-
                         continue;
                     }
                     // </Optimization>
 
-                    // Record that e1 and e2 co-occur
-                    if (!gEventCoOccurrences.containsKey(e1)) {
-                        gEventCoOccurrences.put(e1,
-                                new LinkedHashSet<EventType>());
+                    int typeFtypeCnt = 0;
+                    if (tTypeFollowingTypeCnts.containsKey(e1)
+                            && tTypeFollowingTypeCnts.get(e1).containsKey(
+                                    e2)) {
+                        typeFtypeCnt = tTypeFollowingTypeCnts.get(e1).get(
+                                e2);
                     }
-                    gEventCoOccurrences.get(e1).add(e2);
-                }
-            }
 
-            // logger.info("co-occur-cnts: " +
-            // traceCoOccurrenceCnts.toString());
+                    int numE1 = tEventCnts.get(e1);
+                    int numE2 = tEventCnts.get(e2);
 
-            // ////////////////////////////////////////////////////////////////////////
-            // Precedes relations recording: traverse the trace rooted at each
-            // initial node in the forward direction.
-            for (EventNode curNode : initTraceNodes) {
-                if (mineNeverConcurrentWith) {
-                    forwardTraverseTrace(curNode, null);
-                } else {
-                    forwardTraverseTraceWithoutNeverConcurrent(curNode, null);
+                    int typePtypeCnt = 0;
+                    if (tTypePrecedingTypeCnts.containsKey(e1)
+                            && tTypePrecedingTypeCnts.get(e1).containsKey(
+                                    e2)) {
+                        typePtypeCnt = tTypePrecedingTypeCnts.get(e1).get(
+                                e2);
+                    }
+
+                    int prevBalance = gEventTypesOrderedBalances.get(e1)
+                            .get(e2);
+
+                    // NOTE: since numE1 * numE2 is always >= typeFtypeCnt +
+                    // typePtypeCnt, the value is always <= 0. With 0
+                    // indicating that \forall \hat{e1}, \forall \hat{e2} e1
+                    // \precedes e2 or e2 \precedes e1. We use this to
+                    // deduce that e1 and e2 are never concurrent.
+                    gEventTypesOrderedBalances.get(e1).put(
+                            e2,
+                            prevBalance + typeFtypeCnt + typePtypeCnt
+                                    - (numE1 * numE2));
                 }
             }
+        }
 
-            // ////////////////////////////////////////////////////////////////////////
-            // FollowedBy relations recording: traverse the trace rooted at
-            // termNode in the reverse direction (following the
-            // tNodeParentsMap).
-            if (mineNeverConcurrentWith) {
-                reverseTraverseTrace(termNode, null);
-            } else {
-                reverseTraverseTraceWithoutNeverConcurrent(termNode, null);
-            }
+        // Update the AlwaysFollowsINITIALSet set of events by
+        // intersecting it with all events seen in this partition.
+        if (gAlwaysFollowsINITIALSet == null) {
+            // This is the first trace we've processed.
+            gAlwaysFollowsINITIALSet = new LinkedHashSet<EventType>(
+                    tSeenETypes);
+        } else {
+            gAlwaysFollowsINITIALSet.retainAll(tSeenETypes);
+        }
 
-            if (mineNeverConcurrentWith) {
-                // Compute the gEventTypesOrderedBalances for the current trace.
-
-                // TODO: Because the NCwith invariant is symmetric, we only need
-                // to consider one of the permutations -- just (e1,e2) and not
-                // both (e1,e2) and (e2,e1).
-
-                for (EventType e1 : tSeenETypes) {
-                    for (EventType e2 : tSeenETypes) {
-                        // Optimization: we won't be using ordering balance for
-                        // events that are local.
-                        if (e1 == e2) {
-                            continue;
-                        }
-                        if (!(e1 instanceof DistEventType)
-                                || !(e2 instanceof DistEventType)) {
-                            continue;
-                        }
-                        if (((DistEventType) e1).getProcessName().equals(
-                                ((DistEventType) e2).getProcessName())) {
-                            continue;
-                        }
-                        // </Optimization>
-
-                        int typeFtypeCnt = 0;
-                        if (tTypeFollowingTypeCnts.containsKey(e1)
-                                && tTypeFollowingTypeCnts.get(e1).containsKey(
-                                        e2)) {
-                            typeFtypeCnt = tTypeFollowingTypeCnts.get(e1).get(
-                                    e2);
-                        }
-
-                        int numE1 = tEventCnts.get(e1);
-                        int numE2 = tEventCnts.get(e2);
-
-                        int typePtypeCnt = 0;
-                        if (tTypePrecedingTypeCnts.containsKey(e1)
-                                && tTypePrecedingTypeCnts.get(e1).containsKey(
-                                        e2)) {
-                            typePtypeCnt = tTypePrecedingTypeCnts.get(e1).get(
-                                    e2);
-                        }
-
-                        int prevBalance = gEventTypesOrderedBalances.get(e1)
-                                .get(e2);
-
-                        // NOTE: since numE1 * numE2 is always >= typeFtypeCnt +
-                        // typePtypeCnt, the value is always <= 0. With 0
-                        // indicating that \forall \hat{e1}, \forall \hat{e2} e1
-                        // \precedes e2 or e2 \precedes e1. We use this to
-                        // deduce that e1 and e2 are never concurrent.
-                        gEventTypesOrderedBalances.get(e1).put(
-                                e2,
-                                prevBalance + typeFtypeCnt + typePtypeCnt
-                                        - (numE1 * numE2));
+        // Clear all the per-trace structures to prepare for the next trace.
+        tNodeToNumParentsMap.clear();
+        tNodeParentsMap.clear();
+        tNodeToNumChildrenMap.clear();
+        tEventCnts.clear();
+        tSeenETypes.clear();
+        tFollowingNodeSets.clear();
+        tPrecedingNodeSets.clear();
+
+        if (mineNeverConcurrentWith) {
+            tTypeFollowingTypeCnts.clear();
+            tTypePrecedingTypeCnts.clear();
+        } else {
+            tNodeFollowingTypeCnts.clear();
+            tNodePrecedingTypeCnts.clear();
+        }
+
+        // At this point, we've completed all counts computation for the
+        // trace rooted at curNode.
+    }
+
+    /**
+     * Shards traces across the worker pool. Each worker counts its shard of
+     * traces with its own miner instance (the per-trace structures of a miner
+     * cannot be shared), and the global counts of the workers are then merged
+     * into the global counts of this miner, in shard order.
+     */
+    private void countTracesConcurrently(final EventNode initNode,
+            List<Set<EventNode>> traces, final Set<EventType> eTypes) {
+        List<Callable<DAGWalkingPOInvMiner>> tasks = new ArrayList<Callable<DAGWalkingPOInvMiner>>();
+        for (final List<Set<EventNode>> shard : WorkerPool.shard(traces,
+                WorkerPool.getNumThreads())) {
+            tasks.add(new Callable<DAGWalkingPOInvMiner>() {
+                @Override
+                public DAGWalkingPOInvMiner call() {
+                    DAGWalkingPOInvMiner worker = new DAGWalkingPOInvMiner(
+                            mineNeverConcurrentWith);
+                    worker.initCounts(eTypes);
+                    for (Set<EventNode> initTraceNodes : shard) {
+                        worker.countTrace(initNode, initTraceNodes);
                     }
+                    return worker;
                 }
+            });
+        }
+
+        for (DAGWalkingPOInvMiner worker : WorkerPool.invokeAll(tasks)) {
+            addCounts(worker.gFollowedByCnts, gFollowedByCnts);
+            addCounts(worker.gPrecedesCnts, gPrecedesCnts);
+            addCounts(worker.gEventTypesOrderedBalances,
+                    gEventTypesOrderedBalances);
+
+            for (Entry<EventType, Set<EventType>> entry : worker.gEventCoOccurrences
+                    .entrySet()) {
+                if (!gEventCoOccurrences.containsKey(entry.getKey())) {
+                    gEventCoOccurrences.put(entry.getKey(),
+                            new LinkedHashSet<EventType>());
+                }
+                gEventCoOccurrences.get(entry.getKey()).addAll(
+                        entry.getValue());
             }
 
-            // Update the AlwaysFollowsINITIALSet set of events by
-            // intersecting it with all events seen in this partition.
             if (gAlwaysFollowsINITIALSet == null) {
-                // This is the first trace we've processed.
                 gAlwaysFollowsINITIALSet = new LinkedHashSet<EventType>(
-                        tSeenETypes);
-            } else {
-                gAlwaysFollowsINITIALSet.retainAll(tSeenETypes);
-            }
-
-            // Clear all the per-trace structures to prepare for the next trace.
-            tNodeToNumParentsMap.clear();
-            tNodeParentsMap.clear();
-            tNodeToNumChildrenMap.clear();
-            tEventCnts.clear();
-            tSeenETypes.clear();
-            tFollowingNodeSets.clear();
-            tPrecedingNodeSets.clear();
-
-            if (mineNeverConcurrentWith) {
-                tTypeFollowingTypeCnts.clear();
-                tTypePrecedingTypeCnts.clear();
+                        worker.gAlwaysFollowsINITIALSet);
             } else {
-                tNodeFollowingTypeCnts.clear();
-                tNodePrecedingTypeCnts.clear();
+                gAlwaysFollowsINITIALSet
+                        .retainAll(worker.gAlwaysFollowsINITIALSet);
             }
-
-            // At this point, we've completed all counts computation for the
-            // trace rooted at curNode.
         }
+    }
 
-        // Extract the AFby, NFby, AP invariants based on counts.
-        Set<ITemporalInvariant> pathInvs = extractPathInvariantsFromWalkCounts(
-                relation, gEventCnts, gFollowedByCnts, gPrecedesCnts, null,
-                gEventCoOccurrences, gAlwaysFollowsINITIALSet, false, false);
-
-        if (mineConcurrencyInvariants) {
-            // Extract the concurrency invariants based on counts.
-            Set<ITemporalInvariant> concurInvs = extractConcurrencyInvariantsFromWalkCounts(
-                    mineNeverConcurrentWith, relation, gEventCnts,
-                    gPrecedesCnts, gFollowedByCnts, gEventCoOccurrences,
-                    gEventTypesOrderedBalances);
-            // Merge the two sets.
-            pathInvs.addAll(concurInvs);
+    /**
+     * Adds the counts in src into dst, where both maps have the form
+     * XCounts[a][b] = count, and dst contains all of the keys of src.
+     */
+    private static void addCounts(Map<EventType, Map<EventType, Integer>> src,
+            Map<EventType, Map<EventType, Integer>> dst) {
+        for (Entry<EventType, Map<EventType, Integer>> row : src.entrySet()) {
+            Map<EventType, Integer> dstRow = dst.get(row.getKey());
+            for (Entry<EventType, Integer> entry : row.getValue().entrySet()) {
+                dstRow.put(entry.getKey(),
+                        dstRow.get(entry.getKey()) + entry.getValue());
+            }
         }
-        // Return pathInvs, which at this point contains any non-redundant
-        // concurrency invariants (if these were also mined -- see above).
-        return new TemporalInvariantSet(pathInvs);
-    } // /computeInvariants
+    }
 
     /**
      * Recursively, depth-first traverses the trace forward to build the
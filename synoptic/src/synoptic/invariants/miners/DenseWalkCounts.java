@@ -0,0 +1,378 @@
+package synoptic.invariants.miners;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import synoptic.model.ChainRelationPath;
+import synoptic.model.EventNode;
+import synoptic.model.event.Event;
+import synoptic.model.event.EventType;
+import synoptic.model.event.EventTypeDictionary;
+import synoptic.model.interfaces.ITransition;
+import synoptic.util.InternalSynopticException;
+
+/**
+ * <p>
+ * Accumulates the walk counts that {@link CountingInvariantMiner} derives
+ * invariants from -- event counts, followed-by counts, precedes counts,
+ * possible interrupts, and the event types that always follow INITIAL -- over
+ * a set of totally ordered relation paths. This computes the same counts as
+ * {@link ChainRelationPath} followed by the map-based aggregation in
+ * {@link ChainWalkingTOInvMiner}, but keeps them in dense int matrices that are
+ * indexed by a local event type index.
+ * </p>
+ * <p>
+ * Per-path counts are kept in scratch buffers that are reset and reused for
+ * every path, so counting a path does not allocate (beyond what is needed to
+ * walk the path's event nodes). An instance is not thread-safe. Instances that
+ * counted disjoint sets of paths can be combined with addAll.
+ * </p>
+ */
+public class DenseWalkCounts {
+    /** Event types, indexed by local index. */
+    private final List<EventType> eTypes = new ArrayList<EventType>();
+
+    /** Dictionary of the ids in localIndexOfId. */
+    private final EventTypeDictionary eTypeDictionary = EventTypeDictionary
+            .getCurrent();
+
+    /** Local index + 1 of each EventTypeDictionary id, 0 if not assigned. */
+    private int[] localIndexOfId = new int[0];
+
+    /** Capacity of the arrays below, in number of event types. */
+    private int capacity = 0;
+
+    // Global counts, across all counted paths.
+
+    /** eventCnts[a] = number of a events. */
+    private int[] eventCnts;
+
+    /** followedByCnts[a][b] = #F(a->b). */
+    private int[][] followedByCnts;
+
+    /** precedesCnts[a][b] = #P(a->b). */
+    private int[][] precedesCnts;
+
+    /** possibleInterrupts[a] = types that interrupt a, or null if all do. */
+    private BitSet[] possibleInterrupts;
+
+    /** Types seen in all paths, null before the first path. */
+    private BitSet alwaysFollowsInitial = null;
+
+    // Scratch buffers for the path that is being counted.
+
+    /** Number of each event type in the current path. */
+    private int[] pathCnts;
+
+    /** Followed-by counts of the current path. */
+    private int[][] pathFollowedByCnts;
+
+    /** Possible interrupts of the current path. */
+    private BitSet[] pathInterrupts;
+
+    /** Whether pathInterrupts[a] has been set in the current path. */
+    private boolean[] pathHasInterrupts;
+
+    /** Distinct types of the current path, in order of first occurrence. */
+    private int[] pathSeen;
+    private int pathSeenSize = 0;
+
+    /** Types of the events of the current path, in order. */
+    private int[] history = new int[16];
+    private int historySize = 0;
+
+    /** Types that occur between two occurrences of the same type. */
+    private final BitSet typesInBetween = new BitSet();
+
+    /** Types of the current path, as a bitset. */
+    private final BitSet pathSeenSet = new BitSet();
+
+    /**
+     * Creates an empty set of counts.
+     */
+    public DenseWalkCounts() {
+        grow(16);
+    }
+
+    /**
+     * Counts the events of path, which must be a totally ordered relation
+     * path. Throws an InternalSynopticException if it is not.
+     */
+    public void addPath(ChainRelationPath path) {
+        String relation = path.getRelation();
+        Set<String> relationSet = Collections.singleton(relation);
+        boolean isTimeRelation = relation.equals(Event.defTimeRelationStr);
+
+        EventNode curNode = path.getFirstNode();
+        EventNode finalNode = path.getLastNode();
+        List<? extends ITransition<EventNode>> transitions = curNode
+                .getTransitionsWithIntersectingRelations(relationSet);
+
+        while (!transitions.isEmpty() || curNode.equals(finalNode)) {
+            // Each node we traverse must have exactly one transition with the
+            // ordering relation, and one transition with the relation.
+            int numOrdering = isTimeRelation ? transitions.size() : curNode
+                    .getTransitionsWithIntersectingRelations(
+                            Event.defTimeRelationSet).size();
+            if (numOrdering != 1) {
+                throw new InternalSynopticException(
+                        "There should be exactly one transition with an ordering relation.");
+            }
+            if (transitions.size() != 1 && !curNode.equals(finalNode)) {
+                throw new InternalSynopticException(
+                        "There should be one transition with the " + relation
+                                + " relation, but there are "
+                                + transitions.size());
+            }
+
+            addEvent(getLocalIndex(curNode.getEType()));
+
+            if (curNode.equals(finalNode)) {
+                break;
+            }
+            curNode = transitions.get(0).getTarget();
+            transitions = curNode
+                    .getTransitionsWithIntersectingRelations(relationSet);
+        }
+
+        endPath();
+    }
+
+    /**
+     * Adds the counts of other, which must have counted paths that are
+     * disjoint from the paths counted by this instance, to this instance.
+     */
+    public void addAll(DenseWalkCounts other) {
+        int n = other.eTypes.size();
+        int[] map = new int[n];
+        for (int i = 0; i < n; i++) {
+            map[i] = getLocalIndex(other.eTypes.get(i));
+        }
+
+        for (int i = 0; i < n; i++) {
+            int a = map[i];
+            eventCnts[a] += other.eventCnts[i];
+            for (int j = 0; j < n; j++) {
+                int b = map[j];
+                followedByCnts[a][b] += other.followedByCnts[i][j];
+                precedesCnts[a][b] += other.precedesCnts[i][j];
+            }
+            if (other.possibleInterrupts[i] != null) {
+                intersectInterrupts(a, mapBits(other.possibleInterrupts[i],
+                        map));
+            }
+        }
+
+        if (other.alwaysFollowsInitial != null) {
+            BitSet otherSeen = mapBits(other.alwaysFollowsInitial, map);
+            if (alwaysFollowsInitial == null) {
+                alwaysFollowsInitial = otherSeen;
+            } else {
+                alwaysFollowsInitial.and(otherSeen);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of event types that were seen.
+     */
+    public int getNumETypes() {
+        return eTypes.size();
+    }
+
+    /**
+     * Returns the event type with local index a.
+     */
+    public EventType getEType(int a) {
+        return eTypes.get(a);
+    }
+
+    /**
+     * Returns the number of events of type a.
+     */
+    public int getEventCount(int a) {
+        return eventCnts[a];
+    }
+
+    /**
+     * Returns #F(a->b): the sum over all paths of the number of a events that
+     * precede the last b event of the path.
+     */
+    public int getFollowedByCount(int a, int b) {
+        return followedByCnts[a][b];
+    }
+
+    /**
+     * Returns #P(a->b): the number of b events that are preceded by an a event
+     * in the same path.
+     */
+    public int getPrecedesCount(int a, int b) {
+        return precedesCnts[a][b];
+    }
+
+    /**
+     * Returns whether a is interrupted by b in all paths.
+     */
+    public boolean isInterruptedBy(int a, int b) {
+        return possibleInterrupts[a] != null && possibleInterrupts[a].get(b);
+    }
+
+    /**
+     * Returns whether a appears in all paths.
+     */
+    public boolean alwaysFollowsInitial(int a) {
+        return alwaysFollowsInitial != null && alwaysFollowsInitial.get(a);
+    }
+
+    // //////////////////////////////////////////////////////////////////////
+
+    /**
+     * Updates the counts of the current path with an event of type b.
+     */
+    private void addEvent(int b) {
+        // The current event is 'b', and all prior events are 'a'.
+        for (int i = 0; i < pathSeenSize; i++) {
+            int a = pathSeen[i];
+            precedesCnts[a][b]++;
+            pathFollowedByCnts[a][b] = pathCnts[a];
+        }
+
+        // All event types between b and the last occurrence of b are possible
+        // IntrBy invariants, if b occurred before.
+        if (pathCnts[b] > 0) {
+            typesInBetween.clear();
+            for (int h = historySize - 1; h >= 0 && history[h] != b; h--) {
+                typesInBetween.set(history[h]);
+            }
+            if (!pathHasInterrupts[b]) {
+                pathInterrupts[b].clear();
+                pathInterrupts[b].or(typesInBetween);
+                pathHasInterrupts[b] = true;
+            } else {
+                pathInterrupts[b].and(typesInBetween);
+            }
+        } else {
+            pathSeen[pathSeenSize++] = b;
+            pathSeenSet.set(b);
+        }
+
+        if (historySize == history.length) {
+            history = Arrays.copyOf(history, 2 * historySize);
+        }
+        history[historySize++] = b;
+        pathCnts[b]++;
+    }
+
+    /**
+     * Adds the counts of the current path to the global counts, and resets
+     * the scratch buffers.
+     */
+    private void endPath() {
+        for (int i = 0; i < pathSeenSize; i++) {
+            int a = pathSeen[i];
+            eventCnts[a] += pathCnts[a];
+            int[] pathRow = pathFollowedByCnts[a];
+            int[] row = followedByCnts[a];
+            for (int j = 0; j < pathSeenSize; j++) {
+                int b = pathSeen[j];
+                row[b] += pathRow[b];
+                pathRow[b] = 0;
+            }
+            if (pathHasInterrupts[a]) {
+                intersectInterrupts(a, pathInterrupts[a]);
+                pathHasInterrupts[a] = false;
+            }
+            pathCnts[a] = 0;
+        }
+
+        if (alwaysFollowsInitial == null) {
+            alwaysFollowsInitial = (BitSet) pathSeenSet.clone();
+        } else {
+            alwaysFollowsInitial.and(pathSeenSet);
+        }
+
+        pathSeenSet.clear();
+        pathSeenSize = 0;
+        historySize = 0;
+    }
+
+    private void intersectInterrupts(int a, BitSet interrupts) {
+        if (possibleInterrupts[a] == null) {
+            possibleInterrupts[a] = (BitSet) interrupts.clone();
+        } else {
+            possibleInterrupts[a].and(interrupts);
+        }
+    }
+
+    private static BitSet mapBits(BitSet bits, int[] map) {
+        BitSet mapped = new BitSet();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            mapped.set(map[i]);
+        }
+        return mapped;
+    }
+
+    /**
+     * Returns the local index of eType, assigning it the next index if it has
+     * not been seen before.
+     */
+    private int getLocalIndex(EventType eType) {
+        int id = eTypeDictionary.getId(eType);
+        if (id >= localIndexOfId.length) {
+            localIndexOfId = Arrays.copyOf(localIndexOfId,
+                    Math.max(id + 1, 2 * localIndexOfId.length));
+        }
+        int index = localIndexOfId[id] - 1;
+        if (index < 0) {
+            index = eTypes.size();
+            eTypes.add(eType);
+            localIndexOfId[id] = index + 1;
+            if (index == capacity) {
+                grow(2 * capacity);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Grows all per-type arrays to newCapacity event types.
+     */
+    private void grow(int newCapacity) {
+        eventCnts = grow(eventCnts, newCapacity);
+        followedByCnts = grow(followedByCnts, newCapacity);
+        precedesCnts = grow(precedesCnts, newCapacity);
+        pathCnts = grow(pathCnts, newCapacity);
+        pathFollowedByCnts = grow(pathFollowedByCnts, newCapacity);
+        pathSeen = grow(pathSeen, newCapacity);
+
+        possibleInterrupts = possibleInterrupts == null ? new BitSet[newCapacity]
+                : Arrays.copyOf(possibleInterrupts, newCapacity);
+        pathHasInterrupts = pathHasInterrupts == null ? new boolean[newCapacity]
+                : Arrays.copyOf(pathHasInterrupts, newCapacity);
+        BitSet[] interrupts = new BitSet[newCapacity];
+        for (int i = 0; i < newCapacity; i++) {
+            interrupts[i] = i < capacity ? pathInterrupts[i] : new BitSet();
+        }
+        pathInterrupts = interrupts;
+
+        capacity = newCapacity;
+    }
+
+    private static int[] grow(int[] array, int newCapacity) {
+        return array == null ? new int[newCapacity] : Arrays.copyOf(array,
+                newCapacity);
+    }
+
+    private static int[][] grow(int[][] matrix, int newCapacity) {
+        int[][] grown = new int[newCapacity][];
+        for (int i = 0; i < newCapacity; i++) {
+            grown[i] = matrix != null && i < matrix.length ? Arrays.copyOf(
+                    matrix[i], newCapacity) : new int[newCapacity];
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,173 @@
+package synoptic.invariants.miners;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import synoptic.invariants.ITemporalInvariant;
+import synoptic.invariants.TemporalInvariantSet;
+import synoptic.model.ChainsTraceGraph;
+import synoptic.model.Trace;
+import synoptic.model.event.Event;
+import synoptic.model.interfaces.IRelationPath;
+
+/**
+ * <p>
+ * Mines the same invariants as {@link ChainWalkingTOInvMiner} (AFby, AP, NFby,
+ * IntrBy, and INITIAL AFby x) over a totally ordered log that grows over time,
+ * for example a log that a running service keeps appending to. Newly completed
+ * traces are added in batches with addTraces(), which returns the invariants
+ * that the log gained and lost by adding the batch.
+ * </p>
+ * <p>
+ * The miner keeps the walk counts of all traces added so far, one
+ * {@link DenseWalkCounts} per relation. These counts are sums and
+ * intersections over relation paths, so adding a batch only walks the traces
+ * of the batch. Deriving the invariants from the counts and comparing them to
+ * the previous invariants is quadratic in the number of event types, and
+ * independent of the number of traces added before. After every batch the
+ * invariants are the same as those that ChainWalkingTOInvMiner mines from all
+ * the traces added so far.
+ * </p>
+ * <p>
+ * Only single-relation paths are mined (as with the multipleRelations option
+ * off), and invariants are mined without support counts, since support counts
+ * change with every batch. Traces must be complete when they are added: a
+ * trace that continues in a later batch is counted as two separate traces. An
+ * instance is not thread-safe.
+ * </p>
+ */
+public class IncrementalTOInvMiner extends CountingInvariantMiner {
+
+    /** Walk counts of all traces added so far, by relation. */
+    private final Map<String, DenseWalkCounts> relationCounts = new LinkedHashMap<String, DenseWalkCounts>();
+
+    /** Invariants mined from the counts of each relation. */
+    private final Map<String, Set<ITemporalInvariant>> relationInvs = new LinkedHashMap<String, Set<ITemporalInvariant>>();
+
+    /** Number of traces added so far. */
+    private int numTraces = 0;
+
+    /**
+     * The invariants that a log gained and lost by adding a batch of traces.
+     */
+    public static class InvariantDelta {
+        private final TemporalInvariantSet gained;
+        private final TemporalInvariantSet lost;
+
+        public InvariantDelta(TemporalInvariantSet gained,
+                TemporalInvariantSet lost) {
+            this.gained = gained;
+            this.lost = lost;
+        }
+
+        /**
+         * Returns the invariants that hold after the batch but did not hold
+         * before it.
+         */
+        public TemporalInvariantSet getGained() {
+            return gained;
+        }
+
+        /**
+         * Returns the invariants that held before the batch but no longer
+         * hold.
+         */
+        public TemporalInvariantSet getLost() {
+            return lost;
+        }
+
+        /**
+         * Returns whether the batch did not change the invariants.
+         */
+        public boolean isEmpty() {
+            return gained.numInvariants() == 0 && lost.numInvariants() == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "gained: " + gained + ", lost: " + lost;
+        }
+    }
+
+    /**
+     * Adds the traces of g, which must all be complete, to the mined log and
+     * updates the invariants.
+     * 
+     * @param g
+     *            a chain trace graph of traces that were not added before
+     * @return the invariants that were gained and lost
+     */
+    public InvariantDelta addTraces(ChainsTraceGraph g) {
+        TemporalInvariantSet gained = new TemporalInvariantSet();
+        TemporalInvariantSet lost = new TemporalInvariantSet();
+
+        for (String relation : g.getRelations()) {
+            Set<IRelationPath> relationPaths = new LinkedHashSet<IRelationPath>();
+            for (Trace trace : g.getTraces()) {
+                Set<IRelationPath> subgraphs = trace
+                        .getSingleRelationPaths(relation);
+                if (relation.equals(Event.defTimeRelationStr)
+                        && subgraphs.size() != 1) {
+                    throw new IllegalStateException(
+                            "Multiple relation subraphs for ordering relation graph");
+                }
+                relationPaths.addAll(subgraphs);
+            }
+            if (relationPaths.isEmpty()) {
+                continue;
+            }
+
+            DenseWalkCounts batchCounts = ChainWalkingTOInvMiner
+                    .countPaths(relationPaths);
+            DenseWalkCounts counts = relationCounts.get(relation);
+            if (counts == null) {
+                relationCounts.put(relation, batchCounts);
+                counts = batchCounts;
+            } else {
+                counts.addAll(batchCounts);
+            }
+
+            Set<ITemporalInvariant> newInvs = extractPathInvariantsFromDenseCounts(
+                    relation, counts, false);
+            Set<ITemporalInvariant> oldInvs = relationInvs.put(relation,
+                    newInvs);
+            if (oldInvs == null) {
+                oldInvs = new HashSet<ITemporalInvariant>();
+            }
+            for (ITemporalInvariant inv : newInvs) {
+                if (!oldInvs.contains(inv)) {
+                    gained.add(inv);
+                }
+            }
+            for (ITemporalInvariant inv : oldInvs) {
+                if (!newInvs.contains(inv)) {
+                    lost.add(inv);
+                }
+            }
+        }
+
+        numTraces += g.getNumTraces();
+        return new InvariantDelta(gained, lost);
+    }
+
+    /**
+     * Returns the invariants of all the traces added so far.
+     */
+    public TemporalInvariantSet getInvariants() {
+        TemporalInvariantSet result = new TemporalInvariantSet();
+        for (Set<ITemporalInvariant> invs : relationInvs.values()) {
+            result.addAll(invs);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of traces added so far.
+     */
+    public int getNumTraces() {
+        return numTraces;
+    }
+}
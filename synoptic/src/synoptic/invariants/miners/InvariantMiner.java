@@ -2,10 +2,25 @@ package synoptic.invariants.miners;
 
 import java.util.logging.Logger;
 
+import synoptic.main.InferenceContext;
+import synoptic.util.WorkerPool;
+
 /**
  * Base class for all invariant miners. Contains useful functionality or fields
  * used by al miners.
  */
 public abstract class InvariantMiner {
     protected static Logger logger = Logger.getLogger("TemporalInvSet Logger");
+
+    /**
+     * Returns whether counts should be collected from different traces
+     * concurrently, on the shared worker pool. This is the case when the
+     * parallelMining option is set and more than one worker thread is
+     * available.
+     */
+    protected static boolean isParallelMining() {
+        return InferenceContext.hasCurrent()
+                && InferenceContext.getCurrent().options.parallelMining
+                && WorkerPool.getNumThreads() > 1;
+    }
 }
@@ -1,13 +1,17 @@
 package synoptic.invariants.miners;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import synoptic.algorithms.TransitiveClosure;
 import synoptic.benchmarks.PerformanceMetrics;
@@ -20,7 +24,7 @@ import synoptic.invariants.NeverFollowedInvariant;
 import synoptic.invariants.TemporalInvariantSet;
 import synoptic.invariants.concurrency.AlwaysConcurrentInvariant;
 import synoptic.invariants.concurrency.NeverConcurrentInvariant;
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.model.ChainsTraceGraph;
 import synoptic.model.DAGsTraceGraph;
 import synoptic.model.EventNode;
@@ -29,7 +33,7 @@ import synoptic.model.event.DistEventType;
 import synoptic.model.event.Event;
 import synoptic.model.event.EventType;
 import synoptic.model.event.StringEventType;
-import synoptic.util.Pair;
+import synoptic.util.WorkerPool;
 
 /**
  * Implements an invariant miner for both totally and partially ordered traces
@@ -39,7 +43,10 @@ import synoptic.util.Pair;
  * EventNode of type "b", then a AlwaysFollowedBy b is an invariant of the
  * TraceGraph. <br />
  * This miner mines AFby, AP and NFby invariants, but - in contrast to
- * {@link ChainWalkingTOInvMiner} - no IntrBy invariants.
+ * {@link ChainWalkingTOInvMiner} - no IntrBy invariants. <br />
+ * By default, the transitive closure is computed and summarized one trace at
+ * a time (see streamTraces), and with the parallelMining option traces are
+ * summarized concurrently.
  */
 public class TransitiveClosureInvMiner extends InvariantMiner implements
         IPOInvariantMiner, ITOInvariantMiner {
@@ -50,6 +57,16 @@ public class TransitiveClosureInvMiner extends InvariantMiner implements
      */
     public boolean useWarshall = true;
 
+    /**
+     * Whether to compute the transitive closure of one trace at a time, and to
+     * summarize the orderings in each trace before moving on to the next one.
+     * Reachability never crosses trace boundaries, so this mines the same
+     * invariants as computing the transitive closure of the entire graph
+     * first, but only one trace's closure is kept in memory at a time (per
+     * worker thread, with the parallelMining option). Yes/true by default.
+     */
+    public boolean streamTraces = true;
+
     public TransitiveClosureInvMiner() {
         // Empty constructor for testing.
     }
@@ -58,6 +75,11 @@ public class TransitiveClosureInvMiner extends InvariantMiner implements
         this.useWarshall = useWarshall;
     }
 
+    public TransitiveClosureInvMiner(boolean useWarshall, boolean streamTraces) {
+        this.useWarshall = useWarshall;
+        this.streamTraces = streamTraces;
+    }
+
     @Override
     public TemporalInvariantSet computeInvariants(DAGsTraceGraph g) {
         return computeTransClosureInvariants(g, true);
@@ -89,10 +111,18 @@ public class TransitiveClosureInvMiner extends InvariantMiner implements
                 "mineInvariants", false);
         Set<ITemporalInvariant> overapproximatedInvariantsSet;
 
-        AbstractMain main = AbstractMain.getInstance();
+        InferenceContext context = InferenceContext.getCurrent();
 
         // Compute the over-approximated set of invariants for the input graph.
         try {
+            if (streamTraces) {
+                overapproximatedInvariantsSet = new LinkedHashSet<ITemporalInvariant>();
+                for (String relation : g.getRelations()) {
+                    overapproximatedInvariantsSet.addAll(extractInvariantsByTrace(
+                            g, relation, mineConcurrencyInvariants));
+                }
+                return new TemporalInvariantSet(overapproximatedInvariantsSet);
+            }
 
             TimedTask itc = PerformanceMetrics.createTask(
                     "invariants_transitive_closure", false);
@@ -103,7 +133,7 @@ public class TransitiveClosureInvMiner extends InvariantMiner implements
 
             // Get the over-approximation.
             itc.stop();
-            if (main.options.doBenchmarking) {
+            if (context.options.doBenchmarking) {
                 logger.info("BENCHM: " + itc);
             }
             TimedTask io = PerformanceMetrics.createTask(
@@ -120,7 +150,7 @@ public class TransitiveClosureInvMiner extends InvariantMiner implements
             }
 
             io.stop();
-            if (main.options.doBenchmarking) {
+            if (context.options.doBenchmarking) {
                 logger.info("BENCHM: " + io);
             }
             // logger.info("Over-approx set: "
@@ -158,6 +188,163 @@ public class TransitiveClosureInvMiner extends InvariantMiner implements
             return (!neverFollowedBy && !alwaysFollowedBy && !alwaysPrecedes
                     && !alwaysOrdered && !neverOrdered);
         }
+
+        /**
+         * Restricts this summary to the orderings that also hold in other,
+         * which summarizes a disjoint set of traces.
+         */
+        public void intersect(EventOrderingSummary other) {
+            neverFollowedBy &= other.neverFollowedBy;
+            alwaysFollowedBy &= other.alwaysFollowedBy;
+            alwaysPrecedes &= other.alwaysPrecedes;
+            alwaysOrdered &= other.alwaysOrdered;
+            neverOrdered &= other.neverOrdered;
+        }
+    }
+
+    /**
+     * Summarizes the orderings between all pairs of event types, and counts
+     * the traces that contain each event type, over a set of traces. Event
+     * types are identified by their index in a list of the event types of the
+     * graph. Traces are added one at a time, and the transitive closure of a
+     * trace is discarded once the trace has been summarized. An instance is
+     * not thread-safe.
+     */
+    private static class TraceOrderingSummaries {
+        /** summaries[a][b] summarizes the orderings from a to b. */
+        final EventOrderingSummary[][] summaries;
+
+        /** numTraces[a] = number of traces with an a event. */
+        final int[] numTraces;
+
+        /** Index of each event type in the list of event types. */
+        private final Map<EventType, Integer> eTypeIndices;
+
+        private final Set<String> relations;
+
+        /** Trace-local index of each event type, -1 if not in the trace. */
+        private final int[] localIndices;
+
+        public TraceOrderingSummaries(Map<EventType, Integer> eTypeIndices,
+                String relation) {
+            int numETypes = eTypeIndices.size();
+            this.eTypeIndices = eTypeIndices;
+            this.relations = Collections.singleton(relation);
+            summaries = new EventOrderingSummary[numETypes][numETypes];
+            for (int a = 0; a < numETypes; a++) {
+                for (int b = 0; b < numETypes; b++) {
+                    summaries[a][b] = new EventOrderingSummary();
+                }
+            }
+            numTraces = new int[numETypes];
+            localIndices = new int[numETypes];
+            Arrays.fill(localIndices, -1);
+        }
+
+        /**
+         * Summarizes the orderings in a trace, given the (non-special) nodes
+         * of the trace. This makes the same observations as
+         * summarizeOrderings() makes for the trace.
+         */
+        public void addTrace(List<EventNode> traceNodes) {
+            int n = traceNodes.size();
+            Map<EventNode, Integer> nodeIndices = new HashMap<EventNode, Integer>();
+            // The types of the nodes, as trace-local indices, and the event
+            // type indices of the trace-local indices.
+            int[] nodeTypes = new int[n];
+            List<Integer> traceETypes = new ArrayList<Integer>();
+            for (int m = 0; m < n; m++) {
+                EventNode node = traceNodes.get(m);
+                nodeIndices.put(node, m);
+                int a = eTypeIndices.get(node.getEType());
+                if (localIndices[a] < 0) {
+                    localIndices[a] = traceETypes.size();
+                    traceETypes.add(a);
+                }
+                nodeTypes[m] = localIndices[a];
+            }
+            int numLocal = traceETypes.size();
+            int[] typeCounts = new int[numLocal];
+            for (int m = 0; m < n; m++) {
+                typeCounts[nodeTypes[m]]++;
+            }
+
+            // followers[m][t] (predecessors[m][t]) is the number of nodes of
+            // local type t that node m can reach (that can reach node m).
+            TransitiveClosure tc = new TransitiveClosure(relations);
+            tc.addTrace(traceNodes, relations);
+            int[][] followers = new int[n][numLocal];
+            int[][] predecessors = new int[n][numLocal];
+            for (int m = 0; m < n; m++) {
+                Set<EventNode> reachables = tc.getReachableNodes(traceNodes
+                        .get(m));
+                if (reachables == null) {
+                    continue;
+                }
+                for (EventNode reachable : reachables) {
+                    Integer r = nodeIndices.get(reachable);
+                    if (r == null) {
+                        continue;
+                    }
+                    followers[m][nodeTypes[r]]++;
+                    predecessors[r][nodeTypes[m]]++;
+                }
+            }
+
+            for (int m = 0; m < n; m++) {
+                int t1 = nodeTypes[m];
+                EventOrderingSummary[] row = summaries[traceETypes.get(t1)];
+                for (int t2 = 0; t2 < numLocal; t2++) {
+                    EventOrderingSummary order = row[traceETypes.get(t2)];
+                    boolean followerFound = followers[m][t2] > 0;
+                    boolean predecessorFound = predecessors[m][t2] > 0;
+                    if (followerFound) {
+                        order.neverFollowedBy = false;
+                    } else {
+                        order.alwaysFollowedBy = false;
+                    }
+                    if (!predecessorFound) {
+                        order.alwaysPrecedes = false;
+                    }
+                    if (followerFound || predecessorFound) {
+                        order.neverOrdered = false;
+                    }
+                    // Every other node of type t2 must be ordered with node m.
+                    int others = typeCounts[t2] - (t1 == t2 ? 1 : 0);
+                    if (followers[m][t2] + predecessors[m][t2] < others) {
+                        order.alwaysOrdered = false;
+                    }
+                }
+            }
+
+            // Instances of types that are in the trace are neither followed
+            // nor preceded by instances of types that are not.
+            for (int a : traceETypes) {
+                numTraces[a]++;
+                for (int b = 0; b < localIndices.length; b++) {
+                    if (localIndices[b] < 0) {
+                        summaries[a][b].alwaysFollowedBy = false;
+                        summaries[a][b].alwaysPrecedes = false;
+                    }
+                }
+            }
+            for (int a : traceETypes) {
+                localIndices[a] = -1;
+            }
+        }
+
+        /**
+         * Adds the summaries of other, which summarizes a disjoint set of
+         * traces, to this instance.
+         */
+        public void addAll(TraceOrderingSummaries other) {
+            for (int a = 0; a < numTraces.length; a++) {
+                numTraces[a] += other.numTraces[a];
+                for (int b = 0; b < numTraces.length; b++) {
+                    summaries[a][b].intersect(other.summaries[a][b]);
+                }
+            }
+        }
     }
 
     /**
@@ -309,47 +496,150 @@ public class TransitiveClosureInvMiner extends InvariantMiner implements
             list.add(node);
         }
 
+        // Summarize the orderings between all pairs of event types.
+        List<EventType> eTypes = new ArrayList<EventType>(
+                etypeToTraceIdToENode.keySet());
+        int numETypes = eTypes.size();
+        EventOrderingSummary[][] summaries = new EventOrderingSummary[numETypes][numETypes];
+        int[] numTracesWith = new int[numETypes];
+        for (int a = 0; a < numETypes; a++) {
+            Map<Integer, List<EventNode>> e1Nodes = etypeToTraceIdToENode
+                    .get(eTypes.get(a));
+            numTracesWith[a] = e1Nodes.keySet().size();
+            for (int b = 0; b < numETypes; b++) {
+                summaries[a][b] = summarizeOrderings(e1Nodes,
+                        etypeToTraceIdToENode.get(eTypes.get(b)), tc);
+            }
+        }
+
+        return extractInvariantsFromSummaries(eTypes, summaries,
+                numTracesWith, g.getNumTraces(), relation,
+                mineConcurrencyInvariants);
+    }
+
+    /**
+     * Extract an over-approximated set of invariants for the relation
+     * {@code relation} of the graph {@code g}, by summarizing the orderings in
+     * the transitive closure of each trace of {@code g}, one trace at a time.
+     * Mines the same invariants as extractInvariantsFromTC() with the
+     * transitive closure of {@code g}.
+     */
+    private Set<ITemporalInvariant> extractInvariantsByTrace(TraceGraph<?> g,
+            final String relation, boolean mineConcurrencyInvariants) {
+        // Index the event types in the same order as extractInvariantsFromTC()
+        // and group the nodes by trace. INITIAL and TERMINAL are ignored (see
+        // extractInvariantsFromTC()).
+        final Map<EventType, Integer> eTypeIndices = new LinkedHashMap<EventType, Integer>();
+        Map<Integer, List<EventNode>> traceIdToENodes = new LinkedHashMap<Integer, List<EventNode>>();
+        for (EventNode node : g.getNodes()) {
+            if (node.getEType().isSpecialEventType()) {
+                continue;
+            }
+            if (!eTypeIndices.containsKey(node.getEType())) {
+                eTypeIndices.put(node.getEType(), eTypeIndices.size());
+            }
+            List<EventNode> traceNodes = traceIdToENodes.get(node
+                    .getTraceID());
+            if (traceNodes == null) {
+                traceNodes = new ArrayList<EventNode>();
+                traceIdToENodes.put(node.getTraceID(), traceNodes);
+            }
+            traceNodes.add(node);
+        }
+        List<List<EventNode>> traces = new ArrayList<List<EventNode>>(
+                traceIdToENodes.values());
+
+        TraceOrderingSummaries summaries;
+        if (!isParallelMining() || traces.size() < 2) {
+            summaries = new TraceOrderingSummaries(eTypeIndices, relation);
+            for (List<EventNode> trace : traces) {
+                summaries.addTrace(trace);
+            }
+        } else {
+            // Each worker summarizes a shard of the traces, and the shard
+            // summaries are combined in shard order.
+            List<Callable<TraceOrderingSummaries>> tasks = new ArrayList<Callable<TraceOrderingSummaries>>();
+            for (final List<List<EventNode>> shard : WorkerPool.shard(traces,
+                    WorkerPool.getNumThreads())) {
+                tasks.add(new Callable<TraceOrderingSummaries>() {
+                    @Override
+                    public TraceOrderingSummaries call() {
+                        TraceOrderingSummaries shardSummaries = new TraceOrderingSummaries(
+                                eTypeIndices, relation);
+                        for (List<EventNode> trace : shard) {
+                            shardSummaries.addTrace(trace);
+                        }
+                        return shardSummaries;
+                    }
+                });
+            }
+            summaries = null;
+            for (TraceOrderingSummaries shardSummaries : WorkerPool
+                    .invokeAll(tasks)) {
+                if (summaries == null) {
+                    summaries = shardSummaries;
+                } else {
+                    summaries.addAll(shardSummaries);
+                }
+            }
+        }
+
+        return extractInvariantsFromSummaries(new ArrayList<EventType>(
+                eTypeIndices.keySet()), summaries.summaries,
+                summaries.numTraces, g.getNumTraces(), relation,
+                mineConcurrencyInvariants);
+    }
+
+    /**
+     * Derives invariants from the ordering summaries between event types.
+     * 
+     * @param eTypes
+     *            the (non-special) event types of the graph
+     * @param summaries
+     *            summaries[a][b] summarizes the orderings from instances of
+     *            eTypes.get(a) to instances of eTypes.get(b)
+     * @param numTracesWith
+     *            numTracesWith[a] is the number of traces with an instance of
+     *            eTypes.get(a)
+     * @param numTraces
+     *            the number of traces in the graph
+     * @param relation
+     *            the relation to consider for the invariants
+     * @return the over-approximated set of invariants
+     */
+    private Set<ITemporalInvariant> extractInvariantsFromSummaries(
+            List<EventType> eTypes, EventOrderingSummary[][] summaries,
+            int[] numTracesWith, int numTraces, String relation,
+            boolean mineConcurrencyInvariants) {
         Set<ITemporalInvariant> pathInvs = new LinkedHashSet<ITemporalInvariant>();
         Set<ITemporalInvariant> neverConcurInvs = new LinkedHashSet<ITemporalInvariant>();
         Set<ITemporalInvariant> alwaysConcurInvs = new LinkedHashSet<ITemporalInvariant>();
 
-        Set<Pair<EventType, EventType>> observedPairs = new LinkedHashSet<Pair<EventType, EventType>>();
-        int numTraces = g.getNumTraces();
-        for (Entry<EventType, Map<Integer, List<EventNode>>> e1Entry : etypeToTraceIdToENode
-                .entrySet()) {
-            EventType e1 = e1Entry.getKey();
+        for (int a = 0; a < eTypes.size(); a++) {
+            EventType e1 = eTypes.get(a);
             // ///////////////// Determine if "INITIAL AFby e1" is true
             // Check if an e1 node appeared in every trace, if yes then inv
             // true.
-            if (e1Entry.getValue().keySet().size() == numTraces) {
+            if (numTracesWith[a] == numTraces) {
                 pathInvs.add(new AlwaysFollowedInvariant(StringEventType
                         .newInitialStringEventType(), e1,
                         Event.defTimeRelationStr));
             }
             // /////////////////
 
-            for (Entry<EventType, Map<Integer, List<EventNode>>> e2Entry : etypeToTraceIdToENode
-                    .entrySet()) {
-                EventType e2 = e2Entry.getKey();
-                // If we have done (e1,e2) then do not do (e2,e1) because for
-                // pair (e1,e2) we derive orderings and invariants for both
-                // (e1,e2) and (e2,e1) -- this is done so that we can do correct
-                // subsumption of invariants (and concurrency invariants require
-                // symmetrical information).
-                if (observedPairs.contains(new Pair<EventType, EventType>(e2,
-                        e1))) {
-                    continue;
-                }
-                observedPairs.add(new Pair<EventType, EventType>(e1, e2));
+            // If we have done (e1,e2) then do not do (e2,e1) because for
+            // pair (e1,e2) we derive orderings and invariants for both
+            // (e1,e2) and (e2,e1) -- this is done so that we can do correct
+            // subsumption of invariants (and concurrency invariants require
+            // symmetrical information).
+            for (int b = a; b < eTypes.size(); b++) {
+                EventType e2 = eTypes.get(b);
 
                 // ///////////////////////////////
-                // Derive the ordering summary between each instance of e1 and
-                // every instance of e2.
-                EventOrderingSummary E1orderE2 = summarizeOrderings(
-                        e1Entry.getValue(), e2Entry.getValue(), tc);
-                // Do same for e2,e1.
-                EventOrderingSummary E2orderE1 = summarizeOrderings(
-                        e2Entry.getValue(), e1Entry.getValue(), tc);
+                // The ordering summary between each instance of e1 and every
+                // instance of e2, and the same for e2,e1.
+                EventOrderingSummary E1orderE2 = summaries[a][b];
+                EventOrderingSummary E2orderE1 = summaries[b][a];
                 // ///////////////////////////////
 
                 // Whether or not never ordered invariant was added --
@@ -12,7 +12,6 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
@@ -36,6 +35,7 @@ import synoptic.invariants.miners.TransitiveClosureInvMiner;
 import synoptic.main.options.AbstractOptions;
 import synoptic.main.options.Options;
 import synoptic.main.parser.ParseException;
+import synoptic.main.parser.TraceCache;
 import synoptic.main.parser.TraceParser;
 import synoptic.model.ChainsTraceGraph;
 import synoptic.model.DAGsTraceGraph;
@@ -48,11 +48,8 @@ import synoptic.model.event.EventType;
 import synoptic.model.export.DotExportFormatter;
 import synoptic.model.export.GmlExportFormatter;
 import synoptic.model.export.GraphExportFormatter;
-import synoptic.model.export.GraphExporter;
 import synoptic.model.export.JsonExporter;
 import synoptic.model.export.LtsExporter;
-import synoptic.model.interfaces.IGraph;
-import synoptic.model.interfaces.INode;
 import synoptic.model.interfaces.IRelationPath;
 import synoptic.model.testgeneration.AbstractTestCase;
 import synoptic.tests.SynopticLibTest;
@@ -63,9 +60,10 @@ import synoptic.util.resource.AbstractResource;
 /**
  * Contains entry points for the command line version of Synoptic or a
  * derivative project. The AbstractMain instance is a singleton that maintains
- * options and other state for a single run of some Main.
+ * options and other state for a single run of some Main. It is the inference
+ * context of every thread that has not bound another InferenceContext.
  */
-public abstract class AbstractMain {
+public abstract class AbstractMain extends InferenceContext {
     public static Logger logger = null;
 
     /**
@@ -73,21 +71,6 @@ public abstract class AbstractMain {
      */
     public static AbstractMain instance = null;
 
-    /**
-     * Global source of pseudo-random numbers.
-     */
-    public Random random;
-
-    /**
-     * Formatter to use for exporting graphs (DOT/GML formatter).
-     */
-    public GraphExportFormatter graphExportFormatter = null;
-
-    /**
-     * Options parsed from the command line or set in some other way.
-     */
-    public AbstractOptions options = null;
-
     /**
      * The instance of either SynopticOptions or PerfumeOptions from which plume
      * methods can be called and from which the AbstractOptions object above
@@ -132,7 +115,7 @@ public abstract class AbstractMain {
 
         // Display help just for the 'publicized' option groups
         if (options.help) {
-            AbstractOptions.plumeOpts.printShortHelp();
+            options.plumeOpts.printShortHelp();
             return null;
         }
 
@@ -170,20 +153,19 @@ public abstract class AbstractMain {
             return null;
         }
 
-        if (AbstractOptions.plumeOpts.logFilenames.size() == 0) {
+        if (options.plumeOpts.logFilenames.size() == 0) {
             logger.severe("No log filenames specified, exiting. Specify log files at the end of the command line with no options.");
             return null;
         }
 
-        if (options.dumpIntermediateStages
-                && AbstractOptions.outputPathPrefix == null) {
+        if (options.dumpIntermediateStages && options.outputPathPrefix == null) {
             logger.severe("Cannot dump intermediate stages without an output path prefix. Set this prefix with:\n\t"
-                    + AbstractOptions.plumeOpts.getOptDesc("outputPathPrefix"));
+                    + options.plumeOpts.getOptDesc("outputPathPrefix"));
             return null;
         }
 
         if (options.logLvlVerbose || options.logLvlExtraVerbose) {
-            AbstractOptions.plumeOpts.printOptionValues();
+            options.plumeOpts.printOptionValues();
         }
 
         return graphExportFormatter;
@@ -286,92 +268,6 @@ public abstract class AbstractMain {
      * Main instance methods below.
      */
 
-    /**
-     * Returns the filename for an intermediate dot file based on the given
-     * stage name and round number. Adheres to the convention specified above in
-     * usage, namely that the filename is of the format:
-     * outputPathPrefix.stage-S.round-R.dot
-     * 
-     * @param stageName
-     *            Stage name string, e.g. "r" for refinement
-     * @param roundNum
-     *            Round number within the stage
-     * @return string filename for an intermediate dot file
-     */
-    public String getIntermediateDumpFilename(String stageName, int roundNum) {
-        return AbstractOptions.outputPathPrefix + ".stage-" + stageName
-                + ".round-" + roundNum;
-    }
-
-    /**
-     * Serializes g using a dot/gml format and optionally outputs a png file
-     * corresponding to the serialized format (dot format export only).
-     * 
-     * @throws IOException
-     */
-    private <T extends INode<T>> void exportGraph(String baseFilename,
-            IGraph<T> g, boolean outputEdgeLabelsCondition,
-            boolean imageGenCondition) {
-        // Check for a request not to output the model
-        if (options.noModelOutput && !options.exportAsGML) {
-            logger.info("Not outputting model due to flag --noModelOutput");
-            return;
-        }
-
-        if (AbstractOptions.outputPathPrefix == null) {
-            logger.warning("Cannot output initial graph. Specify output path prefix using:\n\t"
-                    + AbstractOptions.plumeOpts.getOptDesc("outputPathPrefix"));
-            return;
-        }
-
-        String filename = null;
-        if (options.exportAsGML) {
-            filename = baseFilename + ".gml";
-        } else {
-            filename = baseFilename + ".dot";
-        }
-        try {
-            GraphExporter.exportGraph(filename, g, outputEdgeLabelsCondition);
-        } catch (IOException e) {
-            logger.fine("Unable to export graph to " + filename);
-        }
-
-        if (imageGenCondition) {
-            // Currently we support only .dot -> .png generation
-            GraphExporter.generatePngFileFromDotFile(filename);
-        }
-    }
-
-    /**
-     * Export the trace graph g.
-     */
-    public <T extends INode<T>> void exportTraceGraph(String baseFilename,
-            IGraph<T> g) {
-        // false below : never include edge labels on exported initial graphs
-
-        // Main.dumpInitialGraphPngFile && !exportAsGML below : whether to
-        // convert exported graph to a png file -- the user must have explicitly
-        // requested this and the export must be in non-GML format (i.e., dot
-        // format).
-        exportGraph(baseFilename, g, false, options.dumpTraceGraphPngFile
-                && !options.exportAsGML);
-    }
-
-    /**
-     * Export g as a non-initial graph.
-     */
-    public <T extends INode<T>> void exportNonInitialGraph(String baseFilename,
-            IGraph<T> g) {
-        // Main.outputEdgeLabels below : the condition for including edge labels
-        // on exported graphs.
-
-        // !exportAsGML below : the condition for exporting an image to png file
-        // is that it is not in GML format (i.e., it is in dot format so we can
-        // use the 'dot' command).
-        exportGraph(baseFilename, g, options.outputEdgeLabels,
-                !options.exportAsGML);
-    }
-
     private void processPOLog(TraceParser parserIn, List<EventNode> parsedEvents)
             throws ParseException, FileNotFoundException {
         TraceParser parser = parserIn;
@@ -384,12 +280,11 @@ public abstract class AbstractMain {
         parser = null;
 
         // TODO: vector time index sets aren't used yet.
-        if (AbstractOptions.separateVTimeIndexSets != null) {
+        if (options.separateVTimeIndexSets != null) {
             // separateVTimeIndexSets is assumed to be in a format like:
             // "1,2;3;4,5,6" where the sets are {1,2}, {3}, {4,5,6}.
             LinkedList<LinkedHashSet<Integer>> indexSets = new LinkedList<LinkedHashSet<Integer>>();
-            for (String strSet : AbstractOptions.separateVTimeIndexSets
-                    .split(";")) {
+            for (String strSet : options.separateVTimeIndexSets.split(";")) {
                 LinkedHashSet<Integer> iSet = new LinkedHashSet<Integer>();
                 indexSets.add(iSet);
                 for (String index : strSet.split(",")) {
@@ -419,7 +314,7 @@ public abstract class AbstractMain {
         }
 
         if (options.outputInvariantsToFile) {
-            String invariantsFilename = AbstractOptions.outputPathPrefix
+            String invariantsFilename = options.outputPathPrefix
                     + ".invariants.txt";
             logger.info("Outputting invarians to file: " + invariantsFilename);
             minedInvs.outputToFile(invariantsFilename,
@@ -459,6 +354,50 @@ public abstract class AbstractMain {
         return parsedEvents;
     }
 
+    /**
+     * Parses all the log filenames like parseEvents, unless options specify a
+     * trace cache directory and the cache holds the events of an earlier run
+     * that parsed the same files with the same parser options, in which case
+     * the events are loaded from the cache. Newly parsed events are added to
+     * the cache.
+     * 
+     * @param parser
+     * @param logFilenames
+     * @return
+     * @throws Exception
+     */
+    public List<EventNode> parseOrLoadEvents(TraceParser parser,
+            List<String> logFilenames) throws Exception {
+        if (options.traceCacheDir == null || options.debugParse) {
+            return parseEvents(parser, logFilenames);
+        }
+
+        List<File> files = new ArrayList<File>();
+        for (String fileArg : logFilenames) {
+            for (File file : getFiles(fileArg)) {
+                if (!file.isFile()) {
+                    // Let the parser report the missing file.
+                    return parseEvents(parser, logFilenames);
+                }
+                files.add(file);
+            }
+        }
+
+        TraceCache cache = new TraceCache(new File(options.traceCacheDir),
+                options, files);
+        List<EventNode> parsedEvents = cache.load(parser);
+        if (parsedEvents == null) {
+            parsedEvents = parseEvents(parser, logFilenames);
+            try {
+                cache.store(parser, parsedEvents);
+            } catch (IOException e) {
+                logger.warning("Unable to write the trace cache: "
+                        + e.getMessage());
+            }
+        }
+        return parsedEvents;
+    }
+
     static public ChainsTraceGraph genChainsTraceGraph(TraceParser parser,
             List<EventNode> parsedEvents) throws ParseException {
         long startTime = loggerInfoStart("Generating inter-event temporal relation...");
@@ -563,15 +502,15 @@ public abstract class AbstractMain {
      */
     public PartitionGraph createInitialPartitionGraph() throws Exception {
         TraceParser parser = new TraceParser(options.regExps,
-                AbstractOptions.partitionRegExp,
-                AbstractOptions.separatorRegExp, options.dateFormat);
+                options.partitionRegExp, options.separatorRegExp,
+                options.dateFormat);
         List<EventNode> parsedEvents;
         try {
-            parsedEvents = parseEvents(parser,
-                    AbstractOptions.plumeOpts.logFilenames);
+            parsedEvents = parseOrLoadEvents(parser,
+                    options.plumeOpts.logFilenames);
         } catch (ParseException e) {
             logger.severe("Caught ParseException -- unable to continue, exiting. Try cmd line option:\n\t"
-                    + AbstractOptions.plumeOpts.getOptDesc("help"));
+                    + options.plumeOpts.getOptDesc("help"));
             logger.severe(e.toString());
             return null;
         }
@@ -610,7 +549,7 @@ public abstract class AbstractMain {
         if (options.dumpTraceGraphDotFile) {
             logger.info("Exporting trace graph ["
                     + traceGraph.getNodes().size() + " nodes]..");
-            exportTraceGraph(AbstractOptions.outputPathPrefix + ".tracegraph",
+            exportTraceGraph(options.outputPathPrefix + ".tracegraph",
                     traceGraph);
         }
 
@@ -647,11 +586,11 @@ public abstract class AbstractMain {
             }
         }
 
-        if (AbstractOptions.ignoreInvsOverETypeSet != null) {
+        if (options.ignoreInvsOverETypeSet != null) {
 
             // Split string options.ignoreInvsOverETypeSet by the ";" delimiter:
             List<String> stringEtypesToIgnore = Arrays
-                    .asList(AbstractOptions.ignoreInvsOverETypeSet.split(";"));
+                    .asList(options.ignoreInvsOverETypeSet.split(";"));
 
             logger.info("Ignoring invariants over event-types set: "
                     + stringEtypesToIgnore.toString());
@@ -688,7 +627,7 @@ public abstract class AbstractMain {
         }
 
         if (options.outputInvariantsToFile) {
-            String invariantsFilename = AbstractOptions.outputPathPrefix
+            String invariantsFilename = options.outputPathPrefix
                     + ".invariants.txt";
             logger.info("Outputting invariants to file: " + invariantsFilename);
             minedInvs.outputToFile(invariantsFilename,
@@ -707,8 +646,8 @@ public abstract class AbstractMain {
         // //////////////////
 
         if (options.dumpInitialPartitionGraph) {
-            exportGraph(AbstractOptions.outputPathPrefix + ".condensed",
-                    pGraph, true, true);
+            exportGraph(options.outputPathPrefix + ".condensed", pGraph, true,
+                    true);
         }
 
         return pGraph;
@@ -841,12 +780,12 @@ public abstract class AbstractMain {
         // unsatisfied in the result
 
         // export the resulting graph
-        if (AbstractOptions.outputPathPrefix != null) {
+        if (options.outputPathPrefix != null) {
             logger.info("Exporting final graph [" + pGraph.getNodes().size()
                     + " nodes]..");
             startTime = System.currentTimeMillis();
 
-            exportNonInitialGraph(AbstractOptions.outputPathPrefix, pGraph);
+            exportNonInitialGraph(options.outputPathPrefix, pGraph);
 
             logger.info("Exporting took "
                     + (System.currentTimeMillis() - startTime) + "ms");
@@ -858,7 +797,7 @@ public abstract class AbstractMain {
                         .deriveAbstractTests(pGraph);
                 int testID = 0;
                 for (AbstractTestCase testCase : testSuite) {
-                    String baseFilename = AbstractOptions.outputPathPrefix
+                    String baseFilename = options.outputPathPrefix
                             + "-test" + testID;
                     exportNonInitialGraph(baseFilename, testCase);
                     testID++;
@@ -866,7 +805,7 @@ public abstract class AbstractMain {
             }
         } else {
             logger.warning("Cannot output final graph. Specify output path prefix using:\n\t"
-                    + AbstractOptions.plumeOpts.getOptDesc("outputPathPrefix"));
+                    + options.plumeOpts.getOptDesc("outputPathPrefix"));
         }
 
         // Export a JSON object if requested
@@ -874,8 +813,7 @@ public abstract class AbstractMain {
             logger.info("Exporting final graph as a JSON object...");
             startTime = System.currentTimeMillis();
 
-            JsonExporter.exportJsonObject(AbstractOptions.outputPathPrefix,
-                    pGraph);
+            JsonExporter.exportJsonObject(options.outputPathPrefix, pGraph);
 
             logger.info("Exporting JSON object took "
                     + (System.currentTimeMillis() - startTime) + "ms");
@@ -886,7 +824,7 @@ public abstract class AbstractMain {
             logger.info("Exporting final graph in LTS format...");
             startTime = System.currentTimeMillis();
 
-            LtsExporter.exportLTS(AbstractOptions.outputPathPrefix, pGraph);
+            LtsExporter.exportLTS(options.outputPathPrefix, pGraph);
 
             logger.info("Exporting in LTS format took "
                     + (System.currentTimeMillis() - startTime) + "ms");
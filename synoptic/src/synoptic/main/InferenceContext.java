@@ -0,0 +1,291 @@
+package synoptic.main;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import synoptic.benchmarks.PerformanceMetrics;
+import synoptic.main.options.AbstractOptions;
+import synoptic.model.event.EventTypeDictionary;
+import synoptic.model.export.DotExportFormatter;
+import synoptic.model.export.GmlExportFormatter;
+import synoptic.model.export.GraphExportFormatter;
+import synoptic.model.export.GraphExporter;
+import synoptic.model.interfaces.IGraph;
+import synoptic.model.interfaces.INode;
+
+/**
+ * <p>
+ * The state of a single inference (parse, mine, refine, and coarsen): the
+ * options, the source of pseudo-random numbers, the graph export formatter,
+ * the performance metrics, and the event type dictionary. The Synoptic library reads this state through
+ * getCurrent() rather than through global variables, so that several
+ * independent inferences can run concurrently in one process, each within its
+ * own context.
+ * </p>
+ * <p>
+ * A context is made current for a piece of work with call(), which binds the
+ * context to the calling thread for the duration of the work. The tasks that
+ * the library runs in the WorkerPool are bound to the context of the thread
+ * that submitted them. A thread without a bound context uses the AbstractMain
+ * singleton, which is the context of the command line versions of Synoptic.
+ * </p>
+ */
+public class InferenceContext {
+    private static Logger logger = Logger.getLogger("InferenceContext");
+
+    /**
+     * Context bound to each thread by call(), or null if the thread uses the
+     * AbstractMain singleton.
+     */
+    private static final ThreadLocal<InferenceContext> bound = new ThreadLocal<InferenceContext>();
+
+    /**
+     * Source of pseudo-random numbers.
+     */
+    public Random random;
+
+    /**
+     * Formatter to use for exporting graphs (DOT/GML formatter).
+     */
+    public GraphExportFormatter graphExportFormatter = null;
+
+    /**
+     * Options parsed from the command line or set in some other way.
+     */
+    public AbstractOptions options = null;
+
+    /**
+     * Performance metrics that are recorded while this context is bound.
+     */
+    private final PerformanceMetrics metrics = new PerformanceMetrics();
+
+    /**
+     * Ids of the event types of this inference.
+     */
+    private final EventTypeDictionary eventTypeDictionary = new EventTypeDictionary();
+
+    /**
+     * Creates a context whose state is set up by the subclass.
+     */
+    protected InferenceContext() {
+        // Fields are initialized by subclasses.
+    }
+
+    /**
+     * Creates a context for an inference with the given options. The random
+     * number generator is seeded with options.randomSeed, and graphs are
+     * exported in GML format if options.exportAsGML is set, and in DOT format
+     * otherwise.
+     */
+    public InferenceContext(AbstractOptions options) {
+        this.options = options;
+        this.random = new Random(options.randomSeed);
+        if (options.exportAsGML) {
+            this.graphExportFormatter = new GmlExportFormatter();
+        } else {
+            this.graphExportFormatter = new DotExportFormatter();
+        }
+    }
+
+    /**
+     * Returns the context of the calling thread: the context bound by call(),
+     * or the AbstractMain singleton if no context is bound. First asserts that
+     * there is such a context.
+     */
+    public static InferenceContext getCurrent() {
+        InferenceContext context = bound.get();
+        if (context == null) {
+            context = AbstractMain.instance;
+        }
+        assert (context != null);
+        return context;
+    }
+
+    /**
+     * Returns whether the calling thread has a context, either bound by
+     * call() or through the AbstractMain singleton.
+     */
+    public static boolean hasCurrent() {
+        return bound.get() != null || AbstractMain.instance != null;
+    }
+
+    /**
+     * Returns the context bound to the calling thread by call(), or null if
+     * the thread uses the AbstractMain singleton.
+     */
+    public static InferenceContext getBound() {
+        return bound.get();
+    }
+
+    /**
+     * Runs task with this context bound to the calling thread, and then
+     * restores the previously bound context.
+     * 
+     * @param task
+     *            the work to do within this context
+     * @return the result of task
+     * @throws Exception
+     *             any exception thrown by task
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        InferenceContext previous = bound.get();
+        bound.set(this);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                bound.remove();
+            } else {
+                bound.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Returns a task that runs task within the context that is bound to the
+     * calling thread, for handing task to another thread. Returns task itself
+     * if no context is bound.
+     */
+    public static <T> Callable<T> propagate(final Callable<T> task) {
+        final InferenceContext context = bound.get();
+        if (context == null) {
+            return task;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return context.call(task);
+            }
+        };
+    }
+
+    /**
+     * Returns a runnable that runs r within the context that is bound to the
+     * calling thread, for handing r to another thread. Returns r itself if no
+     * context is bound.
+     */
+    public static Runnable propagate(final Runnable r) {
+        final InferenceContext context = bound.get();
+        if (context == null) {
+            return r;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                InferenceContext previous = bound.get();
+                bound.set(context);
+                try {
+                    r.run();
+                } finally {
+                    if (previous == null) {
+                        bound.remove();
+                    } else {
+                        bound.set(previous);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the performance metrics of this context.
+     */
+    public PerformanceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the event type dictionary of this context.
+     */
+    public EventTypeDictionary getEventTypeDictionary() {
+        return eventTypeDictionary;
+    }
+
+    /**
+     * Returns the filename for an intermediate dot file based on the given
+     * stage name and round number. Adheres to the convention specified above in
+     * usage, namely that the filename is of the format:
+     * outputPathPrefix.stage-S.round-R.dot
+     * 
+     * @param stageName
+     *            Stage name string, e.g. "r" for refinement
+     * @param roundNum
+     *            Round number within the stage
+     * @return string filename for an intermediate dot file
+     */
+    public String getIntermediateDumpFilename(String stageName, int roundNum) {
+        return options.outputPathPrefix + ".stage-" + stageName
+                + ".round-" + roundNum;
+    }
+
+    /**
+     * Serializes g using a dot/gml format and optionally outputs a png file
+     * corresponding to the serialized format (dot format export only).
+     * 
+     * @throws IOException
+     */
+    protected <T extends INode<T>> void exportGraph(String baseFilename,
+            IGraph<T> g, boolean outputEdgeLabelsCondition,
+            boolean imageGenCondition) {
+        // Check for a request not to output the model
+        if (options.noModelOutput && !options.exportAsGML) {
+            logger.info("Not outputting model due to flag --noModelOutput");
+            return;
+        }
+
+        if (options.outputPathPrefix == null) {
+            logger.warning("Cannot output initial graph. Specify output path prefix using:\n\t"
+                    + options.plumeOpts.getOptDesc("outputPathPrefix"));
+            return;
+        }
+
+        String filename = null;
+        if (options.exportAsGML) {
+            filename = baseFilename + ".gml";
+        } else {
+            filename = baseFilename + ".dot";
+        }
+        try {
+            GraphExporter.exportGraph(filename, g, outputEdgeLabelsCondition);
+        } catch (IOException e) {
+            logger.fine("Unable to export graph to " + filename);
+        }
+
+        if (imageGenCondition) {
+            // Currently we support only .dot -> .png generation
+            GraphExporter.generatePngFileFromDotFile(filename);
+        }
+    }
+
+    /**
+     * Export the trace graph g.
+     */
+    public <T extends INode<T>> void exportTraceGraph(String baseFilename,
+            IGraph<T> g) {
+        // false below : never include edge labels on exported initial graphs
+
+        // Main.dumpInitialGraphPngFile && !exportAsGML below : whether to
+        // convert exported graph to a png file -- the user must have explicitly
+        // requested this and the export must be in non-GML format (i.e., dot
+        // format).
+        exportGraph(baseFilename, g, false, options.dumpTraceGraphPngFile
+                && !options.exportAsGML);
+    }
+
+    /**
+     * Export g as a non-initial graph.
+     */
+    public <T extends INode<T>> void exportNonInitialGraph(String baseFilename,
+            IGraph<T> g) {
+        // Main.outputEdgeLabels below : the condition for including edge labels
+        // on exported graphs.
+
+        // !exportAsGML below : the condition for exporting an image to png file
+        // is that it is not in GML format (i.e., it is in dot format so we can
+        // use the 'dot' command).
+        exportGraph(baseFilename, g, options.outputEdgeLabels,
+                !options.exportAsGML);
+    }
+}
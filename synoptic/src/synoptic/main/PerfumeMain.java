@@ -98,9 +98,27 @@ public class PerfumeMain extends AbstractMain {
      */
     public PerfumeMain(AbstractOptions opts,
             GraphExportFormatter graphExportFormatter) {
+        this(opts, graphExportFormatter, true);
+    }
+
+    /**
+     * Constructor that simply stores parameters in fields and initializes the
+     * pseudo RNG, and optionally registers the new object as the AbstractMain
+     * singleton. An object that is not the singleton is an independent
+     * inference context, and its methods must be run within its call().
+     * 
+     * @param opts
+     *            Processed options from the command line
+     * @param graphExportFormatter
+     *            Graph export formatter for outputting the model
+     * @param singleton
+     *            whether to register the new object as the singleton
+     */
+    public PerfumeMain(AbstractOptions opts,
+            GraphExportFormatter graphExportFormatter, boolean singleton) {
         setUpLogging(opts);
 
-        if (AbstractMain.instance != null) {
+        if (singleton && AbstractMain.instance != null) {
             throw new RuntimeException(
                     "Cannot create multiple instance of singleton synoptic.main.AbstractMain");
         }
@@ -108,8 +126,10 @@ public class PerfumeMain extends AbstractMain {
         this.graphExportFormatter = graphExportFormatter;
         this.random = new Random(opts.randomSeed);
         logger.info("Using random seed: " + opts.randomSeed);
-        AbstractOptions.keepOrder = true;
-        AbstractMain.instance = this;
+        options.keepOrder = true;
+        if (singleton) {
+            AbstractMain.instance = this;
+        }
     }
 
     @Override
@@ -0,0 +1,558 @@
+package synoptic.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import synoptic.invariants.ITemporalInvariant;
+import synoptic.main.options.AbstractOptions;
+import synoptic.main.options.Options;
+import synoptic.main.options.PerfumeOptions;
+import synoptic.main.options.SynopticOptions;
+import synoptic.model.PartitionGraph;
+import synoptic.model.export.DotExportFormatter;
+import synoptic.model.export.GmlExportFormatter;
+import synoptic.model.export.GraphExportFormatter;
+import synoptic.model.export.GraphExporter;
+
+/**
+ * <p>
+ * A long-running Synoptic process that runs Synoptic and Perfume jobs for
+ * clients that connect to it over a local socket. Running many jobs in one
+ * process avoids paying for JVM start-up and JIT warm-up on every job, and
+ * lets the jobs share process-wide caches, such as the interned event types
+ * of the parser.
+ * </p>
+ * <p>
+ * A client connects to the daemon on the loopback interface and sends a
+ * request: a line with the daemon's access token, a line with the name of the
+ * tool ("synoptic" or "perfume"), then one command line argument per line (as
+ * they would be passed to SynopticMain or PerfumeMain), and then an empty
+ * line. Log filenames are resolved relative to the working directory of the
+ * daemon. The daemon replies with a line "MODEL" followed by the final model
+ * (in DOT or GML format), a line "INVARIANTS" followed by the invariants of
+ * the model, one per line in sorted order, and a final line "OK". If the job
+ * fails, the reply ends with a line that starts with "ERROR" instead.
+ * </p>
+ * <p>
+ * Requests are read on a bounded pool of reader threads, so a client that
+ * connects and sends its request slowly (or not at all) does not hold up the
+ * requests of other clients. A client must send its whole request within a
+ * deadline (see setRequestTimeout) that starts when its connection is
+ * accepted, and requests are limited to maxRequestLength characters, so a
+ * client cannot hold a reader indefinitely by sending its request a byte at a
+ * time. Jobs run on a fixed number of worker threads,
+ * and a bounded number of jobs wait in a queue; requests that arrive while
+ * the readers or the queue are full are rejected with an error. Each job runs
+ * within its own inference context (a SynopticMain or PerfumeMain that is not
+ * the AbstractMain singleton), so jobs with different options do not
+ * interfere with each other.
+ * </p>
+ * <p>
+ * Security: a job reads its log files with the permissions of the daemon, so
+ * any client that may submit jobs can read every file that the daemon can
+ * read. The daemon therefore only listens on the loopback interface, and only
+ * runs requests that start with its access token. main() generates a random
+ * token and writes it to a token file that only the owner may read (on file
+ * systems with POSIX permissions), so only the user that runs the daemon (and
+ * the super-user) may submit jobs. Options that write files or run external
+ * programs (such as the output path prefix, the dot executable path, and the
+ * trace cache directory) are rejected, so jobs only return their results over
+ * the socket.
+ * </p>
+ */
+public class SynopticDaemon {
+    private static Logger logger = Logger.getLogger("SynopticDaemon");
+
+    /** One line synopsis of usage */
+    public static final String usageString = "synoptic-daemon [port [numWorkers [queueCapacity [tokenFile]]]]";
+
+    public static final int defaultPort = 7331;
+    public static final int defaultQueueCapacity = 64;
+
+    /** Default file that main() writes the access token to. */
+    public static final String defaultTokenFilename = System
+            .getProperty("user.home")
+            + File.separator
+            + ".synoptic-daemon-token";
+
+    /**
+     * Default number of milliseconds that a client has to send its whole
+     * request, counted from when its connection is accepted.
+     */
+    public static final int defaultRequestTimeout = 10000;
+
+    /** Maximum number of characters in a request, including line breaks. */
+    public static final int maxRequestLength = 64 * 1024;
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    private final ServerSocket serverSocket;
+
+    /** Reads requests, so that the accept loop never blocks on a client. */
+    private final ThreadPoolExecutor readers;
+
+    /** Runs the jobs of requests. */
+    private final ThreadPoolExecutor executor;
+
+    /** The token that every request must start with. */
+    private final byte[] token;
+
+    /** Milliseconds that a client has to send its whole request. */
+    private volatile int requestTimeout = defaultRequestTimeout;
+
+    /**
+     * Starts a daemon. See usageString for the arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = defaultPort;
+        int numWorkers = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = defaultQueueCapacity;
+        String tokenFilename = defaultTokenFilename;
+        try {
+            if (args.length > 0) {
+                port = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                numWorkers = Integer.parseInt(args[1]);
+            }
+            if (args.length > 2) {
+                queueCapacity = Integer.parseInt(args[2]);
+            }
+            if (args.length > 3) {
+                tokenFilename = args[3];
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: " + usageString);
+            return;
+        }
+
+        Locale.setDefault(Locale.US);
+        AbstractMain.setUpLogging(new SynopticOptions().toAbstractOptions());
+        String token = newToken();
+        writeTokenFile(new File(tokenFilename), token);
+        SynopticDaemon daemon = new SynopticDaemon(port, numWorkers,
+                queueCapacity, token);
+        logger.info("Synoptic daemon listening on port " + daemon.getPort()
+                + " with " + numWorkers + " workers, access token in "
+                + tokenFilename);
+        daemon.serve();
+    }
+
+    /**
+     * Creates a daemon that listens on the given port of the loopback
+     * interface. Jobs are not accepted until serve() is called.
+     * 
+     * @param port
+     *            the port to listen on, or 0 for any free port
+     * @param numWorkers
+     *            the number of jobs that run concurrently
+     * @param queueCapacity
+     *            the number of jobs that may wait for a worker, and the
+     *            number of connections that may wait for a reader
+     * @param token
+     *            the access token that every request must start with
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public SynopticDaemon(int port, int numWorkers, int queueCapacity,
+            String token) throws IOException {
+        if (numWorkers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "The daemon needs at least one worker and a queue capacity of at least one");
+        }
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "The daemon needs a non-empty access token");
+        }
+        this.token = token.getBytes(utf8);
+        serverSocket = new ServerSocket(port, 50,
+                InetAddress.getByName("127.0.0.1"));
+        int numReaders = Math.max(2, numWorkers);
+        readers = new ThreadPoolExecutor(numReaders, numReaders, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                        queueCapacity));
+        executor = new ThreadPoolExecutor(numWorkers, numWorkers, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                        queueCapacity));
+    }
+
+    /**
+     * Returns a new random access token.
+     */
+    public static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes token to tokenFile, replacing the file if it exists. On file
+     * systems with POSIX permissions, the file is created readable and
+     * writable by its owner only.
+     */
+    public static void writeTokenFile(File tokenFile, String token)
+            throws IOException {
+        Path path = tokenFile.toPath();
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+            tokenFile.setReadable(false, false);
+            tokenFile.setReadable(true, true);
+            tokenFile.setWritable(false, false);
+            tokenFile.setWritable(true, true);
+        }
+        Files.write(path, token.getBytes(utf8));
+    }
+
+    /**
+     * Sets the number of milliseconds that a client has to send its whole
+     * request, counted from when its connection is accepted. Applies to
+     * connections that are accepted after the call.
+     */
+    public void setRequestTimeout(int requestTimeout) {
+        if (requestTimeout < 1) {
+            throw new IllegalArgumentException(
+                    "The request timeout must be positive");
+        }
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Returns the port that the daemon listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts requests and queues their jobs until shutdown() is called.
+     */
+    public void serve() throws IOException {
+        while (true) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    // Shut down.
+                    return;
+                }
+                throw e;
+            }
+            accept(client);
+        }
+    }
+
+    /**
+     * Stops accepting requests. Jobs that are already queued still run.
+     */
+    public void shutdown() throws IOException {
+        serverSocket.close();
+        readers.shutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * Hands client to a reader, or replies with an error if all readers are
+     * busy. Does not block on the client.
+     */
+    private void accept(final Socket client) {
+        final long deadline = System.currentTimeMillis() + requestTimeout;
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    client.getOutputStream(), utf8));
+            final Writer clientOut = out;
+            readers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readAndQueue(client, clientOut, deadline);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            replyError(client, out, "Too many pending requests");
+        } catch (Exception e) {
+            replyError(client, out, e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the request of client and queues its job, or replies with an
+     * error if the request is malformed, unauthorized, or not received by the
+     * deadline, or if the queue is full.
+     */
+    private void readAndQueue(Socket client, Writer out, long deadline) {
+        try {
+            List<String> request = readRequest(new BufferedReader(
+                    new InputStreamReader(new DeadlineInputStream(client,
+                            deadline), utf8)));
+            if (request.isEmpty()
+                    || !MessageDigest.isEqual(token, request.get(0)
+                            .getBytes(utf8))) {
+                throw new IllegalArgumentException("Invalid access token");
+            }
+            if (request.size() < 2) {
+                throw new IllegalArgumentException("Empty request");
+            }
+            String tool = request.get(1);
+            String[] args = request.subList(2, request.size()).toArray(
+                    new String[0]);
+            executor.execute(new Job(client, out, tool, args));
+        } catch (RejectedExecutionException e) {
+            replyError(client, out,
+                    executor.isShutdown() ? "Daemon is shut down"
+                            : "Job queue is full");
+        } catch (Exception e) {
+            replyError(client, out, e.getMessage());
+        }
+    }
+
+    /**
+     * Reads lines up to the first empty line or the end of the stream. Lines
+     * end with "\n" or "\r\n".
+     * 
+     * @throws IllegalArgumentException
+     *             if the request is longer than maxRequestLength
+     */
+    private static List<String> readRequest(BufferedReader in)
+            throws IOException {
+        List<String> lines = new ArrayList<String>();
+        StringBuilder line = new StringBuilder();
+        int length = 0;
+        int c = in.read();
+        while (c != -1) {
+            length++;
+            if (length > maxRequestLength) {
+                throw new IllegalArgumentException("Request is too long");
+            }
+            if (c == '\n') {
+                if (line.length() == 0) {
+                    return lines;
+                }
+                lines.add(line.toString());
+                line.setLength(0);
+            } else if (c != '\r') {
+                line.append((char) c);
+            }
+            c = in.read();
+        }
+        if (line.length() > 0) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * The input stream of a client, which fails with a SocketTimeoutException
+     * once the deadline for the client's request has passed. Every read waits
+     * at most until the deadline, rather than for a fixed time per read.
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+        private final Socket client;
+        private final long deadline;
+
+        DeadlineInputStream(Socket client, long deadline) throws IOException {
+            super(client.getInputStream());
+            this.client = client;
+            this.deadline = deadline;
+        }
+
+        private void setTimeout() throws IOException {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Request timed out");
+            }
+            client.setSoTimeout((int) remaining);
+        }
+
+        @Override
+        public int read() throws IOException {
+            setTimeout();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            setTimeout();
+            return super.read(b, off, len);
+        }
+    }
+
+    private static void replyError(Socket client, Writer out, String message) {
+        logger.warning("Synoptic daemon job failed: " + message);
+        try {
+            if (out != null) {
+                out.write("ERROR " + message + "\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client is gone, nothing to report to.
+        } finally {
+            closeQuietly(client);
+        }
+    }
+
+    private static void closeQuietly(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+    }
+
+    /**
+     * A queued request: runs the inference and streams the results back to
+     * the client.
+     */
+    private static class Job implements Runnable {
+        private final Socket client;
+        private final Writer out;
+        private final String tool;
+        private final String[] args;
+
+        public Job(Socket client, Writer out, String tool, String[] args) {
+            this.client = client;
+            this.out = out;
+            this.tool = tool;
+            this.args = args;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final AbstractMain main = createMain(tool, args);
+                main.call(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        infer(main);
+                        return null;
+                    }
+                });
+                closeQuietly(client);
+            } catch (Exception e) {
+                replyError(client, out, e.getMessage());
+            }
+        }
+
+        /**
+         * Runs Synoptic within main and writes out the final model and its
+         * invariants.
+         */
+        private void infer(AbstractMain main) throws Exception {
+            PartitionGraph pGraph = main.createInitialPartitionGraph();
+            if (pGraph == null) {
+                throw new IllegalStateException(
+                        "No model was inferred, see the daemon log");
+            }
+            main.runSynoptic(pGraph);
+
+            out.write("MODEL\n");
+            GraphExporter.exportGraph(out, pGraph,
+                    main.options.outputEdgeLabels);
+            out.write("INVARIANTS\n");
+            List<String> invs = new ArrayList<String>();
+            for (ITemporalInvariant inv : pGraph.getInvariants()) {
+                invs.add(inv.toString());
+            }
+            Collections.sort(invs);
+            for (String inv : invs) {
+                out.write(inv + "\n");
+            }
+            out.write("OK\n");
+            out.flush();
+        }
+    }
+
+    /**
+     * Creates a main object for a job of the given tool, which is not the
+     * AbstractMain singleton.
+     * 
+     * @throws IllegalArgumentException
+     *             if the tool or the arguments are not valid for a job
+     */
+    private static AbstractMain createMain(String tool, String[] args)
+            throws IOException {
+        boolean perfume;
+        Options plumeOpts;
+        if (tool.equals("synoptic")) {
+            perfume = false;
+            plumeOpts = new SynopticOptions();
+        } else if (tool.equals("perfume")) {
+            perfume = true;
+            plumeOpts = new PerfumeOptions();
+        } else {
+            throw new IllegalArgumentException("Unknown tool: " + tool);
+        }
+        plumeOpts.setOptions(args, false);
+        AbstractOptions options = perfume ? ((PerfumeOptions) plumeOpts)
+                .toAbstractOptions() : ((SynopticOptions) plumeOpts)
+                .toAbstractOptions();
+
+        if (options.help || options.allHelp || options.version
+                || options.runTests || options.runAllTests) {
+            throw new IllegalArgumentException(
+                    "Help, version, and test options are not supported by the daemon");
+        }
+        if (options.plumeOpts.logFilenames.isEmpty()) {
+            throw new IllegalArgumentException("No log filenames specified");
+        }
+        // Jobs return their results over the socket only: they must not
+        // write files or run external programs.
+        if (options.outputPathPrefix != null || options.outputJSON
+                || options.outputLTS || options.outputInvariantsToFile
+                || options.dumpTraceGraphDotFile
+                || options.dumpTraceGraphPngFile
+                || options.dumpInitialPartitionGraph
+                || options.dumpIntermediateStages
+                || options.dotExecutablePath != null
+                || options.traceCacheDir != null) {
+            throw new IllegalArgumentException(
+                    "Output, dump, dot executable, and trace cache options are not supported by the daemon");
+        }
+
+        GraphExportFormatter graphExportFormatter;
+        if (options.exportAsGML) {
+            graphExportFormatter = new GmlExportFormatter();
+        } else {
+            graphExportFormatter = new DotExportFormatter();
+        }
+        if (perfume) {
+            return new PerfumeMain(options, graphExportFormatter, false);
+        }
+        return new SynopticMain(options, graphExportFormatter, false);
+    }
+}
@@ -97,9 +97,27 @@ public class SynopticMain extends AbstractMain {
      */
     public SynopticMain(AbstractOptions opts,
             GraphExportFormatter graphExportFormatter) {
+        this(opts, graphExportFormatter, true);
+    }
+
+    /**
+     * Constructor that simply stores parameters in fields and initializes the
+     * pseudo RNG, and optionally registers the new object as the AbstractMain
+     * singleton. An object that is not the singleton is an independent
+     * inference context, and its methods must be run within its call().
+     * 
+     * @param opts
+     *            Processed options from the command line
+     * @param graphExportFormatter
+     *            Graph export formatter for outputting the model
+     * @param singleton
+     *            whether to register the new object as the singleton
+     */
+    public SynopticMain(AbstractOptions opts,
+            GraphExportFormatter graphExportFormatter, boolean singleton) {
         setUpLogging(opts);
 
-        if (AbstractMain.instance != null) {
+        if (singleton && AbstractMain.instance != null) {
             throw new RuntimeException(
                     "Cannot create multiple instance of singleton synoptic.main.AbstractMain");
         }
@@ -107,6 +125,8 @@ public class SynopticMain extends AbstractMain {
         this.graphExportFormatter = graphExportFormatter;
         this.random = new Random(opts.randomSeed);
         logger.info("Using random seed: " + opts.randomSeed);
-        AbstractMain.instance = this;
+        if (singleton) {
+            AbstractMain.instance = this;
+        }
     }
 }
\ No newline at end of file
@@ -20,7 +20,7 @@ public class AbstractOptions {
      * The instance of either SynopticOptions or PerfumeOptions from which plume
      * methods can be called and from which this options object was created
      */
-    public static Options plumeOpts = null;
+    public Options plumeOpts = null;
 
     // ////////////////////////////
     // General options
@@ -49,7 +49,7 @@ public class AbstractOptions {
     public Long randomSeed = null;
 
     static final String separateVTimeIndexSetsStr = "Vector time index sets for partitioning the graph by system node type, e.g. '1,2;3,4'";
-    public static String separateVTimeIndexSets = null;
+    public String separateVTimeIndexSets = null;
 
     static final String multipleRelationsStr = "Mine multiple relations from the trace graph";
     public boolean multipleRelations = false;
@@ -66,6 +66,27 @@ public class AbstractOptions {
     static final String ignoreIntrByInvsStr = "Ignore IntrBy Invariants. Synoptic currently doesn't support IntrBy Invariants.";
     public boolean ignoreIntrByInvs = true;
 
+    static final String parallelRefinementStr = "Evaluate candidate splits for different counter-examples concurrently during refinement";
+    public boolean parallelRefinement = false;
+
+    static final String numThreadsStr = "Number of worker threads used by parallel phases, 0 uses one thread per available processor";
+    public int numThreads = 0;
+
+    static final String incrementalModelCheckingStr = "Reuse model checking results between refinement steps, and only re-check the parts of the model that are affected by splits";
+    public boolean incrementalModelChecking = false;
+
+    static final String parallelMiningStr = "Mine invariants from different traces concurrently";
+    public boolean parallelMining = false;
+
+    static final String parallelModelCheckingStr = "Search for counter-examples of different invariants concurrently";
+    public boolean parallelModelChecking = false;
+
+    static final String parallelParsingStr = "Match log lines against the parsing reg-exps concurrently";
+    public boolean parallelParsing = false;
+
+    static final String deltaSketchSizeStr = "Summarize the time deltas of each model transition in a quantile sketch with this many values per level, instead of keeping all of the deltas (0 keeps all deltas)";
+    public int deltaSketchSize = 0;
+
     // Extended Perfume option
     static final String termOnInterdiateModelStr = "-t Terminate on intermediate model output";
     public boolean termOnIntermediateModel = false;
@@ -75,7 +96,7 @@ public class AbstractOptions {
     // ////////////////////////////
 
     static final String separatorRegExpStr = "-s Partitions separator reg-exp: log lines below and above the matching line are placed into different partitions";
-    public static String separatorRegExp = null;
+    public String separatorRegExp = null;
 
     public static final String regExpDefault = "(?<TYPE>.*)";
     static final String regExpsStr = "-r Parser reg-exp: extracts event type and event time from a log line";
@@ -83,7 +104,7 @@ public class AbstractOptions {
 
     static final String partitionRegExpStr = "-m Partitions mapping reg-exp: maps a log line to a partition";
     public static final String partitionRegExpDefault = "\\k<FILE>";
-    public static String partitionRegExp = partitionRegExpDefault;
+    public String partitionRegExp = partitionRegExpDefault;
 
     static final String ignoreNonMatchingLinesStr = "-i Ignore lines that do not match any of the passed regular expressions";
     public boolean ignoreNonMatchingLines = false;
@@ -108,13 +129,16 @@ public class AbstractOptions {
     // ////////////////////////////
 
     static final String argsFilenameStr = "-c Command line arguments input filename";
-    public static String argsFilename = null;
+    public String argsFilename = null;
+
+    static final String traceCacheDirStr = "Directory for caching parsed logs: runs that parse the same log files with the same parser options load the parsed events from the cache";
+    public String traceCacheDir = null;
 
     static final String inputDeltaStr = "-l Interpret the supplied time values as delta values instead of absolute values";
-    public static boolean inputDelta = false;
+    public boolean inputDelta = false;
 
     static final String keepOrderStr = "-k Keep log events order and do not sort by supplied values";
-    public static boolean keepOrder = false;
+    public boolean keepOrder = false;
 
     // Extended Perfume option
     static final String modelFileStr = "The file containing the Perfume model";
@@ -133,7 +157,7 @@ public class AbstractOptions {
     public boolean outputSupportCount = false;
 
     static final String outputPathPrefixStr = "-o Output path prefix for generating Graphviz dot files graphics";
-    public static String outputPathPrefix = null;
+    public String outputPathPrefix = null;
 
     static final String outputInvariantsToFileStr = "Output invariants to a file";
     public boolean outputInvariantsToFile = false;
@@ -148,7 +172,7 @@ public class AbstractOptions {
     public boolean outputLTS = false;
 
     static final String dotExecutablePathStr = "-d Path to the Graphviz dot command executable to use";
-    public static String dotExecutablePath = null;
+    public String dotExecutablePath = null;
 
     static final String outputEdgeLabelsStr = "Output transition probabilities on the graph's edge labels";
     public boolean outputEdgeLabels = true;
@@ -196,7 +220,7 @@ public class AbstractOptions {
     public boolean logLvlExtraVerbose = false;
 
     static final String ignoreInvsOverETypeSetStr = "Ignore invariants that include event types from the following set (use ';' to separate event types).";
-    public static String ignoreInvsOverETypeSet = null;
+    public String ignoreInvsOverETypeSet = null;
 
     static final String useTransitiveClosureMiningStr = "Use the transitive closure invariant mining algorithm (usually slower)";
     public boolean useTransitiveClosureMining = false;
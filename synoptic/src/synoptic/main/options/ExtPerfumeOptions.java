@@ -507,16 +507,16 @@ public class ExtPerfumeOptions extends Options {
         absOpts.logLvlQuiet = logLvlQuiet;
         absOpts.logLvlVerbose = logLvlVerbose;
         absOpts.randomSeed = randomSeed;
-        AbstractOptions.separateVTimeIndexSets = separateVTimeIndexSets;
+        absOpts.separateVTimeIndexSets = separateVTimeIndexSets;
         absOpts.multipleRelations = multipleRelations;
         absOpts.stateProcessing = stateProcessing;
         absOpts.testGeneration = testGeneration;
 
         // Parser options
 
-        AbstractOptions.separatorRegExp = separatorRegExp;
+        absOpts.separatorRegExp = separatorRegExp;
         absOpts.regExps = regExps;
-        AbstractOptions.partitionRegExp = partitionRegExp;
+        absOpts.partitionRegExp = partitionRegExp;
         absOpts.ignoreNonMatchingLines = ignoreNonMatchingLines;
         absOpts.usePerformanceInfo = usePerformanceInfo;
         absOpts.traceNormalization = traceNormalization;
@@ -526,14 +526,14 @@ public class ExtPerfumeOptions extends Options {
 
         // Input options
 
-        AbstractOptions.argsFilename = argsFilename;
+        absOpts.argsFilename = argsFilename;
 
         // Output options
 
-        AbstractOptions.outputPathPrefix = outputPathPrefix;
+        absOpts.outputPathPrefix = outputPathPrefix;
         absOpts.outputInvariantsToFile = outputInvariantsToFile;
         absOpts.exportAsGML = exportAsGML;
-        AbstractOptions.dotExecutablePath = dotExecutablePath;
+        absOpts.dotExecutablePath = dotExecutablePath;
         absOpts.outputEdgeLabels = outputEdgeLabels;
         absOpts.showMedian = showMedian;
         absOpts.showTerminalNode = showTerminalNode;
@@ -551,7 +551,7 @@ public class ExtPerfumeOptions extends Options {
         // Debugging Options
 
         absOpts.logLvlExtraVerbose = logLvlExtraVerbose;
-        AbstractOptions.ignoreInvsOverETypeSet = ignoreInvsOverETypeSet;
+        absOpts.ignoreInvsOverETypeSet = ignoreInvsOverETypeSet;
         absOpts.useTransitiveClosureMining = useTransitiveClosureMining;
         absOpts.mineNeverConcurrentWithInv = mineNeverConcurrentWithInv;
         absOpts.onlyMineInvariants = onlyMineInvariants;
@@ -566,7 +566,7 @@ public class ExtPerfumeOptions extends Options {
         // Set this as the definitive plume options object in AbstractMain and
         // AbstractOptions
         AbstractMain.plumeOpts = this;
-        AbstractOptions.plumeOpts = this;
+        absOpts.plumeOpts = this;
 
         return absOpts;
     }
@@ -57,9 +57,20 @@ public abstract class Options {
      * options).
      */
     public void setOptions(String[] args) throws IOException {
+        setOptions(args, true);
+    }
+
+    /**
+     * Sets the options based on args array, like setOptions(args). If
+     * exitOnError is false, malformed arguments result in an
+     * IllegalArgumentException instead of a usage message and termination of
+     * the process, e.g., for processes that run jobs for several clients.
+     */
+    public void setOptions(String[] args, boolean exitOnError)
+            throws IOException {
         // Sets the fields in this class annotated with @Option.
         plumeOptions = new plume.Options(getUsageString(), this);
-        String[] cmdLineArgs = plumeOptions.parse_or_usage(args);
+        String[] cmdLineArgs = parse(args, exitOnError);
 
         if (getArgsFilename() != null) {
             // Read program arguments from a file.
@@ -68,12 +79,12 @@ public abstract class Options {
             props.load(argsStream);
             String[] cmdLineFileArgs = props.getCmdArgsLine();
             // The file-based arguments become the default arguments.
-            plumeOptions.parse_or_usage(cmdLineFileArgs);
+            parse(cmdLineFileArgs, exitOnError);
         }
 
         // Parse the command line arguments, overriding any of the above config
         // file arguments.
-        plumeOptions.parse_or_usage(args);
+        parse(args, exitOnError);
 
         // The remainder of the command line is treated as a list of non
         // optional arguments.
@@ -85,6 +96,20 @@ public abstract class Options {
         }
     }
 
+    /**
+     * Parses args with plumeOptions and returns the non option arguments.
+     */
+    private String[] parse(String[] args, boolean exitOnError) {
+        if (exitOnError) {
+            return plumeOptions.parse_or_usage(args);
+        }
+        try {
+            return plumeOptions.parse(args);
+        } catch (plume.Options.ArgException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Prints help for just the 'publicized' option groups.
      */
@@ -91,6 +91,62 @@ public class PerfumeOptions extends Options {
      */
     public boolean ignoreIntrByInvs = false;
 
+    /**
+     * Evaluate the candidate splits of different counter-examples concurrently
+     * during refinement. The resulting model only depends on the random seed,
+     * and not on the number of threads or on thread scheduling.
+     */
+    @Option(value = AbstractOptions.parallelRefinementStr)
+    public boolean parallelRefinement = false;
+
+    /**
+     * Number of worker threads to use in parallel phases. A value of 0 uses
+     * one thread per available processor.
+     */
+    @Option(value = AbstractOptions.numThreadsStr)
+    public int numThreads = 0;
+
+    /**
+     * Keep the model checking state of each unsatisfied invariant between
+     * refinement steps, and after a split only re-check the partitions that
+     * are reachable from the split partitions.
+     */
+    @Option(value = AbstractOptions.incrementalModelCheckingStr)
+    public boolean incrementalModelChecking = false;
+
+    /**
+     * Shard traces across the worker threads when mining invariants. The
+     * mined invariants do not depend on the number of threads.
+     */
+    @Option(value = AbstractOptions.parallelMiningStr)
+    public boolean parallelMining = false;
+
+    /**
+     * Search for the counter-examples of different invariants on the worker
+     * threads. The counter-examples are returned in the same order as with a
+     * single thread.
+     */
+    @Option(value = AbstractOptions.parallelModelCheckingStr)
+    public boolean parallelModelChecking = false;
+
+    /**
+     * Match log lines against the parsing regular expressions on the worker
+     * threads, while a separate thread reads the log. Incrementors,
+     * partitions, and times are still processed in the order of the lines,
+     * so the parsed events are the same as with a single thread.
+     */
+    @Option(value = AbstractOptions.parallelParsingStr)
+    public boolean parallelParsing = false;
+
+    /**
+     * Keep the time deltas of each model transition in a mergeable quantile
+     * sketch with this many values per level, rather than keeping every
+     * delta. The min, max, and mean of the deltas remain exact, while the
+     * median and mode become approximate. A value of 0 keeps all deltas.
+     */
+    @Option(value = AbstractOptions.deltaSketchSizeStr)
+    public int deltaSketchSize = 0;
+
     // //////////////////////////////////////////////////
     /**
      * Regular expression separator string. When lines are found which match
@@ -181,6 +237,14 @@ public class PerfumeOptions extends Options {
     @OptionGroup("Input Options")
     @Option(value = AbstractOptions.argsFilenameStr, aliases = { "-argsfile" })
     public String argsFilename = null;
+
+    /**
+     * Directory in which the parsed events of the input logs are cached, so
+     * that later runs over the same logs with the same parser options can
+     * skip parsing. Caching is disabled if this is not set.
+     */
+    @Option(value = AbstractOptions.traceCacheDirStr)
+    public String traceCacheDir = null;
     // end option group "Input Options"
 
     // //////////////////////////////////////////////////
@@ -472,17 +536,24 @@ public class PerfumeOptions extends Options {
         absOpts.logLvlQuiet = logLvlQuiet;
         absOpts.logLvlVerbose = logLvlVerbose;
         absOpts.randomSeed = randomSeed;
-        AbstractOptions.separateVTimeIndexSets = separateVTimeIndexSets;
+        absOpts.separateVTimeIndexSets = separateVTimeIndexSets;
         absOpts.multipleRelations = multipleRelations;
         absOpts.stateProcessing = stateProcessing;
         absOpts.testGeneration = testGeneration;
         absOpts.ignoreIntrByInvs = ignoreIntrByInvs;
+        absOpts.parallelRefinement = parallelRefinement;
+        absOpts.numThreads = numThreads;
+        absOpts.incrementalModelChecking = incrementalModelChecking;
+        absOpts.parallelMining = parallelMining;
+        absOpts.parallelModelChecking = parallelModelChecking;
+        absOpts.parallelParsing = parallelParsing;
+        absOpts.deltaSketchSize = deltaSketchSize;
 
         // Parser options
 
-        AbstractOptions.separatorRegExp = separatorRegExp;
+        absOpts.separatorRegExp = separatorRegExp;
         absOpts.regExps = regExps;
-        AbstractOptions.partitionRegExp = partitionRegExp;
+        absOpts.partitionRegExp = partitionRegExp;
         absOpts.ignoreNonMatchingLines = ignoreNonMatchingLines;
         absOpts.usePerformanceInfo = usePerformanceInfo;
         absOpts.traceNormalization = traceNormalization;
@@ -492,16 +563,17 @@ public class PerfumeOptions extends Options {
 
         // Input options
 
-        AbstractOptions.argsFilename = argsFilename;
+        absOpts.argsFilename = argsFilename;
+        absOpts.traceCacheDir = traceCacheDir;
 
         // Output options
 
-        AbstractOptions.outputPathPrefix = outputPathPrefix;
+        absOpts.outputPathPrefix = outputPathPrefix;
         absOpts.outputSupportCount = outputSupportCount;
         absOpts.outputInvariantsToFile = outputInvariantsToFile;
         absOpts.noModelOutput = noModelOutput;
         absOpts.exportAsGML = exportAsGML;
-        AbstractOptions.dotExecutablePath = dotExecutablePath;
+        absOpts.dotExecutablePath = dotExecutablePath;
         absOpts.outputEdgeLabels = outputEdgeLabels;
         absOpts.showMedian = showMedian;
         absOpts.showTerminalNode = showTerminalNode;
@@ -519,7 +591,7 @@ public class PerfumeOptions extends Options {
         // Debugging Options
 
         absOpts.logLvlExtraVerbose = logLvlExtraVerbose;
-        AbstractOptions.ignoreInvsOverETypeSet = ignoreInvsOverETypeSet;
+        absOpts.ignoreInvsOverETypeSet = ignoreInvsOverETypeSet;
         absOpts.useTransitiveClosureMining = useTransitiveClosureMining;
         absOpts.mineNeverConcurrentWithInv = mineNeverConcurrentWithInv;
         absOpts.onlyMineInvariants = onlyMineInvariants;
@@ -534,7 +606,7 @@ public class PerfumeOptions extends Options {
         // Set this as the definitive plume options object in AbstractMain and
         // AbstractOptions
         AbstractMain.plumeOpts = this;
-        AbstractOptions.plumeOpts = this;
+        absOpts.plumeOpts = this;
 
         return absOpts;
     }
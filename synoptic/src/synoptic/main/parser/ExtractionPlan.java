@@ -0,0 +1,517 @@
+package synoptic.main.parser;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import synoptic.model.Relation;
+import synoptic.util.matching.NamedMatcher;
+import synoptic.util.matching.NamedPattern;
+import synoptic.util.matching.NamedSubstitution;
+
+/**
+ * <p>
+ * The fields that a TraceParser extracts from the lines that one of its
+ * line-matching reg-exps matches, each resolved to where its value comes
+ * from: a group of the reg-exp, an incrementor, a constant field of the
+ * reg-exp, or the name of the parsed file. The parser reads the event type,
+ * time, process id, relation, state, and HIDE fields of a line, and the
+ * back-references of the constant fields and of the partitions filter,
+ * through a plan, rather than from a map of the line's field values.
+ * </p>
+ * <p>
+ * Field names resolve as if the named groups of a match were put into a map,
+ * then the values of all the incrementors, and then those constant fields
+ * whose names are not in the map yet, in order. The partitions filter sees
+ * the same fields, except for TYPE and TIME, and with FILE if the log is
+ * partitioned by file. Only the groups that some field is read from are
+ * extracted from a match.
+ * </p>
+ * <p>
+ * A plan is compiled at the start of each parse, since it depends on the
+ * incrementors of all the reg-exps, on the filter, and on the options. A plan
+ * is immutable, and may be used concurrently.
+ * </p>
+ */
+final class ExtractionPlan {
+    /** Where the value of a field comes from. */
+    private enum Source {
+        /** The field does not exist, and its value is null. */
+        ABSENT,
+        /** A group of the reg-exp. */
+        GROUP,
+        /** An incrementor. */
+        INCREMENTOR,
+        /** A constant field of the reg-exp. */
+        CONSTANT,
+        /** The name of the parsed file. */
+        FILE
+    }
+
+    /** A resolved field. */
+    private static final class Field {
+        static final Field absent = new Field(Source.ABSENT, 0);
+
+        final Source source;
+        /** Index of the group, incrementor, or constant field. */
+        final int index;
+
+        Field(Source source, int index) {
+            this.source = source;
+            this.index = index;
+        }
+    }
+
+    /** The groups of a match from which no field is read. */
+    private static final String[] noGroups = new String[0];
+
+    /** The number of named groups of the reg-exp. */
+    private final int numGroups;
+
+    /** The groups that some field is read from, in increasing order. */
+    private final int[] usedGroups;
+
+    /** The incrementors to increment before and after a line. */
+    private final int[] preIncrements;
+    private final int[] postIncrements;
+
+    /** The constant fields, and the fields of their back-references. */
+    private final NamedSubstitution[] constants;
+    private final Field[][] constantRefs;
+
+    /**
+     * Whether each constant field is evaluated: whether it is a field, or it
+     * assigns an incrementor.
+     */
+    private final boolean[] constantEvaluated;
+
+    /** The incrementor that each constant field assigns, or -1. */
+    private final int[] constantIncrementors;
+
+    /** Whether there are incrementors, which are fields of every line. */
+    private final boolean readsIncrementors;
+
+    private final Field hide;
+    private final Field type;
+    private final Field state;
+    private final Field pid;
+    private final Field time;
+
+    /** The relation fields, and the relations that they belong to. */
+    private final Field[] relations;
+    private final String[] relationNames;
+    private final boolean[] relationIsClosure;
+
+    /** The partitions filter, and the fields of its back-references. */
+    private final NamedSubstitution filter;
+    private final Field[] filterRefs;
+
+    /**
+     * The fields that are logged for each line in debug mode, or empty arrays
+     * if the parse is not in debug mode.
+     */
+    private final String[] debugNames;
+    private final Field[] debugFields;
+
+    /**
+     * Compiles the plan of a line-matching reg-exp.
+     *
+     * @param pattern
+     *            the reg-exp
+     * @param constantFields
+     *            the constant fields of the reg-exp, in order
+     * @param incrementors
+     *            the incrementors of the reg-exp, mapped to whether they are
+     *            post-incremented
+     * @param incrementorNames
+     *            the names of all the incrementors of the parser, in order
+     * @param filter
+     *            the partitions filter
+     * @param timeGroup
+     *            the name of the time field
+     * @param partitionByFile
+     *            whether the log is partitioned by file
+     * @param debug
+     *            whether the fields of each line are logged
+     */
+    static ExtractionPlan compile(NamedPattern pattern,
+            Map<String, NamedSubstitution> constantFields,
+            Map<String, Boolean> incrementors, List<String> incrementorNames,
+            NamedSubstitution filter, String timeGroup,
+            boolean partitionByFile, boolean debug) {
+        return new ExtractionPlan(pattern, constantFields, incrementors,
+                incrementorNames, filter, timeGroup, partitionByFile, debug);
+    }
+
+    private ExtractionPlan(NamedPattern pattern,
+            Map<String, NamedSubstitution> constantFields,
+            Map<String, Boolean> incrementors, List<String> incrementorNames,
+            NamedSubstitution filter, String timeGroup,
+            boolean partitionByFile, boolean debug) {
+        BitSet used = new BitSet();
+
+        // The fields of a match, in the order in which they would be put into
+        // a map.
+        Map<String, Field> fields = new LinkedHashMap<String, Field>();
+        List<String> groupNames = pattern.groupNames();
+        numGroups = groupNames.size();
+        for (int g = 0; g < numGroups; g++) {
+            fields.put(groupNames.get(g), new Field(Source.GROUP, g + 1));
+        }
+        for (int c = 0; c < incrementorNames.size(); c++) {
+            fields.put(incrementorNames.get(c), new Field(Source.INCREMENTOR,
+                    c));
+        }
+
+        int numConstants = constantFields.size();
+        constants = new NamedSubstitution[numConstants];
+        constantRefs = new Field[numConstants][];
+        constantEvaluated = new boolean[numConstants];
+        constantIncrementors = new int[numConstants];
+        int c = 0;
+        for (Map.Entry<String, NamedSubstitution> entry : constantFields
+                .entrySet()) {
+            String name = entry.getKey();
+            constants[c] = entry.getValue();
+            constantRefs[c] = resolve(entry.getValue(), fields);
+            constantIncrementors[c] = incrementorNames.indexOf(name);
+            if (!fields.containsKey(name)) {
+                fields.put(name, new Field(Source.CONSTANT, c));
+                constantEvaluated[c] = true;
+            } else {
+                constantEvaluated[c] = constantIncrementors[c] >= 0;
+            }
+            if (constantEvaluated[c]) {
+                use(constantRefs[c], used);
+            }
+            c++;
+        }
+
+        List<Integer> pre = new ArrayList<Integer>();
+        List<Integer> post = new ArrayList<Integer>();
+        for (Map.Entry<String, Boolean> inc : incrementors.entrySet()) {
+            int slot = incrementorNames.indexOf(inc.getKey());
+            if (inc.getValue()) {
+                post.add(slot);
+            } else {
+                pre.add(slot);
+            }
+        }
+        preIncrements = toArray(pre);
+        postIncrements = toArray(post);
+
+        hide = field("HIDE", fields, used);
+        type = field(TraceParser.typeGroup, fields, used);
+        state = field(TraceParser.stateGroup, fields, used);
+        pid = field(TraceParser.processIDGroup, fields, used);
+        time = timeGroup == null ? Field.absent : field(timeGroup, fields,
+                used);
+
+        List<Field> relationFields = new ArrayList<Field>();
+        List<String> names = new ArrayList<String>();
+        List<Boolean> closures = new ArrayList<Boolean>();
+        for (Map.Entry<String, Field> entry : fields.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(TraceParser.relationGroup)) {
+                continue;
+            }
+            String relName = Relation.anonName;
+            boolean isClosure = false;
+            if (key.startsWith(TraceParser.closureRelationGroup)) {
+                isClosure = true;
+                if (key.startsWith(TraceParser.namedclosureRelationGroup)) {
+                    relName = key
+                            .substring(TraceParser.namedclosureRelationGroup
+                                    .length());
+                }
+            } else if (key.startsWith(TraceParser.namedRelationGroup)) {
+                relName = key.substring(TraceParser.namedRelationGroup
+                        .length());
+            }
+            relationFields.add(entry.getValue());
+            names.add(relName);
+            closures.add(isClosure);
+            use(entry.getValue(), used);
+        }
+        relations = relationFields.toArray(new Field[relationFields.size()]);
+        relationNames = names.toArray(new String[names.size()]);
+        relationIsClosure = new boolean[closures.size()];
+        for (int r = 0; r < relationIsClosure.length; r++) {
+            relationIsClosure[r] = closures.get(r);
+        }
+
+        // The fields that the filter sees.
+        Map<String, Field> args = new LinkedHashMap<String, Field>(fields);
+        args.remove(TraceParser.typeGroup);
+        args.remove("TIME");
+        if (partitionByFile) {
+            args.put("FILE", new Field(Source.FILE, 0));
+        }
+        this.filter = filter;
+        filterRefs = resolve(filter, args);
+        use(filterRefs, used);
+
+        List<String> debugNameList = new ArrayList<String>();
+        List<Field> debugFieldList = new ArrayList<Field>();
+        if (debug) {
+            for (Map.Entry<String, Field> entry : args.entrySet()) {
+                if (!entry.getKey().equals("FILE")) {
+                    debugNameList.add(entry.getKey());
+                    debugFieldList.add(entry.getValue());
+                    use(entry.getValue(), used);
+                }
+            }
+        }
+        debugNames = debugNameList.toArray(new String[debugNameList.size()]);
+        debugFields = debugFieldList.toArray(new Field[debugFieldList.size()]);
+
+        readsIncrementors = !incrementorNames.isEmpty();
+
+        usedGroups = new int[used.cardinality()];
+        int u = 0;
+        for (int g = used.nextSetBit(0); g >= 0; g = used.nextSetBit(g + 1)) {
+            usedGroups[u++] = g;
+        }
+    }
+
+    private static Field field(String name, Map<String, Field> fields,
+            BitSet used) {
+        Field field = fields.get(name);
+        if (field == null) {
+            return Field.absent;
+        }
+        use(field, used);
+        return field;
+    }
+
+    private static Field[] resolve(NamedSubstitution subst,
+            Map<String, Field> fields) {
+        Field[] refs = new Field[subst.numReferences()];
+        for (int r = 0; r < refs.length; r++) {
+            Field field = fields.get(subst.reference(r));
+            refs[r] = field == null ? Field.absent : field;
+        }
+        return refs;
+    }
+
+    private static void use(Field field, BitSet used) {
+        if (field.source == Source.GROUP) {
+            used.set(field.index);
+        }
+    }
+
+    private static void use(Field[] fields, BitSet used) {
+        for (Field field : fields) {
+            use(field, used);
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Returns the values of the groups of matcher's current match that some
+     * field is read from, indexed by group index. The other entries are null.
+     */
+    String[] extractGroups(NamedMatcher matcher) {
+        if (usedGroups.length == 0) {
+            return noGroups;
+        }
+        String[] groups = new String[numGroups + 1];
+        matcher.groups(usedGroups, groups);
+        return groups;
+    }
+
+    /**
+     * Returns the time field of a match with the given groups if the time
+     * field is a group, and null otherwise.
+     */
+    String groupTimeField(String[] groups) {
+        return time.source == Source.GROUP ? groups[time.index] : null;
+    }
+
+    /**
+     * Increments the incrementors that the reg-exp pre-increments.
+     */
+    void preIncrement(int[] incrementorValues) {
+        for (int slot : preIncrements) {
+            incrementorValues[slot]++;
+        }
+    }
+
+    /**
+     * Increments the incrementors that the reg-exp post-increments.
+     */
+    void postIncrement(int[] incrementorValues) {
+        for (int slot : postIncrements) {
+            incrementorValues[slot]++;
+        }
+    }
+
+    /**
+     * Returns whether the reg-exp has a TYPE field.
+     */
+    boolean hasType() {
+        return type.source != Source.ABSENT;
+    }
+
+    /**
+     * Returns whether the reg-exp has a STATE field.
+     */
+    boolean hasState() {
+        return state.source != Source.ABSENT;
+    }
+
+    /**
+     * Returns the number of relation fields of the reg-exp.
+     */
+    int numRelations() {
+        return relations.length;
+    }
+
+    /**
+     * Returns the name of the relation of relation field r.
+     */
+    String relationName(int r) {
+        return relationNames[r];
+    }
+
+    /**
+     * Returns whether relation field r is a closure relation.
+     */
+    boolean relationIsClosure(int r) {
+        return relationIsClosure[r];
+    }
+
+    /**
+     * Returns the values of the fields of a match with the given groups (see
+     * extractGroups). Evaluates the constant fields, and assigns the constant
+     * fields that are named after incrementors to the incrementors.
+     *
+     * @param groups
+     *            the groups of the match
+     * @param incrementorValues
+     *            the values of all the incrementors, after the pre-increments
+     * @param fileName
+     *            the name of the parsed file
+     */
+    Values bind(String[] groups, int[] incrementorValues, String fileName) {
+        return new Values(groups, incrementorValues, fileName);
+    }
+
+    /**
+     * The values of the fields of one matched line.
+     */
+    final class Values {
+        private final String[] groups;
+        private final int[] incrementorValues;
+        private final String[] constantValues;
+        private final String fileName;
+
+        private Values(String[] groups, int[] incrementorValues,
+                String fileName) {
+            this.groups = groups;
+            // Fields read the incrementors as they are before the constant
+            // fields and the post-increments change them.
+            this.incrementorValues = readsIncrementors ? incrementorValues
+                    .clone() : incrementorValues;
+            this.fileName = fileName;
+            constantValues = new String[constants.length];
+            for (int c = 0; c < constants.length; c++) {
+                if (!constantEvaluated[c]) {
+                    continue;
+                }
+                String val = substitute(constants[c], constantRefs[c]);
+                constantValues[c] = val;
+                if (constantIncrementors[c] >= 0) {
+                    incrementorValues[constantIncrementors[c]] = Integer
+                            .getInteger(val, Integer.MIN_VALUE);
+                }
+            }
+        }
+
+        private String get(Field field) {
+            switch (field.source) {
+            case GROUP:
+                return groups[field.index];
+            case INCREMENTOR:
+                return Integer.toString(incrementorValues[field.index]);
+            case CONSTANT:
+                return constantValues[field.index];
+            case FILE:
+                return fileName;
+            default:
+                return null;
+            }
+        }
+
+        private String substitute(NamedSubstitution subst, Field[] refs) {
+            if (refs.length == 0) {
+                return subst.text(0);
+            }
+            StringBuilder result = new StringBuilder();
+            for (int r = 0; r < refs.length; r++) {
+                result.append(subst.text(r));
+                result.append(get(refs[r]));
+            }
+            result.append(subst.text(refs.length));
+            return result.toString();
+        }
+
+        /**
+         * Returns whether the line is hidden, i.e., has a non-null HIDE
+         * field.
+         */
+        boolean isHidden() {
+            return get(hide) != null;
+        }
+
+        String getType() {
+            return get(type);
+        }
+
+        String getState() {
+            return get(state);
+        }
+
+        String getPID() {
+            return get(pid);
+        }
+
+        String getTime() {
+            return get(time);
+        }
+
+        /**
+         * Returns the value of relation field r.
+         */
+        String getRelation(int r) {
+            return get(relations[r]);
+        }
+
+        /**
+         * Returns the name of the partition of the line, i.e., the filter
+         * with its back-references substituted.
+         */
+        String getPartitionName() {
+            return substitute(filter, filterRefs);
+        }
+
+        /**
+         * Appends "name = value, " to msg for each field that is logged in
+         * debug mode.
+         */
+        void appendDebugFields(StringBuilder msg) {
+            for (int f = 0; f < debugFields.length; f++) {
+                msg.append(debugNames[f] + " = " + get(debugFields[f]) + ", ");
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package synoptic.main.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An index that narrows down the line-matching reg-exps of a TraceParser
+ * that may match a log line. Each reg-exp is analyzed for a literal prefix:
+ * a string that every line matched by the reg-exp (as a whole, as with
+ * Matcher.matches()) must start with. The prefixes are stored in a trie, and
+ * the candidate reg-exps for a line are those whose prefix is a prefix of the
+ * line. Reg-exps without a literal prefix are candidates for every line.
+ * </p>
+ * <p>
+ * Candidates are returned in the order of the reg-exps, so trying the
+ * candidates in order finds the same first matching reg-exp as trying all of
+ * the reg-exps in order. An index is immutable, and may be used
+ * concurrently.
+ * </p>
+ */
+public class RegexDispatchIndex {
+    /** Characters with a special meaning outside of character classes. */
+    private static final String metaChars = "\\[](){}.*+?^$|";
+
+    /** Characters that quantify the preceding atom. */
+    private static final String quantifierChars = "*+?{";
+
+    /**
+     * A trie node, for the prefix that is spelled by the path from the root.
+     */
+    private static final class TrieNode {
+        final Map<Character, TrieNode> children = new HashMap<Character, TrieNode>();
+        /** Indices of the reg-exps whose prefix ends at this node. */
+        final List<Integer> patterns = new ArrayList<Integer>();
+        /** Indices of the reg-exps whose prefix is a prefix of this node's. */
+        int[] candidates;
+    }
+
+    private final TrieNode root = new TrieNode();
+
+    /**
+     * Builds the index for reg-exps with the given literal prefixes (see
+     * literalPrefix), where the prefix at index i belongs to the reg-exp at
+     * index i.
+     */
+    public RegexDispatchIndex(List<String> literalPrefixes) {
+        for (int i = 0; i < literalPrefixes.size(); i++) {
+            TrieNode node = root;
+            String prefix = literalPrefixes.get(i);
+            for (int j = 0; j < prefix.length(); j++) {
+                Character c = prefix.charAt(j);
+                TrieNode child = node.children.get(c);
+                if (child == null) {
+                    child = new TrieNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.patterns.add(i);
+        }
+        setCandidates(root, new int[0]);
+    }
+
+    /**
+     * Returns the indices of the reg-exps that may match line, in increasing
+     * order. The returned array must not be modified.
+     */
+    public int[] getCandidates(String line) {
+        TrieNode node = root;
+        for (int i = 0; i < line.length(); i++) {
+            TrieNode child = node.children.get(line.charAt(i));
+            if (child == null) {
+                break;
+            }
+            node = child;
+        }
+        return node.candidates;
+    }
+
+    /**
+     * Returns a literal string that every string matched by regex as a whole
+     * must start with. The analysis is conservative: it returns the longest
+     * run of unquantified literal characters at the start of regex (after any
+     * ^ anchors), and the empty string if regex may contain an alternation
+     * outside of all groups.
+     *
+     * @param regex
+     *            a standard (not named) Java regular expression, compiled
+     *            without flags
+     * @return the literal prefix of regex
+     */
+    public static String literalPrefix(String regex) {
+        if (mayHaveTopLevelAlternation(regex)) {
+            return "";
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        int len = regex.length();
+        int i = 0;
+        while (i < len && regex.charAt(i) == '^') {
+            i++;
+        }
+        // Walk by code point, so that a quantifier after a supplementary
+        // character applies to the whole surrogate pair.
+        while (i < len) {
+            char c = regex.charAt(i);
+            int literal;
+            int next;
+            if (c == '\\') {
+                // Only escaped non-alphanumeric characters are literals;
+                // others are classes (\d), back-references (\1), quotes (\Q),
+                // or boundaries (\b).
+                if (i + 1 == len
+                        || Character.isLetterOrDigit(regex.codePointAt(i + 1))) {
+                    break;
+                }
+                literal = regex.codePointAt(i + 1);
+                next = i + 1 + Character.charCount(literal);
+            } else if (metaChars.indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = regex.codePointAt(i);
+                next = i + Character.charCount(literal);
+            }
+            if (next < len && quantifierChars.indexOf(regex.charAt(next)) >= 0) {
+                // The literal may be repeated or optional.
+                break;
+            }
+            prefix.appendCodePoint(literal);
+            i = next;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Returns whether regex may contain a | that is outside of all groups.
+     * Returns true whenever regex contains a | and cannot be analyzed.
+     */
+    private static boolean mayHaveTopLevelAlternation(String regex) {
+        if (regex.indexOf('|') < 0) {
+            return false;
+        }
+        int depth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    // Quoted sections are not analyzed.
+                    return true;
+                }
+                i++;
+            } else if (classDepth > 0) {
+                if (c == '[') {
+                    classDepth++;
+                } else if (c == ']') {
+                    classDepth--;
+                }
+            } else if (c == '[') {
+                classDepth = 1;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    return true;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return depth != 0 || classDepth != 0;
+    }
+
+    /**
+     * Sets the candidates of node and of all of its descendants, given the
+     * candidates of node's parent.
+     */
+    private static void setCandidates(TrieNode node, int[] parentCandidates) {
+        if (node.patterns.isEmpty()) {
+            node.candidates = parentCandidates;
+        } else {
+            // Both lists are sorted, merge them.
+            int[] merged = new int[parentCandidates.length
+                    + node.patterns.size()];
+            int p = 0;
+            int q = 0;
+            for (int k = 0; k < merged.length; k++) {
+                if (q == node.patterns.size()
+                        || (p < parentCandidates.length && parentCandidates[p] < node.patterns
+                                .get(q))) {
+                    merged[k] = parentCandidates[p++];
+                } else {
+                    merged[k] = node.patterns.get(q++);
+                }
+            }
+            node.candidates = merged;
+        }
+        for (TrieNode child : node.children.values()) {
+            setCandidates(child, node.candidates);
+        }
+    }
+}
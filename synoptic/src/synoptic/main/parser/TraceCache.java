@@ -0,0 +1,432 @@
+package synoptic.main.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import synoptic.main.options.AbstractOptions;
+import synoptic.model.EventNode;
+import synoptic.model.Relation;
+import synoptic.model.event.Event;
+import synoptic.model.event.EventTypeDictionary;
+import synoptic.model.event.StringEventType;
+import synoptic.util.InternalSynopticException;
+import synoptic.util.resource.AbstractResource;
+import synoptic.util.resource.DTotalResource;
+import synoptic.util.resource.FTotalResource;
+import synoptic.util.resource.ITotalResource;
+import synoptic.util.resource.LTotalResource;
+
+/**
+ * <p>
+ * An on-disk cache of the events that a TraceParser parsed from a set of log
+ * files. The cache file of a run is named by a hash of the contents and paths
+ * of the log files and of the parser options that determine the parse result
+ * (see computeKey), so a later run that parses the same files in the same way
+ * loads the events from the cache instead of parsing the files again.
+ * </p>
+ * <p>
+ * The cache file is a binary file that is read through a memory mapping. It
+ * holds a table of the distinct strings (event types, partition names, file
+ * names, log lines, and relations), followed by one record per event: the
+ * partition name, trace ID, event type, log line, file name, and line number
+ * of the event, its time, and its relations, where strings are indices into
+ * the table. Only totally ordered logs without states are cached; the events
+ * of other logs are parsed on every run.
+ * </p>
+ */
+public class TraceCache {
+    private static Logger logger = Logger.getLogger("TraceCache");
+
+    /** Identifies cache files, and their format version. */
+    private static final int magic = 0x53594e43;
+    private static final int version = 1;
+
+    /** Types of event times. */
+    private static final byte noTime = 0;
+    private static final byte intTime = 1;
+    private static final byte longTime = 2;
+    private static final byte floatTime = 3;
+    private static final byte doubleTime = 4;
+
+    private final File cacheFile;
+
+    /**
+     * Creates a cache for the events of a run that parses files with the
+     * given options.
+     * 
+     * @param cacheDir
+     *            the directory that holds the cache files
+     * @param options
+     *            the options of the run
+     * @param files
+     *            the log files, in the order in which they are parsed
+     * @throws IOException
+     *             if one of the files cannot be read
+     */
+    public TraceCache(File cacheDir, AbstractOptions options, List<File> files)
+            throws IOException {
+        this.cacheFile = new File(cacheDir, computeKey(options, files)
+                + ".trace");
+    }
+
+    /**
+     * Returns the file that holds the cached events.
+     */
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Returns a hex-encoded SHA-1 hash of the format version, the parser
+     * options in options, and the absolute paths and contents of files.
+     */
+    public static String computeKey(AbstractOptions options, List<File> files)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw InternalSynopticException.wrap(e);
+        }
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+                new NullOutputStream(), digest));
+        out.writeInt(version);
+        writeNullableString(out, String.valueOf(options.regExps));
+        writeNullableString(out, options.partitionRegExp);
+        writeNullableString(out, options.separatorRegExp);
+        writeNullableString(out, options.dateFormat);
+        out.writeBoolean(options.ignoreNonMatchingLines);
+        out.writeBoolean(options.recoverFromParseErrors);
+        out.writeBoolean(options.inputDelta);
+
+        byte[] buffer = new byte[1 << 16];
+        for (File file : files) {
+            writeNullableString(out, file.getAbsolutePath());
+            out.writeLong(file.length());
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                int n = in.read(buffer);
+                while (n >= 0) {
+                    out.write(buffer, 0, n);
+                    n = in.read(buffer);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        out.close();
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Loads the cached events into parser, as if parser had parsed them, and
+     * returns them in the order in which they were parsed. Returns null if
+     * there is no cache file, or if it cannot be read.
+     */
+    public List<EventNode> load(TraceParser parser) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                        0, channel.size());
+                List<EventNode> events = readEvents(buf, parser);
+                logger.info("Loaded " + events.size()
+                        + " parsed events from the trace cache "
+                        + cacheFile.getPath());
+                return events;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Unable to read the trace cache "
+                    + cacheFile.getPath() + ": " + e.getMessage());
+        } catch (BufferUnderflowException e) {
+            logger.warning("Truncated trace cache " + cacheFile.getPath());
+        }
+        return null;
+    }
+
+    /**
+     * Writes events, which parser parsed, to the cache file. Does nothing if
+     * the events cannot be cached (see the class comment). The file is first
+     * written under a temporary name and then renamed, so that concurrent
+     * runs never read a partially written file.
+     */
+    public void store(TraceParser parser, List<EventNode> events)
+            throws IOException {
+        if (!isCacheable(parser, events)) {
+            logger.fine("Not caching the parsed events: only totally ordered logs without states are cached");
+            return;
+        }
+
+        Map<EventNode, String> pNames = new IdentityHashMap<EventNode, String>();
+        for (Map.Entry<String, ArrayList<EventNode>> partition : parser.partitions
+                .entrySet()) {
+            for (EventNode eventNode : partition.getValue()) {
+                pNames.put(eventNode, partition.getKey());
+            }
+        }
+
+        // Assign each distinct string an index into the string table.
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        for (EventNode eventNode : events) {
+            Event event = eventNode.getEvent();
+            addString(strings, pNames.get(eventNode));
+            addString(strings, event.getEType().getETypeLabel());
+            addString(strings, event.getLine());
+            addString(strings, event.getFileName());
+            if (event.getTime() != null) {
+                addString(strings, event.getTime().getKey());
+            }
+            for (Relation relation : parser.allEventRelations.get(eventNode)) {
+                addString(strings, relation.getName());
+                addString(strings, relation.getRelation());
+            }
+        }
+
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(events.size());
+            for (EventNode eventNode : events) {
+                writeEvent(out, eventNode, pNames.get(eventNode),
+                        parser.allEventRelations.get(eventNode), strings);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmpFile.renameTo(cacheFile)) {
+            tmpFile.delete();
+            logger.warning("Unable to write the trace cache "
+                    + cacheFile.getPath());
+            return;
+        }
+        logger.info("Cached " + events.size() + " parsed events in "
+                + cacheFile.getPath());
+    }
+
+    // //////////////////////////////////////////////////////////////////////
+
+    private static boolean isCacheable(TraceParser parser,
+            List<EventNode> events) {
+        if (!parser.logTimeTypeIsTotallyOrdered()) {
+            return false;
+        }
+        for (EventNode eventNode : events) {
+            if (!(eventNode.getEType() instanceof StringEventType)
+                    || eventNode.getPostEventState() != null
+                    || eventNode.getPreEventState() != null
+                    || !parser.allEventRelations.containsKey(eventNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addString(Map<String, Integer> strings, String string) {
+        if (string != null && !strings.containsKey(string)) {
+            strings.put(string, strings.size());
+        }
+    }
+
+    private static int indexOf(Map<String, Integer> strings, String string) {
+        return string == null ? -1 : strings.get(string);
+    }
+
+    private static void writeEvent(DataOutputStream out, EventNode eventNode,
+            String pName, Set<Relation> relations, Map<String, Integer> strings)
+            throws IOException {
+        Event event = eventNode.getEvent();
+        out.writeInt(indexOf(strings, pName));
+        out.writeInt(eventNode.getTraceID());
+        out.writeInt(indexOf(strings, event.getEType().getETypeLabel()));
+        out.writeInt(indexOf(strings, event.getLine()));
+        out.writeInt(indexOf(strings, event.getFileName()));
+        out.writeInt(event.getLineNum());
+
+        AbstractResource time = event.getTime();
+        if (time == null) {
+            out.writeByte(noTime);
+        } else {
+            if (time instanceof ITotalResource) {
+                out.writeByte(intTime);
+                out.writeLong(((ITotalResource) time).value);
+            } else if (time instanceof LTotalResource) {
+                out.writeByte(longTime);
+                out.writeLong(((LTotalResource) time).value);
+            } else if (time instanceof FTotalResource) {
+                out.writeByte(floatTime);
+                out.writeLong(Double
+                        .doubleToLongBits(((FTotalResource) time).value));
+            } else if (time instanceof DTotalResource) {
+                out.writeByte(doubleTime);
+                out.writeLong(Double
+                        .doubleToLongBits(((DTotalResource) time).value));
+            } else {
+                throw new InternalSynopticException(
+                        "Cannot cache the time type of " + event);
+            }
+            out.writeInt(indexOf(strings, time.getKey()));
+        }
+
+        out.writeInt(relations.size());
+        for (Relation relation : relations) {
+            out.writeInt(indexOf(strings, relation.getName()));
+            out.writeInt(indexOf(strings, relation.getRelation()));
+            out.writeBoolean(relation.isClosure());
+        }
+    }
+
+    private static List<EventNode> readEvents(ByteBuffer buf,
+            TraceParser parser) throws IOException {
+        if (buf.getInt() != magic || buf.getInt() != version) {
+            throw new IOException("not a trace cache file of this version");
+        }
+        String[] strings = new String[buf.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Read all of the events before adding any of them to parser, so that
+        // parser is unchanged if the file is truncated.
+        int numEvents = buf.getInt();
+        EventTypeDictionary eTypeDictionary = EventTypeDictionary.getCurrent();
+        List<EventNode> events = new ArrayList<EventNode>(numEvents);
+        String[] pNames = new String[numEvents];
+        int[] traceIDs = new int[numEvents];
+        List<Set<Relation>> eventRelations = new ArrayList<Set<Relation>>(
+                numEvents);
+        for (int i = 0; i < numEvents; i++) {
+            pNames[i] = stringAt(strings, buf.getInt());
+            traceIDs[i] = buf.getInt();
+            StringEventType eType = eTypeDictionary
+                    .getStringEventType(stringAt(strings, buf.getInt()));
+            String line = stringAt(strings, buf.getInt());
+            String fileName = stringAt(strings, buf.getInt());
+            int lineNum = buf.getInt();
+            Event event = new Event(eType, line, fileName, lineNum);
+
+            byte timeType = buf.get();
+            if (timeType != noTime) {
+                long value = buf.getLong();
+                String key = stringAt(strings, buf.getInt());
+                event.setTime(toTime(timeType, value, key));
+            }
+
+            int numRelations = buf.getInt();
+            Set<Relation> relations = new HashSet<Relation>();
+            for (int r = 0; r < numRelations; r++) {
+                String name = stringAt(strings, buf.getInt());
+                String relation = stringAt(strings, buf.getInt());
+                relations.add(new Relation(name, relation, buf.get() != 0));
+            }
+
+            events.add(new EventNode(event));
+            eventRelations.add(relations);
+        }
+
+        for (int i = 0; i < numEvents; i++) {
+            parser.addParsedEventNode(events.get(i), pNames[i], traceIDs[i],
+                    eventRelations.get(i));
+        }
+        return events;
+    }
+
+    private static String stringAt(String[] strings, int index)
+            throws IOException {
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("string index out of range: " + index);
+        }
+        return strings[index];
+    }
+
+    private static AbstractResource toTime(byte timeType, long value,
+            String key) throws IOException {
+        switch (timeType) {
+        case intTime:
+            return new ITotalResource((int) value, key);
+        case longTime:
+            return new LTotalResource(value, key);
+        case floatTime:
+            return new FTotalResource((float) Double.longBitsToDouble(value),
+                    key);
+        case doubleTime:
+            return new DTotalResource(Double.longBitsToDouble(value), key);
+        default:
+            throw new IOException("unknown time type: " + timeType);
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out,
+            String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** Discards everything that is written to it. */
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            // Discard.
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // Discard.
+        }
+    }
+}
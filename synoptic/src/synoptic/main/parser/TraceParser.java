@@ -19,11 +19,17 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.main.options.AbstractOptions;
 import synoptic.main.options.Options;
 import synoptic.model.ChainsTraceGraph;
@@ -34,9 +40,11 @@ import synoptic.model.TraceGraph;
 import synoptic.model.event.DistEventType;
 import synoptic.model.event.Event;
 import synoptic.model.event.EventType;
+import synoptic.model.event.EventTypeDictionary;
 import synoptic.model.event.StringEventType;
 import synoptic.model.state.State;
 import synoptic.util.InternalSynopticException;
+import synoptic.util.WorkerPool;
 import synoptic.util.matching.NamedMatcher;
 import synoptic.util.matching.NamedPattern;
 import synoptic.util.matching.NamedSubstitution;
@@ -58,10 +66,18 @@ public class TraceParser {
     private static Logger logger = Logger.getLogger("Parser Logger");
 
     private final List<NamedPattern> parsers;
+    // The literal prefix of each parser (see RegexDispatchIndex).
+    private final List<String> literalPrefixes;
+    // Index of parsers by literal prefix, or null if it must be rebuilt.
+    private RegexDispatchIndex dispatchIndex = null;
     private final List<LinkedHashMap<String, NamedSubstitution>> constantFields;
     private final List<Map<String, Boolean>> incrementors;
+    // The extraction plan of each parser, compiled at the start of a parse.
+    private List<ExtractionPlan> plans = null;
+    // Interned event type labels and process names (see internCommonStrings).
+    private final Map<String, String> internedStrings = new HashMap<String, String>();
 
-    private static int nextTraceID;
+    private int nextTraceID;
     private final Map<String, Integer> partitionNameToTraceID;
 
     private NamedSubstitution filter;
@@ -92,9 +108,9 @@ public class TraceParser {
     // following
     // groups, but not both.
     // Event type group
-    private static final String typeGroup = "TYPE";
+    static final String typeGroup = "TYPE";
     // State group, must be in the form id=value,...,id=value
-    private static final String stateGroup = "STATE";
+    static final String stateGroup = "STATE";
 
     // Regexp groups that represent valid time in a log line:
     // TIME: integer time (e.g. 123) -- 32 bits
@@ -108,17 +124,17 @@ public class TraceParser {
             "LTIME", "VTIME", "FTIME", "DTIME", "DATETIME");
 
     // Regexp group representing multiple relations
-    private static final String relationGroup = "RELATION";
-    private static final String namedRelationGroup = "RELATION-";
+    static final String relationGroup = "RELATION";
+    static final String namedRelationGroup = "RELATION-";
 
     // Regexp group representing closure relations, call and return for now.
-    private static final String closureRelationGroup = "RELATION*";
-    private static final String namedclosureRelationGroup = "RELATION*-";
+    static final String closureRelationGroup = "RELATION*";
+    static final String namedclosureRelationGroup = "RELATION*-";
 
     // A group that is used to capture the process ID in a PO log -- can only be
     // used in conjunction with VTIME, but is optional. However, if it used in
     // any reg-exp with VTIME then all VTIME reg-exps must use/set it.
-    private static final String processIDGroup = "PID";
+    static final String processIDGroup = "PID";
 
     // If selectedTimeGroup is "VTIME" then whether or not processIDGroup is
     // specified (true), or if process IDs will be implicitly mined (false)
@@ -143,11 +159,50 @@ public class TraceParser {
     private static final String dummyEtypeLabel = "dummy-etype-for-line-with-state"
             .intern();
 
+    // The relation of every event to the next event in time. Relations are
+    // immutable, so all events share this instance.
+    private static final Relation timeRelation = new Relation("time-relation",
+            Event.defTimeRelationStr, false);
+
+    // Number of log lines that are matched by a single task when lines are
+    // matched concurrently (see parallelParsing).
+    private static final int lineBatchSize = 1024;
+
+    /**
+     * The result of matching a log line against the line-matching reg-exps,
+     * which does not depend on the state of the parser (the incrementor
+     * context, the partitions, or the last time). Line matches can therefore
+     * be computed concurrently, and are then processed in order by parseLine.
+     */
+    private static final class LineMatch {
+        // The matched line.
+        final String line;
+        // Index of the first reg-exp that matches the line, or -1 if none.
+        final int parserIndex;
+        // The groups of the match that the extraction plan of the reg-exp
+        // reads, indexed by group index, or null if there is no match.
+        final String[] groups;
+        // The value of the selected time group, or null.
+        final String timeField;
+        // The time parsed from timeField, or null if it was not parsed.
+        final AbstractResource time;
+
+        LineMatch(String line, int parserIndex, String[] groups,
+                String timeField, AbstractResource time) {
+            this.line = line;
+            this.parserIndex = parserIndex;
+            this.groups = groups;
+            this.timeField = timeField;
+            this.time = time;
+        }
+    }
+
     /**
      * Returns an un-parameterized trace parser.
      */
     public TraceParser() {
         parsers = new ArrayList<NamedPattern>();
+        literalPrefixes = new ArrayList<String>();
         constantFields = new ArrayList<LinkedHashMap<String, NamedSubstitution>>();
         incrementors = new ArrayList<Map<String, Boolean>>();
         filter = new NamedSubstitution("");
@@ -196,8 +251,9 @@ public class TraceParser {
             logger.warning("Using a default regular expression to parse log-lines: "
                     + "will map the entire log line to an event type."
                     + "\nTo use a custom regular expressions use the option:\n\t"
-                    + Options.getOptDesc("regExps",
-                            AbstractOptions.plumeOpts.getClass()) + "\n\t");
+                    + Options.getOptDesc("regExps", InferenceContext
+                            .getCurrent().options.plumeOpts.getClass())
+                    + "\n\t");
             // TODO: is this next statement necessary?
             // parser.addRegex("^\\s*$(?<SEPCOUNT++>)");
             this.addRegex(AbstractOptions.regExpDefault);
@@ -397,6 +453,9 @@ public class TraceParser {
             throw parseException;
         }
         parsers.add(parser);
+        literalPrefixes.add(RegexDispatchIndex.literalPrefix(parser
+                .standardPattern()));
+        dispatchIndex = null;
         // A list of all named groups i.e., fields that have no assignment.
         List<String> groups = parser.groupNames();
 
@@ -523,7 +582,7 @@ public class TraceParser {
 
         }
 
-        if (AbstractMain.getInstance().options.debugParse) {
+        if (InferenceContext.getCurrent().options.debugParse) {
             logger.info("input: " + input_regex);
             logger.info("processed: " + regex);
             logger.info("standard: " + parser.standardPattern());
@@ -571,6 +630,8 @@ public class TraceParser {
             throw internalSynopticException;
         }
         cycle(parsers);
+        cycle(literalPrefixes);
+        dispatchIndex = null;
         cycle(incrementors);
         cycle(constantFields);
         filter.concat(new NamedSubstitution("\\k<SEPCOUNT>"));
@@ -671,42 +732,67 @@ public class TraceParser {
         BufferedReader br = new BufferedReader(traceReader);
 
         // Initialize incrementor context.
-        Map<String, Integer> context = new LinkedHashMap<String, Integer>();
+        Set<String> incFields = new LinkedHashSet<String>();
         for (Map<String, Boolean> incs : incrementors) {
-            for (String incField : incs.keySet()) {
-                context.put(incField, 0);
-            }
+            incFields.addAll(incs.keySet());
         }
+        List<String> incrementorNames = new ArrayList<String>(incFields);
+        int[] context = new int[incrementorNames.size()];
 
         ArrayList<EventNode> results = new ArrayList<EventNode>();
         String strLine = null;
 
         String tName = traceName;
-        if (AbstractMain.getInstance().options.internCommonStrings) {
+        if (InferenceContext.getCurrent().options.internCommonStrings) {
             tName = tName.intern();
         }
 
         lastTime = null;
 
-        int lineNum = 0;
-        // Process each line in sequence.
-        while ((strLine = br.readLine()) != null) {
-            if (results.size() == linesToRead) {
-                break;
+        if (dispatchIndex == null) {
+            dispatchIndex = new RegexDispatchIndex(literalPrefixes);
+        }
+
+        InferenceContext inference = InferenceContext.getCurrent();
+        boolean partitionByFile = inference.options.partitionRegExp
+                .equals("\\k<FILE>");
+        plans = new ArrayList<ExtractionPlan>(parsers.size());
+        for (int i = 0; i < parsers.size(); i++) {
+            plans.add(ExtractionPlan.compile(parsers.get(i),
+                    constantFields.get(i), incrementors.get(i),
+                    incrementorNames, filter, selectedTimeGroup,
+                    partitionByFile, inference.options.debugParse));
+        }
+        if (inference.options.parallelParsing
+                && WorkerPool.getNumThreads() > 1) {
+            try {
+                parseLinesConcurrently(br, tName, context, linesToRead,
+                        results);
+            } finally {
+                br.close();
             }
-            lineNum++;
-            EventNode node = parseLine(strLine, tName, context, lineNum);
-            if (node == null) {
-                continue;
+        } else {
+            int lineNum = 0;
+            // Process each line in sequence.
+            while ((strLine = br.readLine()) != null) {
+                if (results.size() == linesToRead) {
+                    break;
+                }
+                lineNum++;
+                EventNode node = parseLine(matchLine(strLine), tName, context,
+                        lineNum);
+                if (node == null) {
+                    continue;
+                }
+                results.add(node);
             }
-            results.add(node);
+            br.close();
         }
-        br.close();
         // TODO: this is a hacky solution, should refactor the parseTrace and
         // parseLine methods so that State is separated from EventNode.
         // At this point, each node in results either represents an event or
         // a state. We need to bundle pre- and post-event states and events.
-        if (AbstractMain.getInstance().options.stateProcessing) {
+        if (InferenceContext.getCurrent().options.stateProcessing) {
             mergeStatesWithEventNodes(results);
         }
 
@@ -811,6 +897,187 @@ public class TraceParser {
         return results;
     }
 
+    /**
+     * Parses the lines of br into results, as the sequential loop in
+     * parseTrace does, but in a pipeline: a reader thread reads batches of
+     * lines, the batches are matched against the reg-exps on the worker
+     * threads (see matchLine), and the matched lines are then processed by
+     * parseLine on the calling thread, in the order of the lines. All of the
+     * parser's state is therefore updated in the same order as by the
+     * sequential loop, and the parsed events are the same.
+     * 
+     * @throws IOException
+     *             when the reader we're using is the problem
+     * @throws ParseException
+     *             when user supplied expressions are the problem
+     */
+    private void parseLinesConcurrently(final BufferedReader br,
+            String tName, int[] context, int linesToRead,
+            ArrayList<EventNode> results) throws ParseException, IOException {
+        // Matched batches, in the order of the lines. An empty batch marks
+        // the end of the lines. The queue bounds the number of lines that
+        // are read ahead of parseLine.
+        final BlockingQueue<Future<List<LineMatch>>> batches = new ArrayBlockingQueue<Future<List<LineMatch>>>(
+                2 * WorkerPool.getNumThreads());
+
+        Thread reader = new Thread(InferenceContext.propagate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    try {
+                        List<String> lines = new ArrayList<String>(
+                                lineBatchSize);
+                        String line;
+                        while (!Thread.currentThread().isInterrupted()
+                                && (line = br.readLine()) != null) {
+                            lines.add(line);
+                            if (lines.size() == lineBatchSize) {
+                                batches.put(submitLineBatch(lines));
+                                lines = new ArrayList<String>(lineBatchSize);
+                            }
+                        }
+                        if (!lines.isEmpty()) {
+                            batches.put(submitLineBatch(lines));
+                        }
+                        batches.put(completedLineBatch(null));
+                    } catch (IOException e) {
+                        batches.put(completedLineBatch(e));
+                    }
+                } catch (InterruptedException e) {
+                    // parseLinesConcurrently no longer needs lines.
+                }
+            }
+        }), "TraceParser reader");
+        reader.start();
+
+        try {
+            int lineNum = 0;
+            while (true) {
+                List<LineMatch> batch = batches.take().get();
+                if (batch.isEmpty()) {
+                    return;
+                }
+                for (LineMatch match : batch) {
+                    if (results.size() == linesToRead) {
+                        return;
+                    }
+                    lineNum++;
+                    EventNode node = parseLine(match, tName, context, lineNum);
+                    if (node != null) {
+                        results.add(node);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalSynopticException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new InternalSynopticException(e);
+        } finally {
+            reader.interrupt();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Submits a task that matches lines to the worker pool.
+     */
+    private Future<List<LineMatch>> submitLineBatch(final List<String> lines) {
+        return WorkerPool.submit(new Callable<List<LineMatch>>() {
+            @Override
+            public List<LineMatch> call() {
+                List<LineMatch> matches = new ArrayList<LineMatch>(lines
+                        .size());
+                for (String line : lines) {
+                    matches.add(matchLine(line));
+                }
+                return matches;
+            }
+        });
+    }
+
+    /**
+     * Returns a completed batch: the empty batch that marks the end of the
+     * lines if error is null, and a batch that fails with error otherwise.
+     */
+    private static Future<List<LineMatch>> completedLineBatch(
+            final IOException error) {
+        FutureTask<List<LineMatch>> batch = new FutureTask<List<LineMatch>>(
+                new Callable<List<LineMatch>>() {
+                    @Override
+                    public List<LineMatch> call() throws IOException {
+                        if (error != null) {
+                            throw error;
+                        }
+                        return new ArrayList<LineMatch>();
+                    }
+                });
+        batch.run();
+        return batch;
+    }
+
+    /**
+     * Matches line against the line-matching reg-exps. Only the reg-exps that
+     * the dispatch index reports as candidates for the line are tried, in
+     * order. This does not depend on or modify the state of the parser, and
+     * may be called concurrently.
+     */
+    private LineMatch matchLine(String line) {
+        for (int i : dispatchIndex.getCandidates(line)) {
+            NamedMatcher matcher = parsers.get(i).reusableMatcher(line);
+            if (!matcher.matches()) {
+                continue;
+            }
+            String[] groups = plans.get(i).extractGroups(matcher);
+
+            String timeField = plans.get(i).groupTimeField(groups);
+            AbstractResource time = null;
+            if (timeField != null) {
+                try {
+                    time = parseTimeField(timeField);
+                } catch (Exception e) {
+                    // Left to parseLine, which reports the error.
+                }
+            }
+            return new LineMatch(line, i, groups, timeField, time);
+        }
+        return new LineMatch(line, -1, null, null, null);
+    }
+
+    /**
+     * Parses timeField as a time of the selected time group. Returns null for
+     * DATETIME times, which are parsed with the (not thread-safe) date
+     * formatter, and for unknown time groups.
+     */
+    private AbstractResource parseTimeField(String timeField) {
+        if (selectedTimeGroup.equals("TIME")) {
+            int t = Integer.parseInt(timeField.trim());
+            return new ITotalResource(t);
+        } else if (selectedTimeGroup.equals("LTIME")) {
+            long t = Long.parseLong(timeField.trim());
+            return new LTotalResource(t);
+        } else if (selectedTimeGroup.equals("FTIME")) {
+            float t = Float.parseFloat(timeField.trim());
+            return new FTotalResource(t);
+        } else if (selectedTimeGroup.equals("DTIME")) {
+            double t = Double.parseDouble(timeField.trim());
+            return new DTotalResource(t);
+        } else if (selectedTimeGroup.equals("VTIME")) {
+            return new VectorTime(timeField.trim());
+        }
+        return null;
+    }
+
     /**
      * Merge each state node in results with its surrounding event nodes of the
      * same traceID.
@@ -877,8 +1144,9 @@ public class TraceParser {
             ret += " from file [" + fileName + "]";
         }
 
-        AbstractMain main = AbstractMain.getInstance();
-        if (main.options.logLvlVerbose || main.options.logLvlExtraVerbose) {
+        InferenceContext inference = InferenceContext.getCurrent();
+        if (inference.options.logLvlVerbose
+                || inference.options.logLvlExtraVerbose) {
             // Include the actual line if verbose output is desired.
             return ret + " line [" + line + "]";
         }
@@ -886,69 +1154,68 @@ public class TraceParser {
     }
 
     /**
-     * Parse an individual line.
+     * Returns the interned string that is equal to str. Only the first of
+     * equal strings is interned with String.intern(), later ones are looked
+     * up in internedStrings. Returns null if str is null.
      */
-    private EventNode parseLine(String line, String fileName,
-            Map<String, Integer> context, int lineNum) throws ParseException,
+    private String intern(String str) {
+        if (str == null) {
+            return null;
+        }
+        String interned = internedStrings.get(str);
+        if (interned == null) {
+            interned = str.intern();
+            internedStrings.put(interned, interned);
+        }
+        return interned;
+    }
+
+    /**
+     * Parse an individual line, given the result of matching it against the
+     * line-matching reg-exps.
+     */
+    private EventNode parseLine(LineMatch match, String fileName,
+            int[] context, int lineNum) throws ParseException,
             InternalSynopticException {
 
+        String line = match.line;
         Event event = null;
         AbstractResource nextTime = null;
 
-        AbstractMain main = AbstractMain.getInstance();
-
-        for (int i = 0; i < parsers.size(); i++) {
-            NamedMatcher matcher = parsers.get(i).matcher(line);
-            if (!matcher.matches()) {
-                continue;
-            }
-
-            @SuppressWarnings("unchecked")
-            Map<String, NamedSubstitution> cs = (Map<String, NamedSubstitution>) constantFields
-                    .get(i).clone();
-            Map<String, String> matched = matcher.toMatchResult().namedGroups();
+        InferenceContext inference = InferenceContext.getCurrent();
+        EventTypeDictionary eTypeDictionary = EventTypeDictionary.getCurrent();
 
-            // Perform pre-increments.
-            for (Map.Entry<String, Boolean> inc : incrementors.get(i)
-                    .entrySet()) {
-                if (inc.getValue() == false) {
-                    context.put(inc.getKey(), context.get(inc.getKey()) + 1);
+        int firstParser = match.parserIndex < 0 ? parsers.size()
+                : match.parserIndex;
+        for (int i = firstParser; i < parsers.size(); i++) {
+            ExtractionPlan plan = plans.get(i);
+            String[] groups;
+            if (i == match.parserIndex) {
+                groups = match.groups;
+            } else {
+                // Only reached when the time field matched by an earlier
+                // reg-exp could not be parsed, and the line is not ignored.
+                NamedMatcher matcher = parsers.get(i).reusableMatcher(line);
+                if (!matcher.matches()) {
+                    continue;
                 }
+                groups = plan.extractGroups(matcher);
             }
 
-            // Overlay increment context.
-            for (Map.Entry<String, Integer> entry : context.entrySet()) {
-                matched.put(entry.getKey(), entry.getValue().toString());
-            }
-
-            for (Map.Entry<String, NamedSubstitution> entry : cs.entrySet()) {
-                // Process the constant field by substituting
-                // back-references.
-                String key = entry.getKey();
-                String val = entry.getValue().substitute(matched);
-
-                // Special case for integers, to allow for setting
-                // incrementors.
-                Integer parsed = Integer.getInteger(val, Integer.MIN_VALUE);
-                if (context.containsKey(key)) {
-                    context.put(key, parsed);
-                }
+            // Perform pre-increments.
+            plan.preIncrement(context);
 
-                // TODO: Determine policy of constant fields vs. extracted have
-                // overlay priority
-                if (!matched.containsKey(key)) {
-                    matched.put(key, val);
-                }
-            }
+            // Overlay the increment context and the constant fields, whose
+            // back-references are substituted, on the groups. Constant
+            // fields that are named after incrementors set the incrementors.
+            // TODO: Determine policy of constant fields vs. extracted have
+            // overlay priority
+            ExtractionPlan.Values matched = plan.bind(groups, context,
+                    fileName);
 
-            if (matched.get("HIDE") != null) {
+            if (matched.isHidden()) {
                 // Perform post-increments and exit.
-                for (Map.Entry<String, Boolean> inc : incrementors.get(i)
-                        .entrySet()) {
-                    if (inc.getValue() == true) {
-                        context.put(inc.getKey(), context.get(inc.getKey()) + 1);
-                    }
-                }
+                plan.postIncrement(context);
                 return null;
             }
 
@@ -958,13 +1225,9 @@ public class TraceParser {
             String eTypeLabel;
             EventType eType;
             // Check if this line contains event type or state.
-            if (matched.containsKey(typeGroup)) {
-                if (main.options.internCommonStrings) {
-                    eTypeLabel = matched.get(typeGroup).intern();
-                } else {
-                    eTypeLabel = matched.get(typeGroup);
-                }
-            } else if (matched.containsKey(stateGroup)) {
+            if (plan.hasType()) {
+                eTypeLabel = matched.getType();
+            } else if (plan.hasState()) {
                 // This line has state, so event type is irrelevant.
                 // Use use the dummy string as the type.
                 eTypeLabel = dummyEtypeLabel;
@@ -976,15 +1239,22 @@ public class TraceParser {
             }
 
             if (selectedTimeGroup.equals("VTIME")) {
+                boolean intern = inference.options.internCommonStrings;
+                if (intern) {
+                    eTypeLabel = intern(eTypeLabel);
+                }
                 if (parsePIDs) {
+                    String pName = matched.getPID();
                     eType = new DistEventType(eTypeLabel,
-                            matched.get(processIDGroup));
+                            intern ? intern(pName) : pName);
                 } else {
                     eType = new DistEventType(eTypeLabel);
                 }
                 event = new Event(eType, line, fileName, lineNum);
             } else {
-                eType = new StringEventType(eTypeLabel);
+                // The dictionary shares one event type, and one label, among
+                // all the events with the same label.
+                eType = eTypeDictionary.getStringEventType(eTypeLabel);
                 event = new Event(eType, line, fileName, lineNum);
             }
 
@@ -994,37 +1264,20 @@ public class TraceParser {
              */
             Set<String> relationValues = new HashSet<String>();
             Set<Relation> eventRelations = new HashSet<Relation>();
-            for (String key : matched.keySet()) {
-                if (key.startsWith(relationGroup)) {
-                    String relationString = matched.get(key);
-
-                    if (relationValues.contains(relationString)) {
-                        throw new ParseException(
-                                "Duplicate captured relation value: "
-                                        + relationString);
-                    }
-
-                    relationValues.add(relationString);
-
-                    String relName = Relation.anonName;
-                    boolean isClosure = false;
+            for (int r = 0; r < plan.numRelations(); r++) {
+                String relationString = matched.getRelation(r);
 
-                    if (key.startsWith(closureRelationGroup)) {
-                        isClosure = true;
-
-                        if (key.startsWith(namedclosureRelationGroup)) {
-                            relName = key.substring(namedclosureRelationGroup
-                                    .length());
-                        }
+                if (relationValues.contains(relationString)) {
+                    throw new ParseException(
+                            "Duplicate captured relation value: "
+                                    + relationString);
+                }
 
-                    } else if (key.startsWith(namedRelationGroup)) {
-                        relName = key.substring(namedRelationGroup.length());
-                    }
+                relationValues.add(relationString);
 
-                    Relation relation = new Relation(relName, relationString,
-                            isClosure);
-                    eventRelations.add(relation);
-                }
+                Relation relation = new Relation(plan.relationName(r),
+                        relationString, plan.relationIsClosure(r));
+                eventRelations.add(relation);
             }
 
             // We have two cases for processing time on log lines:
@@ -1039,7 +1292,7 @@ public class TraceParser {
                 nextTime = new ITotalResource(lineNum);
             } else {
                 // Explicit case.
-                String timeField = matched.get(selectedTimeGroup);
+                String timeField = matched.getTime();
                 if (timeField == null) {
                     String error = buildLineErrorLocString(line, fileName,
                             lineNum)
@@ -1054,20 +1307,10 @@ public class TraceParser {
                 // Attempt to parse the time type field as a VectorTime -- we
                 // use this type for all the current types of time.
                 try {
-                    if (selectedTimeGroup.equals("TIME")) {
-                        int t = Integer.parseInt(timeField.trim());
-                        nextTime = new ITotalResource(t);
-                    } else if (selectedTimeGroup.equals("LTIME")) {
-                        long t = Long.parseLong(timeField.trim());
-                        nextTime = new LTotalResource(t);
-                    } else if (selectedTimeGroup.equals("FTIME")) {
-                        float t = Float.parseFloat(timeField.trim());
-                        nextTime = new FTotalResource(t);
-                    } else if (selectedTimeGroup.equals("DTIME")) {
-                        double t = Double.parseDouble(timeField.trim());
-                        nextTime = new DTotalResource(t);
-                    } else if (selectedTimeGroup.equals("VTIME")) {
-                        nextTime = new VectorTime(timeField.trim());
+                    if (i == match.parserIndex && timeField == match.timeField
+                            && match.time != null) {
+                        // Already parsed by matchLine.
+                        nextTime = match.time;
                     } else if (selectedTimeGroup.equals("DATETIME")) {
                         if (dateFormatter == null) {
                             String error = "Date formatter is not initialized with a format, cannot continue";
@@ -1077,15 +1320,18 @@ public class TraceParser {
                         Date date = dateFormatter.parse(timeField.trim());
                         nextTime = new LTotalResource(date.getTime());
                     } else {
-                        String error = buildLineErrorLocString(line, fileName,
-                                lineNum)
-                                + " Unable to recognize time type "
-                                + selectedTimeGroup;
-                        logger.severe(error);
-                        throw new ParseException(error);
+                        nextTime = parseTimeField(timeField);
+                        if (nextTime == null) {
+                            String error = buildLineErrorLocString(line,
+                                    fileName, lineNum)
+                                    + " Unable to recognize time type "
+                                    + selectedTimeGroup;
+                            logger.severe(error);
+                            throw new ParseException(error);
+                        }
                     }
 
-                    if (AbstractOptions.inputDelta) {
+                    if (inference.options.inputDelta) {
                         // If this is the first node, assign the zero time to
                         // lastTime
                         if (lastTime == null) {
@@ -1099,7 +1345,7 @@ public class TraceParser {
                     String errMsg = buildLineErrorLocString(line, fileName,
                             lineNum)
                             + " Unable to parse time field on log line.";
-                    if (main.options.ignoreNonMatchingLines) {
+                    if (inference.options.ignoreNonMatchingLines) {
                         logger.warning(errMsg
                                 + " Ignoring line and continuing.");
                         continue;
@@ -1107,10 +1353,10 @@ public class TraceParser {
                     String error = errMsg
                             + "\n\tTry cmd line options:\n\t"
                             + Options.getOptDesc("ignoreNonMatchingLines",
-                                    AbstractOptions.plumeOpts.getClass())
+                                    inference.options.plumeOpts.getClass())
                             + "\n\t"
                             + Options.getOptDesc("debugParse",
-                                    AbstractOptions.plumeOpts.getClass());
+                                    inference.options.plumeOpts.getClass());
                     logger.severe(error);
                     logger.severe(e.toString());
                     ParseException parseException = new ParseException(errMsg);
@@ -1119,51 +1365,25 @@ public class TraceParser {
                 }
             }
 
-            Map<String, String> eventStringArgs = new LinkedHashMap<String, String>();
-
-            for (Map.Entry<String, String> group : matched.entrySet()) {
-                String name = group.getKey();
-                if (!name.equals("TYPE") && !name.equals("TIME")) {
-                    eventStringArgs.put(name, group.getValue());
-                }
-            }
-
-            if (AbstractOptions.partitionRegExp.equals("\\k<FILE>")) {
-                // These logs are to be partitioned via file
-                eventStringArgs.put("FILE", fileName);
-                // "" + traceNameToTraceID.get(fileName));
-            }
-
             // Perform post-increments.
-            for (Map.Entry<String, Boolean> inc : incrementors.get(i)
-                    .entrySet()) {
-                if (inc.getValue() == true) {
-                    context.put(inc.getKey(), context.get(inc.getKey()) + 1);
-                }
-            }
+            plan.postIncrement(context);
 
-            if (main.options.debugParse) {
+            if (inference.options.debugParse) {
                 // TODO: include partition name in the list of field values
                 logger.info("input: " + line);
                 StringBuilder msg = new StringBuilder("{");
-                for (Map.Entry<String, String> entry : eventStringArgs
-                        .entrySet()) {
-                    if (entry.getKey().equals("FILE")) {
-                        continue;
-                    }
-                    msg.append(entry.getKey() + " = " + entry.getValue() + ", ");
-                }
+                matched.appendDebugFields(msg);
                 msg.append("TYPE = " + eType.toString());
                 msg.append("}");
                 logger.info(msg.toString());
             }
             event.setTime(nextTime);
 
-            Relation timeRelation = new Relation("time-relation",
-                    Event.defTimeRelationStr, false);
             eventRelations.add(timeRelation);
 
-            String partitionName = filter.substitute(eventStringArgs);
+            // The logs partitioned via file see the file name as the FILE
+            // field.
+            String partitionName = matched.getPartitionName();
             EventNode eventNode = addEventNodeToPartition(event, partitionName);
 
             // If a state is captured, save it to eventNode's post-event state
@@ -1173,12 +1393,12 @@ public class TraceParser {
             // pre-event state might be set before we check if that node
             // represents
             // state or event.
-            if (eventStringArgs.containsKey(stateGroup)) {
-                String stateStr = eventStringArgs.get(stateGroup);
+            if (plan.hasState()) {
+                String stateStr = matched.getState();
                 State state = new State(stateStr);
                 eventNode.setPostEventState(state);
                 // State is parsed. Enable state processing.
-                main.options.stateProcessing = true;
+                inference.options.stateProcessing = true;
             }
 
             // We want to add eventNode->eventRelations to allEventRelations
@@ -1196,11 +1416,10 @@ public class TraceParser {
                 relations.addAll(eventRelations);
             }
 
-            eventStringArgs = null;
             return eventNode;
         }
 
-        if (main.options.recoverFromParseErrors) {
+        if (inference.options.recoverFromParseErrors) {
             logger.warning(buildLineErrorLocString(line, fileName, lineNum)
                     + " Failed to parse trace line. Using entire line as type.");
             event = new Event(new StringEventType(line), line, fileName,
@@ -1221,7 +1440,7 @@ public class TraceParser {
                     filter.substitute(new LinkedHashMap<String, String>()));
             return eventNode;
 
-        } else if (main.options.ignoreNonMatchingLines) {
+        } else if (inference.options.ignoreNonMatchingLines) {
             logger.fine(buildLineErrorLocString(line, fileName, lineNum)
                     + " Failed to parse trace line. Ignoring line and continuing.");
             return null;
@@ -1233,10 +1452,10 @@ public class TraceParser {
         String loggerError = exceptionError
                 + "\nTry cmd line options:\n\t"
                 + Options.getOptDesc("ignoreNonMatchingLines",
-                        AbstractOptions.plumeOpts.getClass())
+                        inference.options.plumeOpts.getClass())
                 + "\n\t"
                 + Options.getOptDesc("debugParse",
-                        AbstractOptions.plumeOpts.getClass());
+                        inference.options.plumeOpts.getClass());
 
         logger.severe(loggerError);
         ParseException parseException = new ParseException(exceptionError);
@@ -1277,6 +1496,24 @@ public class TraceParser {
         return eventNode;
     }
 
+    /**
+     * Adds eventNode, which was parsed by an earlier run (see TraceCache), to
+     * the partition named pName, with the given trace ID and relations.
+     */
+    void addParsedEventNode(EventNode eventNode, String pName, int traceID,
+            Set<Relation> relations) {
+        ArrayList<EventNode> events = partitions.get(pName);
+        if (events == null) {
+            events = new ArrayList<EventNode>();
+            partitions.put(pName, events);
+            partitionNameToTraceID.put(pName, traceID);
+            nextTraceID = Math.max(nextTraceID, traceID + 1);
+        }
+        eventNode.setTraceID(traceID);
+        events.add(eventNode);
+        allEventRelations.put(eventNode, relations);
+    }
+
     public TraceGraph<?> generateDefaultOrderRelation(List<EventNode> allEvents)
             throws ParseException {
         if (logTimeTypeIsTotallyOrdered()) {
@@ -12,7 +12,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.main.parser.ParseException;
 import synoptic.model.EventNode;
 import synoptic.util.InternalSynopticException;
@@ -118,7 +118,7 @@ public class MultiResourceParser {
         String strLine = null;
 
         String tName = traceName;
-        if (AbstractMain.getInstance().options.internCommonStrings) {
+        if (InferenceContext.getCurrent().options.internCommonStrings) {
             tName = tName.intern();
         }
 
@@ -14,7 +14,7 @@ import java.util.Map;
 import java.util.Set;
 
 import synoptic.algorithms.TransitiveClosure;
-import synoptic.main.options.AbstractOptions;
+import synoptic.main.InferenceContext;
 import synoptic.main.parser.ParseException;
 import synoptic.model.event.Event;
 import synoptic.model.event.StringEventType;
@@ -93,7 +93,8 @@ public class ChainsTraceGraph extends TraceGraph<StringEventType> {
             Map<EventNode, Set<Relation>> eventRelations) throws ParseException {
         assert events.size() > 0;
 
-        if (!AbstractOptions.keepOrder) {
+        if (!InferenceContext.hasCurrent()
+                || !InferenceContext.getCurrent().options.keepOrder) {
             // Sort the events in this group/trace according to the totally
             // order time relation.
             Collections.sort(events, new Comparator<EventNode>() {
@@ -0,0 +1,172 @@
+package synoptic.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import synoptic.algorithms.graphops.PartitionMultiSplit;
+import synoptic.model.event.EventType;
+import synoptic.model.interfaces.IGraph;
+
+/**
+ * <p>
+ * A read-only view of a partition graph as it would look after a partition
+ * multi split is applied to it. The underlying partition graph and its event
+ * nodes are never modified: partitions of the view are detached partitions that
+ * share the event node sets of the underlying partitions, and the partition of
+ * an event node is resolved through the view rather than through the event
+ * node's parent.
+ * </p>
+ * <p>
+ * Because nothing is written to the underlying graph, different views of the
+ * same graph can be model checked concurrently, as long as the underlying graph
+ * is not modified while the views are in use. A single view must only be used
+ * by one thread at a time.
+ * </p>
+ */
+public class CopyOnWritePartitionGraph implements IGraph<Partition> {
+    /** The graph that this is a view of. */
+    private final PartitionGraph base;
+
+    /** The partition of base that is split in this view. */
+    private final Partition splitPartition;
+
+    /** Maps each event node of splitPartition to its new partition. */
+    private final Map<EventNode, Partition> splitEventToPartition = new LinkedHashMap<EventNode, Partition>();
+
+    /** The partitions that replace splitPartition in this view. */
+    private final Set<Partition> splitPieces = new LinkedHashSet<Partition>();
+
+    /**
+     * Detached copies of the remaining partitions of base, created the first
+     * time that they are needed.
+     */
+    private final Map<Partition, Partition> shadows = new LinkedHashMap<Partition, Partition>();
+
+    /** A cache of inter-partition transitions in this view. */
+    private final Map<Partition, Set<Partition>> transitionCache = new LinkedHashMap<Partition, Set<Partition>>();
+
+    /**
+     * A detached partition that resolves the partitions of its successor event
+     * nodes through the view.
+     */
+    private class ViewPartition extends Partition {
+        ViewPartition(Set<EventNode> eNodes, EventType eType) {
+            super(eNodes, eType);
+        }
+
+        @Override
+        protected Partition partitionOf(EventNode eNode) {
+            return resolve(eNode);
+        }
+    }
+
+    /**
+     * Creates a view of base in which split has been applied.
+     * 
+     * @param base
+     *            the partition graph to create a view of
+     * @param split
+     *            the split to apply in the view
+     */
+    public CopyOnWritePartitionGraph(PartitionGraph base,
+            PartitionMultiSplit split) {
+        this.base = base;
+        this.splitPartition = split.getPartition();
+
+        List<Set<EventNode>> partitioning = split.getPartitioning();
+        for (Set<EventNode> eNodes : partitioning) {
+            Partition piece = new ViewPartition(eNodes,
+                    splitPartition.getEType());
+            splitPieces.add(piece);
+            for (EventNode e : eNodes) {
+                splitEventToPartition.put(e, piece);
+            }
+        }
+    }
+
+    /**
+     * Returns the partition of this view that contains eNode.
+     */
+    public Partition resolve(EventNode eNode) {
+        Partition parent = eNode.getParent();
+        if (parent == splitPartition) {
+            return splitEventToPartition.get(eNode);
+        }
+        return shadowOf(parent);
+    }
+
+    /**
+     * Returns the partition of this view that corresponds to the partition p
+     * of the underlying graph. If p is the partition that is split in this
+     * view, then the piece that contains the first event of p is returned.
+     */
+    public Partition shadowOf(Partition p) {
+        if (p == splitPartition) {
+            return resolve(p.getEventNodes().iterator().next());
+        }
+        Partition shadow = shadows.get(p);
+        if (shadow == null) {
+            shadow = new ViewPartition(p.getEventNodes(), p.getEType());
+            shadows.put(p, shadow);
+        }
+        return shadow;
+    }
+
+    /**
+     * Returns the partitions of this view that correspond to the partition p
+     * of the underlying graph: the pieces of p if p is split in this view, and
+     * otherwise the single partition that corresponds to p.
+     */
+    public Set<Partition> piecesOf(Partition p) {
+        if (p == splitPartition) {
+            return Collections.unmodifiableSet(splitPieces);
+        }
+        return Collections.singleton(shadowOf(p));
+    }
+
+    @Override
+    public Set<Partition> getNodes() {
+        Set<Partition> nodes = new LinkedHashSet<Partition>();
+        for (Partition p : base.getNodes()) {
+            if (p == splitPartition) {
+                nodes.addAll(splitPieces);
+            } else {
+                nodes.add(shadowOf(p));
+            }
+        }
+        return nodes;
+    }
+
+    @Override
+    public Set<String> getRelations() {
+        return base.getRelations();
+    }
+
+    @Override
+    public Partition getDummyInitialNode() {
+        return shadowOf(base.getDummyInitialNode());
+    }
+
+    @Override
+    public Set<Partition> getAdjacentNodes(Partition node) {
+        Set<Partition> adjPartitions = transitionCache.get(node);
+        if (adjPartitions == null) {
+            adjPartitions = node.getAllSuccessors();
+            transitionCache.put(node, adjPartitions);
+        }
+        return adjPartitions;
+    }
+
+    /**
+     * A view cannot be modified.
+     */
+    @Override
+    public void add(Partition node) {
+        throw new UnsupportedOperationException(
+                "Cannot add partitions to a graph view.");
+    }
+}
@@ -1,9 +1,7 @@
 package synoptic.model;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -85,7 +83,8 @@ public class DAGsTraceGraph extends TraceGraph<DistEventType> {
     /**
      * Returns the transitive closure of the DAG trace graph. Computes the
      * transitive closure using Floyd Warshall algorithm (if useFloydWarshall ==
-     * true), otherwise uses the more optimized Goralcikova algorithm.
+     * true), otherwise uses the more optimized Goralcikova algorithm, which
+     * stores the closure of each trace as bitset rows.
      */
     public TransitiveClosure getTransitiveClosure(Set<String> relations,
             boolean useFloydWarshall) {
@@ -98,41 +97,7 @@ public class DAGsTraceGraph extends TraceGraph<DistEventType> {
 
     @Override
     public TransitiveClosure getTransitiveClosure(Set<String> relations) {
-        return getTransitiveClosure(relations, true);
-    }
-
-    /**
-     * This function takes a collection of transitions, and a list of nodes that
-     * are somehow canonically ordered. It returns a list of nodes that the
-     * transitions point to, in an order that is compatible with the canonical
-     * ordering.
-     * 
-     * @param unorderedTrans
-     * @param orderedSuperList
-     * @return
-     */
-    private List<EventNode> getSubSortedList(
-            Collection<? extends ITransition<EventNode>> unorderedTrans,
-            List<EventNode> orderedSuperList) {
-
-        // TODO: this is inefficient because in the worst case it is n^2.
-        // Ideally, this would do the following:
-        // 1. Add all nodes in unordered to subList
-        // 2. Sort subList using a comparator that uses the relative position of
-        // elements in the orderedSuperList for computing the order of elements.
-
-        List<EventNode> subList = new LinkedList<EventNode>();
-        Set<EventNode> unorderedNodes = new LinkedHashSet<EventNode>();
-        for (ITransition<EventNode> trans : unorderedTrans) {
-            unorderedNodes.add(trans.getTarget());
-        }
-
-        for (EventNode n : orderedSuperList) {
-            if (unorderedNodes.contains(n)) {
-                subList.add(n);
-            }
-        }
-        return subList;
+        return getTransitiveClosure(relations, false);
     }
 
     /**
@@ -149,104 +114,18 @@ public class DAGsTraceGraph extends TraceGraph<DistEventType> {
      * Computer Science, 1986, Volume 226/1986, 376-386,
      * DOI: 10.1007/3-540-16761-7_87
      * </pre>
+     * 
+     * Each DAG (PO trace) is processed separately: its nodes are numbered in a
+     * topological order, and TransitiveClosure.addTrace builds the reachable
+     * sets as bitset rows over these numbers, in reverse topological order.
      */
-    @SuppressWarnings("unused")
     private TransitiveClosure goralcikovaAlg(Set<String> relations) {
         TransitiveClosure transClosure = new TransitiveClosure(relations);
-        Map<EventNode, Set<EventNode>> tc = transClosure.getTC();
-
-        List<EventNode> sortedNodes = new LinkedList<EventNode>();
-
-        // Maps a node to its parents in the transitive closure. This map is
-        // cleared whenever we start processing a new DAG/Chain (a new PO/TO
-        // trace).
-        HashMap<EventNode, HashSet<EventNode>> tcParents = new HashMap<EventNode, HashSet<EventNode>>();
-
-        Set<EventNode> bfsPerimeter = new LinkedHashSet<EventNode>();
-        List<EventNode> topoOrder;
-        List<EventNode> reverseTopoOrder = new LinkedList<EventNode>();
-
-        // Maps a node to a set of parent nodes -- nodes that have a transitions
-        // to this node.
-        Map<EventNode, Set<EventNode>> parentsMap = new LinkedHashMap<EventNode, Set<EventNode>>();
-
-        // Maps a node in the topological order to its position in the order.
-        Map<EventNode, Integer> orderMap = new LinkedHashMap<EventNode, Integer>();
-
-        List<EventNode> subSortedList;
 
         // Process each DAG separately.
         for (Set<EventNode> dagInits : traceIdToInitNodes.values()) {
-
-            // 1. Get the nodes sorted in some topological order.
-            topoOrder = computeTopologicalOrder(dagInits, relations);
-
-            // TODO: Potential optimization
-            // 2. Build the order map -- this maps a node from the topological
-            // order to its position in the order. We use this map to derive
-            // sublists that are sorted from sets of nodes (that are not
-            // necessarily contiguous in the order).
-            // int counter = 0;
-            // for (EventNode n : topoOrder) {
-            // orderMap.put(n, counter);
-            // counter++;
-            // }
-
-            // 2. Construct the implicit reverse graph -- the graph that is
-            // formed by reversing all the edges (by constructing the
-            // parentsMap).
-            bfsPerimeter.addAll(dagInits);
-            while (bfsPerimeter.size() != 0) {
-                for (EventNode m : bfsPerimeter) {
-                    addToBFSPerimeter(bfsPerimeter, m, null, parentsMap,
-                            relations);
-                    bfsPerimeter.remove(m);
-                    break;
-                }
-            }
-            bfsPerimeter.clear();
-
-            // 3. Traverse the reverse graph from the terminal nodes, building
-            // up the transitive relation for a node in an order specified by
-            // the REVERSE topological order of the node's children (see paper
-            // for more details).
-
-            // TODO: figure out how topoOrder.retainAll() works -- what does
-            // retainAll mean for a List?
-
-            reverseTopoOrder.addAll(topoOrder);
-            Collections.reverse(reverseTopoOrder);
-
-            for (EventNode m : reverseTopoOrder) {
-                // logger.fine("tc map is: " + tc.toString());
-                // logger.fine("Handling node " + m.toString());
-
-                // Retrieve a sorted list of m's children based on the topoOrder
-                // that was computed earlier for all the nodes in the graph.
-                subSortedList = getSubSortedList(
-                        m.getTransitionsWithExactRelations(relations),
-                        topoOrder);
-
-                for (EventNode child : subSortedList) {
-                    if (!transClosure.isReachable(m, child)) {
-                        // NOTE: addReachable is necessary before
-                        // mergeReachables because the set of reachable nodes
-                        // corresponding to m does not exist initially and
-                        // mergeReachables does not check for existence of this
-                        // set (should it?)
-                        transClosure.recordTransitiveReachability(m, child);
-                        transClosure.mergeReachables(child, m);
-                    }
-                }
-            }
-            // We do not need the following information between different
-            // traces:
-            tcParents.clear();
-            parentsMap.clear();
-            reverseTopoOrder.clear();
-            topoOrder.clear();
+            transClosure.addTrace(dagInits, relations);
         }
-        // logger.fine("FINAL tc map is: " + tc.toString());
         return transClosure;
     }
 
@@ -9,7 +9,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.model.event.DistEventType;
 import synoptic.model.event.Event;
 import synoptic.model.event.EventType;
@@ -268,7 +268,7 @@ public class EventNode implements INode<EventNode> {
 		}
 
 		EventNode dest = transition.getTarget();
-		if (AbstractMain.getInstance().options.usePerformanceInfo) {
+		if (InferenceContext.getCurrent().options.usePerformanceInfo) {
 			if (dest.getTime() != null) {
 				AbstractResource delta = dest.getTime().computeDelta(this.getTime());
 				transition.setTimeDelta(delta);
@@ -14,7 +14,7 @@ import java.util.Set;
 import daikonizer.DaikonInvariants;
 
 import synoptic.algorithms.graphops.PartitionSplit;
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.model.event.EventType;
 import synoptic.model.interfaces.INode;
 import synoptic.model.interfaces.ITransition;
@@ -22,6 +22,7 @@ import synoptic.model.state.State;
 import synoptic.model.state.SynDaikonizer;
 import synoptic.util.NotImplementedException;
 import synoptic.util.resource.AbstractResource;
+import synoptic.util.resource.ResourceSeries;
 
 /**
  * Implements a partition in a partition graph. Partitions are nodes, but they
@@ -62,6 +63,31 @@ public class Partition implements INode<Partition> {
      */
     private final List<Transition<Partition>> cachedTransitionsWithInvs;
 
+    /**
+     * Cached outgoing transitions of this partition (with time deltas), or
+     * null if they have not been generated since the events of this partition,
+     * or of a partition that one of these transitions targets, last changed.
+     */
+    private List<Transition<Partition>> cachedTransitions = null;
+
+    /**
+     * Whether or not the probabilities and counts of cachedTransitions have
+     * been set.
+     */
+    private boolean cachedTransitionsWeighted = false;
+
+    /**
+     * Cached outgoing transitions of this partition, indexed by the (exact)
+     * set of relations of the transitions.
+     */
+    private final Map<Set<String>, List<Transition<Partition>>> cachedTransitionsByRelations = new HashMap<Set<String>, List<Transition<Partition>>>();
+
+    /**
+     * Partitions that have cached transitions into this partition. Their
+     * caches become stale when the events of this partition change.
+     */
+    private final Set<Partition> dependentPartitions = new HashSet<Partition>();
+
     /**
      * Creates a new partition that will contain a set of event nodes.
      * 
@@ -85,6 +111,25 @@ public class Partition implements INode<Partition> {
         cachedTransitionsWithInvs = new ArrayList<Transition<Partition>>();
     }
 
+    /**
+     * Creates a detached partition that shares (and does not copy) the set of
+     * event nodes eNodes, and that does not become the parent of these event
+     * nodes. Used by graph views that must represent a partitioning without
+     * modifying the event nodes of the underlying partition graph.
+     * 
+     * @param eNodes
+     *            event nodes of the partition, which must all be of type eType
+     * @param eType
+     *            the event type of the partition
+     */
+    Partition(Set<EventNode> eNodes, EventType eType) {
+        assert eNodes.size() > 0;
+        events = eNodes;
+        this.eType = eType;
+        initialized = true;
+        cachedTransitionsWithInvs = new ArrayList<Transition<Partition>>();
+    }
+
     public void initialize(EventNode eNode) {
         eType = eNode.getEType();
         initialized = true;
@@ -102,6 +147,7 @@ public class Partition implements INode<Partition> {
             initialize(eNodes.iterator().next());
         }
 
+        invalidateTransitionCache();
         events.addAll(eNodes);
         for (final EventNode e : eNodes) {
             e.setParent(this);
@@ -111,6 +157,99 @@ public class Partition implements INode<Partition> {
         }
     }
 
+    /**
+     * Moves all of the event nodes of other, which must be of the same type,
+     * into this partition, as when other is merged into this partition. Rather
+     * than dropping the cached transitions of the two partitions and of the
+     * partitions with transitions into them, combines the cached transitions
+     * that become one: their time delta series are merged with
+     * ResourceSeries.addAll, which takes time proportional to the sketch size
+     * for sketched series.
+     * 
+     * @param other
+     *            the partition to merge into this one, which is left empty
+     */
+    public void mergeEventNodes(Partition other) {
+        assert other != this;
+        assert eType.equals(other.eType);
+
+        // Outgoing transitions of the merged partition.
+        List<Transition<Partition>> outgoing = null;
+        if (cachedTransitions != null && other.cachedTransitions != null) {
+            Map<Partition, Transition<Partition>> merged = new LinkedHashMap<Partition, Transition<Partition>>();
+            mergeTransitionsInto(merged, this, cachedTransitions, other);
+            mergeTransitionsInto(merged, this, other.cachedTransitions, other);
+            outgoing = new ArrayList<Transition<Partition>>(merged.values());
+        }
+
+        // Transitions of other partitions into the merged partition. Detached
+        // partitions of graph views resolve targets on their own, so their
+        // caches are dropped rather than merged.
+        Set<Partition> dependents = new LinkedHashSet<Partition>(
+                dependentPartitions);
+        dependents.addAll(other.dependentPartitions);
+        dependents.remove(this);
+        dependents.remove(other);
+        Map<Partition, List<Transition<Partition>>> incoming = new LinkedHashMap<Partition, List<Transition<Partition>>>();
+        for (Partition p : dependents) {
+            if (p.getClass() == Partition.class && p.cachedTransitions != null) {
+                Map<Partition, Transition<Partition>> merged = new LinkedHashMap<Partition, Transition<Partition>>();
+                mergeTransitionsInto(merged, p, p.cachedTransitions, other);
+                incoming.put(p,
+                        new ArrayList<Transition<Partition>>(merged.values()));
+            }
+        }
+
+        // Moving the events drops all of the above caches.
+        addEventNodes(other.getEventNodes());
+        other.removeAllEventNodes();
+
+        for (Map.Entry<Partition, List<Transition<Partition>>> entry : incoming
+                .entrySet()) {
+            entry.getKey().setCachedTransitions(entry.getValue());
+        }
+        if (outgoing != null) {
+            setCachedTransitions(outgoing);
+        }
+    }
+
+    /**
+     * Adds transitions, which are cached transitions of source, to merged, as
+     * the transitions that source has once other is merged into this
+     * partition: transitions into other become transitions into this
+     * partition, and transitions with the same target are combined into one,
+     * with the time deltas of both.
+     */
+    private void mergeTransitionsInto(
+            Map<Partition, Transition<Partition>> merged, Partition source,
+            List<Transition<Partition>> transitions, Partition other) {
+        for (Transition<Partition> tr : transitions) {
+            Partition target = tr.getTarget() == other ? this : tr.getTarget();
+            Transition<Partition> tx = merged.get(target);
+            if (tx == null) {
+                tx = new Transition<Partition>(source, target,
+                        tr.getRelation());
+                merged.put(target, tx);
+            }
+            ResourceSeries<AbstractResource> deltas = tr.getLabels()
+                    .getTimeDeltaSeries();
+            if (deltas != null) {
+                tx.getDeltaSeries().addAll(deltas);
+            }
+        }
+    }
+
+    /**
+     * Caches transitions as the outgoing transitions of this partition, and
+     * registers this partition as a dependent of their targets.
+     */
+    private void setCachedTransitions(List<Transition<Partition>> transitions) {
+        cachedTransitions = transitions;
+        for (Transition<Partition> tx : transitions) {
+            tx.getTarget().dependentPartitions.add(this);
+        }
+    }
+
     /**
      * Adds a single event node to the current partition.
      * 
@@ -123,6 +262,7 @@ public class Partition implements INode<Partition> {
         } else {
             assert eType.equals(eNode.getEType());
         }
+        invalidateTransitionCache();
         eNode.setParent(this);
         events.add(eNode);
     }
@@ -134,6 +274,19 @@ public class Partition implements INode<Partition> {
         return events;
     }
 
+    /**
+     * Returns the partition that contains eNode, as seen by this partition
+     * when it generates its transitions and successors. This is the parent of
+     * eNode, except for detached partitions that belong to a graph view.
+     * 
+     * @param eNode
+     *            an event node that is a successor of some event in this
+     *            partition
+     */
+    protected Partition partitionOf(EventNode eNode) {
+        return eNode.getParent();
+    }
+
     /**
      * Removes a set of event nodes. NOTE: this method cannot be used to remove
      * all the messages in the partition. For this, use the removeAllMessages()
@@ -142,6 +295,7 @@ public class Partition implements INode<Partition> {
      * @param eventNodes
      */
     public void removeEventNodes(Set<EventNode> eventNodes) {
+        invalidateTransitionCache();
         events.removeAll(eventNodes);
         assert events.size() > 0;
     }
@@ -150,6 +304,7 @@ public class Partition implements INode<Partition> {
      * Removes all the event nodes from this partition.
      */
     public void removeAllEventNodes() {
+        invalidateTransitionCache();
         events.clear();
         initialized = false;
     }
@@ -250,12 +405,12 @@ public class Partition implements INode<Partition> {
      * @param trans
      * @return whether or not event satisfies the conditions above.
      */
-    private static boolean fulfillsStrong(EventNode event,
+    private boolean fulfillsStrong(EventNode event,
             ITransition<Partition> trans) {
 
         for (ITransition<EventNode> t : event.getAllTransitions()) {
             if (t.getRelation().equals(trans.getRelation())
-                    && t.getTarget().getParent().equals(trans.getTarget())) {
+                    && partitionOf(t.getTarget()).equals(trans.getTarget())) {
                 // TODO: Shouldn't this check and return true only if the
                 // condition holds for _all_ transitions t (not just some
                 // transition t) ?
@@ -325,8 +480,11 @@ public class Partition implements INode<Partition> {
 
         List<? extends ITransition<Partition>> transitions = getAllTransitions();
 
-        // TODO: Cache whether or not the fractions/counts have already been set
-        // on the transitions.
+        // The fractions/counts remain set on the cached transitions until the
+        // cache is invalidated.
+        if (cachedTransitionsWeighted) {
+            return transitions;
+        }
 
         if (this.isInitial()) {
             // We handle INITIAL partitions differently because we optimized the
@@ -347,7 +505,7 @@ public class Partition implements INode<Partition> {
             // transitions per (child) partition.
             Map<Partition, Integer> transitionsPerChildPartition = new LinkedHashMap<Partition, Integer>();
             for (EventNode child : children) {
-                Partition childP = child.getParent();
+                Partition childP = partitionOf(child);
                 if (transitionsPerChildPartition.containsKey(childP)) {
                     transitionsPerChildPartition.put(childP,
                             transitionsPerChildPartition.get(childP) + 1);
@@ -388,6 +546,7 @@ public class Partition implements INode<Partition> {
 
             }
         }
+        cachedTransitionsWeighted = true;
         return transitions;
     }
 
@@ -426,7 +585,7 @@ public class Partition implements INode<Partition> {
                     .getTransitionsWithExactRelations(relations)) {
 
                 // This transition's target event is in partition p
-                if (thisEvTrans.getTarget().getParent().equals(p)) {
+                if (partitionOf(thisEvTrans.getTarget()).equals(p)) {
                     evTransitions.add(thisEvTrans);
                 }
             }
@@ -500,27 +659,59 @@ public class Partition implements INode<Partition> {
         return allDeltas;
     }
 
-    private static void updateTransitionDeltas(EventNode srcENode,
-            EventNode targetENode, ITransition<Partition> tx) {
-        if (!AbstractMain.getInstance().options.usePerformanceInfo) {
+    private static void updateTransitionDeltas(
+            ITransition<EventNode> eventTrans, ITransition<Partition> tx) {
+        if (!InferenceContext.getCurrent().options.usePerformanceInfo) {
             return;
         }
-        AbstractResource srcTime = srcENode.getTime();
-        AbstractResource targetTime = targetENode.getTime();
-        if (targetTime != null && srcTime != null) {
-            AbstractResource d = targetTime.computeDelta(srcTime);
-            tx.addTimeDeltaToSeries(d);
+        // Event transitions record their delta when they are created, so
+        // reuse it rather than allocating a new delta. Deltas are always
+        // totally ordered resources (vector times have no deltas), which is
+        // what the series of tx requires.
+        AbstractResource d = eventTrans.getTimeDelta();
+        if (d == null) {
+            AbstractResource srcTime = eventTrans.getSource().getTime();
+            AbstractResource targetTime = eventTrans.getTarget().getTime();
+            if (targetTime == null || srcTime == null) {
+                return;
+            }
+            d = targetTime.computeDelta(srcTime);
         }
+        tx.addTimeDeltaToSeries(d);
     }
 
     @Override
     public List<? extends ITransition<Partition>> getAllTransitions() {
-        // TODO: implement a transition cache optimization.
-        Map<Partition, Transition<Partition>> transitions = new HashMap<Partition, Transition<Partition>>();
+        if (cachedTransitions == null) {
+            cachedTransitions = generateTransitions(null);
+        }
+        // Return a copy, since callers may re-order the list.
+        return new ArrayList<Transition<Partition>>(cachedTransitions);
+    }
+
+    /**
+     * Generates the outgoing transitions of this partition from the
+     * transitions of its events, and registers this partition as a dependent
+     * of the transition targets (so that a change to a target invalidates the
+     * generated transitions once they are cached).
+     * 
+     * @param relations
+     *            only consider event transitions with exactly these relations,
+     *            or all event transitions if null
+     */
+    private List<Transition<Partition>> generateTransitions(
+            Set<String> relations) {
+        Map<Partition, Transition<Partition>> transitions = new LinkedHashMap<Partition, Transition<Partition>>();
 
         for (EventNode e : events) {
-            for (ITransition<EventNode> tr : e.getAllTransitions()) {
-                Partition childP = tr.getTarget().getParent();
+            List<? extends ITransition<EventNode>> eTransitions;
+            if (relations == null) {
+                eTransitions = e.getAllTransitions();
+            } else {
+                eTransitions = e.getTransitionsWithExactRelations(relations);
+            }
+            for (ITransition<EventNode> tr : eTransitions) {
+                Partition childP = partitionOf(tr.getTarget());
                 Transition<Partition> tx;
 
                 // Create the transition if it doesn't exist, or retrieve it if
@@ -531,6 +722,7 @@ public class Partition implements INode<Partition> {
                     tx = new Transition<Partition>(this, childP,
                             tr.getRelation());
                     transitions.put(childP, tx);
+                    childP.dependentPartitions.add(this);
                 }
 
                 // TODO: calling updateTransitionDeltas() is a fragile kind of
@@ -538,14 +730,44 @@ public class Partition implements INode<Partition> {
                 // whenever creating a new ITransition<Partition> instance.
                 // Refactor this into a new kind of Transition constructor? Or a
                 // helper method.
-                updateTransitionDeltas(e, tr.getTarget(), tx);
+                updateTransitionDeltas(tr, tx);
             }
         }
 
-        // Return final list of transitions
-        List<Transition<Partition>> ret = new ArrayList<Transition<Partition>>(
-                transitions.values());
-        return ret;
+        return new ArrayList<Transition<Partition>>(transitions.values());
+    }
+
+    /**
+     * Drops the cached transitions of this partition, as well as the cached
+     * transitions of all partitions that have transitions into this partition.
+     * Must be called before the set of events of this partition changes.
+     */
+    private void invalidateTransitionCache() {
+        clearCachedTransitions();
+        for (Partition p : new ArrayList<Partition>(dependentPartitions)) {
+            p.clearCachedTransitions();
+        }
+        dependentPartitions.clear();
+    }
+
+    /**
+     * Drops the cached transitions of this partition only.
+     */
+    private void clearCachedTransitions() {
+        if (cachedTransitions != null) {
+            for (Transition<Partition> tx : cachedTransitions) {
+                tx.getTarget().dependentPartitions.remove(this);
+            }
+        }
+        for (List<Transition<Partition>> txs : cachedTransitionsByRelations
+                .values()) {
+            for (Transition<Partition> tx : txs) {
+                tx.getTarget().dependentPartitions.remove(this);
+            }
+        }
+        cachedTransitions = null;
+        cachedTransitionsWeighted = false;
+        cachedTransitionsByRelations.clear();
     }
 
     @Override
@@ -553,43 +775,25 @@ public class Partition implements INode<Partition> {
         Set<Partition> successors = new LinkedHashSet<Partition>();
         for (EventNode e : events) {
             for (EventNode eSucc : e.getAllSuccessors()) {
-                successors.add(eSucc.getParent());
+                successors.add(partitionOf(eSucc));
             }
         }
         return successors;
     }
 
-    // TODO: this code is very similar to getAllTransitions(), refactor it.
     @Override
     public List<? extends ITransition<Partition>> getTransitionsWithExactRelations(
             Set<String> relations) {
-
-        Map<Partition, Transition<Partition>> transitions = new HashMap<Partition, Transition<Partition>>();
-
-        for (EventNode e : events) {
-            for (ITransition<EventNode> tr : e
-                    .getTransitionsWithExactRelations(relations)) {
-                Partition childP = tr.getTarget().getParent();
-                Transition<Partition> tx;
-
-                // Create the transition if it doesn't exist, or retrieve it if
-                // it does
-                if (transitions.containsKey(childP)) {
-                    tx = transitions.get(childP);
-                } else {
-                    tx = new Transition<Partition>(this, childP,
-                            tr.getRelation());
-                    transitions.put(childP, tx);
-                }
-
-                updateTransitionDeltas(e, tr.getTarget(), tx);
-            }
+        List<Transition<Partition>> transitions = cachedTransitionsByRelations
+                .get(relations);
+        if (transitions == null) {
+            transitions = generateTransitions(relations);
+            // Copy the key, since the caller may modify relations later.
+            cachedTransitionsByRelations.put(new HashSet<String>(relations),
+                    transitions);
         }
-
-        // Return final list of transitions
-        List<Transition<Partition>> ret = new ArrayList<Transition<Partition>>(
-                transitions.values());
-        return ret;
+        // Return a copy, since callers may re-order the list.
+        return new ArrayList<Transition<Partition>>(transitions);
     }
 
     @Override
@@ -618,7 +822,7 @@ public class Partition implements INode<Partition> {
      */
     @SuppressWarnings("null")
     public List<? extends ITransition<Partition>> getTransitionsWithDaikonInvariants() {
-        assert (AbstractMain.getInstance().options.stateProcessing);
+        assert (InferenceContext.getCurrent().options.stateProcessing);
 
         if (!cachedTransitionsWithInvs.isEmpty() || isTerminal()) {
             return cachedTransitionsWithInvs;
@@ -710,7 +914,7 @@ public class Partition implements INode<Partition> {
         Transition<Partition> tx = new Transition<Partition>(
                 srcNode.getParent(), targetNode.getParent(),
                 eventTrans.getRelation());
-        updateTransitionDeltas(srcNode, targetNode, tx);
+        updateTransitionDeltas(eventTrans, tx);
         // But, tx has no invariants associated with it yet.
         return tx;
     }
@@ -401,6 +401,20 @@ public class PartitionGraph implements IGraph<Partition> {
         partitions.remove(node);
     }
 
+    /**
+     * Orders the partitions of this graph (as returned by getNodes) as in
+     * order, which must contain exactly the partitions of this graph. Used to
+     * restore the order of the partitions after an operation was undone.
+     */
+    public void setNodeOrder(List<Partition> order) {
+        if (order.size() != partitions.size()
+                || !partitions.containsAll(order)) {
+            throw new IllegalArgumentException(
+                    "order does not match the partitions of the graph");
+        }
+        partitions = new LinkedHashSet<Partition>(order);
+    }
+
     /**
      * Check that all partitions are non-empty and disjunct.
      */
@@ -3,6 +3,7 @@ package synoptic.model;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import synoptic.main.InferenceContext;
 import synoptic.model.interfaces.INode;
 import synoptic.model.interfaces.ITransition;
 import synoptic.util.resource.AbstractResource;
@@ -185,8 +186,10 @@ public class Transition<NodeType extends INode<NodeType>> implements ITransition
      */
     private void createSeriesIfEmpty() {
         if (this.labels.getTimeDeltaSeries() == null) {
+            int sketchSize = InferenceContext.hasCurrent() ? InferenceContext
+                    .getCurrent().options.deltaSketchSize : 0;
             this.labels.setLabel(TransitionLabelType.TIME_DELTA_SERIES_LABEL,
-                    new ResourceSeries<AbstractResource>());
+                    new ResourceSeries<AbstractResource>("", sketchSize));
         }
     }
 
@@ -121,6 +121,10 @@ public class DistEventType extends EventType implements IDistEventType {
         if (eType.contains("'"))
             return "Parsed event contains illegal character: '";
 
+        // The fields that are set below change the identity of this event
+        // type.
+        dictionaryId = null;
+
         // Either '?' for receive event or '!' for send event.
         String delim;
 
@@ -321,6 +325,7 @@ public class DistEventType extends EventType implements IDistEventType {
     }
 
     public String setProcessName(String pName) {
+        dictionaryId = null;
         return processName = pName;
     }
 
@@ -329,6 +334,16 @@ public class DistEventType extends EventType implements IDistEventType {
         return eType;
     }
 
+    @Override
+    EventType snapshot() {
+        DistEventType copy = new DistEventType(eType, processName,
+                isInitialEventType, isTerminalEventType);
+        copy.eventCls = eventCls;
+        copy.pid = pid;
+        copy.channelId = channelId;
+        return copy;
+    }
+
     @Override
     public int compareTo(EventType eother) {
         int baseCmp = super.compareTo(eother);
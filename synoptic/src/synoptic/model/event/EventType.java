@@ -29,6 +29,14 @@ public abstract class EventType implements Comparable<EventType> {
      */
     protected final boolean isTerminalEventType;
 
+    /**
+     * The id of this event type in the EventTypeDictionary that last looked it
+     * up, or null if no dictionary has looked it up since this event type was
+     * last modified. Subclasses that can be modified reset this to null on
+     * every modification.
+     */
+    volatile EventTypeDictionary.CachedId dictionaryId = null;
+
     /**
      * Instantiates a new EventType that can be an INITIAL, a TERMINAL, or
      * neither. It cannot be both an INITIAL and a TERMINAL.
@@ -61,6 +69,15 @@ public abstract class EventType implements Comparable<EventType> {
      */
     public abstract String getETypeLabel();
 
+    /**
+     * Returns an event type that is equal to this one and that is never
+     * modified, for use as a key by the EventTypeDictionary. Event types that
+     * cannot be modified return themselves.
+     */
+    EventType snapshot() {
+        return this;
+    }
+
     // //////////////////////
     // These methods implement basic functionality for the two
     // boolean base data members:
@@ -0,0 +1,145 @@
+package synoptic.model.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import synoptic.main.InferenceContext;
+
+/**
+ * <p>
+ * A dictionary that assigns every distinct event type a dense integer id: the
+ * first event type that is registered gets id 0, the next one gets id 1, and
+ * so on. Equal event types always have the same id. Ids can therefore be used
+ * to index arrays (e.g., count matrices or bitset rows) in place of hash maps
+ * that are keyed by event types.
+ * </p>
+ * <p>
+ * Each InferenceContext has its own dictionary, which is returned by
+ * getCurrent(), so ids are only meaningful within one inference and the
+ * dictionary is discarded together with the inference. Code that uses ids
+ * should look up the dictionary once and keep using that instance.
+ * </p>
+ * <p>
+ * The dictionary keys on a snapshot of each registered event type (see
+ * EventType.snapshot()), so modifying an event type after it was registered,
+ * as the parser does with the process names of distributed event types, does
+ * not affect the dictionary: the modified event type is registered anew the
+ * next time its id is looked up. The id of an event type is cached in the
+ * event type instance until the event type is modified, so looking up the id
+ * of a registered event type does not hash it. The parser creates all of its
+ * string event types through getStringEventType, so that events of the same
+ * type share a single instance.
+ * </p>
+ * <p>
+ * The dictionary is thread-safe.
+ * </p>
+ */
+public final class EventTypeDictionary {
+    /**
+     * Dictionary of the threads that have no InferenceContext, i.e., of uses
+     * of the library outside of any inference.
+     */
+    private static final EventTypeDictionary unbound = new EventTypeDictionary();
+
+    /** Maps the snapshot of each registered event type to its id. */
+    private final Map<EventType, Integer> ids = new HashMap<EventType, Integer>();
+
+    /** Snapshots of the registered event types, indexed by id. */
+    private final List<EventType> eTypes = new ArrayList<EventType>();
+
+    /** Canonical string event types, keyed by label. */
+    private final ConcurrentMap<String, StringEventType> stringETypes = new ConcurrentHashMap<String, StringEventType>();
+
+    /**
+     * An id of an event type in a dictionary, as cached in the event type.
+     */
+    static final class CachedId {
+        final EventTypeDictionary dictionary;
+        final int id;
+
+        CachedId(EventTypeDictionary dictionary, int id) {
+            this.dictionary = dictionary;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Creates an empty dictionary. Inferences use the dictionary of their
+     * InferenceContext.
+     */
+    public EventTypeDictionary() {
+        // Fields are initialized above.
+    }
+
+    /**
+     * Returns the dictionary of the current InferenceContext, or a dictionary
+     * shared by all threads without a context if there is none.
+     */
+    public static EventTypeDictionary getCurrent() {
+        if (!InferenceContext.hasCurrent()) {
+            return unbound;
+        }
+        return InferenceContext.getCurrent().getEventTypeDictionary();
+    }
+
+    /**
+     * Returns the id of eType, registering eType if no equal event type has
+     * been registered before.
+     */
+    public int getId(EventType eType) {
+        CachedId cached = eType.dictionaryId;
+        if (cached != null && cached.dictionary == this) {
+            return cached.id;
+        }
+        return register(eType);
+    }
+
+    /**
+     * Returns an event type that is equal to the one that was registered with
+     * the given id when it was registered.
+     */
+    public synchronized EventType getEType(int id) {
+        return eTypes.get(id);
+    }
+
+    /**
+     * Returns the number of registered event types. All ids are smaller than
+     * this number.
+     */
+    public synchronized int size() {
+        return eTypes.size();
+    }
+
+    /**
+     * Returns the canonical (non-INITIAL and non-TERMINAL) string event type
+     * with the given label. The returned event type is registered.
+     */
+    public StringEventType getStringEventType(String label) {
+        StringEventType eType = stringETypes.get(label);
+        if (eType == null) {
+            eType = new StringEventType(label);
+            StringEventType prev = stringETypes.putIfAbsent(label, eType);
+            if (prev != null) {
+                eType = prev;
+            }
+            getId(eType);
+        }
+        return eType;
+    }
+
+    private synchronized int register(EventType eType) {
+        Integer id = ids.get(eType);
+        if (id == null) {
+            EventType snapshot = eType.snapshot();
+            id = eTypes.size();
+            eTypes.add(snapshot);
+            ids.put(snapshot, id);
+        }
+        eType.dictionaryId = new CachedId(this, id);
+        return id;
+    }
+}
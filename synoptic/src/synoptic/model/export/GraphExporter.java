@@ -21,7 +21,7 @@ import java.util.logging.Logger;
 
 import daikonizer.DaikonInvariants;
 
-import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
 import synoptic.main.options.AbstractOptions;
 import synoptic.model.DAGsTraceGraph;
 import synoptic.model.EventNode;
@@ -65,11 +65,12 @@ public class GraphExporter {
                 return dotCommand;
             }
         }
-        if (AbstractOptions.dotExecutablePath == null) {
+        AbstractOptions options = InferenceContext.getCurrent().options;
+        if (options.dotExecutablePath == null) {
             logger.severe("Unable to locate the dot command executable, use cmd line option:\n\t"
-                    + AbstractOptions.plumeOpts.getOptDesc("dotExecutablePath"));
+                    + options.plumeOpts.getOptDesc("dotExecutablePath"));
         }
-        return AbstractOptions.dotExecutablePath;
+        return options.dotExecutablePath;
     }
 
     /**
@@ -154,10 +155,10 @@ public class GraphExporter {
     public static <T extends INode<T>> void exportGraph(Writer writer,
             IGraph<T> graph, boolean outputEdgeLabels) throws IOException {
 
-        AbstractMain main = AbstractMain.getInstance();
+        InferenceContext context = InferenceContext.getCurrent();
         try {
             // Begin graph.
-            writer.write(main.graphExportFormatter.beginGraphString());
+            writer.write(context.graphExportFormatter.beginGraphString());
 
             // ////////////////////////// Write out graph body.
 
@@ -180,8 +181,9 @@ public class GraphExporter {
                 T node = nodesIter.next();
 
                 // On user request, do not show the initial/terminal nodes.
-                if ((!main.options.showInitialNode && node.isInitial())
-                        || (!main.options.showTerminalNode && node.isTerminal())) {
+                if ((!context.options.showInitialNode && node.isInitial())
+                        || (!context.options.showTerminalNode && node
+                                .isTerminal())) {
                     // Remove the node from nodes to export (so that we do not
                     // show the edges corresponding to the nodes).
                     nodesIter.remove();
@@ -189,7 +191,7 @@ public class GraphExporter {
                 }
 
                 // Output the node record -- its id along with its attributes.
-                writer.write(main.graphExportFormatter.nodeToString(nodeCnt,
+                writer.write(context.graphExportFormatter.nodeToString(nodeCnt,
                         node, node.isInitial(), node.isTerminal()));
                 // Remember the identifier assigned to this node (used for
                 // outputting transitions between nodes).
@@ -202,7 +204,8 @@ public class GraphExporter {
             // Export all the edges corresponding to the nodes in the graph.
             for (INode<T> node : nodes) {
                 List<? extends ITransition<T>> transitions;
-                if (main.options.stateProcessing && node instanceof Partition) {
+                if (context.options.stateProcessing
+                        && node instanceof Partition) {
                     // We need to do these castings because INode<T> doesn't
                     // have getTransitionsWithDaikonInvariants method, but
                     // Partition has.
@@ -212,7 +215,7 @@ public class GraphExporter {
                 }
                 // If state processing isn't enabled, then output weights, else
                 // add the edge labels later.
-                else if (outputEdgeLabels && !main.options.stateProcessing) {
+                else if (outputEdgeLabels && !context.options.stateProcessing) {
                     transitions = node.getWeightedTransitions();
                 } else {
                     transitions = node.getAllTransitions();
@@ -242,13 +245,16 @@ public class GraphExporter {
                         // in Java 1.6, see here:
                         // http://bugs.sun.com/view_bug.do?bug_id=6932571
                         assert (((INode<?>) (trans.getSource())) instanceof EventNode);
-                        s = main.graphExportFormatter.edgeToStringWithTraceId(
-                                nodeSrc, nodeDst,
-                                ((EventNode) ((INode<?>) trans.getSource()))
-                                        .getTraceID(), trans.getRelation());
+                        s = context.graphExportFormatter
+                                .edgeToStringWithTraceId(
+                                        nodeSrc,
+                                        nodeDst,
+                                        ((EventNode) ((INode<?>) trans
+                                                .getSource())).getTraceID(),
+                                        trans.getRelation());
                     } else {
                         // Set edge and edge label for Perfume
-                        if (main.options.usePerformanceInfo) {
+                        if (context.options.usePerformanceInfo) {
                             // Calculate the min, max, and median time deltas
                             AbstractResource timeMin = null;
                             AbstractResource timeMax = null;
@@ -258,7 +264,7 @@ public class GraphExporter {
                                 timeMax = trans.getDeltaSeries().computeMax();
 
                                 // Compute median only if requested
-                                if (main.options.showMedian) {
+                                if (context.options.showMedian) {
                                     timeMedian = trans.getDeltaSeries()
                                             .computeMed();
                                 }
@@ -267,7 +273,7 @@ public class GraphExporter {
                             if (outputEdgeLabels) {
                                 // Show both metrics and probabilities on edges
                                 double prob = trans.getProbability();
-                                s = main.graphExportFormatter
+                                s = context.graphExportFormatter
                                         .edgeToStringWithITimesAndProb(nodeSrc,
                                                 nodeDst, timeMin, timeMax,
                                                 timeMedian, prob,
@@ -276,31 +282,31 @@ public class GraphExporter {
 
                             else {
                                 // Show only metrics on edges
-                                s = main.graphExportFormatter
+                                s = context.graphExportFormatter
                                         .edgeToStringWithITimes(nodeSrc,
                                                 nodeDst, timeMin, timeMax,
                                                 timeMedian, trans.getRelation());
                             }
                         } else if (outputEdgeLabels) {
 
-                            if (main.options.stateProcessing) {
+                            if (context.options.stateProcessing) {
                                 // Label Daikon invariants on this transition.
                                 DaikonInvariants daikonInvs = trans.getLabels()
                                         .getDaikonInvariants();
                                 assert (daikonInvs != null);
-                                s = main.graphExportFormatter
+                                s = context.graphExportFormatter
                                         .edgeToStringWithDaikonInvs(nodeSrc,
                                                 nodeDst, daikonInvs,
                                                 trans.getRelation());
 
                             } else {
                                 double prob = trans.getProbability();
-                                s = main.graphExportFormatter
+                                s = context.graphExportFormatter
                                         .edgeToStringWithProb(nodeSrc, nodeDst,
                                                 prob, trans.getRelation());
                             }
                         } else {
-                            s = main.graphExportFormatter
+                            s = context.graphExportFormatter
                                     .edgeToStringWithNoProb(nodeSrc, nodeDst,
                                             trans.getRelation());
                         }
@@ -313,7 +319,7 @@ public class GraphExporter {
             // //////////////////////////
 
             // End graph.
-            writer.write(main.graphExportFormatter.endGraphString());
+            writer.write(context.graphExportFormatter.endGraphString());
 
         } catch (IOException e) {
             throw new RuntimeException(
@@ -51,7 +51,8 @@ public class JsonExporter {
 
     /**
      * Export the JSON object representation of the partition graph pGraph to
-     * the filename specified
+     * the filename specified. Exports are serialized because they share
+     * eventMap, which is cleared after each export.
      * 
      * @param baseFilename
      *            The filename to which the JSON object should be written sans
@@ -59,7 +60,7 @@ public class JsonExporter {
      * @param graph
      *            The partition graph to output
      */
-    public static <T extends INode<T>> void exportJsonObject(
+    public static synchronized <T extends INode<T>> void exportJsonObject(
             String baseFilename, IGraph<T> graph) {
 
         // The graph must be a partition graph
@@ -90,6 +91,8 @@ public class JsonExporter {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            eventMap.clear();
         }
     }
 
@@ -92,9 +92,15 @@ public interface ITransition<NodeType> extends
      * successfully set via the setDelta method.
      * 
      * @param d
-     *            The delta to be added to the series.
+     *            The delta to be added to the series, which must be a totally
+     *            ordered resource (ITotalResource, LTotalResource,
+     *            FTotalResource, or DTotalResource) of the same type as the
+     *            deltas already in the series.
      * @throws IllegalStateException
      *             if called after a single delta has been set.
+     * @throws IllegalArgumentException
+     *             if d is not a totally ordered resource, such as a
+     *             VectorTime.
      */
     void addTimeDeltaToSeries(AbstractResource d);
 
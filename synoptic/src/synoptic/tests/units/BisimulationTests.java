@@ -1,18 +1,37 @@
 package synoptic.tests.units;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import org.junit.Test;
 
 import synoptic.algorithms.Bisimulation;
+import synoptic.algorithms.KTails;
+import synoptic.algorithms.graphops.IOperation;
+import synoptic.algorithms.graphops.PartitionMerge;
+import synoptic.algorithms.graphops.PartitionMultiSplit;
+import synoptic.algorithms.graphops.PartitionSplit;
+import synoptic.invariants.BinaryInvariant;
+import synoptic.invariants.ITemporalInvariant;
 import synoptic.invariants.TemporalInvariantSet;
+import synoptic.invariants.fsmcheck.FsmModelChecker;
+import synoptic.invariants.fsmcheck.IncrementalModelChecker;
 import synoptic.invariants.miners.ChainWalkingTOInvMiner;
 import synoptic.invariants.miners.ITOInvariantMiner;
+import synoptic.main.AbstractMain;
 import synoptic.main.parser.ParseException;
 import synoptic.main.parser.TraceParser;
 import synoptic.model.ChainsTraceGraph;
+import synoptic.model.CopyOnWritePartitionGraph;
 import synoptic.model.EventNode;
 import synoptic.model.Partition;
 import synoptic.model.PartitionGraph;
@@ -86,6 +105,125 @@ public class BisimulationTests extends SynopticTest {
      */
     @Test
     public void splittablePartitionsTest() throws Exception {
+        checkSplittablePartitions();
+    }
+
+    /**
+     * Same as splittablePartitionsTest, but with candidate splits evaluated
+     * concurrently.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void parallelSplittablePartitionsTest() throws Exception {
+        AbstractMain.getInstance().options.parallelRefinement = true;
+        checkSplittablePartitions();
+    }
+
+    /**
+     * Same as splittablePartitionsTest, but with incremental model checking.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void incrementalSplittablePartitionsTest() throws Exception {
+        AbstractMain.getInstance().options.incrementalModelChecking = true;
+        checkSplittablePartitions();
+    }
+
+    /**
+     * Tests that an IncrementalModelChecker finds a counter-example after a
+     * split exactly when a full check of the split graph does.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void incrementalCheckerAfterSplitTest() throws Exception {
+        String[] events = new String[] { "a", "x", "y", "b", "--", "c", "x",
+                "y", "d" };
+        PartitionGraph pGraph = genInitialPartitionGraph(events,
+                genDefParser(), new ChainWalkingTOInvMiner(), false);
+
+        List<IncrementalModelChecker<Partition>> checkers = new ArrayList<IncrementalModelChecker<Partition>>();
+        List<BinaryInvariant> invs = new ArrayList<BinaryInvariant>();
+        for (ITemporalInvariant inv : pGraph.getInvariants()) {
+            invs.add((BinaryInvariant) inv);
+            checkers.add(new IncrementalModelChecker<Partition>(
+                    (BinaryInvariant) inv, pGraph));
+        }
+        for (int i = 0; i < invs.size(); i++) {
+            assertEquals(
+                    FsmModelChecker.getCounterExample(invs.get(i), pGraph) == null,
+                    checkers.get(i).getCounterExample() == null);
+        }
+
+        // Split x, and then y, by trace.
+        for (String label : new String[] { "x", "y" }) {
+            Partition part = null;
+            for (Partition p : pGraph.getNodes()) {
+                if (p.getEType().getETypeLabel().equals(label)) {
+                    part = p;
+                }
+            }
+            PartitionSplit split = new PartitionSplit(part);
+            split.addEventToSplit(part.getEventNodes().iterator().next());
+            pGraph.apply(split);
+
+            for (int i = 0; i < invs.size(); i++) {
+                checkers.get(i).nodesChanged(Collections.singleton(part));
+                assertEquals(FsmModelChecker.getCounterExample(invs.get(i),
+                        pGraph) == null,
+                        checkers.get(i).getCounterExample() == null);
+            }
+        }
+    }
+
+    /**
+     * Tests that a CopyOnWritePartitionGraph reflects a split without
+     * modifying the underlying partition graph.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void copyOnWriteViewTest() throws Exception {
+        String[] events = new String[] { "a", "x", "b", "--", "c", "x", "d" };
+        PartitionGraph pGraph = genInitialPartitionGraph(events, genDefParser(),
+                new ChainWalkingTOInvMiner(), false);
+        int numPartitions = pGraph.getNodes().size();
+
+        Partition xPart = null;
+        for (Partition p : pGraph.getNodes()) {
+            if (p.getEType().getETypeLabel().equals("x")) {
+                xPart = p;
+            }
+        }
+        assertTrue(xPart != null && xPart.getEventNodes().size() == 2);
+        Set<Partition> xSuccessors = pGraph.getAdjacentNodes(xPart);
+
+        // Split off the first x event.
+        PartitionSplit split = new PartitionSplit(xPart);
+        EventNode firstX = xPart.getEventNodes().iterator().next();
+        split.addEventToSplit(firstX);
+        CopyOnWritePartitionGraph view = new CopyOnWritePartitionGraph(pGraph,
+                new PartitionMultiSplit(split));
+
+        // The view has one more partition, and each x piece has a single
+        // successor.
+        assertEquals(numPartitions + 1, view.getNodes().size());
+        Partition firstXPiece = view.resolve(firstX);
+        assertEquals(1, firstXPiece.getEventNodes().size());
+        assertEquals(1, view.getAdjacentNodes(firstXPiece).size());
+        assertTrue(view.getNodes().containsAll(
+                view.getAdjacentNodes(firstXPiece)));
+
+        // The underlying graph is unchanged.
+        assertEquals(numPartitions, pGraph.getNodes().size());
+        assertEquals(2, xPart.getEventNodes().size());
+        assertTrue(firstX.getParent() == xPart);
+        assertEquals(xSuccessors, pGraph.getAdjacentNodes(xPart));
+    }
+
+    private void checkSplittablePartitions() throws Exception {
         String[] traceStrArray = new String[] { "a", "x", "y", "z", "b", "--",
                 "c", "x", "y", "z", "d" };
         String traceStr = concatinateWithNewlines(traceStrArray);
@@ -162,8 +300,141 @@ public class BisimulationTests extends SynopticTest {
     // assertTrue(KTails.kEquals(initial1, initial2, 4, false));
     // }
 
-    // TODO: test mergePartitions on graphs where merging is possible.
+    /**
+     * Returns a partition graph for events in which every event is in its own
+     * partition, along with the invariants mined from events.
+     */
+    private PartitionGraph genSeparatePartitionGraph(String[] events)
+            throws Exception {
+        ChainsTraceGraph inputGraph = (ChainsTraceGraph) genChainsTraceGraph(
+                events, genDefParser());
+        ITOInvariantMiner miner = new ChainWalkingTOInvMiner();
+        return new PartitionGraph(inputGraph, false, miner.computeInvariants(
+                inputGraph, false, false));
+    }
+
+    /**
+     * Tests mergePartitions on a graph where all partitions of the same type
+     * can be merged.
+     */
+    @Test
+    public void mergePartitionsTest() throws Exception {
+        String[] events = new String[] { "a", "b", "--", "a", "b", "--", "a",
+                "b" };
+        PartitionGraph pGraph = genSeparatePartitionGraph(events);
+        // INITIAL, TERMINAL, and three a and three b partitions.
+        assertEquals(8, pGraph.getNodes().size());
+
+        Bisimulation.mergePartitions(pGraph);
+
+        // INITIAL, TERMINAL, a, and b.
+        assertEquals(4, pGraph.getNodes().size());
+        assertTrue(pGraph.getInvariants().getFirstCounterExample(pGraph) == null);
+    }
+
+    /**
+     * Tests that mergePartitions does not merge k-equivalent partitions when
+     * the merge would violate an invariant.
+     */
+    @Test
+    public void mergePartitionsPreservesInvariantsTest() throws Exception {
+        // Merging the two a partitions would introduce the path c->a->b,
+        // which violates c AFby d.
+        String[] events = new String[] { "a", "b", "--", "c", "a", "d" };
+        PartitionGraph pGraph = genSeparatePartitionGraph(events);
+        assertEquals(7, pGraph.getNodes().size());
+
+        Bisimulation.mergePartitions(pGraph);
+
+        assertEquals(7, pGraph.getNodes().size());
+        assertTrue(pGraph.getInvariants().getFirstCounterExample(pGraph) == null);
+    }
+
+    /**
+     * Coarsens pGraph by trying all pairs of partitions one at a time, which
+     * is the reference for the merges that mergePartitions performs.
+     */
+    private static void mergePartitionsPairwise(PartitionGraph pGraph) {
+        TemporalInvariantSet invariants = pGraph.getInvariants();
+        Map<Partition, Set<Partition>> blacklist = new LinkedHashMap<Partition, Set<Partition>>();
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            List<Partition> partitions = new ArrayList<Partition>(
+                    pGraph.getNodes());
+            search: for (Partition p : partitions) {
+                for (Partition q : partitions) {
+                    if (p == q || !KTails.kEquals(p, q, 1)
+                            || (blacklist.containsKey(p) && blacklist.get(p)
+                                    .contains(q))
+                            || (blacklist.containsKey(q) && blacklist.get(q)
+                                    .contains(p))) {
+                        continue;
+                    }
+                    IOperation rewind = pGraph.apply(new PartitionMerge(p, q));
+                    if (invariants.getFirstCounterExample(pGraph) == null) {
+                        merged = true;
+                        break search;
+                    }
+                    pGraph.apply(rewind);
+                    if (!blacklist.containsKey(p)) {
+                        blacklist.put(p, new LinkedHashSet<Partition>());
+                    }
+                    blacklist.get(p).add(q);
+                }
+            }
+        }
+    }
 
-    // TODO: test mergePartitions with invariant preservation.
+    /**
+     * Returns the partitions of pGraph as sorted lists of the trace ids and
+     * line numbers of their events.
+     */
+    private static List<String> getPartitioning(PartitionGraph pGraph) {
+        List<String> partitioning = new ArrayList<String>();
+        for (Partition p : pGraph.getNodes()) {
+            List<String> events = new ArrayList<String>();
+            for (EventNode e : p.getEventNodes()) {
+                events.add(e.getEType() + "@" + e.getTraceID() + ":"
+                        + e.getLineNum());
+            }
+            Collections.sort(events);
+            partitioning.add(events.toString());
+        }
+        Collections.sort(partitioning);
+        return partitioning;
+    }
+
+    /**
+     * Tests that mergePartitions performs the same merges as trying all pairs
+     * of partitions one at a time, on random logs.
+     */
+    @Test
+    public void mergePartitionsMatchesPairwiseMergesTest() throws Exception {
+        Random random = new Random(2);
+        String[] eTypes = new String[] { "a", "b", "c", "d" };
+        for (int i = 0; i < 100; i++) {
+            List<String> log = new ArrayList<String>();
+            int numTraces = 2 + random.nextInt(5);
+            for (int t = 0; t < numTraces; t++) {
+                if (t > 0) {
+                    log.add("--");
+                }
+                int traceLen = 1 + random.nextInt(8);
+                for (int e = 0; e < traceLen; e++) {
+                    log.add(eTypes[random.nextInt(eTypes.length)]);
+                }
+            }
+            String[] events = log.toArray(new String[log.size()]);
+
+            PartitionGraph expected = genSeparatePartitionGraph(events);
+            mergePartitionsPairwise(expected);
+            PartitionGraph pGraph = genSeparatePartitionGraph(events);
+            Bisimulation.mergePartitions(pGraph);
+
+            assertEquals(log.toString(), getPartitioning(expected),
+                    getPartitioning(pGraph));
+        }
+    }
 
 }
@@ -4,6 +4,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -16,6 +20,7 @@ import synoptic.invariants.constraints.TempConstrainedInvariant;
 import synoptic.invariants.miners.ChainWalkingTOInvMiner;
 import synoptic.invariants.miners.ConstrainedInvMiner;
 import synoptic.invariants.miners.ITOInvariantMiner;
+import synoptic.main.AbstractMain;
 import synoptic.main.parser.ParseException;
 import synoptic.main.parser.TraceParser;
 import synoptic.model.ChainsTraceGraph;
@@ -447,4 +452,39 @@ public class ConstrainedInvMinerTests extends PynopticTest {
 
         assertEquals(aAFbyc_time, aAFbyb_time.incrBy(bAFbyc_time));
     }
+
+    /**
+     * Checks that sweeping the traces of a log with non-monotonic times across
+     * several threads mines the same constrained invariants as sweeping them
+     * serially.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void parallelMiningTest() throws Exception {
+        Random rand = new Random(11);
+        List<String> log = new ArrayList<String>();
+        // Every trace starts with an a and ends with a b, so that a AFby b
+        // and a AP b hold.
+        for (int t = 0; t < 20; t++) {
+            log.add("a " + rand.nextInt(100));
+            for (int i = 0; i < 8; i++) {
+                log.add("ab".charAt(rand.nextInt(2)) + " "
+                        + rand.nextInt(100));
+            }
+            log.add("b " + rand.nextInt(100));
+            log.add("--");
+        }
+        String[] events = log.toArray(new String[log.size()]);
+
+        TemporalInvariantSet serialInvs = genTimeInvariants(events, false,
+                genITimeParser());
+
+        AbstractMain.getInstance().options.parallelMining = true;
+        AbstractMain.getInstance().options.numThreads = 4;
+        TemporalInvariantSet parallelInvs = genTimeInvariants(events, false,
+                genITimeParser());
+
+        assertTrue(serialInvs.sameInvariants(parallelInvs));
+    }
 }
@@ -3,6 +3,7 @@ package synoptic.tests.units;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -11,9 +12,12 @@ import java.util.Set;
 import org.junit.Test;
 
 import synoptic.algorithms.Bisimulation;
+import synoptic.algorithms.graphops.PartitionMultiSplit;
 import synoptic.algorithms.graphops.PartitionSplit;
 import synoptic.invariants.CExamplePath;
+import synoptic.invariants.fsmcheck.FsmModelChecker;
 import synoptic.invariants.fsmcheck.TracingStateSet;
+import synoptic.model.CopyOnWritePartitionGraph;
 import synoptic.model.EventNode;
 import synoptic.model.Partition;
 import synoptic.model.event.Event;
@@ -268,6 +272,61 @@ public class ConstrainedRefinementTests extends PynopticTest {
         getSplitsTestCommon("a AP d lower", TracingSet.APLower);
     }
 
+    /**
+     * Check that localized model checking finds a violation of a constrained
+     * invariant between a and c that is caused by a stitch at b, and that it
+     * finds no such violation in a view of the graph in which b is split.
+     */
+    private void localCheckTestCommon(String invString) throws Exception {
+        String[] events = { "a 0", "b 1", "c 5", "--", "a 10", "b 14", "c 15" };
+
+        graph = genConstrainedPartitionGraph(events, null);
+        inv = getConstrainedInv(graph.getInvariants(), invString);
+        assertTrue(inv != null);
+
+        Partition initPart = graph.getDummyInitialNode();
+        Partition aPart = null;
+        Partition bPart = null;
+        Partition cPart = null;
+        for (Partition part : graph.getNodes()) {
+            EventType evType = part.getEType();
+            if (evType.equals(new StringEventType("a"))) {
+                aPart = part;
+            } else if (evType.equals(new StringEventType("b"))) {
+                bPart = part;
+            } else if (evType.equals(new StringEventType("c"))) {
+                cPart = part;
+            }
+        }
+
+        // Partition graph looks like (INIT -> a -> b -> c -> TERM), and the
+        // stitch at b creates a path from a to c that violates the invariant
+        assertTrue(FsmModelChecker.getLocalCounterExample(inv, graph,
+                Collections.singleton(initPart), Collections.singleton(aPart),
+                Collections.singleton(cPart)) != null);
+
+        // Splitting b by trace removes the stitch
+        PartitionSplit split = new PartitionSplit(bPart);
+        split.addEventToSplit(bPart.getEventNodes().iterator().next());
+        CopyOnWritePartitionGraph view = new CopyOnWritePartitionGraph(graph,
+                new PartitionMultiSplit(split));
+        assertTrue(FsmModelChecker.getLocalCounterExample(inv, view,
+                view.piecesOf(initPart), view.piecesOf(aPart),
+                view.piecesOf(cPart)) == null);
+
+        // The view did not modify the graph
+        assertTrue(bPart.size() == 2);
+    }
+
+    /**
+     * Check localized model checking of AFby and AP upper-bound invariants
+     */
+    @Test
+    public void AFbyAPUpperLocalCheckTest() throws Exception {
+        localCheckTestCommon("a AFby c upper");
+        localCheckTestCommon("a AP c upper");
+    }
+
     /**
      * Check that a complete constrained refinement run splits partitions based
      * on violations of various invariants and that it does not split a
@@ -1,13 +1,18 @@
 package synoptic.tests.units;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
@@ -16,7 +21,10 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
 import synoptic.algorithms.TransitiveClosure;
+import synoptic.model.DAGsTraceGraph;
 import synoptic.model.EventNode;
+import synoptic.model.Transition;
+import synoptic.model.event.Event;
 import synoptic.tests.DAGsTraceGraphBaseTest;
 
 @RunWith(value = Parameterized.class)
@@ -164,4 +172,81 @@ public class DAGsTraceGraphTCTests extends DAGsTraceGraphBaseTest {
         assertTrue(tc2.equals(tc.getTC()));
     }
 
+    /**
+     * Tests the TC of two random DAGs whose sizes are not multiples of the
+     * bitset word size, against a TC that is computed by walking all paths
+     * from every node.
+     */
+    @Test
+    public void randomDAGsTCTest() {
+        Random rand = new Random(42);
+        dag = new DAGsTraceGraph();
+        List<List<EventNode>> traces = new ArrayList<List<EventNode>>();
+        for (int tid = 0; tid < 2; tid++) {
+            List<EventNode> trace = new ArrayList<EventNode>();
+            int size = 130 + 7 * tid;
+            for (int i = 0; i < size; i++) {
+                EventNode node = new EventNode(new Event("e" + (i % 5)));
+                node.setTraceID(tid);
+                trace.add(node);
+                dag.add(node);
+            }
+            // Edges only go forward in the list, and are added in a
+            // shuffled order so that the list is not a discovery order.
+            for (int i = 0; i < size - 1; i++) {
+                int numChildren = i % 17 == 0 ? 0 : 1 + rand.nextInt(2);
+                for (int k = 0; k < numChildren; k++) {
+                    int j = i + 1 + rand.nextInt(Math.min(70, size - i - 1));
+                    EventNode src = trace.get(i);
+                    src.addTransition(new Transition<EventNode>(src, trace
+                            .get(j), "followed by"));
+                }
+            }
+            for (EventNode node : trace) {
+                if (node.getAllSuccessors().isEmpty()) {
+                    dag.tagTerminal(node, "followed by");
+                }
+            }
+            Set<EventNode> hasParent = new HashSet<EventNode>();
+            for (EventNode node : trace) {
+                hasParent.addAll(node.getAllSuccessors());
+            }
+            for (EventNode node : trace) {
+                if (!hasParent.contains(node)) {
+                    dag.tagInitial(node, "followed by");
+                }
+            }
+            traces.add(trace);
+        }
+
+        TransitiveClosure tc = dag.getTransitiveClosure("followed by",
+                useFloysWarshall);
+
+        Map<EventNode, Set<EventNode>> tc2 = new LinkedHashMap<EventNode, Set<EventNode>>();
+        for (List<EventNode> trace : traces) {
+            for (EventNode node : trace) {
+                List<EventNode> stack = new ArrayList<EventNode>();
+                stack.add(node);
+                while (!stack.isEmpty()) {
+                    EventNode cur = stack.remove(stack.size() - 1);
+                    for (EventNode child : cur.getAllSuccessors()) {
+                        if (!child.isTerminal()) {
+                            addToTC(tc2, node, child);
+                            stack.add(child);
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals(tc2, tc.getTC());
+
+        for (EventNode m : traces.get(0)) {
+            assertEquals(tc2.get(m), tc.getReachableNodes(m));
+            for (EventNode n : traces.get(0)) {
+                assertEquals(tc2.containsKey(m) && tc2.get(m).contains(n),
+                        tc.isReachable(m, n));
+            }
+            assertFalse(tc.isReachable(m, traces.get(1).get(0)));
+        }
+    }
 }
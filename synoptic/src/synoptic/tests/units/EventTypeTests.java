@@ -6,6 +6,7 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 import synoptic.model.event.DistEventType;
+import synoptic.model.event.EventTypeDictionary;
 import synoptic.model.event.StringEventType;
 import synoptic.tests.SynopticTest;
 
@@ -175,4 +176,61 @@ public class EventTypeTests extends SynopticTest {
         assertTrue(e1.compareTo(e2) == 0);
         assertTrue(e2.compareTo(e1) == 0);
     }
+
+    /**
+     * Tests that the EventTypeDictionary assigns equal event types the same
+     * id, and different event types different ids.
+     */
+    @Test
+    public void eventTypeDictionaryTest() {
+        EventTypeDictionary dict = new EventTypeDictionary();
+        StringEventType a1 = new StringEventType("dict-a");
+        StringEventType a2 = new StringEventType("dict-a");
+        StringEventType b = new StringEventType("dict-b");
+        StringEventType init = StringEventType.newInitialStringEventType();
+
+        int aId = dict.getId(a1);
+        assertTrue(aId == dict.getId(a2));
+        assertTrue(aId != dict.getId(b));
+        assertTrue(aId != dict.getId(init));
+        assertTrue(aId < dict.size());
+        assertTrue(dict.getEType(aId).equals(a1));
+
+        // Ids of distributed event types are disjoint from string ones.
+        assertTrue(aId != dict.getId(new DistEventType("dict-a", "0")));
+
+        // The canonical string event type is a single shared instance.
+        StringEventType a3 = dict.getStringEventType("dict-a");
+        assertTrue(a3 == dict.getStringEventType("dict-a"));
+        assertTrue(a3.equals(a1));
+        assertTrue(aId == dict.getId(a3));
+
+        // Ids are per dictionary.
+        EventTypeDictionary other = new EventTypeDictionary();
+        assertTrue(other.getId(b) == 0);
+        assertTrue(other.getStringEventType("dict-a") != a3);
+        assertTrue(dict.getId(b) == 1);
+    }
+
+    /**
+     * Tests that modifying a registered DistEventType neither changes the
+     * event type that the dictionary registered, nor leaves the modified
+     * event type with its old id.
+     */
+    @Test
+    public void eventTypeDictionaryModifiedTypeTest() {
+        EventTypeDictionary dict = new EventTypeDictionary();
+        DistEventType e = new DistEventType("dict-e");
+        int unsetId = dict.getId(e);
+
+        e.setProcessName("0");
+        int setId = dict.getId(e);
+        assertTrue(setId != unsetId);
+        assertTrue(dict.getEType(unsetId).equals(new DistEventType("dict-e")));
+        assertTrue(dict.getEType(setId).equals(
+                new DistEventType("dict-e", "0")));
+        assertTrue(unsetId == dict.getId(new DistEventType("dict-e")));
+        assertTrue(setId == dict.getId(new DistEventType("dict-e", "0")));
+        assertTrue(dict.size() == 2);
+    }
 }
@@ -0,0 +1,96 @@
+package synoptic.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import synoptic.invariants.ITemporalInvariant;
+import synoptic.invariants.TemporalInvariantSet;
+import synoptic.invariants.miners.ChainWalkingTOInvMiner;
+import synoptic.invariants.miners.IncrementalTOInvMiner;
+import synoptic.invariants.miners.IncrementalTOInvMiner.InvariantDelta;
+import synoptic.main.parser.TraceParser;
+import synoptic.model.ChainsTraceGraph;
+import synoptic.model.EventNode;
+import synoptic.tests.SynopticTest;
+
+/**
+ * Tests for the IncrementalTOInvMiner class.
+ */
+public class IncrementalTOInvMinerTests extends SynopticTest {
+
+    /** Batches of complete traces, in the order they are appended. */
+    private static final String[] batches = { "a\nb\nc\n--\na\nc\nb\n",
+            "a\nb\nb\nc\n", "a\nb\nc\n--\na\nd\n", "d\nd\n--\na\nc\n" };
+
+    private static ChainsTraceGraph parse(String log) throws Exception {
+        TraceParser parser = genDefParser();
+        return parser.generateDirectTORelation(parser.parseTraceString(log,
+                "test", -1));
+    }
+
+    private static Set<ITemporalInvariant> difference(
+            TemporalInvariantSet a, TemporalInvariantSet b) {
+        Set<ITemporalInvariant> diff = new HashSet<ITemporalInvariant>(
+                a.getSet());
+        diff.removeAll(b.getSet());
+        return diff;
+    }
+
+    /**
+     * Adds the batches one at a time and checks that, after every batch, the
+     * incrementally mined invariants are those that ChainWalkingTOInvMiner
+     * mines from all the traces so far, and that the reported delta is the
+     * difference between the invariants before and after the batch.
+     */
+    @Test
+    public void matchesBatchMiningTest() throws Exception {
+        IncrementalTOInvMiner incMiner = new IncrementalTOInvMiner();
+        ChainWalkingTOInvMiner batchMiner = new ChainWalkingTOInvMiner();
+
+        TemporalInvariantSet prevInvs = new TemporalInvariantSet();
+        String log = "";
+        int numTraces = 0;
+        for (String batch : batches) {
+            log = log.isEmpty() ? batch : log + "--\n" + batch;
+            ChainsTraceGraph batchGraph = parse(batch);
+            numTraces += batchGraph.getNumTraces();
+
+            InvariantDelta delta = incMiner.addTraces(batchGraph);
+            TemporalInvariantSet invs = batchMiner.computeInvariants(
+                    parse(log), false, false);
+
+            assertTrue(invs.sameInvariants(incMiner.getInvariants()));
+            assertEquals(difference(invs, prevInvs), delta.getGained()
+                    .getSet());
+            assertEquals(difference(prevInvs, invs), delta.getLost()
+                    .getSet());
+            assertEquals(numTraces, incMiner.getNumTraces());
+            prevInvs = invs;
+        }
+    }
+
+    /**
+     * Checks that a batch that does not change the invariants has an empty
+     * delta, and that a batch with a new event type gains and loses
+     * invariants.
+     */
+    @Test
+    public void deltaTest() throws Exception {
+        IncrementalTOInvMiner miner = new IncrementalTOInvMiner();
+        InvariantDelta delta = miner.addTraces(parse("a\nb\n--\na\nb\nb\n"));
+        assertFalse(delta.isEmpty());
+        assertEquals(0, delta.getLost().numInvariants());
+
+        assertTrue(miner.addTraces(parse("a\nb\n")).isEmpty());
+
+        delta = miner.addTraces(parse("a\nc\n"));
+        assertTrue(delta.getGained().numInvariants() > 0);
+        assertTrue(delta.getLost().numInvariants() > 0);
+    }
+}
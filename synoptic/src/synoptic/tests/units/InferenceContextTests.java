@@ -0,0 +1,223 @@
+package synoptic.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import synoptic.algorithms.Bisimulation;
+import synoptic.invariants.TemporalInvariantSet;
+import synoptic.invariants.miners.ChainWalkingTOInvMiner;
+import synoptic.main.AbstractMain;
+import synoptic.main.InferenceContext;
+import synoptic.main.options.AbstractOptions;
+import synoptic.main.options.SynopticOptions;
+import synoptic.main.parser.ParseException;
+import synoptic.main.parser.TraceParser;
+import synoptic.model.ChainsTraceGraph;
+import synoptic.model.EventNode;
+import synoptic.model.Partition;
+import synoptic.model.PartitionGraph;
+import synoptic.model.event.EventTypeDictionary;
+import synoptic.model.interfaces.ITransition;
+import synoptic.tests.SynopticTest;
+import synoptic.util.WorkerPool;
+
+/**
+ * Tests for running inferences within explicit inference contexts.
+ */
+public class InferenceContextTests extends SynopticTest {
+
+    private static final String log = "a\nb\nc\n--\na\nc\nb\n--\na\nb\nb\nc\n";
+
+    private static InferenceContext newContext() {
+        return new InferenceContext(new SynopticOptions().toAbstractOptions());
+    }
+
+    /**
+     * Checks that call() binds the context only for the duration of the call,
+     * and that worker pool tasks run within the context of their submitter.
+     */
+    @Test
+    public void callBindsContextTest() throws Exception {
+        final InferenceContext outer = newContext();
+        final InferenceContext inner = newContext();
+        assertSame(AbstractMain.instance, InferenceContext.getCurrent());
+
+        outer.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                assertSame(outer, InferenceContext.getCurrent());
+                inner.call(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        assertSame(inner, InferenceContext.getCurrent());
+                        return null;
+                    }
+                });
+                assertSame(outer, InferenceContext.getCurrent());
+
+                List<Callable<InferenceContext>> tasks = new ArrayList<Callable<InferenceContext>>();
+                for (int i = 0; i < 8; i++) {
+                    tasks.add(new Callable<InferenceContext>() {
+                        @Override
+                        public InferenceContext call() {
+                            return InferenceContext.getCurrent();
+                        }
+                    });
+                }
+                for (InferenceContext context : WorkerPool.invokeAll(tasks)) {
+                    assertSame(outer, context);
+                }
+                return null;
+            }
+        });
+
+        assertSame(AbstractMain.instance, InferenceContext.getCurrent());
+    }
+
+    /**
+     * Checks that the worker pool of each context has the number of threads
+     * that the context's numThreads option asks for.
+     */
+    @Test
+    public void poolSizeTest() throws Exception {
+        for (final int numThreads : new int[] { 2, 3, 2 }) {
+            InferenceContext context = newContext();
+            context.options.numThreads = numThreads;
+            context.call(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    assertEquals(numThreads, WorkerPool.getNumThreads());
+                    assertEquals(numThreads, WorkerPool.getPool()
+                            .getParallelism());
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks that each context has its own event type dictionary, and that
+     * parsing within a context registers the event types in that dictionary.
+     */
+    @Test
+    public void eventTypeDictionaryTest() throws Exception {
+        final InferenceContext context = newContext();
+        EventTypeDictionary dict = context.call(
+                new Callable<EventTypeDictionary>() {
+                    @Override
+                    public EventTypeDictionary call() throws Exception {
+                        assertSame(context.getEventTypeDictionary(),
+                                EventTypeDictionary.getCurrent());
+                        genDefParser().parseTraceString("ctx-a\nctx-b\n",
+                                "test", -1);
+                        return EventTypeDictionary.getCurrent();
+                    }
+                });
+        assertEquals(2, dict.size());
+        assertNotSame(dict, newContext().getEventTypeDictionary());
+        assertSame(AbstractMain.instance.getEventTypeDictionary(),
+                EventTypeDictionary.getCurrent());
+    }
+
+    /**
+     * Checks that the library reads the options of the bound context rather
+     * than those of the AbstractMain singleton.
+     */
+    @Test
+    public void contextOptionsTest() throws Exception {
+        AbstractMain.getInstance().options.ignoreNonMatchingLines = false;
+        InferenceContext context = newContext();
+        context.options.ignoreNonMatchingLines = true;
+
+        final String badLog = "a 1\nb\n";
+        List<EventNode> events = context.call(new Callable<List<EventNode>>() {
+            @Override
+            public List<EventNode> call() throws Exception {
+                return genITimeParser().parseTraceString(badLog, "test", -1);
+            }
+        });
+        assertEquals(1, events.size());
+
+        try {
+            genITimeParser().parseTraceString(badLog, "test", -1);
+            fail("The singleton options must not ignore the line");
+        } catch (ParseException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Runs several complete inferences concurrently, each within its own
+     * context, and checks that they all infer the model that a single
+     * inference infers.
+     */
+    @Test
+    public void concurrentInferencesTest() throws Exception {
+        List<String> expected = inferModel();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> models = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < 8; i++) {
+                final InferenceContext context = newContext();
+                context.options.parallelRefinement = i % 2 == 0;
+                context.options.parallelMining = i % 2 == 1;
+                models.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        return context.call(new Callable<List<String>>() {
+                            @Override
+                            public List<String> call() throws Exception {
+                                return inferModel();
+                            }
+                        });
+                    }
+                }));
+            }
+            for (Future<List<String>> model : models) {
+                assertEquals(expected, model.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Parses, mines, refines, and coarsens the model of log within the current
+     * context, and returns the sorted edges of the model.
+     */
+    private static List<String> inferModel() throws Exception {
+        AbstractOptions options = InferenceContext.getCurrent().options;
+        TraceParser parser = genDefParser();
+        ArrayList<EventNode> events = parser.parseTraceString(log, "test", -1);
+        ChainsTraceGraph inputGraph = parser.generateDirectTORelation(events);
+        TemporalInvariantSet invs = new ChainWalkingTOInvMiner()
+                .computeInvariants(inputGraph, options.multipleRelations,
+                        options.outputSupportCount);
+
+        PartitionGraph pGraph = new PartitionGraph(inputGraph, true, invs);
+        Bisimulation.splitUntilAllInvsSatisfied(pGraph);
+        Bisimulation.mergePartitions(pGraph);
+
+        List<String> edges = new ArrayList<String>();
+        for (Partition p : pGraph.getNodes()) {
+            for (ITransition<Partition> tx : p.getAllTransitions()) {
+                edges.add(p.getEType() + " -> " + tx.getTarget().getEType());
+            }
+        }
+        Collections.sort(edges);
+        return edges;
+    }
+}
@@ -91,6 +91,74 @@ public class KTailsTests extends SynopticTest {
         assertTrue(pGraph.getNodes().size() == 6);
     }
 
+    /**
+     * Tests k-equivalence of nodes whose k-strings pass through different
+     * successors that have the same event type. The k-strings through these
+     * successors are combined, so they must match the k-strings of a node
+     * with a single such successor.
+     */
+    @Test
+    public void sameTypeSuccessorsTest() throws Exception {
+        // g1: x -> a -> b and x -> a -> c, with two distinct a nodes.
+        ChainsTraceGraph g1 = new ChainsTraceGraph();
+        List<EventNode> g1Nodes = addNodesToGraph(g1, new String[] { "x", "a",
+                "a", "b", "c" });
+        g1Nodes.get(0).addTransition(g1Nodes.get(1), Event.defTimeRelationStr);
+        g1Nodes.get(0).addTransition(g1Nodes.get(2), Event.defTimeRelationStr);
+        g1Nodes.get(1).addTransition(g1Nodes.get(3), Event.defTimeRelationStr);
+        g1Nodes.get(2).addTransition(g1Nodes.get(4), Event.defTimeRelationStr);
+
+        // g2: x -> a -> b and x -> a -> c, with a single a node.
+        ChainsTraceGraph g2 = new ChainsTraceGraph();
+        List<EventNode> g2Nodes = addNodesToGraph(g2, new String[] { "x", "a",
+                "b", "c" });
+        g2Nodes.get(0).addTransition(g2Nodes.get(1), Event.defTimeRelationStr);
+        g2Nodes.get(1).addTransition(g2Nodes.get(2), Event.defTimeRelationStr);
+        g2Nodes.get(1).addTransition(g2Nodes.get(3), Event.defTimeRelationStr);
+
+        // g3: x -> a -> b.
+        ChainsTraceGraph g3 = new ChainsTraceGraph();
+        List<EventNode> g3Nodes = addNodesToGraph(g3, new String[] { "x", "a",
+                "b" });
+        g3Nodes.get(0).addTransition(g3Nodes.get(1), Event.defTimeRelationStr);
+        g3Nodes.get(1).addTransition(g3Nodes.get(2), Event.defTimeRelationStr);
+
+        for (int k = 1; k <= 4; k++) {
+            testKEqual(g1Nodes.get(0), g2Nodes.get(0), k);
+        }
+        testKEqual(g1Nodes.get(0), g3Nodes.get(0), 2);
+        testNotKEqual(g1Nodes.get(0), g3Nodes.get(0), 3);
+        testNotKEqual(g2Nodes.get(0), g3Nodes.get(0), 3);
+    }
+
+    /**
+     * Tests that getKEquivalenceClasses groups exactly the nodes that are
+     * k-equivalent, for k = 1 and k = 2.
+     */
+    @Test
+    public void getKEquivalenceClassesTest() throws Exception {
+        ChainsTraceGraph g = makeSimpleGraph();
+        List<EventNode> nodes = new ArrayList<EventNode>(g.getNodes());
+
+        for (int k = 1; k <= 2; k++) {
+            List<List<EventNode>> classes = KTails.getKEquivalenceClasses(
+                    nodes, k);
+            int numNodes = 0;
+            for (List<EventNode> kClass : classes) {
+                numNodes += kClass.size();
+                for (EventNode e1 : kClass) {
+                    for (List<EventNode> otherClass : classes) {
+                        for (EventNode e2 : otherClass) {
+                            assertTrue((kClass == otherClass) == KTails
+                                    .kEquals(e1, e2, k));
+                        }
+                    }
+                }
+            }
+            assertTrue(numNodes == nodes.size());
+        }
+    }
+
     /**
      * Returns a simple trace graph with three short chains.
      * 
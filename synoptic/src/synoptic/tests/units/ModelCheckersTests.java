@@ -1,11 +1,16 @@
 package synoptic.tests.units;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -16,10 +21,16 @@ import org.junit.runners.Parameterized.Parameters;
 
 import synoptic.invariants.AlwaysFollowedInvariant;
 import synoptic.invariants.AlwaysPrecedesInvariant;
+import synoptic.invariants.BinaryInvariant;
 import synoptic.invariants.CExamplePath;
 import synoptic.invariants.ITemporalInvariant;
+import synoptic.invariants.InterruptedByInvariant;
 import synoptic.invariants.NeverFollowedInvariant;
 import synoptic.invariants.TemporalInvariantSet;
+import synoptic.invariants.fsmcheck.BatchTracingChecker;
+import synoptic.invariants.fsmcheck.DenseModelChecker;
+import synoptic.invariants.fsmcheck.FsmModelChecker;
+import synoptic.invariants.fsmcheck.TracingStateSet;
 import synoptic.invariants.miners.TransitiveClosureInvMiner;
 import synoptic.main.parser.ParseException;
 import synoptic.main.parser.TraceParser;
@@ -420,6 +431,211 @@ public class ModelCheckersTests extends SynopticTest {
         testLinearGraphCExample(events, inv, true, 4);
     }
 
+    /**
+     * Returns all AFby, AP, NFby, and IntrBy invariants over eventTypes,
+     * skipping the first event type (the trace separator).
+     */
+    private static List<BinaryInvariant> genAllBinaryInvariants(
+            String[] eventTypes) {
+        String R = Event.defTimeRelationStr;
+        List<BinaryInvariant> invs = new ArrayList<BinaryInvariant>();
+        for (int i = 1; i < eventTypes.length; i++) {
+            for (int j = 1; j < eventTypes.length; j++) {
+                invs.add(new AlwaysFollowedInvariant(eventTypes[i],
+                        eventTypes[j], R));
+                invs.add(new NeverFollowedInvariant(eventTypes[i],
+                        eventTypes[j], R));
+                if (i != j) {
+                    // x AP x and x IntrBy x can never be true.
+                    invs.add(new AlwaysPrecedesInvariant(eventTypes[i],
+                            eventTypes[j], R));
+                    invs.add(new InterruptedByInvariant(eventTypes[i],
+                            eventTypes[j], R));
+                }
+            }
+        }
+        return invs;
+    }
+
+    /**
+     * Checks that the BitSet checker reports exactly those invariants as
+     * failing for which the tracing checker finds a counter-example.
+     */
+    private static <T extends INode<T>> void checkBitSetChecker(
+            List<BinaryInvariant> invs, IGraph<T> g) {
+        List<BinaryInvariant> violated = FsmModelChecker.runBitSetChecker(
+                invs, g);
+        for (BinaryInvariant inv : invs) {
+            CExamplePath<T> path = FsmModelChecker.getCounterExample(inv, g);
+            assertTrue(inv.toString(),
+                    (path != null) == violated.contains(inv));
+        }
+    }
+
+    /**
+     * Checks the BitSet checker against the tracing checker for all AFby, AP,
+     * NFby, and IntrBy invariants over the event types of a random log, on
+     * the log's trace graph and on its (cyclic) initial partition graph.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void bitSetCheckerAgreesWithTracingTest() throws Exception {
+        String[] eventTypes = new String[] { "--", "a", "b", "c", "d" };
+        String[] log = TOLogInvariantMiningTests.genRandomLog(eventTypes);
+        ChainsTraceGraph inputGraph = genInitialLinearGraph(log);
+        PartitionGraph pGraph = new PartitionGraph(inputGraph, true,
+                new TemporalInvariantSet());
+
+        List<BinaryInvariant> invs = genAllBinaryInvariants(eventTypes);
+        checkBitSetChecker(invs, inputGraph);
+        checkBitSetChecker(invs, pGraph);
+    }
+
+    /**
+     * Checks that the dense model checker keeps a state set for every node of
+     * a (cyclic) partition graph, in the order of the graph's nodes, and that
+     * the counter-examples it yields are paths in the graph that start at
+     * INITIAL.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void denseModelCheckerTest() throws Exception {
+        String[] eventTypes = new String[] { "--", "a", "b", "c" };
+        String[] log = TOLogInvariantMiningTests.genRandomLog(eventTypes);
+        ChainsTraceGraph inputGraph = genInitialLinearGraph(log);
+        PartitionGraph pGraph = new PartitionGraph(inputGraph, true,
+                new TemporalInvariantSet());
+
+        DenseModelChecker<Partition> checker = new DenseModelChecker<Partition>(
+                pGraph);
+        assertEquals(pGraph.getNodes().size(), checker.getNumNodes());
+
+        String R = Event.defTimeRelationStr;
+        for (int i = 1; i < eventTypes.length; i++) {
+            for (int j = 1; j < eventTypes.length; j++) {
+                BinaryInvariant inv = new NeverFollowedInvariant(eventTypes[i],
+                        eventTypes[j], R);
+                Map<Partition, TracingStateSet<Partition>> states = checker
+                        .toMap(checker.check(FsmModelChecker
+                                .<Partition> newTracingStateSet(inv), false));
+                assertEquals(new ArrayList<Partition>(pGraph.getNodes()),
+                        new ArrayList<Partition>(states.keySet()));
+
+                CExamplePath<Partition> cExample = FsmModelChecker
+                        .getCounterExample(inv, pGraph);
+                if (cExample == null) {
+                    continue;
+                }
+                List<Partition> path = cExample.path;
+                assertTrue(path.get(0).isInitial());
+                for (int k = 0; k + 1 < path.size(); k++) {
+                    assertTrue(pGraph.getAdjacentNodes(path.get(k)).contains(
+                            path.get(k + 1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that resuming the dense model checker from the initial states,
+     * seeded with INITIAL (twice), yields the same fail paths at every node of
+     * a (cyclic) partition graph as a check from scratch.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void denseModelCheckerResumeTest() throws Exception {
+        String[] eventTypes = new String[] { "--", "a", "b", "c" };
+        String[] log = TOLogInvariantMiningTests.genRandomLog(eventTypes);
+        ChainsTraceGraph inputGraph = genInitialLinearGraph(log);
+        PartitionGraph pGraph = new PartitionGraph(inputGraph, true,
+                new TemporalInvariantSet());
+        DenseModelChecker<Partition> checker = new DenseModelChecker<Partition>(
+                pGraph);
+        Partition initial = pGraph.getDummyInitialNode();
+
+        for (BinaryInvariant inv : genAllBinaryInvariants(eventTypes)) {
+            TracingStateSet<Partition> initialStates = FsmModelChecker
+                    .<Partition> newTracingStateSet(inv);
+            Map<Partition, TracingStateSet<Partition>> expected = checker
+                    .toMap(checker.check(initialStates, false));
+
+            Map<Partition, TracingStateSet<Partition>> states = new LinkedHashMap<Partition, TracingStateSet<Partition>>();
+            for (Partition p : pGraph.getNodes()) {
+                states.put(p, initialStates.copy());
+            }
+            states.get(initial).setInitial(initial);
+            checker.resume(states, Arrays.asList(initial, initial), false);
+
+            for (Partition p : pGraph.getNodes()) {
+                TracingStateSet<Partition> e = expected.get(p);
+                TracingStateSet<Partition> a = states.get(p);
+                assertEquals(e.isFail(), a.isFail());
+                if (e.isFail()) {
+                    assertEquals(e.failpath().toCounterexample(inv).path, a
+                            .failpath().toCounterexample(inv).path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the batch tracing checker against the tracing checker for all
+     * AFby, AP, NFby, and IntrBy invariants over the event types of a random
+     * log, on the log's (cyclic) initial partition graph. Both must find
+     * counter-examples for the same invariants, the batch checker's
+     * counter-examples must be paths in the graph that are no longer than
+     * the tracing checker's, and checking an invariant on its own must yield
+     * the same counter-example as checking it in the batch.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void batchTracingCheckerTest() throws Exception {
+        String[] eventTypes = new String[] { "--", "a", "b", "c", "d" };
+        String[] log = TOLogInvariantMiningTests.genRandomLog(eventTypes);
+        ChainsTraceGraph inputGraph = genInitialLinearGraph(log);
+        PartitionGraph pGraph = new PartitionGraph(inputGraph, true,
+                new TemporalInvariantSet());
+
+        List<BinaryInvariant> invs = genAllBinaryInvariants(eventTypes);
+        BatchTracingChecker<Partition> checker = new BatchTracingChecker<Partition>(
+                pGraph);
+        List<CExamplePath<Partition>> cExamples = checker
+                .getCounterExamples(invs);
+        assertEquals(invs.size(), cExamples.size());
+
+        for (int i = 0; i < invs.size(); i++) {
+            BinaryInvariant inv = invs.get(i);
+            CExamplePath<Partition> cExample = cExamples.get(i);
+            CExamplePath<Partition> traced = FsmModelChecker
+                    .getCounterExample(inv, pGraph);
+            assertEquals(inv.toString(), traced == null, cExample == null);
+            if (cExample == null) {
+                continue;
+            }
+
+            assertEquals(inv, cExample.invariant);
+            List<Partition> path = cExample.path;
+            assertTrue(path.get(0).isInitial());
+            for (int k = 0; k + 1 < path.size(); k++) {
+                assertTrue(pGraph.getAdjacentNodes(path.get(k)).contains(
+                        path.get(k + 1)));
+            }
+            if (inv instanceof AlwaysFollowedInvariant) {
+                // AFby counter-examples are not shortened.
+                assertTrue(path.get(path.size() - 1).isTerminal());
+                assertTrue(path.size() <= traced.path.size());
+            }
+
+            assertEquals(path,
+                    checker.getCounterExamples(Collections.singletonList(inv))
+                            .get(0).path);
+        }
+    }
+
     // /////////////////////////
 
     // compareViolations is not used above because the NASA and FSM checkers
@@ -22,6 +22,7 @@ import synoptic.invariants.concurrency.NeverConcurrentInvariant;
 import synoptic.invariants.miners.DAGWalkingPOInvMiner;
 import synoptic.invariants.miners.IPOInvariantMiner;
 import synoptic.invariants.miners.TransitiveClosureInvMiner;
+import synoptic.main.AbstractMain;
 import synoptic.main.parser.ParseException;
 import synoptic.main.parser.TraceParser;
 import synoptic.model.DAGsTraceGraph;
@@ -57,6 +58,7 @@ public class POLogInvariantMiningTests extends SynopticTest {
         Object[][] data = new Object[][] {
                 { new TransitiveClosureInvMiner(false) },
                 { new TransitiveClosureInvMiner(true) },
+                { new TransitiveClosureInvMiner(true, false) },
                 { new DAGWalkingPOInvMiner(true) },
                 { new DAGWalkingPOInvMiner(false) } };
         return Arrays.asList(data);
@@ -500,6 +502,29 @@ public class POLogInvariantMiningTests extends SynopticTest {
         }
     }
 
+    /**
+     * Checks that mining the ticket reservation example with traces sharded
+     * across several threads mines the same invariants as mining it serially.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void mineTicketReservationExampleParallelTest() throws Exception {
+        TraceParser parser = newTraceParser();
+
+        ArrayList<EventNode> parsedEvents = parser.parseTraceString(
+                ticketReservationTrace, "ticket-reservation-example", -1);
+        DAGsTraceGraph inputGraph = parser
+                .generateDirectPORelation(parsedEvents);
+        TemporalInvariantSet serialInvs = miner.computeInvariants(inputGraph);
+
+        AbstractMain.getInstance().options.parallelMining = true;
+        AbstractMain.getInstance().options.numThreads = 4;
+        TemporalInvariantSet parallelInvs = miner.computeInvariants(inputGraph);
+
+        assertTrue(serialInvs.sameInvariants(parallelInvs));
+    }
+
     /**
      * Tests a randomly generated trace.
      * 
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -12,10 +13,13 @@ import java.util.Set;
 import org.junit.Test;
 
 import synoptic.algorithms.graphops.IOperation;
+import synoptic.algorithms.graphops.PartitionMerge;
 import synoptic.algorithms.graphops.PartitionSplit;
 import synoptic.invariants.TemporalInvariantSet;
 import synoptic.invariants.miners.ChainWalkingTOInvMiner;
 import synoptic.invariants.miners.ITOInvariantMiner;
+import synoptic.main.AbstractMain;
+import synoptic.main.options.AbstractOptions;
 import synoptic.main.parser.TraceParser;
 import synoptic.model.ChainsTraceGraph;
 import synoptic.model.EventNode;
@@ -25,7 +29,10 @@ import synoptic.model.event.EventType;
 import synoptic.model.event.StringEventType;
 import synoptic.model.interfaces.IGraph;
 import synoptic.model.interfaces.INode;
+import synoptic.model.interfaces.ITransition;
 import synoptic.tests.SynopticTest;
+import synoptic.util.resource.AbstractResource;
+import synoptic.util.resource.ITotalResource;
 
 public class PartitionGraphTests extends SynopticTest {
 
@@ -89,9 +96,139 @@ public class PartitionGraphTests extends SynopticTest {
         assertTrue(pGraph.getNodes().size() == 3);
     }
 
+    /**
+     * Checks that the (cached) transitions of a partition reflect splits and
+     * merges of the partition that these transitions target.
+     */
+    @Test
+    public void transitionsAfterSplitThenMergeTest() throws Exception {
+        String[] events = new String[] { "a", "b", "--", "a", "b" };
+        PartitionGraph pGraph = genInitialPartitionGraph(events,
+                genDefParser(), new ChainWalkingTOInvMiner(), false);
+
+        Partition aP = getNodeByName(pGraph, new StringEventType("a"));
+        Partition bP = getNodeByName(pGraph, new StringEventType("b"));
+
+        // a -> b is observed twice.
+        List<? extends ITransition<Partition>> aTrans = aP
+                .getWeightedTransitions();
+        assertEquals(1, aTrans.size());
+        assertTrue(aTrans.get(0).getTarget() == bP);
+        assertEquals(2, (int) aTrans.get(0).getCount());
+
+        // Split off one of the b events.
+        PartitionSplit split = new PartitionSplit(bP);
+        split.addEventToSplit(bP.getEventNodes().iterator().next());
+        IOperation rewind = pGraph.apply(split);
+
+        aTrans = aP.getWeightedTransitions();
+        assertEquals(2, aTrans.size());
+        for (ITransition<Partition> tr : aTrans) {
+            assertEquals(1, (int) tr.getCount());
+            assertTrue(pGraph.getNodes().contains(tr.getTarget()));
+        }
+
+        // Undo the split.
+        pGraph.apply(rewind);
+
+        aTrans = aP.getWeightedTransitions();
+        assertEquals(1, aTrans.size());
+        assertTrue(aTrans.get(0).getTarget() == bP);
+        assertEquals(2, (int) aTrans.get(0).getCount());
+    }
+
     // TODO: Test the multi-split operation.
 
-    // TODO: Test merge operation as a primary operation (not as a rewind).
+    /**
+     * Merges two partitions, once with cached transitions (which are merged
+     * along with their time delta series) and once without, and checks that
+     * the transitions and their time deltas are the same.
+     */
+    @Test
+    public void mergeCachedTransitionsTest() throws Exception {
+        AbstractOptions options = AbstractMain.getInstance().options;
+        boolean usePerformanceInfo = options.usePerformanceInfo;
+        options.usePerformanceInfo = true;
+        try {
+            List<String> merged = null;
+            for (boolean warmCaches : new boolean[] { true, false }) {
+                PartitionGraph pGraph = genTimedGraphWithSplitB();
+                if (warmCaches) {
+                    for (Partition p : pGraph.getNodes()) {
+                        p.getAllTransitions();
+                    }
+                }
+
+                List<Partition> bPs = new ArrayList<Partition>();
+                for (Partition p : pGraph.getNodes()) {
+                    if (p.getEType().equals(new StringEventType("b"))) {
+                        bPs.add(p);
+                    }
+                }
+                assertEquals(2, bPs.size());
+                pGraph.apply(new PartitionMerge(bPs.get(0), bPs.get(1)));
+                assertTrue(bPs.get(1).getEventNodes().isEmpty());
+
+                List<String> transitions = describeTransitions(pGraph);
+                if (merged == null) {
+                    merged = transitions;
+                } else {
+                    assertEquals(merged, transitions);
+                }
+            }
+            assertTrue(merged.contains("b -> c [1, 1, 5]"));
+        } finally {
+            options.usePerformanceInfo = usePerformanceInfo;
+        }
+    }
+
+    /**
+     * Returns a partition graph of a timed log, in which the b event of the
+     * first trace is split off into a partition of its own.
+     */
+    private PartitionGraph genTimedGraphWithSplitB() throws Exception {
+        String[] events = new String[] { "1 a", "3 b", "4 c", "--", "1 a",
+                "2 b", "7 c", "--", "1 a", "4 b", "5 c" };
+        TraceParser parser = new TraceParser();
+        parser.addRegex("^(?<TIME>)(?<TYPE>)$");
+        parser.addPartitionsSeparator("^--$");
+        PartitionGraph pGraph = genInitialPartitionGraph(events, parser,
+                new ChainWalkingTOInvMiner(), false);
+
+        Partition bP = getNodeByName(pGraph, new StringEventType("b"));
+        PartitionSplit split = new PartitionSplit(bP);
+        for (EventNode e : bP.getEventNodes()) {
+            if (e.getEvent().getLine().equals("3 b")) {
+                split.addEventToSplit(e);
+            }
+        }
+        pGraph.apply(split);
+        return pGraph;
+    }
+
+    /**
+     * Returns the sorted transitions of pGraph, each with its sorted time
+     * deltas.
+     */
+    private static List<String> describeTransitions(PartitionGraph pGraph) {
+        List<String> transitions = new ArrayList<String>();
+        for (Partition p : pGraph.getNodes()) {
+            for (ITransition<Partition> tr : p.getAllTransitions()) {
+                List<Integer> deltas = new ArrayList<Integer>();
+                if (tr.getLabels().getTimeDeltaSeries() != null) {
+                    for (AbstractResource d : tr.getDeltaSeries()
+                            .getAllDeltas()) {
+                        deltas.add(((ITotalResource) d).value);
+                    }
+                }
+                Collections.sort(deltas);
+                transitions.add(p.getEType() + " -> "
+                        + tr.getTarget().getEType() + " " + deltas);
+            }
+        }
+        Collections.sort(transitions);
+        return transitions;
+    }
 
     private <T extends INode<T>> T getNodeByName(IGraph<T> g, EventType nodeName) {
         for (T node : g.getNodes()) {
@@ -0,0 +1,102 @@
+package synoptic.tests.units;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import synoptic.main.parser.ParseException;
+import synoptic.main.parser.RegexDispatchIndex;
+import synoptic.main.parser.TraceParser;
+import synoptic.model.EventNode;
+import synoptic.tests.SynopticTest;
+
+/**
+ * Tests for the RegexDispatchIndex class.
+ */
+public class RegexDispatchIndexTests extends SynopticTest {
+
+    /**
+     * Checks the literal prefixes derived from various reg-exps.
+     */
+    @Test
+    public void literalPrefixTest() {
+        assertEquals("--", RegexDispatchIndex.literalPrefix("^--$"));
+        assertEquals("INFO ", RegexDispatchIndex.literalPrefix("INFO (\\S+)"));
+        assertEquals("[a.", RegexDispatchIndex.literalPrefix("^\\[a\\.b*"));
+        assertEquals("", RegexDispatchIndex.literalPrefix("(\\S+) x"));
+        assertEquals("", RegexDispatchIndex.literalPrefix("\\d+ x"));
+        // Top-level alternations have no common prefix, nested ones do.
+        assertEquals("", RegexDispatchIndex.literalPrefix("ab|cd"));
+        assertEquals("a", RegexDispatchIndex.literalPrefix("a(b|c)"));
+        // Parentheses in character classes do not delimit groups.
+        assertEquals("a", RegexDispatchIndex.literalPrefix("a([)]|b)"));
+        assertEquals("", RegexDispatchIndex.literalPrefix("a[(]|b"));
+    }
+
+    /**
+     * Checks that a quantifier after a supplementary character (a surrogate
+     * pair) applies to the whole character, so that lines without the
+     * character are still dispatched to the reg-exp.
+     */
+    @Test
+    public void supplementaryCharTest() throws ParseException {
+        String smiley = new String(Character.toChars(0x1F600));
+        assertEquals("", RegexDispatchIndex.literalPrefix(smiley + "*x"));
+        assertEquals(smiley + "x",
+                RegexDispatchIndex.literalPrefix(smiley + "x\\d"));
+        assertEquals(smiley, RegexDispatchIndex.literalPrefix("\\" + smiley));
+
+        TraceParser parser = new TraceParser();
+        parser.addRegex("^" + smiley + "*x (?<TYPE>)$");
+        parser.addPartitionsSeparator("^--$");
+        List<EventNode> events = parser.parseTraceString("x a\n" + smiley
+                + "x b\n", "test", -1);
+        assertEquals(2, events.size());
+        assertEquals("a", events.get(0).getEType().toString());
+        assertEquals("b", events.get(1).getEType().toString());
+    }
+
+    /**
+     * Checks that the candidates for a line are the reg-exps whose prefix is
+     * a prefix of the line, in order.
+     */
+    @Test
+    public void getCandidatesTest() {
+        RegexDispatchIndex index = new RegexDispatchIndex(Arrays.asList("ab",
+                "", "a", "b", "abc"));
+        assertArrayEquals(new int[] { 0, 1, 2, 4 },
+                index.getCandidates("abcd"));
+        assertArrayEquals(new int[] { 0, 1, 2 }, index.getCandidates("ab"));
+        assertArrayEquals(new int[] { 1, 3 }, index.getCandidates("bab"));
+        assertArrayEquals(new int[] { 1 }, index.getCandidates("c"));
+        assertArrayEquals(new int[] { 1 }, index.getCandidates(""));
+    }
+
+    /**
+     * Checks that a line is still parsed by the first reg-exp that matches
+     * it, when reg-exps with and without literal prefixes are mixed.
+     */
+    @Test
+    public void parsePriorityTest() throws ParseException {
+        TraceParser parser = new TraceParser();
+        parser.addRegex("^x (?<TYPE>)$");
+        parser.addRegex("^(?<TYPE>)$");
+        parser.addRegex("^xy(?<TYPE>)$");
+        parser.addPartitionsSeparator("^--$");
+        List<EventNode> events = parser.parseTraceString(
+                "x a\nxyz\n--\nc\n", "test", -1);
+
+        assertEquals(3, events.size());
+        assertEquals("a", events.get(0).getEType().toString());
+        // Matched by the second reg-exp, which takes priority.
+        assertEquals("xyz", events.get(1).getEType().toString());
+        assertEquals("c", events.get(2).getEType().toString());
+        assertEquals(events.get(0).getTraceID(), events.get(1).getTraceID());
+        assertEquals(events.get(0).getTraceID() + 1, events.get(2)
+                .getTraceID());
+    }
+}
@@ -2,8 +2,14 @@ package synoptic.tests.units;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -254,4 +260,87 @@ public class ResourceSeriesTests extends SynopticTest {
 
         assertEquals(new ITotalResource(5, "key"), resources.computeMax());
     }
-}
\ No newline at end of file
+
+    // Are negative floating point resources ordered correctly?
+    @Test
+    public void minMaxMedianTestNegativeDoubles() {
+        ResourceSeries<DTotalResource> doubles = new ResourceSeries<DTotalResource>();
+        double[] values = { 2.5, -1.5, 0.0, -3.25, 1.0 };
+        for (double v : values) {
+            doubles.addDelta(new DTotalResource(v));
+        }
+
+        assertEquals(new DTotalResource(-3.25), doubles.computeMin());
+        assertEquals(new DTotalResource(2.5), doubles.computeMax());
+        assertEquals(new DTotalResource(0.0), doubles.computeMedian());
+        assertEquals(new DTotalResource(-0.25), doubles.computeMean());
+    }
+
+    // Is a sketched series exact while it holds fewer values than the sketch
+    // size?
+    @Test
+    public void sketchedTestExactBelowCapacity() {
+        resources = new ResourceSeries<ITotalResource>("", 64);
+        for (int i = 1; i <= 9; i++) {
+            resources.addDelta(new ITotalResource(i % 3 == 0 ? 3 : i));
+        }
+
+        assertTrue(resources.isSketched());
+        assertEquals(9, resources.size());
+        assertEquals(new ITotalResource(3), resources.computeMode());
+        assertEquals(new ITotalResource(3), resources.computeMedian());
+        assertEquals(new ITotalResource(1), resources.computeMin());
+        assertEquals(new ITotalResource(8), resources.computeMax());
+    }
+
+    // Does a sketched series keep min, max, and mean exact, and the median
+    // close to the true median?
+    @Test
+    public void sketchedTestManyValues() {
+        int n = 10000;
+        resources = new ResourceSeries<ITotalResource>("", 128);
+        Random rand = new Random(7);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            values.add(i);
+        }
+        Collections.shuffle(values, rand);
+        for (int v : values) {
+            resources.addDelta(new ITotalResource(v));
+        }
+
+        assertEquals(n, resources.size());
+        assertEquals(new ITotalResource(0), resources.computeMin());
+        assertEquals(new ITotalResource(n - 1), resources.computeMax());
+        assertEquals(new ITotalResource((n - 1) / 2), resources.computeMean());
+        int median = resources.computeMedian().value;
+        assertTrue(Math.abs(median - n / 2) < n / 20);
+    }
+
+    // Does merging series give the same statistics as adding all values to
+    // one series?
+    @Test
+    public void addAllTest() {
+        ResourceSeries<ITotalResource> other = new ResourceSeries<ITotalResource>();
+        ResourceSeries<ITotalResource> sketched = new ResourceSeries<ITotalResource>(
+                "", 16);
+        for (int i = 1; i <= 5; i++) {
+            resources.addDelta(new ITotalResource(i));
+            other.addDelta(new ITotalResource(10 * i));
+            sketched.addDelta(new ITotalResource(i));
+        }
+
+        resources.addAll(other);
+        assertEquals(10, resources.size());
+        assertEquals(new ITotalResource(1), resources.computeMin());
+        assertEquals(new ITotalResource(50), resources.computeMax());
+        assertEquals(new ITotalResource(16), resources.computeMean());
+        assertEquals(new ITotalResource(7), resources.computeMedian());
+
+        // Merging a sketched series makes this series sketched.
+        other.addAll(sketched);
+        assertTrue(other.isSketched());
+        assertEquals(10, other.size());
+        assertEquals(new ITotalResource(7), other.computeMedian());
+    }
+}
@@ -0,0 +1,276 @@
+package synoptic.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import synoptic.main.AbstractMain;
+import synoptic.main.SynopticDaemon;
+import synoptic.main.parser.ParseException;
+import synoptic.tests.SynopticTest;
+
+/**
+ * Tests for running jobs through the SynopticDaemon.
+ */
+public class SynopticDaemonTests extends SynopticTest {
+
+    private SynopticDaemon daemon;
+    private String token;
+    private String logFilename;
+
+    @Override
+    @Before
+    public void setUp() throws ParseException {
+        super.setUp();
+        try {
+            File log = new File(testOutputDir + "daemon-test.log");
+            log.getParentFile().mkdirs();
+            Writer writer = new FileWriter(log);
+            writer.write("a\nb\nc\n--\na\nc\nb\n--\na\nb\nb\nc\n");
+            writer.close();
+            logFilename = log.getPath();
+
+            token = SynopticDaemon.newToken();
+            daemon = new SynopticDaemon(0, 2, 8, token);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    daemon.serve();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        daemon.shutdown();
+    }
+
+    /**
+     * Sends a request with the daemon's token to the daemon and returns the
+     * lines of the reply.
+     */
+    private List<String> request(String... lines) throws Exception {
+        String[] tokenLines = new String[lines.length + 1];
+        tokenLines[0] = token;
+        System.arraycopy(lines, 0, tokenLines, 1, lines.length);
+        return requestWithoutToken(tokenLines);
+    }
+
+    /**
+     * Sends lines to the daemon and returns the lines of the reply.
+     */
+    private List<String> requestWithoutToken(String... lines)
+            throws Exception {
+        Socket socket = new Socket("127.0.0.1", daemon.getPort());
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(),
+                    "UTF-8");
+            for (String line : lines) {
+                out.write(line + "\n");
+            }
+            out.write("\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "UTF-8"));
+            List<String> reply = new ArrayList<String>();
+            String line = in.readLine();
+            while (line != null) {
+                reply.add(line);
+                line = in.readLine();
+            }
+            return reply;
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Runs several jobs concurrently and checks that they all reply with the
+     * same model and invariants, without touching the AbstractMain singleton.
+     */
+    @Test
+    public void concurrentJobsTest() throws Exception {
+        AbstractMain singleton = AbstractMain.instance;
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> replies = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < 4; i++) {
+                replies.add(clients.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        return request("synoptic", "-s", "^--$",
+                                "--randomSeed=1", logFilename);
+                    }
+                }));
+            }
+
+            List<String> first = replies.get(0).get();
+            assertEquals("MODEL", first.get(0));
+            assertTrue(first.contains("INVARIANTS"));
+            assertEquals("OK", first.get(first.size() - 1));
+            for (Future<List<String>> reply : replies) {
+                assertEquals(first, reply.get());
+            }
+        } finally {
+            clients.shutdown();
+        }
+        assertSame(singleton, AbstractMain.instance);
+    }
+
+    /**
+     * Checks that malformed requests are answered with an error.
+     */
+    @Test
+    public void badRequestTest() throws Exception {
+        List<String> reply = request("unknown-tool", logFilename);
+        assertEquals(1, reply.size());
+        assertTrue(reply.get(0).startsWith("ERROR"));
+
+        reply = request("synoptic", "-s", "^--$");
+        assertEquals(1, reply.size());
+        assertTrue(reply.get(0).startsWith("ERROR"));
+    }
+
+    /**
+     * Checks that requests without the access token, and requests with
+     * options that write files, are rejected.
+     */
+    @Test
+    public void rejectedRequestTest() throws Exception {
+        List<String> reply = requestWithoutToken("synoptic", "-s", "^--$",
+                logFilename);
+        assertEquals(1, reply.size());
+        assertTrue(reply.get(0).startsWith("ERROR"));
+
+        reply = requestWithoutToken(SynopticDaemon.newToken(), "synoptic",
+                "-s", "^--$", logFilename);
+        assertEquals(1, reply.size());
+        assertTrue(reply.get(0).startsWith("ERROR"));
+
+        File output = new File(testOutputDir + "daemon-test-output");
+        reply = request("synoptic", "-s", "^--$", "-o", output.getPath(),
+                logFilename);
+        assertEquals(1, reply.size());
+        assertTrue(reply.get(0).startsWith("ERROR"));
+        assertFalse(new File(output.getPath() + ".dot").exists());
+    }
+
+    /**
+     * Checks that the token file holds the token and, on file systems with
+     * POSIX permissions, may only be read by its owner.
+     */
+    @Test
+    public void tokenFileTest() throws Exception {
+        File tokenFile = new File(testOutputDir + "daemon-test.token");
+        SynopticDaemon.writeTokenFile(tokenFile, token);
+        Path path = tokenFile.toPath();
+        assertEquals(token, new String(Files.readAllBytes(path), "UTF-8"));
+        if (Files.getFileStore(path).supportsFileAttributeView(
+                PosixFileAttributeView.class)) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files
+                    .getPosixFilePermissions(path)));
+        }
+    }
+
+    /**
+     * Checks that a client that connects but does not send its request does
+     * not hold up the requests of other clients.
+     */
+    @Test
+    public void silentClientTest() throws Exception {
+        Socket silent = new Socket("127.0.0.1", daemon.getPort());
+        try {
+            long start = System.currentTimeMillis();
+            List<String> reply = request("synoptic", "-s", "^--$",
+                    logFilename);
+            assertEquals("OK", reply.get(reply.size() - 1));
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed < SynopticDaemon.defaultRequestTimeout);
+        } finally {
+            silent.close();
+        }
+    }
+
+    /**
+     * Checks that a client that keeps sending its request a byte at a time is
+     * disconnected once the request timeout has passed.
+     */
+    @Test
+    public void slowClientTest() throws Exception {
+        daemon.setRequestTimeout(1000);
+        final Socket slow = new Socket("127.0.0.1", daemon.getPort());
+        Thread drip = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        slow.getOutputStream().write('a');
+                        slow.getOutputStream().flush();
+                        Thread.sleep(100);
+                    }
+                } catch (Exception e) {
+                    // The daemon closed the connection.
+                }
+            }
+        });
+        try {
+            long start = System.currentTimeMillis();
+            drip.start();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    slow.getInputStream(), "UTF-8"));
+            String reply = in.readLine();
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(reply.startsWith("ERROR"));
+            assertTrue(elapsed < 5000);
+        } finally {
+            slow.close();
+            drip.join();
+        }
+    }
+
+    /**
+     * Checks that requests longer than maxRequestLength are rejected.
+     */
+    @Test
+    public void longRequestTest() throws Exception {
+        // Only just too long, so that the daemon reads (almost) all of the
+        // request before it replies.
+        char[] arg = new char[SynopticDaemon.maxRequestLength];
+        Arrays.fill(arg, 'a');
+        List<String> reply = request("synoptic", new String(arg));
+        assertEquals(1, reply.size());
+        assertTrue(reply.get(0).startsWith("ERROR"));
+    }
+}
@@ -53,7 +53,9 @@ public class TOLogInvariantMiningTests extends SynopticTest {
         Object[][] data = new Object[][] {
                 { new TransitiveClosureInvMiner(false) },
                 { new TransitiveClosureInvMiner(true) },
+                { new TransitiveClosureInvMiner(true, false) },
                 { new ChainWalkingTOInvMiner() },
+                { new ChainWalkingTOInvMiner(false) },
                 { new DAGWalkingPOInvMiner() } };
         return Arrays.asList(data);
     }
@@ -427,6 +429,29 @@ public class TOLogInvariantMiningTests extends SynopticTest {
         assertTrue(trueInvs3.sameInvariants(minedInvs3));
     }
 
+    /**
+     * Checks that mining a randomly generated log with traces sharded across
+     * several threads mines the same invariants as mining it serially.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void parallelMiningTest() throws Exception {
+        String[] eventTypes = new String[] { "--", "a", "b", "c", "d", "e" };
+        String[] log = genRandomLog(eventTypes);
+
+        ChainsTraceGraph inputGraph = genInitialLinearGraph(log);
+        TemporalInvariantSet serialInvs = miner.computeInvariants(inputGraph,
+                false, false);
+
+        AbstractMain.getInstance().options.parallelMining = true;
+        AbstractMain.getInstance().options.numThreads = 4;
+        TemporalInvariantSet parallelInvs = miner.computeInvariants(
+                inputGraph, false, false);
+
+        assertTrue(serialInvs.sameInvariants(parallelInvs));
+    }
+
     /**
      * Mines invariants from a randomly generated log and then uses both model
      * checkers to check that every mined invariant actually holds.
@@ -1,13 +1,22 @@
 package synoptic.tests.units;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+
 import org.junit.Test;
 
 import synoptic.invariants.AlwaysFollowedInvariant;
+import synoptic.invariants.CExamplePath;
 import synoptic.invariants.NeverFollowedInvariant;
 import synoptic.invariants.TemporalInvariantSet;
+import synoptic.invariants.miners.ChainWalkingTOInvMiner;
+import synoptic.main.AbstractMain;
+import synoptic.model.ChainsTraceGraph;
+import synoptic.model.Partition;
+import synoptic.model.PartitionGraph;
 import synoptic.model.event.Event;
 import synoptic.tests.SynopticTest;
 
@@ -52,4 +61,40 @@ public class TemporalInvariantSetTests extends SynopticTest {
         assertFalse(s2.sameInvariants(s1));
     }
 
+    /**
+     * Checks that searching for counter-examples concurrently returns the same
+     * counter-examples, in the same order, as searching for them serially.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void parallelCounterExamplesTest() throws Exception {
+        String[] eventTypes = new String[] { "--", "a", "b", "c", "d", "e" };
+        String[] log = TOLogInvariantMiningTests.genRandomLog(eventTypes);
+        ChainsTraceGraph inputGraph = genInitialLinearGraph(log);
+        TemporalInvariantSet invs = new ChainWalkingTOInvMiner()
+                .computeInvariants(inputGraph, false, false);
+
+        // Invariants mined from the log may not hold in the initial
+        // partition graph, which merges all events of the same type.
+        PartitionGraph pGraph = new PartitionGraph(inputGraph, true, invs);
+        List<CExamplePath<Partition>> serial = invs
+                .getAllCounterExamples(pGraph);
+
+        AbstractMain.getInstance().options.parallelModelChecking = true;
+        AbstractMain.getInstance().options.numThreads = 4;
+        List<CExamplePath<Partition>> parallel = invs
+                .getAllCounterExamples(pGraph);
+
+        if (serial == null) {
+            assertTrue(parallel == null);
+            return;
+        }
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).invariant, parallel.get(i).invariant);
+            assertEquals(serial.get(i).path, parallel.get(i).path);
+        }
+    }
+
 }
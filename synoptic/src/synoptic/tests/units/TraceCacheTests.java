@@ -0,0 +1,153 @@
+package synoptic.tests.units;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import synoptic.invariants.TemporalInvariantSet;
+import synoptic.invariants.miners.ChainWalkingTOInvMiner;
+import synoptic.main.options.AbstractOptions;
+import synoptic.main.options.SynopticOptions;
+import synoptic.main.parser.TraceCache;
+import synoptic.main.parser.TraceParser;
+import synoptic.model.ChainsTraceGraph;
+import synoptic.model.EventNode;
+import synoptic.tests.SynopticTest;
+
+/**
+ * Tests for the TraceCache class.
+ */
+public class TraceCacheTests extends SynopticTest {
+
+    private static final String log = "a 1\nb 3\nc 4\n--\na 2\nc 5\nb 9\n--\na 1\nb 2\nb 4\nc 8\n";
+
+    private static final File cacheDir = new File(testOutputDir
+            + "trace-cache");
+
+    private static File writeLog(String name, String contents)
+            throws Exception {
+        File file = new File(testOutputDir + name);
+        file.getParentFile().mkdirs();
+        Writer writer = new FileWriter(file);
+        writer.write(contents);
+        writer.close();
+        return file;
+    }
+
+    private static AbstractOptions newOptions() {
+        AbstractOptions options = new SynopticOptions().toAbstractOptions();
+        options.regExps = Arrays.asList("^(?<TYPE>\\w+) (?<TIME>\\d+)$");
+        options.separatorRegExp = "^--$";
+        return options;
+    }
+
+    private static TraceParser newParser(AbstractOptions options)
+            throws Exception {
+        return new TraceParser(options.regExps, options.partitionRegExp,
+                options.separatorRegExp, options.dateFormat);
+    }
+
+    /**
+     * Stores parsed events in the cache and loads them into a new parser, and
+     * checks that the loaded events and their trace graph match the parsed
+     * ones.
+     */
+    @Test
+    public void roundTripTest() throws Exception {
+        File file = writeLog("trace-cache-test.log", log);
+        AbstractOptions options = newOptions();
+        TraceCache cache = new TraceCache(cacheDir, options,
+                Arrays.asList(file));
+        cache.getCacheFile().delete();
+
+        TraceParser parser = newParser(options);
+        assertNull(cache.load(parser));
+        List<EventNode> parsed = parser.parseTraceFile(file, -1);
+        cache.store(parser, parsed);
+        assertTrue(cache.getCacheFile().isFile());
+
+        TraceParser cachedParser = newParser(options);
+        List<EventNode> loaded = cache.load(cachedParser);
+        assertNotNull(loaded);
+        assertEquals(parsed.size(), loaded.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            EventNode p = parsed.get(i);
+            EventNode l = loaded.get(i);
+            assertEquals(p.getEType(), l.getEType());
+            assertEquals(p.getTime(), l.getTime());
+            assertEquals(p.getTraceID(), l.getTraceID());
+            assertEquals(p.getEvent().getLine(), l.getEvent().getLine());
+            assertEquals(p.getEvent().getFileName(), l.getEvent()
+                    .getFileName());
+            assertEquals(p.getEvent().getLineNum(), l.getEvent().getLineNum());
+        }
+
+        ChainsTraceGraph parsedGraph = parser.generateDirectTORelation(parsed);
+        ChainsTraceGraph loadedGraph = cachedParser
+                .generateDirectTORelation(loaded);
+        assertEquals(parsedGraph.getNumTraces(), loadedGraph.getNumTraces());
+        ChainWalkingTOInvMiner miner = new ChainWalkingTOInvMiner();
+        TemporalInvariantSet parsedInvs = miner.computeInvariants(
+                parsedGraph, false, false);
+        TemporalInvariantSet loadedInvs = miner.computeInvariants(
+                loadedGraph, false, false);
+        assertTrue(parsedInvs.sameInvariants(loadedInvs));
+    }
+
+    /**
+     * Checks that the cache key depends on the log contents and the parser
+     * options.
+     */
+    @Test
+    public void keyTest() throws Exception {
+        File file = writeLog("trace-cache-key.log", log);
+        AbstractOptions options = newOptions();
+        String key = TraceCache.computeKey(options, Arrays.asList(file));
+        assertEquals(key, TraceCache.computeKey(newOptions(),
+                Arrays.asList(file)));
+
+        options.separatorRegExp = "^---$";
+        assertFalse(key.equals(TraceCache.computeKey(options,
+                Arrays.asList(file))));
+
+        writeLog("trace-cache-key.log", log + "--\na 1\n");
+        assertFalse(key.equals(TraceCache.computeKey(newOptions(),
+                Arrays.asList(file))));
+    }
+
+    /**
+     * Checks that a truncated cache file is not loaded.
+     */
+    @Test
+    public void truncatedCacheTest() throws Exception {
+        File file = writeLog("trace-cache-truncated.log", log);
+        AbstractOptions options = newOptions();
+        TraceCache cache = new TraceCache(cacheDir, options,
+                Arrays.asList(file));
+        TraceParser parser = newParser(options);
+        cache.store(parser, parser.parseTraceFile(file, -1));
+
+        RandomAccessFile cacheFile = new RandomAccessFile(
+                cache.getCacheFile(), "rw");
+        cacheFile.setLength(cacheFile.length() - 10);
+        cacheFile.close();
+
+        TraceParser cachedParser = newParser(options);
+        assertNull(cache.load(cachedParser));
+        // The parser is unchanged and can still parse the log.
+        List<EventNode> parsed = cachedParser.parseTraceFile(file, -1);
+        assertEquals(3, cachedParser.generateDirectTORelation(parsed)
+                .getNumTraces());
+    }
+}
@@ -502,7 +502,36 @@ public class TraceParserTests extends SynopticTest {
         parser.generateDirectPORelation(events);
     }
 
-    // TODO: Check setting of constants -- e.g. (?<NODETYPE=>master)
+    /**
+     * Checks the setting of constants: constant fields substitute
+     * back-references to groups and to earlier constant fields, a constant
+     * field does not override a group of the same name, and the partitions
+     * filter sees the constant fields and the incrementors.
+     * 
+     * @throws ParseException
+     */
+    @Test
+    public void parseConstantFieldsTest() throws ParseException {
+        parser.addRegex("^(?<NODE>\\w+) restart(?<HOST=>h-\\k<NODE>)"
+                + "(?<TYPE=>restart-\\k<HOST>)$");
+        parser.addRegex("^(?<NODE>\\w+) (?<TYPE>\\w+)(?<HOST=>h-\\k<NODE>)"
+                + "(?<NODE=>ignored)$");
+        parser.setPartitionsMap("\\k<HOST>");
+        parser.addPartitionsSeparator("^--$");
+        ArrayList<EventNode> events = parser.parseTraceString(
+                "x a\ny b\nx restart\n--\nx c\n", "test", -1);
+
+        assertEquals(4, events.size());
+        assertEquals("a", events.get(0).getEType().getETypeLabel());
+        assertEquals("b", events.get(1).getEType().getETypeLabel());
+        assertEquals("restart-h-x", events.get(2).getEType().getETypeLabel());
+        assertEquals("c", events.get(3).getEType().getETypeLabel());
+
+        // Partitions h-x0, h-y0, h-x0, and h-x1.
+        assertEquals(events.get(0).getTraceID(), events.get(2).getTraceID());
+        assertTrue(events.get(0).getTraceID() != events.get(1).getTraceID());
+        assertTrue(events.get(0).getTraceID() != events.get(3).getTraceID());
+    }
 
     /**
      * Parse a log using wrong time named group (should be VTIME) -- expect a
@@ -1477,7 +1506,7 @@ public class TraceParserTests extends SynopticTest {
 
     @Test
     public void inputDeltaTest() throws ParseException {
-        AbstractOptions.inputDelta = true;
+        AbstractMain.getInstance().options.inputDelta = true;
         String traceStr = "5 a\n" + "4 b\n" + "2 c\n";
         parser.addRegex("^(?<TIME>)(?<TYPE>)$");
         List<EventNode> events = parser.parseTraceString(traceStr, "test", -1);
@@ -1490,6 +1519,61 @@ public class TraceParserTests extends SynopticTest {
         assertTrue(events.get(1).getTime().equals(b));
         assertTrue(events.get(2).getTime().equals(c));
 
-        AbstractOptions.inputDelta = false;
+        AbstractMain.getInstance().options.inputDelta = false;
+    }
+
+    /**
+     * Parses a log that spans several line batches with separators, hidden
+     * lines, and input delta times, with and without parallelParsing, and
+     * checks that the two parsers produce the same events and traces.
+     */
+    @Test
+    public void parallelParsingTest() throws ParseException {
+        AbstractMain.getInstance().options.debugParse = false;
+        AbstractMain.getInstance().options.inputDelta = true;
+        StringBuilder traceStr = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            if (i % 17 == 0) {
+                traceStr.append("--\n");
+            } else if (i % 29 == 0) {
+                traceStr.append("# comment\n");
+            } else {
+                traceStr.append((i % 7) + " " + "abc".charAt(i % 3) + "\n");
+            }
+        }
+
+        List<List<EventNode>> parsed = new ArrayList<List<EventNode>>();
+        List<List<EventNode>> bounded = new ArrayList<List<EventNode>>();
+        for (boolean parallel : new boolean[] { false, true }) {
+            AbstractMain.getInstance().options.parallelParsing = parallel;
+            AbstractMain.getInstance().options.numThreads = 4;
+            TraceParser p = new TraceParser();
+            p.addRegex("^(?<TIME>\\d+) (?<TYPE>\\w+)$");
+            p.addRegex("^#.*$(?<HIDE=>true)");
+            p.addPartitionsSeparator("^--$");
+            parsed.add(p.parseTraceString(traceStr.toString(), "test", -1));
+
+            p = new TraceParser();
+            p.addRegex("^(?<TIME>\\d+) (?<TYPE>\\w+)$");
+            p.addRegex("^#.*$(?<HIDE=>true)");
+            p.addPartitionsSeparator("^--$");
+            bounded.add(p.parseTraceString(traceStr.toString(), "test", 2000));
+        }
+        AbstractMain.getInstance().options.inputDelta = false;
+
+        for (List<List<EventNode>> results : Arrays.asList(parsed, bounded)) {
+            List<EventNode> serial = results.get(0);
+            List<EventNode> parallel = results.get(1);
+            assertEquals(serial.size(), parallel.size());
+            for (int i = 0; i < serial.size(); i++) {
+                EventNode e1 = serial.get(i);
+                EventNode e2 = parallel.get(i);
+                assertEquals(e1.getEType(), e2.getEType());
+                assertEquals(e1.getTime(), e2.getTime());
+                assertEquals(e1.getTraceID(), e2.getTraceID());
+                assertEquals(e1.getLineNum(), e2.getLineNum());
+            }
+        }
+        assertEquals(2000, bounded.get(1).size());
     }
 }
@@ -12,6 +12,7 @@ import synoptic.model.Transition;
 import synoptic.model.event.Event;
 import synoptic.util.resource.AbstractResource;
 import synoptic.util.resource.ITotalResource;
+import synoptic.util.resource.VectorTime;
 
 /**
  * Tests for verifying proper state when adding/mutating the innards of the
@@ -72,6 +73,12 @@ public class TransitionDeltaTests {
         sTrans.getTimeDelta();
     }
 
+    // Series only hold totally ordered resources.
+    @Test(expected = IllegalArgumentException.class)
+    public void argumentExceptionOnAddVectorTime() {
+        sTrans.addTimeDeltaToSeries(new VectorTime("1,2"));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void stateExceptionOnGetDeltaSeries() {
         sTrans.setTimeDelta(t);
@@ -0,0 +1,132 @@
+package synoptic.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import synoptic.main.InferenceContext;
+
+/**
+ * Shared pools of worker threads used by the parallel phases of Synoptic. The
+ * parallel phases of an inference run in a pool whose size is determined by
+ * the numThreads option of the current inference context (or the number of
+ * available processors if the option is 0). Pools are created lazily, one per
+ * distinct size, and are shared by all contexts with that size.
+ */
+public class WorkerPool {
+    /** Pools created so far, by number of worker threads. */
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+    /** Suppress default constructor for non-instantiability */
+    private WorkerPool() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns the number of worker threads that parallel phases should use.
+     */
+    public static int getNumThreads() {
+        int numThreads = 0;
+        if (InferenceContext.hasCurrent()) {
+            numThreads = InferenceContext.getCurrent().options.numThreads;
+        }
+        if (numThreads <= 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
+        return numThreads;
+    }
+
+    /**
+     * Returns the shared pool with getNumThreads() worker threads, creating
+     * it if necessary.
+     */
+    public static synchronized ForkJoinPool getPool() {
+        int numThreads = getNumThreads();
+        ForkJoinPool pool = pools.get(numThreads);
+        if (pool == null) {
+            pool = new ForkJoinPool(numThreads);
+            pools.put(numThreads, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Submits a task to the shared pool. The task runs within the inference
+     * context of the calling thread.
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return getPool().submit(InferenceContext.propagate(task));
+    }
+
+    /**
+     * Runs all of the tasks in the shared pool and returns their results in
+     * the same order as the tasks. The tasks run within the inference context
+     * of the calling thread. Any exception thrown by a task is re-thrown as an
+     * InternalSynopticException.
+     * 
+     * @param tasks
+     *            the tasks to run
+     * @return list of task results, ordered by task
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<Callable<T>> boundTasks = new ArrayList<Callable<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            boundTasks.add(InferenceContext.propagate(task));
+        }
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (Future<T> future : getPool().invokeAll(boundTasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalSynopticException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new InternalSynopticException(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Splits items into at most numShards contiguous, non-empty shards whose
+     * sizes differ by at most one. Concatenating the shards yields items.
+     * 
+     * @param items
+     *            the items to split
+     * @param numShards
+     *            the maximum number of shards, must be positive
+     * @return list of shards, in the order of items
+     */
+    public static <T> List<List<T>> shard(List<T> items, int numShards) {
+        int n = Math.min(numShards, items.size());
+        List<List<T>> shards = new ArrayList<List<T>>(n);
+        for (int i = 0; i < n; i++) {
+            int from = (int) ((long) items.size() * i / n);
+            int to = (int) ((long) items.size() * (i + 1) / n);
+            shards.add(items.subList(from, to));
+        }
+        return shards;
+    }
+
+    /**
+     * Shuts down all of the shared pools. New pools will be created on the
+     * next calls to getPool().
+     */
+    public static synchronized void shutdown() {
+        for (ForkJoinPool pool : pools.values()) {
+            pool.shutdown();
+        }
+        pools.clear();
+    }
+}
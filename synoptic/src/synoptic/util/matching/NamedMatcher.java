@@ -105,19 +105,31 @@ public class NamedMatcher implements INamedMatchResult {
     }
 
     public Map<String, String> namedGroups() {
-        Map<String, String> result = new LinkedHashMap<String, String>();
-
-        for (int i = 1; i <= groupCount(); i++) {
-            String groupName = parentPattern.groupNames().get(i - 1);
-            String groupValue = matcher.group(i);
-            result.put(groupName, groupValue);
+        int count = groupCount();
+        // Sized so that the map is not rehashed, even if the caller adds a
+        // few more entries.
+        Map<String, String> result = new LinkedHashMap<String, String>(
+                2 * count + 8);
+
+        for (int i = 1; i <= count; i++) {
+            result.put(parentPattern.groupName(i), matcher.group(i));
         }
 
         return result;
     }
 
+    /**
+     * Stores the value of each group in groups at its index in values, without
+     * building a map of the named groups.
+     */
+    public void groups(int[] groups, String[] values) {
+        for (int group : groups) {
+            values[group] = matcher.group(group);
+        }
+    }
+
     private int groupIndex(String groupName) {
-        return parentPattern.groupNames().indexOf(groupName) + 1;
+        return parentPattern.groupIndex(groupName);
     }
 
     public int start() {
@@ -4,8 +4,11 @@
 
 package synoptic.util.matching;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,7 +23,12 @@ public class NamedPattern {
 
     private final Pattern pattern;
     private final String namedPattern;
-    private final List<String> groupNames = new LinkedList<String>();
+    private final List<String> groupNames = new ArrayList<String>();
+    // Maps each group name to its group index (1-based).
+    private final Map<String, Integer> groupIndices = new HashMap<String, Integer>();
+
+    // Matchers that are reused by reusableMatcher, one per thread.
+    private final ThreadLocal<NamedMatcher> reusableMatchers = new ThreadLocal<NamedMatcher>();
 
     public static NamedPattern compile(String regex) throws Exception {
         return new NamedPattern(regex, 0);
@@ -46,6 +54,7 @@ public class NamedPattern {
                 throw parseException;
             }
             groupNames.add(g);
+            groupIndices.put(g, groupNames.size());
         }
     }
 
@@ -57,6 +66,22 @@ public class NamedPattern {
         return new NamedMatcher(this, seqInput);
     }
 
+    /**
+     * Returns a matcher for seqInput, like matcher, except that the matcher is
+     * owned by the calling thread and is reset and returned again by the next
+     * call to reusableMatcher on the same thread. Avoids allocating a matcher
+     * for every input when many inputs are matched in sequence.
+     */
+    public NamedMatcher reusableMatcher(CharSequence seqInput) {
+        NamedMatcher matcher = reusableMatchers.get();
+        if (matcher == null) {
+            matcher = new NamedMatcher(this, seqInput);
+            reusableMatchers.set(matcher);
+            return matcher;
+        }
+        return matcher.reset(seqInput);
+    }
+
     Pattern pattern() {
         return pattern;
     }
@@ -70,7 +95,23 @@ public class NamedPattern {
     }
 
     public List<String> groupNames() {
-        return groupNames;
+        return Collections.unmodifiableList(groupNames);
+    }
+
+    /**
+     * Returns the (1-based) index of the group named groupName, or 0 (the
+     * index of the entire match) if there is no such group.
+     */
+    int groupIndex(String groupName) {
+        Integer index = groupIndices.get(groupName);
+        return index == null ? 0 : index;
+    }
+
+    /**
+     * Returns the name of the group with the given (1-based) index.
+     */
+    String groupName(int index) {
+        return groupNames.get(index - 1);
     }
 
     public String[] split(CharSequence input, int limit) {
@@ -34,6 +34,22 @@ public class NamedSubstitution {
         }
     }
 
+    // Returns the number of back-references.
+    public int numReferences() {
+        return contents.size() / 2;
+    }
+
+    // Returns the group name of the i-th back-reference.
+    public String reference(int i) {
+        return contents.get(2 * i + 1);
+    }
+
+    // Returns the string that precedes the i-th back-reference, or that
+    // follows the last back-reference if i is numReferences().
+    public String text(int i) {
+        return contents.get(2 * i);
+    }
+
     public String substitute(Map<String, String> smap) {
         StringBuilder result = new StringBuilder();
         for (int i = 1; i < contents.size(); i += 2) {
@@ -0,0 +1,248 @@
+package synoptic.util.resource;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A mergeable summary of a multiset of long values, which answers rank
+ * (quantile) queries approximately in space that is logarithmic in the number
+ * of values. The sketch is a hierarchy of compactors, in the style of the MRL
+ * and KLL sketches: level i holds values that each stand for 2^i of the added
+ * values. When a level is full, its values are sorted and every other value
+ * is promoted to the next level, alternating between keeping the values at
+ * even and at odd positions. The total weight of the retained values always
+ * equals the number of added values.
+ * </p>
+ * <p>
+ * As long as fewer values than the level capacity have been added, no
+ * compaction happens and all queries are exact. Two sketches are merged by
+ * merging their levels, in time that is proportional to the sizes of the
+ * sketches. A sketch is not thread-safe.
+ * </p>
+ */
+public class QuantileSketch {
+    /** Number of values a level holds before it is compacted (even). */
+    private final int levelCapacity;
+
+    /** levels[i] holds sizes[i] values of weight 2^i. */
+    private long[][] levels = new long[0][];
+    private int[] sizes = new int[0];
+
+    /** Whether the next compaction of level i keeps the odd positions. */
+    private boolean[] keepOdd = new boolean[0];
+
+    /** Number of added values, which is the total weight of the levels. */
+    private long count = 0;
+
+    /**
+     * Creates an empty sketch.
+     * 
+     * @param levelCapacity
+     *            the number of values that each level holds; larger
+     *            capacities give more accurate answers. Rounded up to an even
+     *            number.
+     */
+    public QuantileSketch(int levelCapacity) {
+        if (levelCapacity < 2) {
+            throw new IllegalArgumentException(
+                    "Level capacity must be at least 2: " + levelCapacity);
+        }
+        this.levelCapacity = levelCapacity + (levelCapacity & 1);
+    }
+
+    public int getLevelCapacity() {
+        return levelCapacity;
+    }
+
+    /**
+     * Returns the number of values that were added to this sketch.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of values that this sketch retains.
+     */
+    public int getNumRetained() {
+        int retained = 0;
+        for (int size : sizes) {
+            retained += size;
+        }
+        return retained;
+    }
+
+    /**
+     * Adds a value to the sketch.
+     */
+    public void add(long value) {
+        ensureLevel(0);
+        append(0, value);
+        count++;
+        if (sizes[0] >= levelCapacity) {
+            compact(0);
+        }
+    }
+
+    /**
+     * Adds all of the values summarized by other to this sketch. The
+     * accuracy of the result is that of the sketch with the smaller level
+     * capacity.
+     */
+    public void addAll(QuantileSketch other) {
+        ensureLevel(other.sizes.length - 1);
+        for (int i = 0; i < other.sizes.length; i++) {
+            for (int j = 0; j < other.sizes[i]; j++) {
+                append(i, other.levels[i][j]);
+            }
+        }
+        count += other.count;
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] >= levelCapacity) {
+                compact(i);
+            }
+        }
+    }
+
+    /**
+     * Returns an estimate of the value at position rank (starting at 0) in
+     * the sorted multiset of added values.
+     * 
+     * @throws IllegalArgumentException
+     *             if rank is not smaller than the number of added values
+     */
+    public long getValueAtRank(long rank) {
+        if (rank < 0 || rank >= count) {
+            throw new IllegalArgumentException("Rank " + rank
+                    + " out of range for " + count + " values");
+        }
+        long[][] sorted = sortedValuesAndWeights();
+        long[] values = sorted[0];
+        long[] weights = sorted[1];
+        long cumulative = 0;
+        for (int i = 0; i < values.length; i++) {
+            cumulative += weights[i];
+            if (cumulative > rank) {
+                return values[i];
+            }
+        }
+        return values[values.length - 1];
+    }
+
+    /**
+     * Returns an estimate of the most frequent added value: the retained
+     * value with the largest total weight, or the smallest such value if
+     * there are several.
+     * 
+     * @throws IllegalStateException
+     *             if no values have been added
+     */
+    public long getMostFrequentValue() {
+        if (count == 0) {
+            throw new IllegalStateException("The sketch is empty");
+        }
+        long[][] sorted = sortedValuesAndWeights();
+        long[] values = sorted[0];
+        long[] weights = sorted[1];
+        long mode = values[0];
+        long maxWeight = 0;
+        int i = 0;
+        while (i < values.length) {
+            long weight = 0;
+            int j = i;
+            while (j < values.length && values[j] == values[i]) {
+                weight += weights[j];
+                j++;
+            }
+            if (weight > maxWeight) {
+                maxWeight = weight;
+                mode = values[i];
+            }
+            i = j;
+        }
+        return mode;
+    }
+
+    // //////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sorts level i and promotes every other value to level i + 1. If the
+     * level holds an odd number of values, the largest one stays behind.
+     */
+    private void compact(int i) {
+        long[] level = levels[i];
+        int size = sizes[i];
+        Arrays.sort(level, 0, size);
+        int offset = keepOdd[i] ? 1 : 0;
+        keepOdd[i] = !keepOdd[i];
+        int pairs = size / 2;
+
+        ensureLevel(i + 1);
+        for (int p = 0; p < pairs; p++) {
+            append(i + 1, level[2 * p + offset]);
+        }
+        if (size % 2 == 1) {
+            level[0] = level[size - 1];
+            sizes[i] = 1;
+        } else {
+            sizes[i] = 0;
+        }
+
+        if (sizes[i + 1] >= levelCapacity) {
+            compact(i + 1);
+        }
+    }
+
+    private void append(int i, long value) {
+        if (sizes[i] == levels[i].length) {
+            levels[i] = Arrays.copyOf(levels[i],
+                    Math.max(levelCapacity, 2 * sizes[i]));
+        }
+        levels[i][sizes[i]++] = value;
+    }
+
+    /**
+     * Makes sure that levels 0 to i exist.
+     */
+    private void ensureLevel(int i) {
+        int numLevels = sizes.length;
+        if (i < numLevels) {
+            return;
+        }
+        levels = Arrays.copyOf(levels, i + 1);
+        sizes = Arrays.copyOf(sizes, i + 1);
+        keepOdd = Arrays.copyOf(keepOdd, i + 1);
+        for (int j = numLevels; j <= i; j++) {
+            levels[j] = new long[0];
+        }
+    }
+
+    /**
+     * Returns the retained values in increasing order, and the weight of each
+     * of them, as two arrays.
+     */
+    private long[][] sortedValuesAndWeights() {
+        int retained = getNumRetained();
+        long[] values = new long[retained];
+        long[] weights = new long[retained];
+        int[] heads = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            Arrays.sort(levels[i], 0, sizes[i]);
+        }
+        // Merge the sorted levels; there are only logarithmically many.
+        for (int n = 0; n < retained; n++) {
+            int min = -1;
+            for (int i = 0; i < sizes.length; i++) {
+                if (heads[i] == sizes[i]) {
+                    continue;
+                }
+                if (min < 0 || levels[i][heads[i]] < levels[min][heads[min]]) {
+                    min = i;
+                }
+            }
+            values[n] = levels[min][heads[min]++];
+            weights[n] = 1L << min;
+        }
+        return new long[][] { values, weights };
+    }
+}
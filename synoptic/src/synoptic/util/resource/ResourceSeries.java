@@ -1,75 +1,143 @@
 package synoptic.util.resource;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
+ * <p>
  * Encapsulates a list of resource instances of the same type as identified by
- * the key that extend AbstractResource.
+ * the key that extend AbstractResource. The resources must be of one of the
+ * totally ordered resource types (ITotalResource, LTotalResource,
+ * FTotalResource, or DTotalResource).
+ * </p>
+ * <p>
+ * The series does not keep the resource instances: each resource is stored as
+ * a primitive long value that preserves the order of the resources, and the
+ * count, sum, minimum, and maximum of the series are maintained as resources
+ * are added. Min, max, and mean are therefore exact and take constant time.
+ * </p>
+ * <p>
+ * A series may also be created with a sketch size, in which case the values
+ * are summarized in a {@link QuantileSketch} instead of being stored. The
+ * median and mode of such a series are approximate (but exact while the
+ * series has fewer values than the sketch size), its memory use is
+ * logarithmic in the number of values, and two sketched series are merged in
+ * time that is proportional to the size of the sketch.
+ * </p>
  */
 public class ResourceSeries<ResourceType extends AbstractResource> implements
         Comparable<ResourceSeries<ResourceType>> {
-    private List<ResourceType> resources;
-    boolean isSorted;
+    /** The resource types that a series can hold. */
+    private enum Kind {
+        INT, LONG, FLOAT, DOUBLE
+    }
+
     private final String key;
 
+    /** Type of the resources in the series, null while the series is empty. */
+    private Kind kind = null;
+
+    /** Number of resources in the series. */
+    private int count = 0;
+
+    /** Values of the smallest and largest resources. */
+    private long min;
+    private long max;
+
+    /** Sum of the resources, for INT and LONG series. */
+    private long integralSum = 0;
+
+    /** Sum of the resources, for FLOAT and DOUBLE series. */
+    private double floatingSum = 0;
+
+    /**
+     * Values of all resources in the series (see toValue), or null if the
+     * series is summarized by a sketch. Only the first count are used.
+     */
+    private long[] values;
+    boolean isSorted;
+
+    /** Summary of the values, or null if all values are stored. */
+    private QuantileSketch sketch;
+
     public ResourceSeries() {
-        resources = new ArrayList<ResourceType>();
-        isSorted = true;
-        key = "";
+        this("");
     }
 
     public ResourceSeries(String key) {
-        resources = new ArrayList<ResourceType>();
-        isSorted = true;
+        this(key, 0);
+    }
+
+    /**
+     * Creates an empty series.
+     * 
+     * @param key
+     *            the key of the resources in the series
+     * @param sketchSize
+     *            if positive, the level capacity of the quantile sketch that
+     *            summarizes the series; otherwise, all values are stored
+     */
+    public ResourceSeries(String key, int sketchSize) {
         this.key = key;
+        if (sketchSize > 0) {
+            sketch = new QuantileSketch(sketchSize);
+            values = null;
+        } else {
+            sketch = null;
+            values = new long[4];
+        }
+        isSorted = true;
     }
 
     /**
-     * If the resource list is not sorted, then sorts the list in-place.
+     * Returns whether the series is summarized by a quantile sketch.
+     */
+    public boolean isSketched() {
+        return sketch != null;
+    }
+
+    /**
+     * If the values are not sorted, then sorts them in-place.
      */
     private void sort() {
         if (!isSorted) {
-            Collections.sort(resources);
+            Arrays.sort(values, 0, count);
             isSorted = true;
         }
     }
 
     /**
      * @return mode delta resource for transition, null if transition has zero
-     *         delta resources.
+     *         delta resources. If several resources are most common, returns
+     *         the smallest of them.
      */
     public ResourceType computeMode() {
-
-        if (this.resources.isEmpty()) {
+        if (count == 0) {
             return null;
         }
+        if (sketch != null) {
+            return toResource(sketch.getMostFrequentValue());
+        }
 
-        Map<ResourceType, Integer> counts = new HashMap<ResourceType, Integer>();
-        ResourceType mostCommon = null;
+        sort();
+        long mostCommon = values[0];
         int max = 0;
-        for (ResourceType delta : resources) {
-            Integer count = counts.get(delta);
-
-            if (count == null) {
-                count = 1;
-            } else {
-                count++;
+        int i = 0;
+        while (i < count) {
+            int j = i;
+            while (j < count && values[j] == values[i]) {
+                j++;
             }
-
-            if (count > max) {
-                mostCommon = delta;
-                max = count;
+            if (j - i > max) {
+                mostCommon = values[i];
+                max = j - i;
             }
-
-            counts.put(delta, count);
+            i = j;
         }
-
-        return mostCommon;
+        return toResource(mostCommon);
     }
 
     /**
@@ -78,23 +146,20 @@ public class ResourceSeries<ResourceType extends AbstractResource> implements
      */
     @SuppressWarnings("unchecked")
     public ResourceType computeMedian() {
-        if (this.resources.isEmpty()) {
+        if (count == 0) {
             return null;
         }
 
-        // Sort the list.
-        sort();
-
-        int middle = resources.size() / 2;
-        if (resources.size() % 2 == 1) {
+        int middle = count / 2;
+        if (count % 2 == 1) {
             // Odd length.
-            return resources.get(middle);
+            return toResource(valueAtRank(middle));
         }
         // Event length.
         // TODO: make this a safe cast by having incrBy return a more concrete
         // time than AbstractResource.
-        return (ResourceType) resources.get(middle - 1)
-                .incrBy(resources.get(middle)).divBy(2);
+        return (ResourceType) toResource(valueAtRank(middle - 1)).incrBy(
+                toResource(valueAtRank(middle))).divBy(2);
     }
 
     /**
@@ -103,19 +168,26 @@ public class ResourceSeries<ResourceType extends AbstractResource> implements
      */
     @SuppressWarnings("unchecked")
     public ResourceType computeMean() {
-        if (resources.isEmpty()) {
+        if (count == 0) {
             return null;
         }
 
-        // Create a zero valued starting point.
-        ResourceType initial = (ResourceType) resources.get(0)
-                .getZeroResource();
-
-        for (ResourceType r : resources) {
-            initial = (ResourceType) initial.incrBy(r);
+        AbstractResource sum;
+        switch (kind) {
+        case INT:
+            sum = new ITotalResource((int) integralSum, key);
+            break;
+        case LONG:
+            sum = new LTotalResource(integralSum, key);
+            break;
+        case FLOAT:
+            sum = new FTotalResource((float) floatingSum, key);
+            break;
+        default:
+            sum = new DTotalResource(floatingSum, key);
+            break;
         }
-
-        return (ResourceType) initial.divBy(resources.size());
+        return (ResourceType) sum.divBy(count);
     }
 
     /**
@@ -123,7 +195,7 @@ public class ResourceSeries<ResourceType extends AbstractResource> implements
      *         no resource deltas
      */
     public ResourceType computeMin() {
-        return computeMinMax(false);
+        return count == 0 ? null : toResource(min);
     }
 
     /**
@@ -131,71 +203,15 @@ public class ResourceSeries<ResourceType extends AbstractResource> implements
      *         no resource deltas
      */
     public ResourceType computeMax() {
-        return computeMinMax(true);
+        return count == 0 ? null : toResource(max);
     }
 
     /**
      * @return Median resource delta for transition, or null if transition has
      *         no resource deltas
      */
-    @SuppressWarnings("unchecked")
     public ResourceType computeMed() {
-        // Check for empty or size-one resource series
-        if (resources.isEmpty()) {
-            return null;
-        } else if (resources.size() == 1) {
-            return resources.get(0);
-        }
-
-        // Median position if odd, or lower median position if even
-        int medianPos = (resources.size() - 1) / 2;
-
-        // Resources size is even, so calculate and return median
-        if (resources.size() % 2 == 0) {
-            ResourceType lowMedian = resources.get(medianPos);
-            ResourceType highMedian = resources.get(medianPos + 1);
-            return (ResourceType) lowMedian.incrBy(highMedian).divBy(2);
-        }
-
-        // Resources size is odd, so just return median
-        {
-            return resources.get(medianPos);
-        }
-    }
-
-    /**
-     * @param findMax
-     *            If true, find max. If false, find min.
-     * @return Minimum or maximum resource delta
-     */
-    private ResourceType computeMinMax(boolean findMax) {
-        // Check for empty resource series
-        if (resources.isEmpty()) {
-            return null;
-        }
-
-        // Start the running min/max resource with the first resource delta
-        ResourceType minMaxResource = resources.get(0);
-
-        // Find max resource
-        if (findMax) {
-            for (ResourceType r : resources) {
-                if (minMaxResource.lessThan(r)) {
-                    minMaxResource = r;
-                }
-            }
-        }
-
-        // Find min resource
-        else {
-            for (ResourceType r : resources) {
-                if (r.lessThan(minMaxResource)) {
-                    minMaxResource = r;
-                }
-            }
-        }
-
-        return minMaxResource;
+        return computeMedian();
     }
 
     /**
@@ -209,8 +225,13 @@ public class ResourceSeries<ResourceType extends AbstractResource> implements
         if (!r.key.equals(key)) {
             throw new WrongResourceTypeException(key, r);
         }
-        resources.add(r);
-        isSorted = false;
+        Kind rKind = kindOf(r);
+        if (kind == null) {
+            kind = rKind;
+        } else if (kind != rKind) {
+            throw new NonComparableResourceException(toResource(min), r);
+        }
+        addValue(toValue(r));
     }
 
     /**
@@ -226,36 +247,233 @@ public class ResourceSeries<ResourceType extends AbstractResource> implements
                 throw new WrongResourceTypeException(key, delta);
             }
         }
-        resources.addAll(deltas);
+        for (ResourceType delta : deltas) {
+            addDelta(delta);
+        }
     }
 
+    /**
+     * Adds all of the resources of other to this series. If both series are
+     * sketched, this takes time proportional to the size of the sketches. If
+     * only other is sketched, this series becomes sketched.
+     */
+    public void addAll(ResourceSeries<ResourceType> other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (!other.key.equals(key)) {
+            throw new WrongResourceTypeException(key,
+                    other.toResource(other.min));
+        }
+        if (kind == null) {
+            kind = other.kind;
+            min = other.min;
+            max = other.max;
+        } else if (kind != other.kind) {
+            throw new NonComparableResourceException(toResource(min),
+                    other.toResource(other.min));
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        integralSum += other.integralSum;
+        floatingSum += other.floatingSum;
+
+        if (sketch == null && other.sketch != null) {
+            sketch = new QuantileSketch(other.sketch.getLevelCapacity());
+            for (int i = 0; i < count; i++) {
+                sketch.add(values[i]);
+            }
+            values = null;
+        }
+        if (sketch != null) {
+            if (other.sketch != null) {
+                sketch.addAll(other.sketch);
+            } else {
+                for (int i = 0; i < other.count; i++) {
+                    sketch.add(other.values[i]);
+                }
+            }
+        } else {
+            ensureCapacity(count + other.count);
+            System.arraycopy(other.values, 0, values, count, other.count);
+            isSorted = false;
+        }
+        count += other.count;
+    }
+
+    /**
+     * Returns the resources of the series, in increasing order once the
+     * median or mode has been computed, and otherwise in the order in which
+     * they were added.
+     * 
+     * @throws IllegalStateException
+     *             if the series is sketched
+     */
     public List<ResourceType> getAllDeltas() {
-        return resources;
+        if (sketch != null) {
+            throw new IllegalStateException(
+                    "A sketched series does not keep its resources.");
+        }
+        List<ResourceType> resources = new ArrayList<ResourceType>(count);
+        for (int i = 0; i < count; i++) {
+            resources.add(toResource(values[i]));
+        }
+        return Collections.unmodifiableList(resources);
+    }
+
+    /**
+     * Returns the number of resources in the series.
+     */
+    public int size() {
+        return count;
     }
 
     public String getKey() {
         return key;
     }
 
+    /**
+     * Compares series by size, and then either by their sorted resources or,
+     * if either series is sketched, by their minimum, maximum, and mean.
+     */
     @Override
     public int compareTo(ResourceSeries<ResourceType> o) {
         int cmp;
 
-        sort();
-        o.sort();
-        cmp = ((Integer) resources.size()).compareTo(o.resources.size());
-        if (cmp != 0) {
+        cmp = ((Integer) count).compareTo(o.count);
+        if (cmp != 0 || count == 0) {
             return cmp;
         }
+        if (kind != o.kind) {
+            return toResource(min).compareTo(o.toResource(o.min));
+        }
 
-        int i = 0;
-        for (AbstractResource r : resources) {
-            cmp = r.compareTo(o.resources.get(i));
+        if (sketch != null || o.sketch != null) {
+            cmp = Long.valueOf(min).compareTo(o.min);
+            if (cmp == 0) {
+                cmp = Long.valueOf(max).compareTo(o.max);
+            }
+            if (cmp == 0) {
+                cmp = computeMean().compareTo(o.computeMean());
+            }
+            return cmp;
+        }
+
+        sort();
+        o.sort();
+        for (int i = 0; i < count; i++) {
+            cmp = Long.valueOf(values[i]).compareTo(o.values[i]);
             if (cmp != 0) {
                 return cmp;
             }
-            i += 1;
         }
         return 0;
     }
+
+    // //////////////////////////////////////////////////////////////////////
+
+    private void addValue(long value) {
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (kind == Kind.INT || kind == Kind.LONG) {
+            integralSum += value;
+        } else {
+            floatingSum += toDouble(value);
+        }
+
+        if (sketch != null) {
+            sketch.add(value);
+        } else {
+            ensureCapacity(count + 1);
+            values[count] = value;
+            isSorted = false;
+        }
+        count++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (values.length < capacity) {
+            values = Arrays.copyOf(values,
+                    Math.max(capacity, 2 * values.length));
+        }
+    }
+
+    /**
+     * Returns the value at position rank in the sorted values.
+     */
+    private long valueAtRank(int rank) {
+        if (sketch != null) {
+            return sketch.getValueAtRank(rank);
+        }
+        sort();
+        return values[rank];
+    }
+
+    private static Kind kindOf(AbstractResource r) {
+        Class<?> rClass = r.getClass();
+        if (rClass.equals(ITotalResource.class)) {
+            return Kind.INT;
+        } else if (rClass.equals(LTotalResource.class)) {
+            return Kind.LONG;
+        } else if (rClass.equals(FTotalResource.class)) {
+            return Kind.FLOAT;
+        } else if (rClass.equals(DTotalResource.class)) {
+            return Kind.DOUBLE;
+        }
+        throw new IllegalArgumentException(
+                "Resource series only hold totally ordered resources: "
+                        + rClass.getSimpleName());
+    }
+
+    /**
+     * Returns a long value for r such that values compare like the resources
+     * that they stand for. Floating point resources are stored as their IEEE
+     * 754 bits, with all but the sign bit flipped for negative numbers.
+     */
+    private long toValue(AbstractResource r) {
+        switch (kind) {
+        case INT:
+            return ((ITotalResource) r).value;
+        case LONG:
+            return ((LTotalResource) r).value;
+        case FLOAT:
+            return toSortableBits(((FTotalResource) r).value);
+        default:
+            return toSortableBits(((DTotalResource) r).value);
+        }
+    }
+
+    /**
+     * Returns the resource that value stands for.
+     */
+    @SuppressWarnings("unchecked")
+    private ResourceType toResource(long value) {
+        switch (kind) {
+        case INT:
+            return (ResourceType) new ITotalResource((int) value, key);
+        case LONG:
+            return (ResourceType) new LTotalResource(value, key);
+        case FLOAT:
+            return (ResourceType) new FTotalResource((float) toDouble(value),
+                    key);
+        default:
+            return (ResourceType) new DTotalResource(toDouble(value), key);
+        }
+    }
+
+    private static long toSortableBits(double d) {
+        long bits = Double.doubleToLongBits(d);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static double toDouble(long sortableBits) {
+        return Double.longBitsToDouble(sortableBits
+                ^ ((sortableBits >> 63) & Long.MAX_VALUE));
+    }
 }
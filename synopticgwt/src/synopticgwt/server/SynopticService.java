@@ -17,12 +17,14 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
+import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 
 import synoptic.algorithms.Bisimulation;
@@ -32,8 +34,11 @@ import synoptic.invariants.CExamplePath;
 import synoptic.invariants.ITemporalInvariant;
 import synoptic.invariants.TemporalInvariantSet;
 import synoptic.invariants.concurrency.ConcurrencyInvariant;
+import synoptic.invariants.miners.ChainWalkingTOInvMiner;
+import synoptic.invariants.miners.TransitiveClosureInvMiner;
 import synoptic.main.AbstractMain;
-import synoptic.main.SynopticMain;
+import synoptic.main.InferenceContext;
+import synoptic.main.options.AbstractOptions;
 import synoptic.main.options.SynopticOptions;
 import synoptic.main.parser.ParseException;
 import synoptic.main.parser.TraceParser;
@@ -42,7 +47,6 @@ import synoptic.model.DAGsTraceGraph;
 import synoptic.model.EventNode;
 import synoptic.model.Partition;
 import synoptic.model.PartitionGraph;
-import synoptic.model.export.DotExportFormatter;
 import synoptic.model.export.GraphExporter;
 import synoptic.model.interfaces.INode;
 import synoptic.model.interfaces.ITransition;
@@ -79,6 +83,9 @@ public class SynopticService extends RemoteServiceServlet implements
     // Session attribute name storing path of client's uploaded log file.
     static final String logFileSessionAttribute = "logFilePath";
 
+    // Session attribute name storing the session's inference context.
+    static final String inferenceContextSessionAttribute = "inferenceContext";
+
     static AppConfiguration config = null;
     HttpSession session;
 
@@ -357,6 +364,53 @@ public class SynopticService extends RemoteServiceServlet implements
 
     // //////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Returns the inference context of session, creating it if necessary.
+     * Each session runs its inferences within its own context, so that
+     * concurrent sessions do not share options or random state.
+     */
+    private static synchronized InferenceContext getInferenceContext(
+            HttpSession dstSession) {
+        InferenceContext context = (InferenceContext) dstSession
+                .getAttribute(inferenceContextSessionAttribute);
+        if (context == null) {
+            SynopticOptions synOptions = new SynopticOptions();
+            // Output as much internal Synoptic information as possible.
+            synOptions.logLvlExtraVerbose = true;
+            AbstractOptions options = synOptions.toAbstractOptions();
+            AbstractMain.setUpLogging(options);
+            context = new InferenceContext(options);
+            dstSession.setAttribute(inferenceContextSessionAttribute, context);
+        }
+        return context;
+    }
+
+    /**
+     * Processes each call within the inference context of the caller's
+     * session.
+     */
+    @Override
+    public String processCall(final String payload)
+            throws SerializationException {
+        InferenceContext context = getInferenceContext(getThreadLocalRequest()
+                .getSession());
+        try {
+            return context.call(new Callable<String>() {
+                @Override
+                public String call() throws SerializationException {
+                    return SynopticService.super.processCall(payload);
+                }
+            });
+        } catch (SerializationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Not reached, the call only throws the exceptions above.
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Handle any exceptions that escape processCall().
      */
@@ -379,23 +433,16 @@ public class SynopticService extends RemoteServiceServlet implements
      * 
      * @throws Exception
      */
-    @SuppressWarnings("unused")
     @Override
     public GWTPair<GWTInvariantSet, GWTGraph> parseLog(GWTSynOpts synOpts)
             throws Exception {
 
         retrieveSessionState();
 
-        if (AbstractMain.instance == null) {
-            // Set up some static variables in Main that are necessary to use
-            // the Synoptic library.
-            SynopticOptions options = new SynopticOptions();
-            // Output as much internal Synoptic information as possible.
-            options.logLvlExtraVerbose = true;
-            options.ignoreNonMatchingLines = synOpts.ignoreNonMatchedLines;
-            SynopticMain synopticMain = new SynopticMain(
-                    options.toAbstractOptions(), new DotExportFormatter());
-        }
+        // This call runs within the session's inference context (see
+        // processCall()).
+        AbstractOptions options = InferenceContext.getCurrent().options;
+        options.ignoreNonMatchingLines = synOpts.ignoreNonMatchedLines;
 
         // Instantiate the parser and parse the log lines.
         TraceParser parser = null;
@@ -427,8 +474,9 @@ public class SynopticService extends RemoteServiceServlet implements
         int miningTime = (int) System.currentTimeMillis();
         if (parser.logTimeTypeIsTotallyOrdered()) {
             traceGraph = parser.generateDirectTORelation(parsedEvents);
-            minedInvs = SynopticMain.getInstance().mineTOInvariants(false,
-                    traceGraph);
+            minedInvs = new ChainWalkingTOInvMiner().computeInvariants(
+                    traceGraph, options.multipleRelations,
+                    options.outputSupportCount);
 
             if (!synOpts.onlyMineInvs) {
                 // In the TO case then we also initialize/store refinement
@@ -442,8 +490,8 @@ public class SynopticService extends RemoteServiceServlet implements
             // PO invariant miner.
             DAGsTraceGraph inputGraph = parser
                     .generateDirectPORelation(parsedEvents);
-            minedInvs = SynopticMain.getInstance().minePOInvariants(true,
-                    inputGraph);
+            minedInvs = new TransitiveClosureInvMiner()
+                    .computeInvariants(inputGraph);
             graph = null;
         }
         miningTime = (((int) System.currentTimeMillis() - miningTime) / 1000) % 60;
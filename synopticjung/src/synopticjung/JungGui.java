@@ -312,7 +312,7 @@ public class JungGui extends JApplet implements Printable {
                                                 + Options
                                                         .getOptDesc(
                                                                 "outputPathPrefix",
-                                                                AbstractOptions.plumeOpts
+                                                                options.plumeOpts
                                                                         .getClass()));
                     }
                 }